@@ -17,10 +17,9 @@
 package android.animation;
 
 import android.os.SystemClock;
-import android.util.ArrayMap;
 import android.view.Choreographer;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This custom, static handler handles the timing pulse that is shared by all active
@@ -36,16 +35,12 @@ import java.util.ArrayList;
  */
 public class AnimationHandler {
     /**
-     * Internal per-thread collections used to avoid set collisions as animations start and end
-     * while being processed.
+     * Internal per-thread collection used to avoid set collisions as animations start and end
+     * while being processed. Also tracks the start delay and pending commit callback of each
+     * registered callback.
      * @hide
      */
-    private final ArrayMap<AnimationFrameCallback, Long> mDelayedCallbackStartTime =
-            new ArrayMap<>();
-    private final ArrayList<AnimationFrameCallback> mAnimationCallbacks =
-            new ArrayList<>();
-    private final ArrayList<AnimationFrameCallback> mCommitCallbacks =
-            new ArrayList<>();
+    private final CallbackList mAnimationCallbacks = new CallbackList();
     private AnimationFrameCallbackProvider mProvider;
 
     private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
@@ -59,7 +54,6 @@ public class AnimationHandler {
     };
 
     public final static ThreadLocal<AnimationHandler> sAnimatorHandler = new ThreadLocal<>();
-    private boolean mListDirty = false;
 
     public static AnimationHandler getInstance() {
         if (sAnimatorHandler.get() == null) {
@@ -94,12 +88,10 @@ public class AnimationHandler {
         if (mAnimationCallbacks.size() == 0) {
             getProvider().postFrameCallback(mFrameCallback);
         }
-        if (!mAnimationCallbacks.contains(callback)) {
-            mAnimationCallbacks.add(callback);
-        }
+        final int slot = mAnimationCallbacks.add(callback);
 
         if (delay > 0) {
-            mDelayedCallbackStartTime.put(callback, (SystemClock.uptimeMillis() + delay));
+            mAnimationCallbacks.setStartTime(slot, SystemClock.uptimeMillis() + delay);
         }
     }
 
@@ -111,12 +103,13 @@ public class AnimationHandler {
      * that animation is first shown on screen.
      *
      * Note this should only be called when the animation has already registered to receive
-     * animation frame callbacks. This callback will be guaranteed to happen *after* the next
-     * animation frame callback.
+     * animation frame callbacks, it is ignored otherwise. This callback will be guaranteed to
+     * happen *after* the next animation frame callback.
      */
     public void addOneShotCommitCallback(final AnimationFrameCallback callback) {
-        if (!mCommitCallbacks.contains(callback)) {
-            mCommitCallbacks.add(callback);
+        final int slot = mAnimationCallbacks.indexOf(callback);
+        if (slot >= 0) {
+            mAnimationCallbacks.setCommitPending(slot, true);
         }
     }
 
@@ -125,13 +118,7 @@ public class AnimationHandler {
      * timing.
      */
     public void removeCallback(AnimationFrameCallback callback) {
-        mCommitCallbacks.remove(callback);
-        mDelayedCallbackStartTime.remove(callback);
-        int id = mAnimationCallbacks.indexOf(callback);
-        if (id >= 0) {
-            mAnimationCallbacks.set(id, null);
-            mListDirty = true;
-        }
+        mAnimationCallbacks.remove(callback);
     }
 
     private void doAnimationFrame(long frameTime) {
@@ -142,9 +129,11 @@ public class AnimationHandler {
             if (callback == null) {
                 continue;
             }
-            if (isCallbackDue(callback, currentTime)) {
+            if (isCallbackDue(i, currentTime)) {
                 callback.doAnimationFrame(frameTime);
-                if (mCommitCallbacks.contains(callback)) {
+                // The callback may have been removed and added back while running.
+                final int slot = mAnimationCallbacks.indexOf(callback);
+                if (slot >= 0 && mAnimationCallbacks.isCommitPending(slot)) {
                     getProvider().postCommitCallback(new Runnable() {
                         @Override
                         public void run() {
@@ -158,26 +147,31 @@ public class AnimationHandler {
     }
 
     private void commitAnimationFrame(AnimationFrameCallback callback, long frameTime) {
-        if (!mDelayedCallbackStartTime.containsKey(callback) &&
-                mCommitCallbacks.contains(callback)) {
+        final int slot = mAnimationCallbacks.indexOf(callback);
+        if (slot >= 0 && mAnimationCallbacks.getStartTime(slot) == 0 &&
+                mAnimationCallbacks.isCommitPending(slot)) {
             callback.commitAnimationFrame(frameTime);
-            mCommitCallbacks.remove(callback);
+            // Look the slot up again, the callback may have changed the list.
+            final int newSlot = mAnimationCallbacks.indexOf(callback);
+            if (newSlot >= 0) {
+                mAnimationCallbacks.setCommitPending(newSlot, false);
+            }
         }
     }
 
     /**
-     * Remove the callbacks from mDelayedCallbackStartTime once they have passed the initial delay
-     * so that they can start getting frame callbacks.
+     * Clear the start time of the callback in the given slot once it has passed the initial
+     * delay so that it can start getting frame callbacks.
      *
-     * @return true if they have passed the initial delay or have no delay, false otherwise.
+     * @return true if it has passed the initial delay or has no delay, false otherwise.
      */
-    private boolean isCallbackDue(AnimationFrameCallback callback, long currentTime) {
-        Long startTime = mDelayedCallbackStartTime.get(callback);
-        if (startTime == null) {
+    private boolean isCallbackDue(int slot, long currentTime) {
+        final long startTime = mAnimationCallbacks.getStartTime(slot);
+        if (startTime == 0) {
             return true;
         }
         if (startTime < currentTime) {
-            mDelayedCallbackStartTime.remove(callback);
+            mAnimationCallbacks.setStartTime(slot, 0);
             return true;
         }
         return false;
@@ -215,25 +209,197 @@ public class AnimationHandler {
     }
 
     private void cleanUpList() {
-        if (mListDirty) {
-            for (int i = mAnimationCallbacks.size() - 1; i >= 0; i--) {
-                if (mAnimationCallbacks.get(i) == null) {
-                    mAnimationCallbacks.remove(i);
+        mAnimationCallbacks.compact();
+    }
+
+    private int getCallbackSize() {
+        return mAnimationCallbacks.count();
+    }
+
+    /**
+     * Registered callbacks in registration order, plus an identity index from callback to its
+     * slot so that lookups, adds and removes are O(1). Removed callbacks leave a null slot
+     * behind so that the list can be removed from while it is being iterated; the slots are
+     * reclaimed by {@link #compact()} once per frame. The start time of a delayed callback and
+     * whether it has a pending commit callback are kept alongside its slot.
+     */
+    private static final class CallbackList {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private AnimationFrameCallback[] mCallbacks = new AnimationFrameCallback[INITIAL_CAPACITY];
+        // Start time in the uptimeMillis() time base, 0 when not delayed.
+        private long[] mStartTimes = new long[INITIAL_CAPACITY];
+        private boolean[] mCommitPending = new boolean[INITIAL_CAPACITY];
+        // Number of slots in use, including removed ones.
+        private int mSize;
+        // Number of live callbacks.
+        private int mCount;
+        private boolean mDirty;
+
+        // Open addressing hash table with linear probing, from callback to slot.
+        private AnimationFrameCallback[] mKeys = new AnimationFrameCallback[INITIAL_CAPACITY * 2];
+        private int[] mSlots = new int[INITIAL_CAPACITY * 2];
+
+        int size() {
+            return mSize;
+        }
+
+        int count() {
+            return mCount;
+        }
+
+        AnimationFrameCallback get(int slot) {
+            return mCallbacks[slot];
+        }
+
+        long getStartTime(int slot) {
+            return mStartTimes[slot];
+        }
+
+        void setStartTime(int slot, long startTime) {
+            mStartTimes[slot] = startTime;
+        }
+
+        boolean isCommitPending(int slot) {
+            return mCommitPending[slot];
+        }
+
+        void setCommitPending(int slot, boolean pending) {
+            mCommitPending[slot] = pending;
+        }
+
+        int indexOf(AnimationFrameCallback callback) {
+            final int key = findKey(callback);
+            return key >= 0 ? mSlots[key] : -1;
+        }
+
+        /**
+         * Appends the callback unless it is already registered.
+         *
+         * @return the slot of the callback.
+         */
+        int add(AnimationFrameCallback callback) {
+            final int existing = indexOf(callback);
+            if (existing >= 0) {
+                return existing;
+            }
+            if (mSize == mCallbacks.length) {
+                final int capacity = mSize * 2;
+                mCallbacks = Arrays.copyOf(mCallbacks, capacity);
+                mStartTimes = Arrays.copyOf(mStartTimes, capacity);
+                mCommitPending = Arrays.copyOf(mCommitPending, capacity);
+            }
+            if ((mCount + 1) * 2 > mKeys.length) {
+                rehash(mKeys.length * 2);
+            }
+            final int slot = mSize++;
+            mCallbacks[slot] = callback;
+            mStartTimes[slot] = 0;
+            mCommitPending[slot] = false;
+            putKey(callback, slot);
+            mCount++;
+            return slot;
+        }
+
+        void remove(AnimationFrameCallback callback) {
+            final int key = findKey(callback);
+            if (key < 0) {
+                return;
+            }
+            final int slot = mSlots[key];
+            removeKey(key);
+            mCallbacks[slot] = null;
+            mStartTimes[slot] = 0;
+            mCommitPending[slot] = false;
+            mCount--;
+            mDirty = true;
+        }
+
+        /**
+         * Reclaims the slots of removed callbacks, keeping the order of the others. Must not be
+         * called while the list is being iterated.
+         */
+        void compact() {
+            if (!mDirty) {
+                return;
+            }
+            int to = 0;
+            for (int from = 0; from < mSize; from++) {
+                final AnimationFrameCallback callback = mCallbacks[from];
+                if (callback == null) {
+                    continue;
                 }
+                if (to != from) {
+                    mCallbacks[to] = callback;
+                    mStartTimes[to] = mStartTimes[from];
+                    mCommitPending[to] = mCommitPending[from];
+                    mSlots[findKey(callback)] = to;
+                }
+                to++;
+            }
+            for (int i = to; i < mSize; i++) {
+                mCallbacks[i] = null;
+                mStartTimes[i] = 0;
+                mCommitPending[i] = false;
             }
-            mListDirty = false;
+            mSize = to;
+            mDirty = false;
         }
-    }
 
-    private int getCallbackSize() {
-        int count = 0;
-        int size = mAnimationCallbacks.size();
-        for (int i = size - 1; i >= 0; i--) {
-            if (mAnimationCallbacks.get(i) != null) {
-                count++;
+        private static int hash(AnimationFrameCallback callback) {
+            final int h = System.identityHashCode(callback);
+            return h ^ (h >>> 16);
+        }
+
+        private int findKey(AnimationFrameCallback callback) {
+            final int mask = mKeys.length - 1;
+            for (int i = hash(callback) & mask; ; i = (i + 1) & mask) {
+                final AnimationFrameCallback key = mKeys[i];
+                if (key == callback) {
+                    return i;
+                }
+                if (key == null) {
+                    return -1;
+                }
+            }
+        }
+
+        private void putKey(AnimationFrameCallback callback, int slot) {
+            final int mask = mKeys.length - 1;
+            int i = hash(callback) & mask;
+            while (mKeys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            mKeys[i] = callback;
+            mSlots[i] = slot;
+        }
+
+        private void removeKey(int hole) {
+            final int mask = mKeys.length - 1;
+            mKeys[hole] = null;
+            // Shift back entries that probed past the hole so lookups still find them.
+            for (int i = (hole + 1) & mask; mKeys[i] != null; i = (i + 1) & mask) {
+                final int ideal = hash(mKeys[i]) & mask;
+                if (((i - ideal) & mask) >= ((i - hole) & mask)) {
+                    mKeys[hole] = mKeys[i];
+                    mSlots[hole] = mSlots[i];
+                    mKeys[i] = null;
+                    hole = i;
+                }
+            }
+        }
+
+        private void rehash(int capacity) {
+            final AnimationFrameCallback[] oldKeys = mKeys;
+            final int[] oldSlots = mSlots;
+            mKeys = new AnimationFrameCallback[capacity];
+            mSlots = new int[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    putKey(oldKeys[i], oldSlots[i]);
+                }
             }
         }
-        return count;
     }
 
     /**
@@ -23,11 +23,13 @@ import android.util.IntProperty;
 import android.util.Log;
 import android.util.PathParser;
 import android.util.Property;
+import android.view.View;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class holds information about a property and the values that that property
@@ -99,10 +101,12 @@ public class PropertyValuesHolder implements Cloneable {
     // These maps hold all property entries for a particular class. This map
     // is used to speed up property/setter/getter lookups for a given class/property
     // combination. No need to use reflection on the combination more than once.
-    private static final HashMap<Class, HashMap<String, Method>> sSetterPropertyMap =
-            new HashMap<Class, HashMap<String, Method>>();
-    private static final HashMap<Class, HashMap<String, Method>> sGetterPropertyMap =
-            new HashMap<Class, HashMap<String, Method>>();
+    // Reads do not lock; NO_METHOD marks properties that have no such method.
+    private static final ConcurrentHashMap<Class, ConcurrentHashMap<String, Object>>
+            sSetterPropertyMap = new ConcurrentHashMap<Class, ConcurrentHashMap<String, Object>>();
+    private static final ConcurrentHashMap<Class, ConcurrentHashMap<String, Object>>
+            sGetterPropertyMap = new ConcurrentHashMap<Class, ConcurrentHashMap<String, Object>>();
+    private static final Object NO_METHOD = new Object();
 
     // Used to pass single value to varargs parameter in setter invocation
     final Object[] mTmpValueArray = new Object[1];
@@ -753,31 +757,27 @@ public class PropertyValuesHolder implements Cloneable {
      * @return Method the method associated with mPropertyName.
      */
     private Method setupSetterOrGetter(Class targetClass,
-            HashMap<Class, HashMap<String, Method>> propertyMapMap,
+            ConcurrentHashMap<Class, ConcurrentHashMap<String, Object>> propertyMapMap,
             String prefix, Class valueType) {
-        Method setterOrGetter = null;
-        synchronized(propertyMapMap) {
-            // Have to lock property map prior to reading it, to guard against
-            // another thread putting something in there after we've checked it
-            // but before we've added an entry to it
-            HashMap<String, Method> propertyMap = propertyMapMap.get(targetClass);
-            boolean wasInMap = false;
-            if (propertyMap != null) {
-                wasInMap = propertyMap.containsKey(mPropertyName);
-                if (wasInMap) {
-                    setterOrGetter = propertyMap.get(mPropertyName);
-                }
+        ConcurrentHashMap<String, Object> propertyMap = propertyMapMap.get(targetClass);
+        if (propertyMap == null) {
+            propertyMap = new ConcurrentHashMap<String, Object>();
+            final ConcurrentHashMap<String, Object> existing =
+                    propertyMapMap.putIfAbsent(targetClass, propertyMap);
+            if (existing != null) {
+                propertyMap = existing;
             }
-            if (!wasInMap) {
-                setterOrGetter = getPropertyFunction(targetClass, prefix, valueType);
-                if (propertyMap == null) {
-                    propertyMap = new HashMap<String, Method>();
-                    propertyMapMap.put(targetClass, propertyMap);
-                }
-                propertyMap.put(mPropertyName, setterOrGetter);
+        }
+        Object setterOrGetter = propertyMap.get(mPropertyName);
+        if (setterOrGetter == null) {
+            // Two threads may both look the method up; they find the same one.
+            setterOrGetter = getPropertyFunction(targetClass, prefix, valueType);
+            if (setterOrGetter == null) {
+                setterOrGetter = NO_METHOD;
             }
+            propertyMap.put(mPropertyName, setterOrGetter);
         }
-        return setterOrGetter;
+        return setterOrGetter != NO_METHOD ? (Method) setterOrGetter : null;
     }
 
     /**
@@ -1149,10 +1149,7 @@ public class PropertyValuesHolder implements Cloneable {
 
     static class IntPropertyValuesHolder extends PropertyValuesHolder {
 
-        // Cache JNI functions to avoid looking them up twice
-        private static final HashMap<Class, HashMap<String, Long>> sJNISetterPropertyMap =
-                new HashMap<Class, HashMap<String, Long>>();
-        long mJniSetter;
+        IntSetter mIntSetter;
         private IntProperty mIntProperty;
 
         Keyframes.IntKeyframes mIntKeyframes;
@@ -1237,8 +1234,8 @@ public class PropertyValuesHolder implements Cloneable {
                 mProperty.set(target, mIntAnimatedValue);
                 return;
             }
-            if (mJniSetter != 0) {
-                nCallIntMethod(target, mJniSetter, mIntAnimatedValue);
+            if (mIntSetter != null) {
+                mIntSetter.setValue(target, mIntAnimatedValue);
                 return;
             }
             if (mSetter != null) {
@@ -1258,37 +1255,9 @@ public class PropertyValuesHolder implements Cloneable {
             if (mProperty != null) {
                 return;
             }
-            // Check new static hashmap<propName, int> for setter method
-            synchronized(sJNISetterPropertyMap) {
-                HashMap<String, Long> propertyMap = sJNISetterPropertyMap.get(targetClass);
-                boolean wasInMap = false;
-                if (propertyMap != null) {
-                    wasInMap = propertyMap.containsKey(mPropertyName);
-                    if (wasInMap) {
-                        Long jniSetter = propertyMap.get(mPropertyName);
-                        if (jniSetter != null) {
-                            mJniSetter = jniSetter;
-                        }
-                    }
-                }
-                if (!wasInMap) {
-                    String methodName = getMethodName("set", mPropertyName);
-                    try {
-                        mJniSetter = nGetIntMethod(targetClass, methodName);
-                    } catch (NoSuchMethodError e) {
-                        // Couldn't find it via JNI - try reflection next. Probably means the method
-                        // doesn't exist, or the type is wrong. An error will be logged later if
-                        // reflection fails as well.
-                    }
-                    if (propertyMap == null) {
-                        propertyMap = new HashMap<String, Long>();
-                        sJNISetterPropertyMap.put(targetClass, propertyMap);
-                    }
-                    propertyMap.put(mPropertyName, mJniSetter);
-                }
-            }
-            if (mJniSetter == 0) {
-                // Couldn't find method through fast JNI approach - just use reflection
+            mIntSetter = IntSetter.get(targetClass, mPropertyName);
+            if (mIntSetter == null) {
+                // Couldn't bind an unboxed setter - just use reflection
                 super.setupSetter(targetClass);
             }
         }
@@ -1296,10 +1265,7 @@ public class PropertyValuesHolder implements Cloneable {
 
     static class FloatPropertyValuesHolder extends PropertyValuesHolder {
 
-        // Cache JNI functions to avoid looking them up twice
-        private static final HashMap<Class, HashMap<String, Long>> sJNISetterPropertyMap =
-                new HashMap<Class, HashMap<String, Long>>();
-        long mJniSetter;
+        FloatSetter mFloatSetter;
         private FloatProperty mFloatProperty;
 
         Keyframes.FloatKeyframes mFloatKeyframes;
@@ -1384,8 +1350,8 @@ public class PropertyValuesHolder implements Cloneable {
                 mProperty.set(target, mFloatAnimatedValue);
                 return;
             }
-            if (mJniSetter != 0) {
-                nCallFloatMethod(target, mJniSetter, mFloatAnimatedValue);
+            if (mFloatSetter != null) {
+                mFloatSetter.setValue(target, mFloatAnimatedValue);
                 return;
             }
             if (mSetter != null) {
@@ -1405,37 +1371,9 @@ public class PropertyValuesHolder implements Cloneable {
             if (mProperty != null) {
                 return;
             }
-            // Check new static hashmap<propName, int> for setter method
-            synchronized (sJNISetterPropertyMap) {
-                HashMap<String, Long> propertyMap = sJNISetterPropertyMap.get(targetClass);
-                boolean wasInMap = false;
-                if (propertyMap != null) {
-                    wasInMap = propertyMap.containsKey(mPropertyName);
-                    if (wasInMap) {
-                        Long jniSetter = propertyMap.get(mPropertyName);
-                        if (jniSetter != null) {
-                            mJniSetter = jniSetter;
-                        }
-                    }
-                }
-                if (!wasInMap) {
-                    String methodName = getMethodName("set", mPropertyName);
-                    try {
-                        mJniSetter = nGetFloatMethod(targetClass, methodName);
-                    } catch (NoSuchMethodError e) {
-                        // Couldn't find it via JNI - try reflection next. Probably means the method
-                        // doesn't exist, or the type is wrong. An error will be logged later if
-                        // reflection fails as well.
-                    }
-                    if (propertyMap == null) {
-                        propertyMap = new HashMap<String, Long>();
-                        sJNISetterPropertyMap.put(targetClass, propertyMap);
-                    }
-                    propertyMap.put(mPropertyName, mJniSetter);
-                }
-            }
-            if (mJniSetter == 0) {
-                // Couldn't find method through fast JNI approach - just use reflection
+            mFloatSetter = FloatSetter.get(targetClass, mPropertyName);
+            if (mFloatSetter == null) {
+                // Couldn't bind an unboxed setter - just use reflection
                 super.setupSetter(targetClass);
             }
         }
@@ -1710,6 +1648,157 @@ public class PropertyValuesHolder implements Cloneable {
         }
     }
 
+    /**
+     * Setter bound once per target class and property name that takes an unboxed float.
+     * Known {@link FloatProperty} objects, such as {@link View#ALPHA}, are called directly;
+     * other setters are called through a cached JNI method ID. Bound setters are cached
+     * per class without locking.
+     */
+    static abstract class FloatSetter {
+        private static final ConcurrentHashMap<Class, ConcurrentHashMap<String, FloatSetter>>
+                sSetters = new ConcurrentHashMap<Class, ConcurrentHashMap<String, FloatSetter>>();
+        private static final FloatSetter NONE = new JniFloatSetter(0);
+
+        // Properties that are bound directly for targets of the given classes. The property
+        // calls the setter virtually, so subclass overrides are still honored.
+        private static final Class[] KNOWN_PROPERTY_CLASSES = { View.class };
+        private static final Property[][] KNOWN_PROPERTIES = { {
+                View.ALPHA, View.TRANSLATION_X, View.TRANSLATION_Y, View.TRANSLATION_Z,
+                View.X, View.Y, View.Z, View.ROTATION, View.ROTATION_X, View.ROTATION_Y,
+                View.SCALE_X, View.SCALE_Y
+        } };
+
+        abstract void setValue(Object target, float value);
+
+        /**
+         * Returns the setter for the given property of the target class, or null if it
+         * has no setter taking a float.
+         */
+        static FloatSetter get(Class targetClass, String propertyName) {
+            ConcurrentHashMap<String, FloatSetter> setters = sSetters.get(targetClass);
+            if (setters == null) {
+                setters = new ConcurrentHashMap<String, FloatSetter>();
+                final ConcurrentHashMap<String, FloatSetter> existing =
+                        sSetters.putIfAbsent(targetClass, setters);
+                if (existing != null) {
+                    setters = existing;
+                }
+            }
+            FloatSetter setter = setters.get(propertyName);
+            if (setter == null) {
+                setter = bind(targetClass, propertyName);
+                setters.put(propertyName, setter);
+            }
+            return setter != NONE ? setter : null;
+        }
+
+        private static FloatSetter bind(Class targetClass, String propertyName) {
+            for (int i = 0; i < KNOWN_PROPERTY_CLASSES.length; i++) {
+                if (!KNOWN_PROPERTY_CLASSES[i].isAssignableFrom(targetClass)) {
+                    continue;
+                }
+                for (Property property : KNOWN_PROPERTIES[i]) {
+                    if (property instanceof FloatProperty
+                            && property.getName().equals(propertyName)) {
+                        return new PropertyFloatSetter((FloatProperty) property);
+                    }
+                }
+            }
+            try {
+                // A method ID of 0 means the lookup failed too, and is recorded as NONE
+                // so that the reflection fallback is used.
+                final long methodId =
+                        nGetFloatMethod(targetClass, getMethodName("set", propertyName));
+                return methodId != 0 ? new JniFloatSetter(methodId) : NONE;
+            } catch (NoSuchMethodError e) {
+                // Couldn't find it via JNI - try reflection next. Probably means the method
+                // doesn't exist, or the type is wrong. An error will be logged later if
+                // reflection fails as well.
+                return NONE;
+            }
+        }
+    }
+
+    private static final class PropertyFloatSetter extends FloatSetter {
+        private final FloatProperty mProperty;
+
+        PropertyFloatSetter(FloatProperty property) {
+            mProperty = property;
+        }
+
+        @Override
+        void setValue(Object target, float value) {
+            mProperty.setValue(target, value);
+        }
+    }
+
+    private static final class JniFloatSetter extends FloatSetter {
+        private final long mMethodId;
+
+        JniFloatSetter(long methodId) {
+            mMethodId = methodId;
+        }
+
+        @Override
+        void setValue(Object target, float value) {
+            nCallFloatMethod(target, mMethodId, value);
+        }
+    }
+
+    /**
+     * Setter bound once per target class and property name that takes an unboxed int,
+     * called through a cached JNI method ID. Bound setters are cached per class without
+     * locking.
+     */
+    static final class IntSetter {
+        private static final ConcurrentHashMap<Class, ConcurrentHashMap<String, IntSetter>>
+                sSetters = new ConcurrentHashMap<Class, ConcurrentHashMap<String, IntSetter>>();
+        private static final IntSetter NONE = new IntSetter(0);
+
+        private final long mMethodId;
+
+        private IntSetter(long methodId) {
+            mMethodId = methodId;
+        }
+
+        void setValue(Object target, int value) {
+            nCallIntMethod(target, mMethodId, value);
+        }
+
+        /**
+         * Returns the setter for the given property of the target class, or null if it
+         * has no setter taking an int.
+         */
+        static IntSetter get(Class targetClass, String propertyName) {
+            ConcurrentHashMap<String, IntSetter> setters = sSetters.get(targetClass);
+            if (setters == null) {
+                setters = new ConcurrentHashMap<String, IntSetter>();
+                final ConcurrentHashMap<String, IntSetter> existing =
+                        sSetters.putIfAbsent(targetClass, setters);
+                if (existing != null) {
+                    setters = existing;
+                }
+            }
+            IntSetter setter = setters.get(propertyName);
+            if (setter == null) {
+                try {
+                    // A method ID of 0 means the lookup failed too, and is recorded as
+                    // NONE so that the reflection fallback is used.
+                    final long methodId =
+                            nGetIntMethod(targetClass, getMethodName("set", propertyName));
+                    setter = methodId != 0 ? new IntSetter(methodId) : NONE;
+                } catch (NoSuchMethodError e) {
+                    // Couldn't find it via JNI - try reflection next. Probably means the method
+                    // doesn't exist, or the type is wrong. An error will be logged later if
+                    // reflection fails as well.
+                    setter = NONE;
+                }
+                setters.put(propertyName, setter);
+            }
+            return setter != NONE ? setter : null;
+        }
+    }
+
     native static private long nGetIntMethod(Class targetClass, String methodName);
     native static private long nGetFloatMethod(Class targetClass, String methodName);
     native static private long nGetMultipleIntMethod(Class targetClass, String methodName,
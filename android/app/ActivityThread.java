@@ -950,6 +950,41 @@ public final class ActivityThread {
                     sticky, sendingUser);
         }
 
+        // Batched form of scheduleRegisteredReceiver() for a non-ordered broadcast that
+        // has several registered receivers in this process.
+        public void scheduleRegisteredReceivers(IIntentReceiver[] receivers, Intent intent,
+                int resultCode, String dataStr, Bundle extras, boolean sticky,
+                int sendingUser, int processState) throws RemoteException {
+            updateProcessState(processState, false);
+            // Each receiver gets its own unparcelled intent and extras, nested values
+            // included, as with separate deliveries.  They are all read from one
+            // parcel written before any receiver runs; the last one gets the originals.
+            final int last = receivers.length - 1;
+            Parcel copies = null;
+            if (last > 0) {
+                copies = Parcel.obtain();
+                intent.writeToParcel(copies, 0);
+                copies.writeBundle(extras);
+            }
+            try {
+                for (int i = 0; i <= last; i++) {
+                    Intent receiverIntent = intent;
+                    Bundle receiverExtras = extras;
+                    if (i != last) {
+                        copies.setDataPosition(0);
+                        receiverIntent = Intent.CREATOR.createFromParcel(copies);
+                        receiverExtras = copies.readBundle();
+                    }
+                    receivers[i].performReceive(receiverIntent, resultCode, dataStr,
+                            receiverExtras, false, sticky, sendingUser);
+                }
+            } finally {
+                if (copies != null) {
+                    copies.recycle();
+                }
+            }
+        }
+
         @Override
         public void scheduleLowMemory() {
             sendMessage(H.LOW_MEMORY, null);
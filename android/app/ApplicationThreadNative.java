@@ -406,6 +406,25 @@ public abstract class ApplicationThreadNative extends Binder
             return true;
         }
 
+        case SCHEDULE_REGISTERED_RECEIVERS_TRANSACTION: {
+            data.enforceInterface(IApplicationThread.descriptor);
+            final int count = data.readInt();
+            IIntentReceiver[] receivers = new IIntentReceiver[count];
+            for (int i = 0; i < count; i++) {
+                receivers[i] = IIntentReceiver.Stub.asInterface(data.readStrongBinder());
+            }
+            Intent intent = Intent.CREATOR.createFromParcel(data);
+            int resultCode = data.readInt();
+            String dataStr = data.readString();
+            Bundle extras = data.readBundle();
+            boolean sticky = data.readInt() != 0;
+            int sendingUser = data.readInt();
+            int processState = data.readInt();
+            scheduleRegisteredReceivers(receivers, intent, resultCode, dataStr, extras,
+                    sticky, sendingUser, processState);
+            return true;
+        }
+
         case SCHEDULE_LOW_MEMORY_TRANSACTION:
         {
             data.enforceInterface(IApplicationThread.descriptor);
@@ -1203,6 +1222,27 @@ class ApplicationThreadProxy implements IApplicationThread {
         data.recycle();
     }
 
+    public void scheduleRegisteredReceivers(IIntentReceiver[] receivers, Intent intent,
+            int resultCode, String dataStr, Bundle extras, boolean sticky, int sendingUser,
+            int processState) throws RemoteException {
+        Parcel data = Parcel.obtain();
+        data.writeInterfaceToken(IApplicationThread.descriptor);
+        data.writeInt(receivers.length);
+        for (IIntentReceiver receiver : receivers) {
+            data.writeStrongBinder(receiver.asBinder());
+        }
+        intent.writeToParcel(data, 0);
+        data.writeInt(resultCode);
+        data.writeString(dataStr);
+        data.writeBundle(extras);
+        data.writeInt(sticky ? 1 : 0);
+        data.writeInt(sendingUser);
+        data.writeInt(processState);
+        mRemote.transact(SCHEDULE_REGISTERED_RECEIVERS_TRANSACTION, data, null,
+                IBinder.FLAG_ONEWAY);
+        data.recycle();
+    }
+
     @Override
     public final void scheduleLowMemory() throws RemoteException {
         Parcel data = Parcel.obtain();
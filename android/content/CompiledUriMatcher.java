@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable, compiled form of a {@link UriMatcher} that returns the same codes
+ * without allocating.
+ * <p>
+ * {@link UriMatcher#match} splits the path into a list of decoded segments and
+ * compares each one with every child of the current node.  This walks the
+ * encoded path in place instead, and looks up literal segments in a hash
+ * table at each level.  A segment is only decoded, into a new string, if it
+ * contains an escape.  Children still take precedence in the order they were
+ * added, so a "#" or "*" added before a literal wins over it as it does in
+ * {@link UriMatcher}.
+ * <p>
+ * Since it is never modified, one instance can be shared by any number of
+ * threads.
+ *
+ * @hide
+ */
+public final class CompiledUriMatcher {
+    private static final class Node {
+        final int code;
+
+        // Open-addressed table of the literal children, with their positions
+        // among all the children.
+        final String[] keys;
+        final Node[] values;
+        final int[] orders;
+        final int mask;
+
+        // "#" and "*" children, in the order they were added.
+        final Node[] wildcards;
+        final boolean[] wildcardNumbers;
+        final int[] wildcardOrders;
+
+        Node(UriMatcher matcher) {
+            final ArrayList<String> tokens = new ArrayList<>();
+            final ArrayList<UriMatcher> children = new ArrayList<>();
+            code = matcher.getCodeAndChildren(tokens, children);
+            final int numChildren = children.size();
+
+            // UriMatcher.addURI() makes "#" and "*" wildcards wherever they appear.
+            int numExact = 0;
+            for (int i = 0; i < numChildren; i++) {
+                if (!isWildcard(tokens.get(i))) {
+                    numExact++;
+                }
+            }
+            int capacity = 1;
+            while (capacity < numExact * 2) {
+                capacity <<= 1;
+            }
+            keys = numExact > 0 ? new String[capacity] : null;
+            values = numExact > 0 ? new Node[capacity] : null;
+            orders = numExact > 0 ? new int[capacity] : null;
+            mask = capacity - 1;
+
+            final int numWildcards = numChildren - numExact;
+            wildcards = new Node[numWildcards];
+            wildcardNumbers = new boolean[numWildcards];
+            wildcardOrders = new int[numWildcards];
+
+            int w = 0;
+            for (int i = 0; i < numChildren; i++) {
+                final String token = tokens.get(i);
+                if (!isWildcard(token)) {
+                    int slot = spread(token.hashCode()) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = token;
+                    values[slot] = new Node(children.get(i));
+                    orders[slot] = i;
+                } else {
+                    wildcards[w] = new Node(children.get(i));
+                    wildcardNumbers[w] = token.equals("#");
+                    wildcardOrders[w] = i;
+                    w++;
+                }
+            }
+        }
+
+        /** Returns the child matching {@code s.substring(start, end)}, or null. */
+        Node findChild(String s, int start, int end, int hash) {
+            int exactOrder = Integer.MAX_VALUE;
+            Node exact = null;
+            if (keys != null) {
+                final int length = end - start;
+                int slot = spread(hash) & mask;
+                String key;
+                while ((key = keys[slot]) != null) {
+                    if (key.length() == length && key.regionMatches(0, s, start, length)) {
+                        exact = values[slot];
+                        exactOrder = orders[slot];
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+            }
+            final int numWildcards = wildcards.length;
+            for (int i = 0; i < numWildcards && wildcardOrders[i] < exactOrder; i++) {
+                if (!wildcardNumbers[i] || isNumber(s, start, end)) {
+                    return wildcards[i];
+                }
+            }
+            return exact;
+        }
+    }
+
+    private final int mRootCode;
+    private final Node mRoot;
+
+    /**
+     * Compiles the URIs added to {@code matcher} so far; later additions are
+     * not seen.
+     */
+    public CompiledUriMatcher(UriMatcher matcher) {
+        mRoot = new Node(matcher);
+        mRootCode = mRoot.code;
+    }
+
+    /**
+     * Returns the same code as {@link UriMatcher#match} on the matcher this
+     * was compiled from.
+     */
+    public int match(Uri uri) {
+        final String authority = uri.getAuthority();
+        final String path = uri.getEncodedPath();
+        final int length = path != null ? path.length() : 0;
+
+        // Skip empty segments, as Uri.getPathSegments() does.
+        int start = 0;
+        while (start < length && path.charAt(start) == '/') {
+            start++;
+        }
+        if (authority == null && start == length) {
+            return mRootCode;
+        }
+
+        Node node;
+        if (authority != null) {
+            node = mRoot.findChild(authority, 0, authority.length(), authority.hashCode());
+        } else {
+            // Only "*" matches a missing authority.
+            node = findTextChild(mRoot);
+        }
+
+        while (node != null && start < length) {
+            int end = start;
+            int hash = 0;
+            boolean escaped = false;
+            char c;
+            while (end < length && (c = path.charAt(end)) != '/') {
+                hash = 31 * hash + c;
+                escaped |= c == '%';
+                end++;
+            }
+            if (escaped) {
+                final String segment = Uri.decode(path.substring(start, end));
+                node = node.findChild(segment, 0, segment.length(), segment.hashCode());
+            } else {
+                node = node.findChild(path, start, end, hash);
+            }
+            start = end;
+            while (start < length && path.charAt(start) == '/') {
+                start++;
+            }
+        }
+        return node != null ? node.code : UriMatcher.NO_MATCH;
+    }
+
+    /**
+     * Matches each of {@code uris}, storing the code of {@code uris.get(i)}
+     * in {@code outCodes[i]}.
+     */
+    public void match(List<Uri> uris, int[] outCodes) {
+        final int numUris = uris.size();
+        if (outCodes.length < numUris) {
+            throw new IllegalArgumentException("outCodes has " + outCodes.length
+                    + " slots for " + numUris + " uris");
+        }
+        for (int i = 0; i < numUris; i++) {
+            outCodes[i] = match(uris.get(i));
+        }
+    }
+
+    private static Node findTextChild(Node node) {
+        final int numWildcards = node.wildcards.length;
+        for (int i = 0; i < numWildcards; i++) {
+            if (!node.wildcardNumbers[i]) {
+                return node.wildcards[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean isWildcard(String token) {
+        return token.equals("#") || token.equals("*");
+    }
+
+    private static boolean isNumber(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Matches URIs with a {@link UriMatcher} and with a {@link CompiledUriMatcher}
+ * compiled from it, and checks that both return the same codes.
+ */
+@SmallTest
+public class CompiledUriMatcherTest extends TestCase {
+    private static final String[][] TABLE = {
+        {"com.android.contacts", "contacts"},
+        {"com.android.contacts", "contacts/#"},
+        {"com.android.contacts", "contacts/#/data"},
+        {"com.android.contacts", "contacts/filter"},
+        {"com.android.contacts", "contacts/filter/*"},
+        {"com.android.contacts", "contacts/lookup/*"},
+        {"com.android.contacts", "contacts/lookup/*/#"},
+        {"com.android.contacts", "contacts/lookup/*/#/data"},
+        {"com.android.contacts", "contacts/strequent/"},
+        {"com.android.contacts", "/raw_contacts/#/entity"},
+        {"com.android.contacts", "data/emails/lookup/*"},
+        {"com.android.contacts", "phone_lookup/*"},
+        {"media", "*/images/media"},
+        {"media", "*/images/media/#"},
+        {"media", "*/audio/playlists/#/members/#"},
+        {"media", "*/file/#"},
+        {"com.android.calendar", "instances/when/*/*"},
+        {"com.android.calendar", "events/#"},
+        {"com.android.calendar", "calendars"},
+    };
+
+    private static final String[] URIS = {
+        "content://com.android.contacts/contacts",
+        "content://com.android.contacts/contacts/",
+        "content://com.android.contacts//contacts//1234",
+        "content://com.android.contacts/contacts/1234/data",
+        "content://com.android.contacts/contacts/12a4",
+        "content://com.android.contacts/contacts/filter",
+        "content://com.android.contacts/contacts/filter/ann%20smith",
+        "content://com.android.contacts/contacts/filter/",
+        "content://com.android.contacts/contacts/lookup/0r12-2C3A/1234/data",
+        "content://com.android.contacts/contacts/lookup/0r12-2C3A/x/data",
+        "content://com.android.contacts/contacts/strequent",
+        "content://com.android.contacts/raw_contacts/98/entity",
+        "content://com.android.contacts/data/emails/lookup/someone%40example.com",
+        "content://com.android.contacts/phone_lookup/%2B15555550100",
+        "content://com.android.contacts/%63ontacts/1",
+        "content://com.android.contacts",
+        "content://com.android.contacts/",
+        "content://media/external/images/media",
+        "content://media/external/images/media/4711?limit=1",
+        "content://media/internal/audio/playlists/7/members/2",
+        "content://media/external/file/100#fragment",
+        "content://media/external/video/thumbnails/1",
+        "content://com.android.calendar/instances/when/1500000000000/1510000000000",
+        "content://com.android.calendar/events/42",
+        "content://com.android.calendar/calendars?account_name=a%40b.com",
+        "content://com.android.calendar/unknown/path",
+        "content://com.example.other/anything",
+        "content:///contacts",
+        "contacts/1",
+        "",
+        "/",
+    };
+
+    // Tokens for random tables; "#" and "*" are wildcards, the others literals.  No table
+    // has a "#" authority, on which UriMatcher throws for URIs without an authority.
+    private static final String[] AUTHORITIES = { "a", "b.c", "12", "*" };
+    private static final String[] SEGMENTS = { "a", "b", "ab", "12", "0", "a b", "#", "*" };
+    private static final String[] URI_SEGMENTS = {
+        "a", "b", "ab", "12", "0", "007", "1a", "a%20b", "a b", "%61", "%31%32", "%", "",
+    };
+
+    private Random mRandom;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(0);
+    }
+
+    public void testProviderTableMatchesUriMatcher() throws Exception {
+        final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+        for (int i = 0; i < TABLE.length; i++) {
+            matcher.addURI(TABLE[i][0], TABLE[i][1], i + 1);
+        }
+        final ArrayList<Uri> uris = new ArrayList<>();
+        for (String uri : URIS) {
+            uris.add(Uri.parse(uri));
+        }
+        assertSameCodes(matcher, uris);
+    }
+
+    public void testRandomTablesMatchUriMatcher() throws Exception {
+        for (int t = 0; t < 500; t++) {
+            final UriMatcher matcher = new UriMatcher(mRandom.nextInt(3) - 1);
+            for (int i = mRandom.nextInt(20); i > 0; i--) {
+                final StringBuilder path = new StringBuilder();
+                if (mRandom.nextInt(4) == 0) {
+                    path.append('/');
+                }
+                for (int j = mRandom.nextInt(4); j > 0; j--) {
+                    path.append(SEGMENTS[mRandom.nextInt(SEGMENTS.length)]).append('/');
+                }
+                if (path.length() > 1) {
+                    path.setLength(path.length() - 1);
+                }
+                matcher.addURI(AUTHORITIES[mRandom.nextInt(AUTHORITIES.length)],
+                        path.toString(), mRandom.nextInt(100));
+            }
+            final ArrayList<Uri> uris = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                uris.add(newUri());
+            }
+            assertSameCodes(matcher, uris);
+        }
+    }
+
+    public void testLaterAdditionsNotSeen() throws Exception {
+        final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+        matcher.addURI("a", "b", 1);
+        final CompiledUriMatcher compiled = new CompiledUriMatcher(matcher);
+        matcher.addURI("a", "c", 2);
+        assertEquals(1, compiled.match(Uri.parse("content://a/b")));
+        assertEquals(UriMatcher.NO_MATCH, compiled.match(Uri.parse("content://a/c")));
+    }
+
+    public void testBatchRejectsShortArray() throws Exception {
+        final CompiledUriMatcher compiled =
+                new CompiledUriMatcher(new UriMatcher(UriMatcher.NO_MATCH));
+        final ArrayList<Uri> uris = new ArrayList<>();
+        uris.add(Uri.parse("content://a/b"));
+        try {
+            compiled.match(uris, new int[0]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private Uri newUri() {
+        final StringBuilder sb = new StringBuilder();
+        final int kind = mRandom.nextInt(8);
+        if (kind == 0) {
+            // No authority.
+            sb.append("content:/");
+        } else if (kind == 1) {
+            // Relative, with neither scheme nor authority.
+        } else {
+            sb.append("content://").append(AUTHORITIES[mRandom.nextInt(AUTHORITIES.length)]);
+        }
+        for (int i = mRandom.nextInt(5); i > 0; i--) {
+            if (kind != 1 || sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(URI_SEGMENTS[mRandom.nextInt(URI_SEGMENTS.length)]);
+        }
+        if (mRandom.nextInt(4) == 0) {
+            sb.append('/');
+        }
+        if (mRandom.nextInt(6) == 0) {
+            sb.append("?q=1");
+        }
+        return Uri.parse(sb.toString());
+    }
+
+    private static void assertSameCodes(UriMatcher matcher, ArrayList<Uri> uris) {
+        final CompiledUriMatcher compiled = new CompiledUriMatcher(matcher);
+        final int[] codes = new int[uris.size() + 1];
+        compiled.match(uris, codes);
+        for (int i = 0; i < uris.size(); i++) {
+            final Uri uri = uris.get(i);
+            final int expected = matcher.match(uri);
+            assertEquals(uri.toString(), expected, compiled.match(uri));
+            assertEquals(uri.toString(), expected, codes[i]);
+        }
+    }
+}
@@ -286,6 +286,51 @@ public abstract class ContentProvider implements ComponentCallbacks2 {
         public ContentProviderResult[] applyBatch(String callingPkg,
                 ArrayList<ContentProviderOperation> operations)
                 throws OperationApplicationException {
+            final int[] userIds = enforceBatchPermissions(callingPkg, operations);
+            final String original = setCallingPackage(callingPkg);
+            try {
+                ContentProviderResult[] results = ContentProvider.this.applyBatch(operations);
+                if (results != null) {
+                    for (int i = 0; i < results.length ; i++) {
+                        if (userIds[i] != UserHandle.USER_CURRENT) {
+                            // Adding the userId to the uri.
+                            results[i] = new ContentProviderResult(results[i], userIds[i]);
+                        }
+                    }
+                }
+                return results;
+            } finally {
+                setCallingPackage(original);
+            }
+        }
+
+        @Override
+        public int applyBatchStream(final String callingPkg, ParcelFileDescriptor source)
+                throws OperationApplicationException {
+            final ContentProviderOperationStream.Reader reader =
+                    new ContentProviderOperationStream.Reader(source) {
+                @Override
+                protected void onChunkRead(ArrayList<ContentProviderOperation> operations)
+                        throws OperationApplicationException {
+                    enforceBatchPermissions(callingPkg, operations);
+                }
+            };
+            final String original = setCallingPackage(callingPkg);
+            try {
+                return ContentProvider.this.applyBatchStream(reader);
+            } finally {
+                setCallingPackage(original);
+                reader.close();
+            }
+        }
+
+        /**
+         * Checks the caller may perform each operation, removing the user id
+         * from their uris, and returns the user ids removed.
+         */
+        private int[] enforceBatchPermissions(String callingPkg,
+                ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
             int numOperations = operations.size();
             final int[] userIds = new int[numOperations];
             for (int i = 0; i < numOperations; i++) {
@@ -311,21 +356,7 @@ public abstract class ContentProvider implements ComponentCallbacks2 {
                     }
                 }
             }
-            final String original = setCallingPackage(callingPkg);
-            try {
-                ContentProviderResult[] results = ContentProvider.this.applyBatch(operations);
-                if (results != null) {
-                    for (int i = 0; i < results.length ; i++) {
-                        if (userIds[i] != UserHandle.USER_CURRENT) {
-                            // Adding the userId to the uri.
-                            results[i] = new ContentProviderResult(results[i], userIds[i]);
-                        }
-                    }
-                }
-                return results;
-            } finally {
-                setCallingPackage(original);
-            }
+            return userIds;
         }
 
         @Override
@@ -1780,6 +1811,37 @@ public abstract class ContentProvider implements ComponentCallbacks2 {
         return results;
     }
 
+    /**
+     * Override this to apply a batch streamed by
+     * {@link ContentResolver#applyBatchStream} in a single transaction.  The
+     * default implementation passes each chunk to {@link #applyBatch} as it is
+     * read, so the stream is not atomic: chunks applied before a failure, or
+     * before the client stops part way through, stay applied.
+     * <p>
+     * A provider backed by a {@link android.database.sqlite.SQLiteDatabase}
+     * would begin a transaction, apply each chunk returned by
+     * {@link ContentProviderOperationStream.Reader#nextChunk}, call
+     * {@link android.database.sqlite.SQLiteDatabase#yieldIfContendedSafely()}
+     * between chunks so that readers are not starved, and mark the
+     * transaction successful once {@code nextChunk} returns null.  If the
+     * client fails or dies part way through, {@code nextChunk} throws and the
+     * transaction rolls back.
+     *
+     * @param operations the chunks of the batch
+     * @return the number of operations applied
+     * @throws OperationApplicationException if an operation fails or the batch
+     *             cannot be read
+     * @hide
+     */
+    public int applyBatchStream(@NonNull ContentProviderOperationStream.Reader operations)
+            throws OperationApplicationException {
+        ArrayList<ContentProviderOperation> chunk;
+        while ((chunk = operations.nextChunk()) != null) {
+            applyBatch(chunk);
+        }
+        return operations.getOperationCount();
+    }
+
     /**
      * Call a provider-defined method.  This can be used to implement
      * interfaces that are cheaper and/or unnatural for a table-like
@@ -40,6 +40,7 @@ import dalvik.system.CloseGuard;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -446,6 +447,28 @@ public class ContentProviderClient implements AutoCloseable {
         }
     }
 
+    /**
+     * See {@link ContentResolver#applyBatchStream ContentResolver.applyBatchStream}
+     *
+     * @hide
+     */
+    public int applyBatchStream(@NonNull Iterator<ArrayList<ContentProviderOperation>> chunks)
+            throws RemoteException, OperationApplicationException {
+        Preconditions.checkNotNull(chunks, "chunks");
+
+        beforeRemote();
+        try {
+            return ContentProviderOperationStream.apply(mContentProvider, mPackageName, chunks);
+        } catch (DeadObjectException e) {
+            if (!mStable) {
+                mContentResolver.unstableProviderDied(mContentProvider);
+            }
+            throw e;
+        } finally {
+            afterRemote();
+        }
+    }
+
     /** See {@link ContentProvider#call(String, String, Bundle)} */
     public @Nullable Bundle call(@NonNull String method, @Nullable String arg,
             @Nullable Bundle extras) throws RemoteException {
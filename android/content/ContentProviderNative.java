@@ -195,6 +195,18 @@ abstract public class ContentProviderNative extends Binder implements IContentPr
                     return true;
                 }
 
+                case APPLY_BATCH_STREAM_TRANSACTION:
+                {
+                    data.enforceInterface(IContentProvider.descriptor);
+                    String callingPkg = data.readString();
+                    ParcelFileDescriptor source = ParcelFileDescriptor.CREATOR
+                            .createFromParcel(data);
+                    int count = applyBatchStream(callingPkg, source);
+                    reply.writeNoException();
+                    reply.writeInt(count);
+                    return true;
+                }
+
                 case DELETE_TRANSACTION:
                 {
                     data.enforceInterface(IContentProvider.descriptor);
@@ -527,6 +539,26 @@ final class ContentProviderProxy implements IContentProvider
         }
     }
 
+    @Override
+    public int applyBatchStream(String callingPkg, ParcelFileDescriptor source)
+            throws RemoteException, OperationApplicationException {
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(IContentProvider.descriptor);
+            data.writeString(callingPkg);
+            source.writeToParcel(data, 0);
+
+            mRemote.transact(IContentProvider.APPLY_BATCH_STREAM_TRANSACTION, data, reply, 0);
+
+            DatabaseUtils.readExceptionWithOperationApplicationExceptionFromParcel(reply);
+            return reply.readInt();
+        } finally {
+            data.recycle();
+            reply.recycle();
+        }
+    }
+
     public int delete(String callingPkg, Uri url, String selection, String[] selectionArgs)
             throws RemoteException {
         Parcel data = Parcel.obtain();
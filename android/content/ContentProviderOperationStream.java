@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+import libcore.io.IoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A batch of {@link ContentProviderOperation}s streamed to a provider over a
+ * pipe, rather than marshalled into a single binder transaction.
+ * <p>
+ * The batch is a sequence of chunks.  Each chunk is an operation list as
+ * {@link ContentProvider#applyBatch} takes, and back references resolve within
+ * their chunk.  On the wire a chunk is its length followed by a marshalled
+ * {@link Parcel} of the operations; a length of zero ends the batch.  The
+ * client writes chunks while the provider applies them, and blocks whenever
+ * the pipe is full, so neither side holds more than a few chunks at a time.
+ * A batch that ends without the end marker, because the client failed or
+ * died, makes {@link Reader#nextChunk} throw so that a provider that applies
+ * the batch in one transaction can roll it back; the default
+ * {@link ContentProvider#applyBatchStream} has already applied the chunks
+ * before it.
+ *
+ * @hide
+ */
+public final class ContentProviderOperationStream {
+    /** Limit on one marshalled chunk, so a bad length cannot exhaust the provider. */
+    static final int MAX_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "applyBatchStream #" + mCount.getAndIncrement());
+        }
+    };
+
+    /**
+     * Runs the binder calls of every batch in the process.  Each call holds its
+     * thread until the whole batch is applied, so this grows to as many threads
+     * as there are batches in flight rather than queueing them behind each other,
+     * as {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR} would; idle threads
+     * exit after a while.
+     */
+    private static final Executor sExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            sThreadFactory);
+
+    private ContentProviderOperationStream() {
+    }
+
+    /** Reads the chunks of a batch on the provider side. */
+    public static class Reader implements Closeable {
+        private final ParcelFileDescriptor mSource;
+        private final DataInputStream mIn;
+        private int mOperationCount;
+        private boolean mFinished;
+
+        public Reader(ParcelFileDescriptor source) {
+            mSource = source;
+            mIn = new DataInputStream(new BufferedInputStream(
+                    new ParcelFileDescriptor.AutoCloseInputStream(source), BUFFER_SIZE));
+        }
+
+        /**
+         * Returns the next chunk of operations, or null once the whole batch
+         * has been read.
+         *
+         * @throws OperationApplicationException if the batch cannot be read or
+         *             ended early, in which case none of it should be applied
+         */
+        public ArrayList<ContentProviderOperation> nextChunk()
+                throws OperationApplicationException {
+            if (mFinished) {
+                return null;
+            }
+            final byte[] bytes;
+            try {
+                final int length = mIn.readInt();
+                if (length == 0) {
+                    mFinished = true;
+                    return null;
+                }
+                if (length < 0 || length > MAX_CHUNK_BYTES) {
+                    throw new OperationApplicationException("Bad chunk length " + length,
+                            mOperationCount);
+                }
+                bytes = new byte[length];
+                mIn.readFully(bytes);
+            } catch (EOFException e) {
+                throw new OperationApplicationException("Batch ended before its end marker",
+                        mOperationCount);
+            } catch (IOException e) {
+                throw new OperationApplicationException("Failed to read batch: " + e,
+                        mOperationCount);
+            }
+
+            final Parcel parcel = Parcel.obtain();
+            final ArrayList<ContentProviderOperation> operations;
+            try {
+                parcel.unmarshall(bytes, 0, bytes.length);
+                parcel.setDataPosition(0);
+                final int numOperations = parcel.readInt();
+                operations = new ArrayList<ContentProviderOperation>(numOperations);
+                for (int i = 0; i < numOperations; i++) {
+                    operations.add(ContentProviderOperation.CREATOR.createFromParcel(parcel));
+                }
+            } catch (RuntimeException e) {
+                throw new OperationApplicationException("Bad chunk: " + e, mOperationCount);
+            } finally {
+                parcel.recycle();
+            }
+            onChunkRead(operations);
+            mOperationCount += operations.size();
+            return operations;
+        }
+
+        /**
+         * Called with each chunk before it is returned; the transport uses it
+         * to check the caller may perform every operation in it.
+         */
+        protected void onChunkRead(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+        }
+
+        /** Returns the number of operations read so far. */
+        public int getOperationCount() {
+            return mOperationCount;
+        }
+
+        @Override
+        public void close() {
+            IoUtils.closeQuietly(mIn);
+            IoUtils.closeQuietly(mSource);
+        }
+    }
+
+    /** Writes the chunks of a batch on the client side. */
+    static class Writer implements Closeable {
+        private final DataOutputStream mOut;
+
+        Writer(ParcelFileDescriptor sink) {
+            mOut = new DataOutputStream(new BufferedOutputStream(
+                    new ParcelFileDescriptor.AutoCloseOutputStream(sink), BUFFER_SIZE));
+        }
+
+        void writeChunk(ArrayList<ContentProviderOperation> operations) throws IOException {
+            if (operations.isEmpty()) {
+                return;
+            }
+            final Parcel parcel = Parcel.obtain();
+            final byte[] bytes;
+            try {
+                final int numOperations = operations.size();
+                parcel.writeInt(numOperations);
+                for (int i = 0; i < numOperations; i++) {
+                    operations.get(i).writeToParcel(parcel, 0);
+                }
+                bytes = parcel.marshall();
+            } finally {
+                parcel.recycle();
+            }
+            if (bytes.length > MAX_CHUNK_BYTES) {
+                throw new IllegalArgumentException("Chunk of " + operations.size()
+                        + " operations is " + bytes.length + " bytes; the limit is "
+                        + MAX_CHUNK_BYTES);
+            }
+            mOut.writeInt(bytes.length);
+            mOut.write(bytes);
+            // Let the provider start on this chunk while the next one is built.
+            mOut.flush();
+        }
+
+        /** Ends the batch; without this the provider discards it. */
+        void finish() throws IOException {
+            mOut.writeInt(0);
+            mOut.flush();
+        }
+
+        @Override
+        public void close() {
+            IoUtils.closeQuietly(mOut);
+        }
+    }
+
+    /**
+     * Streams {@code chunks} to {@code provider} and returns the number of
+     * operations it applied.  The chunks are read on the calling thread while
+     * the binder call waits for the provider on a thread of {@link #sExecutor}.
+     */
+    static int apply(final IContentProvider provider, final String callingPkg,
+            Iterator<ArrayList<ContentProviderOperation>> chunks)
+            throws RemoteException, OperationApplicationException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new OperationApplicationException("Failed to create pipe", e);
+        }
+
+        final FutureTask<Integer> call = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                try {
+                    return provider.applyBatchStream(callingPkg, pipe[0]);
+                } finally {
+                    // Once the provider is gone, a blocked writer sees a broken pipe.
+                    IoUtils.closeQuietly(pipe[0]);
+                }
+            }
+        });
+        sExecutor.execute(call);
+
+        final Writer writer = new Writer(pipe[1]);
+        try {
+            while (chunks.hasNext()) {
+                writer.writeChunk(chunks.next());
+            }
+            writer.finish();
+        } catch (IOException e) {
+            // The provider stopped reading; its result says why.
+        } finally {
+            writer.close();
+        }
+
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationApplicationException("Interrupted while applying batch", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RemoteException) {
+                throw (RemoteException) cause;
+            } else if (cause instanceof OperationApplicationException) {
+                throw (OperationApplicationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -66,6 +66,7 @@ import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -323,6 +324,13 @@ public abstract class ContentResolver {
     // sampled accordingly.
     private static final boolean ENABLE_CONTENT_SAMPLE = false;
     private static final int SLOW_THRESHOLD_MILLIS = 500;
+
+    /**
+     * Number of rows {@link #bulkInsertStream} puts in each chunk.
+     * @hide
+     */
+    public static final int BULK_INSERT_STREAM_CHUNK_SIZE = 500;
+
     private final Random mRandom = new Random();  // guarded by itself
 
     public ContentResolver(Context context) {
@@ -1318,6 +1326,93 @@ public abstract class ContentResolver {
         }
     }
 
+    /**
+     * Streams a batch of operations of any size to a provider, which applies
+     * it as {@link ContentProvider#applyBatchStream} does.  Unlike
+     * {@link #applyBatch}, the batch is not marshalled into one binder
+     * transaction, so it cannot fail for being too large.
+     *
+     * <p>The stream is not atomic unless the provider makes it so.  The default
+     * {@link ContentProvider#applyBatchStream} applies each chunk through
+     * {@link ContentProvider#applyBatch} as it arrives, so if a later chunk
+     * fails, or the stream ends early, the chunks before it stay applied.  Only
+     * a provider that overrides it to apply the whole stream in one transaction
+     * applies all of the batch or none of it.
+     *
+     * <p>The batch is given as chunks of operations, read one at a time on the
+     * calling thread while the provider applies earlier ones.  Back references
+     * resolve within a chunk, and a provider may yield its transaction between
+     * chunks.
+     *
+     * @param authority the authority of the ContentProvider to which this batch should be applied
+     * @param chunks the chunks of the batch
+     * @return the number of operations applied
+     * @throws OperationApplicationException thrown if an application fails, or if the
+     *   batch could not be streamed.
+     * @throws RemoteException thrown if a RemoteException is encountered while attempting
+     *   to communicate with a remote provider.
+     * @hide
+     */
+    public int applyBatchStream(@NonNull String authority,
+            @NonNull Iterator<ArrayList<ContentProviderOperation>> chunks)
+                    throws RemoteException, OperationApplicationException {
+        Preconditions.checkNotNull(authority, "authority");
+        Preconditions.checkNotNull(chunks, "chunks");
+        ContentProviderClient provider = acquireContentProviderClient(authority);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown authority " + authority);
+        }
+        try {
+            return provider.applyBatchStream(chunks);
+        } finally {
+            provider.release();
+        }
+    }
+
+    /**
+     * Inserts any number of rows into a table at the given URL by streaming
+     * them to the provider with {@link #applyBatchStream}, in chunks of
+     * {@link #BULK_INSERT_STREAM_CHUNK_SIZE} inserts.
+     *
+     * @param url The URL of the table to insert into.
+     * @param values The initial values for the newly inserted rows.
+     * @return the number of newly created rows.
+     * @hide
+     */
+    public int bulkInsertStream(@RequiresPermission.Write @NonNull final Uri url,
+            @NonNull final Iterator<ContentValues> values)
+                    throws RemoteException, OperationApplicationException {
+        Preconditions.checkNotNull(url, "url");
+        Preconditions.checkNotNull(values, "values");
+        long startTime = SystemClock.uptimeMillis();
+        int rowsCreated = applyBatchStream(url.getAuthority(),
+                new Iterator<ArrayList<ContentProviderOperation>>() {
+            @Override
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            @Override
+            public ArrayList<ContentProviderOperation> next() {
+                final ArrayList<ContentProviderOperation> chunk =
+                        new ArrayList<ContentProviderOperation>(BULK_INSERT_STREAM_CHUNK_SIZE);
+                while (chunk.size() < BULK_INSERT_STREAM_CHUNK_SIZE && values.hasNext()) {
+                    chunk.add(ContentProviderOperation.newInsert(url)
+                            .withValues(values.next()).build());
+                }
+                return chunk;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        long durationMillis = SystemClock.uptimeMillis() - startTime;
+        maybeLogUpdateToEventLog(durationMillis, url, "bulkinsert", null /* where */);
+        return rowsCreated;
+    }
+
     /**
      * Inserts multiple rows into a table at the given URL.
      *
@@ -0,0 +1,592 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.database.Cursor;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fixed set of column names, for rows that hold the same columns as many
+ * {@link ContentValues} would but without a map per row.
+ * <p>
+ * The schema maps each column name to an index once.  A {@link Row} keeps its
+ * values in arrays indexed by column: integers, booleans and floating point
+ * values in a {@code long[]} without boxing, strings and blobs in an
+ * {@code Object[]}.  A row can be cleared and refilled, so inserting many rows
+ * need not allocate per row at all.
+ * <p>
+ * Rows convert to and from {@link ContentValues}, can be inserted with
+ * {@link android.database.sqlite.SQLiteDatabase#insertWithOnConflict(String, String,
+ * ContentValuesSchema.Row, int)}, bound with
+ * {@link android.database.DatabaseUtils#bindRowToProgram}, and written to a
+ * {@link Parcel} with the schema sent once for any number of rows.
+ *
+ * @hide
+ */
+public final class ContentValuesSchema implements Parcelable {
+    // Row slot types.  Byte and short values are kept as TYPE_INTEGER.
+    static final byte TYPE_UNSET = 0;
+    static final byte TYPE_NULL = 1;
+    static final byte TYPE_INTEGER = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_BOOLEAN = 4;
+    static final byte TYPE_FLOAT = 5;
+    static final byte TYPE_DOUBLE = 6;
+    static final byte TYPE_STRING = 7;
+    static final byte TYPE_BLOB = 8;
+
+    private final String[] mColumns;
+    private final HashMap<String, Integer> mIndex;
+
+    /** Insert statements for complete rows, by table and then conflict clause. */
+    private final HashMap<String, HashMap<String, String>> mInsertSql = new HashMap<>();
+
+    public ContentValuesSchema(String... columns) {
+        mColumns = columns.clone();
+        mIndex = new HashMap<String, Integer>(columns.length * 2);
+        for (int i = 0; i < mColumns.length; i++) {
+            if (mColumns[i] == null) {
+                throw new IllegalArgumentException("Column " + i + " has no name");
+            }
+            if (mIndex.put(mColumns[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate column " + mColumns[i]);
+            }
+        }
+    }
+
+    public int getColumnCount() {
+        return mColumns.length;
+    }
+
+    public String getColumnName(int column) {
+        return mColumns[column];
+    }
+
+    /** Returns the index of the named column, or -1 if it is not in the schema. */
+    public int getColumnIndex(String name) {
+        final Integer index = mIndex.get(name);
+        return index != null ? index : -1;
+    }
+
+    private int getColumnIndexOrThrow(String name) {
+        final Integer index = mIndex.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Column " + name + " is not in " + this);
+        }
+        return index;
+    }
+
+    public Row newRow() {
+        return new Row(this);
+    }
+
+    /**
+     * Returns a row holding {@code values}, all of whose keys must be columns
+     * of this schema.
+     */
+    public Row newRow(ContentValues values) {
+        final Row row = new Row(this);
+        row.putAll(values);
+        return row;
+    }
+
+    /**
+     * Returns the statement inserting every column of this schema into
+     * {@code table}.  It is built once per table and conflict clause, which
+     * must be one of a few constant strings.
+     */
+    public String getInsertSql(String table, String conflictClause) {
+        synchronized (mInsertSql) {
+            HashMap<String, String> byConflict = mInsertSql.get(table);
+            if (byConflict == null) {
+                byConflict = new HashMap<String, String>(4);
+                mInsertSql.put(table, byConflict);
+            }
+            String sql = byConflict.get(conflictClause);
+            if (sql == null) {
+                final StringBuilder sb = new StringBuilder(32 + mColumns.length * 12);
+                sb.append("INSERT").append(conflictClause).append(" INTO ").append(table);
+                sb.append('(');
+                for (int i = 0; i < mColumns.length; i++) {
+                    sb.append(i > 0 ? "," : "").append(mColumns[i]);
+                }
+                sb.append(") VALUES (");
+                for (int i = 0; i < mColumns.length; i++) {
+                    sb.append(i > 0 ? ",?" : "?");
+                }
+                sb.append(')');
+                sql = sb.toString();
+                byConflict.put(conflictClause, sql);
+            }
+            return sql;
+        }
+    }
+
+    /**
+     * Writes {@code rows}, which must all belong to this schema, after the
+     * schema itself, so that the column names are only written once.
+     */
+    public void writeRowsToParcel(Parcel parcel, List<Row> rows) {
+        writeToParcel(parcel, 0);
+        final int numRows = rows.size();
+        parcel.writeInt(numRows);
+        for (int i = 0; i < numRows; i++) {
+            final Row row = rows.get(i);
+            if (row.mSchema != this) {
+                throw new IllegalArgumentException("Row " + i + " belongs to " + row.mSchema);
+            }
+            row.writeValuesToParcel(parcel);
+        }
+    }
+
+    /** Reads rows written by {@link #writeRowsToParcel}. */
+    public static ArrayList<Row> readRowsFromParcel(Parcel parcel) {
+        final ContentValuesSchema schema = CREATOR.createFromParcel(parcel);
+        final int numRows = parcel.readInt();
+        final ArrayList<Row> rows = new ArrayList<Row>(numRows);
+        for (int i = 0; i < numRows; i++) {
+            final Row row = new Row(schema);
+            row.readValuesFromParcel(parcel);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int flags) {
+        parcel.writeStringArray(mColumns);
+    }
+
+    public static final Parcelable.Creator<ContentValuesSchema> CREATOR =
+            new Parcelable.Creator<ContentValuesSchema>() {
+        @Override
+        public ContentValuesSchema createFromParcel(Parcel in) {
+            return new ContentValuesSchema(in.createStringArray());
+        }
+
+        @Override
+        public ContentValuesSchema[] newArray(int size) {
+            return new ContentValuesSchema[size];
+        }
+    };
+
+    @Override
+    public String toString() {
+        return "ContentValuesSchema" + Arrays.toString(mColumns);
+    }
+
+    /**
+     * Values for some or all of the columns of a schema.  A column that has
+     * not been put is left out of inserts and conversions, as a key missing
+     * from {@link ContentValues} would be, which is not the same as a column
+     * put as null.
+     * <p>
+     * Like {@link ContentValues}, a row is not thread safe.
+     */
+    public static final class Row {
+        final ContentValuesSchema mSchema;
+        final byte[] mTypes;
+        final long[] mPrimitives;
+        final Object[] mObjects;
+        private int mSize;
+
+        Row(ContentValuesSchema schema) {
+            mSchema = schema;
+            final int numColumns = schema.mColumns.length;
+            mTypes = new byte[numColumns];
+            mPrimitives = new long[numColumns];
+            mObjects = new Object[numColumns];
+        }
+
+        public ContentValuesSchema getSchema() {
+            return mSchema;
+        }
+
+        private void set(int column, byte type, long primitive, Object object) {
+            if (mTypes[column] == TYPE_UNSET) {
+                mSize++;
+            }
+            mTypes[column] = type;
+            mPrimitives[column] = primitive;
+            mObjects[column] = object;
+        }
+
+        public void put(int column, String value) {
+            if (value == null) {
+                putNull(column);
+            } else {
+                set(column, TYPE_STRING, 0, value);
+            }
+        }
+
+        public void put(int column, byte[] value) {
+            if (value == null) {
+                putNull(column);
+            } else {
+                set(column, TYPE_BLOB, 0, value);
+            }
+        }
+
+        public void put(int column, int value) {
+            set(column, TYPE_INTEGER, value, null);
+        }
+
+        public void put(int column, long value) {
+            set(column, TYPE_LONG, value, null);
+        }
+
+        public void put(int column, boolean value) {
+            set(column, TYPE_BOOLEAN, value ? 1 : 0, null);
+        }
+
+        public void put(int column, float value) {
+            set(column, TYPE_FLOAT, Double.doubleToRawLongBits(value), null);
+        }
+
+        public void put(int column, double value) {
+            set(column, TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+        }
+
+        public void putNull(int column) {
+            set(column, TYPE_NULL, 0, null);
+        }
+
+        public void put(String key, String value) {
+            put(mSchema.getColumnIndexOrThrow(key), value);
+        }
+
+        public void put(String key, byte[] value) {
+            put(mSchema.getColumnIndexOrThrow(key), value);
+        }
+
+        public void put(String key, int value) {
+            put(mSchema.getColumnIndexOrThrow(key), value);
+        }
+
+        public void put(String key, long value) {
+            put(mSchema.getColumnIndexOrThrow(key), value);
+        }
+
+        public void put(String key, boolean value) {
+            put(mSchema.getColumnIndexOrThrow(key), value);
+        }
+
+        public void put(String key, float value) {
+            put(mSchema.getColumnIndexOrThrow(key), value);
+        }
+
+        public void put(String key, double value) {
+            put(mSchema.getColumnIndexOrThrow(key), value);
+        }
+
+        public void putNull(String key) {
+            putNull(mSchema.getColumnIndexOrThrow(key));
+        }
+
+        /**
+         * Puts every value of {@code values}, whose keys must all be columns
+         * of the schema.
+         */
+        public void putAll(ContentValues values) {
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                final int column = mSchema.getColumnIndexOrThrow(entry.getKey());
+                final Object value = entry.getValue();
+                if (value == null) {
+                    putNull(column);
+                } else if (value instanceof String) {
+                    put(column, (String) value);
+                } else if (value instanceof Long) {
+                    put(column, ((Long) value).longValue());
+                } else if (value instanceof Integer || value instanceof Short
+                        || value instanceof Byte) {
+                    put(column, ((Number) value).intValue());
+                } else if (value instanceof Boolean) {
+                    put(column, ((Boolean) value).booleanValue());
+                } else if (value instanceof Float) {
+                    put(column, ((Float) value).floatValue());
+                } else if (value instanceof Double) {
+                    put(column, ((Double) value).doubleValue());
+                } else if (value instanceof byte[]) {
+                    put(column, (byte[]) value);
+                } else {
+                    throw new IllegalArgumentException("Unsupported type "
+                            + value.getClass().getName() + " for column " + entry.getKey());
+                }
+            }
+        }
+
+        /** Removes every value, keeping the arrays for the next use. */
+        public void clear() {
+            Arrays.fill(mTypes, TYPE_UNSET);
+            Arrays.fill(mObjects, null);
+            mSize = 0;
+        }
+
+        /** Removes the value of one column. */
+        public void remove(int column) {
+            if (mTypes[column] != TYPE_UNSET) {
+                mTypes[column] = TYPE_UNSET;
+                mObjects[column] = null;
+                mSize--;
+            }
+        }
+
+        /** Returns the number of columns that have been put. */
+        public int size() {
+            return mSize;
+        }
+
+        /** Returns whether every column of the schema has been put. */
+        public boolean isComplete() {
+            return mSize == mTypes.length;
+        }
+
+        public boolean containsKey(int column) {
+            return mTypes[column] != TYPE_UNSET;
+        }
+
+        /** Returns whether the column is unset or null. */
+        public boolean isNull(int column) {
+            return mTypes[column] <= TYPE_NULL;
+        }
+
+        /**
+         * Returns the type of the column's value as one of the
+         * {@link Cursor} {@code FIELD_TYPE_} constants, with booleans as
+         * integers and unset columns as null.
+         */
+        public int getType(int column) {
+            switch (mTypes[column]) {
+                case TYPE_INTEGER:
+                case TYPE_LONG:
+                case TYPE_BOOLEAN:
+                    return Cursor.FIELD_TYPE_INTEGER;
+                case TYPE_FLOAT:
+                case TYPE_DOUBLE:
+                    return Cursor.FIELD_TYPE_FLOAT;
+                case TYPE_STRING:
+                    return Cursor.FIELD_TYPE_STRING;
+                case TYPE_BLOB:
+                    return Cursor.FIELD_TYPE_BLOB;
+                default:
+                    return Cursor.FIELD_TYPE_NULL;
+            }
+        }
+
+        /**
+         * Returns the column's value as a long: numbers are converted, strings
+         * parsed, and null or unset columns are 0.
+         *
+         * @throws NumberFormatException if the value is a string that is not a
+         *             number
+         * @throws ClassCastException if the value is a blob
+         */
+        public long getLong(int column) {
+            switch (mTypes[column]) {
+                case TYPE_INTEGER:
+                case TYPE_LONG:
+                case TYPE_BOOLEAN:
+                    return mPrimitives[column];
+                case TYPE_FLOAT:
+                case TYPE_DOUBLE:
+                    return (long) Double.longBitsToDouble(mPrimitives[column]);
+                case TYPE_STRING:
+                    return Long.parseLong((String) mObjects[column]);
+                case TYPE_BLOB:
+                    throw new ClassCastException("Column " + mSchema.mColumns[column]
+                            + " holds a blob");
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * Returns the column's value as a double, converted as
+         * {@link #getLong} does.
+         */
+        public double getDouble(int column) {
+            switch (mTypes[column]) {
+                case TYPE_FLOAT:
+                case TYPE_DOUBLE:
+                    return Double.longBitsToDouble(mPrimitives[column]);
+                case TYPE_STRING:
+                    return Double.parseDouble((String) mObjects[column]);
+                default:
+                    return getLong(column);
+            }
+        }
+
+        /**
+         * Returns the column's value as a string, or null if it is null or
+         * unset.
+         */
+        public String getString(int column) {
+            switch (mTypes[column]) {
+                case TYPE_STRING:
+                    return (String) mObjects[column];
+                case TYPE_INTEGER:
+                case TYPE_LONG:
+                    return Long.toString(mPrimitives[column]);
+                case TYPE_BOOLEAN:
+                    return Boolean.toString(mPrimitives[column] != 0);
+                case TYPE_FLOAT:
+                    return Float.toString((float) Double.longBitsToDouble(mPrimitives[column]));
+                case TYPE_DOUBLE:
+                    return Double.toString(Double.longBitsToDouble(mPrimitives[column]));
+                case TYPE_BLOB:
+                    return mObjects[column].toString();
+                default:
+                    return null;
+            }
+        }
+
+        /** Returns the column's value if it is a blob, or null otherwise. */
+        public byte[] getBlob(int column) {
+            return mTypes[column] == TYPE_BLOB ? (byte[]) mObjects[column] : null;
+        }
+
+        /** Returns the column's value boxed as {@link ContentValues} holds it. */
+        public Object get(int column) {
+            final long primitive = mPrimitives[column];
+            switch (mTypes[column]) {
+                case TYPE_INTEGER:
+                    return (int) primitive;
+                case TYPE_LONG:
+                    return primitive;
+                case TYPE_BOOLEAN:
+                    return primitive != 0;
+                case TYPE_FLOAT:
+                    return (float) Double.longBitsToDouble(primitive);
+                case TYPE_DOUBLE:
+                    return Double.longBitsToDouble(primitive);
+                default:
+                    return mObjects[column];
+            }
+        }
+
+        /** Returns the columns that have been put as {@link ContentValues}. */
+        public ContentValues toContentValues() {
+            final ContentValues values = new ContentValues(mSize);
+            final String[] columns = mSchema.mColumns;
+            for (int i = 0; i < columns.length; i++) {
+                switch (mTypes[i]) {
+                    case TYPE_UNSET:
+                        break;
+                    case TYPE_NULL:
+                        values.putNull(columns[i]);
+                        break;
+                    case TYPE_INTEGER:
+                        values.put(columns[i], (int) mPrimitives[i]);
+                        break;
+                    case TYPE_LONG:
+                        values.put(columns[i], mPrimitives[i]);
+                        break;
+                    case TYPE_BOOLEAN:
+                        values.put(columns[i], mPrimitives[i] != 0);
+                        break;
+                    case TYPE_FLOAT:
+                        values.put(columns[i], (float) Double.longBitsToDouble(mPrimitives[i]));
+                        break;
+                    case TYPE_DOUBLE:
+                        values.put(columns[i], Double.longBitsToDouble(mPrimitives[i]));
+                        break;
+                    case TYPE_STRING:
+                        values.put(columns[i], (String) mObjects[i]);
+                        break;
+                    case TYPE_BLOB:
+                        values.put(columns[i], (byte[]) mObjects[i]);
+                        break;
+                }
+            }
+            return values;
+        }
+
+        void writeValuesToParcel(Parcel parcel) {
+            final int numColumns = mTypes.length;
+            for (int i = 0; i < numColumns; i++) {
+                final byte type = mTypes[i];
+                parcel.writeInt(type);
+                switch (type) {
+                    case TYPE_INTEGER:
+                    case TYPE_BOOLEAN:
+                        parcel.writeInt((int) mPrimitives[i]);
+                        break;
+                    case TYPE_LONG:
+                    case TYPE_FLOAT:
+                    case TYPE_DOUBLE:
+                        parcel.writeLong(mPrimitives[i]);
+                        break;
+                    case TYPE_STRING:
+                        parcel.writeString((String) mObjects[i]);
+                        break;
+                    case TYPE_BLOB:
+                        parcel.writeByteArray((byte[]) mObjects[i]);
+                        break;
+                }
+            }
+        }
+
+        void readValuesFromParcel(Parcel parcel) {
+            final int numColumns = mTypes.length;
+            for (int i = 0; i < numColumns; i++) {
+                final byte type = (byte) parcel.readInt();
+                switch (type) {
+                    case TYPE_UNSET:
+                        break;
+                    case TYPE_NULL:
+                        set(i, type, 0, null);
+                        break;
+                    case TYPE_INTEGER:
+                    case TYPE_BOOLEAN:
+                        set(i, type, parcel.readInt(), null);
+                        break;
+                    case TYPE_LONG:
+                    case TYPE_FLOAT:
+                    case TYPE_DOUBLE:
+                        set(i, type, parcel.readLong(), null);
+                        break;
+                    case TYPE_STRING:
+                        set(i, type, 0, parcel.readString());
+                        break;
+                    case TYPE_BLOB:
+                        set(i, type, 0, parcel.createByteArray());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Bad value type " + type
+                                + " for column " + mSchema.mColumns[i]);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return toContentValues().toString();
+        }
+    }
+}
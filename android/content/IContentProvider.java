@@ -57,6 +57,8 @@ public interface IContentProvider extends IInterface {
     public ContentProviderResult[] applyBatch(String callingPkg,
             ArrayList<ContentProviderOperation> operations)
                     throws RemoteException, OperationApplicationException;
+    public int applyBatchStream(String callingPkg, ParcelFileDescriptor source)
+            throws RemoteException, OperationApplicationException;
     public Bundle call(
             String callingPkg, String method, @Nullable String arg, @Nullable Bundle extras)
             throws RemoteException;
@@ -88,4 +90,5 @@ public interface IContentProvider extends IInterface {
     static final int CREATE_CANCELATION_SIGNAL_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 23;
     static final int CANONICALIZE_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 24;
     static final int UNCANONICALIZE_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 25;
+    static final int APPLY_BATCH_STREAM_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 26;
 }
@@ -1861,7 +1861,13 @@ public class IntentFilter implements Parcelable {
         */
     }
 
-    private IntentFilter(Parcel source) {
+    /**
+     * Reads a filter written by {@link #writeToParcel}, for subclasses that
+     * add their own state after it.
+     *
+     * @hide
+     */
+    protected IntentFilter(Parcel source) {
         mActions = new ArrayList<String>();
         source.readStringList(mActions);
         if (source.readInt() != 0) {
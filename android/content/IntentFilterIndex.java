@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+import android.os.PatternMatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable set of {@link IntentFilter}s compiled into hash indexes, so that
+ * resolving an intent only calls {@link IntentFilter#match} on filters that
+ * could possibly match it rather than on every filter in the set.
+ * <p>
+ * Filters are indexed by action, by MIME type and by data scheme; within a
+ * scheme, filters whose paths are all literals or prefixes are further indexed
+ * by a trie over those paths.  A lookup picks whichever of the action and data
+ * candidates is smaller and then confirms each candidate with
+ * {@link IntentFilter#match}, so {@link #query} returns exactly the filters a
+ * linear scan would, in the order they were given.
+ * <p>
+ * The filters must not be modified while they are in an index.
+ *
+ * @hide
+ */
+public class IntentFilterIndex<F extends IntentFilter> {
+    private static final String TAG = "IntentFilterIndex";
+
+    /** A filter and its position in the list the index was built from. */
+    private static final class Entry<F> {
+        final F filter;
+        final int order;
+
+        Entry(F filter, int order) {
+            this.filter = filter;
+            this.order = order;
+        }
+    }
+
+    private static final Comparator<Entry<?>> ORDER = new Comparator<Entry<?>>() {
+        @Override
+        public int compare(Entry<?> a, Entry<?> b) {
+            return a.order - b.order;
+        }
+    };
+
+    /** Untyped filters with one scheme, split by whether their paths are indexed. */
+    private static final class SchemeBucket<F> {
+        final ArrayList<Entry<F>> unindexed = new ArrayList<>();
+        final PathTrie<F> paths = new PathTrie<>();
+    }
+
+    private final int mSize;
+
+    private final HashMap<String, ArrayList<Entry<F>>> mActionIndex = new HashMap<>();
+
+    /** Filters with at least one MIME type. */
+    private final ArrayList<Entry<F>> mTypedEntries = new ArrayList<>();
+    /** Typed filters by the base of each of their types, "image" for "image/png". */
+    private final HashMap<String, ArrayList<Entry<F>>> mBaseTypeIndex = new HashMap<>();
+    /** Typed filters that accept any type, from "*&#47;*". */
+    private final ArrayList<Entry<F>> mWildTypeEntries = new ArrayList<>();
+
+    /** Filters without types or schemes, which only match intents without data. */
+    private final ArrayList<Entry<F>> mEmptyDataEntries = new ArrayList<>();
+    private final HashMap<String, SchemeBucket<F>> mSchemeIndex = new HashMap<>();
+
+    public IntentFilterIndex(List<? extends F> filters) {
+        mSize = filters.size();
+        for (int i = 0; i < mSize; i++) {
+            final Entry<F> entry = new Entry<F>(filters.get(i), i);
+            indexActions(entry);
+            if (entry.filter.countDataTypes() > 0) {
+                indexTypes(entry);
+            } else if (entry.filter.countDataSchemes() > 0) {
+                indexSchemes(entry);
+            } else {
+                mEmptyDataEntries.add(entry);
+            }
+        }
+    }
+
+    private void indexActions(Entry<F> entry) {
+        final IntentFilter filter = entry.filter;
+        final int numActions = filter.countActions();
+        for (int i = 0; i < numActions; i++) {
+            addUnique(mActionIndex, filter.getAction(i), entry);
+        }
+    }
+
+    private void indexTypes(Entry<F> entry) {
+        final IntentFilter filter = entry.filter;
+        mTypedEntries.add(entry);
+        final int numTypes = filter.countDataTypes();
+        for (int i = 0; i < numTypes; i++) {
+            if ("*".equals(filter.getDataType(i))) {
+                // Matches every type, so there is no point indexing the rest.
+                mWildTypeEntries.add(entry);
+                return;
+            }
+        }
+        for (int i = 0; i < numTypes; i++) {
+            addUnique(mBaseTypeIndex, getBaseType(filter.getDataType(i)), entry);
+        }
+    }
+
+    private void indexSchemes(Entry<F> entry) {
+        final IntentFilter filter = entry.filter;
+        final boolean pathIndexed = isPathIndexable(filter);
+        final int numSchemes = filter.countDataSchemes();
+        for (int i = 0; i < numSchemes; i++) {
+            final String scheme = filter.getDataScheme(i);
+            SchemeBucket<F> bucket = mSchemeIndex.get(scheme);
+            if (bucket == null) {
+                bucket = new SchemeBucket<>();
+                mSchemeIndex.put(scheme, bucket);
+            }
+            if (pathIndexed) {
+                final int numPaths = filter.countDataPaths();
+                for (int j = 0; j < numPaths; j++) {
+                    bucket.paths.add(filter.getDataPath(j), entry);
+                }
+            } else {
+                bucket.unindexed.add(entry);
+            }
+        }
+    }
+
+    /**
+     * A filter's paths decide whether it matches only if it has authorities
+     * and no scheme specific parts, which could match instead; and they can
+     * only go in the trie if none of them is a glob.
+     */
+    private static boolean isPathIndexable(IntentFilter filter) {
+        final int numPaths = filter.countDataPaths();
+        if (numPaths == 0 || filter.countDataAuthorities() == 0
+                || filter.countDataSchemeSpecificParts() > 0) {
+            return false;
+        }
+        for (int i = 0; i < numPaths; i++) {
+            final int type = filter.getDataPath(i).getType();
+            if (type != PatternMatcher.PATTERN_LITERAL && type != PatternMatcher.PATTERN_PREFIX) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <F> void addUnique(HashMap<String, ArrayList<Entry<F>>> index, String key,
+            Entry<F> entry) {
+        ArrayList<Entry<F>> entries = index.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            index.put(key, entries);
+        }
+        // A filter's keys are all added together, so a duplicate is always last.
+        final int last = entries.size() - 1;
+        if (last < 0 || entries.get(last) != entry) {
+            entries.add(entry);
+        }
+    }
+
+    private static String getBaseType(String type) {
+        final int slashpos = type.indexOf('/');
+        return slashpos > 0 ? type.substring(0, slashpos) : type;
+    }
+
+    /** Returns the number of filters in the index. */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds to {@code outCandidates}, in the order they were given, the filters
+     * that may match an intent with the given action, resolved type and data.
+     * Every filter that {@link IntentFilter#match} would accept is included,
+     * but categories are not considered and some candidates may not match.
+     */
+    public void queryCandidates(String action, String type, String scheme, Uri data,
+            List<F> outCandidates) {
+        final ArrayList<Entry<F>> entries = new ArrayList<>();
+        collectCandidates(action, type, scheme, data, entries);
+        final int numEntries = entries.size();
+        for (int i = 0; i < numEntries; i++) {
+            outCandidates.add(entries.get(i).filter);
+        }
+    }
+
+    /**
+     * Returns the filters that match the given intent fields, in the order
+     * they were given; the same filters for which
+     * {@link IntentFilter#match(String, String, String, Uri, Set, String)}
+     * returns a non-negative value.
+     */
+    public ArrayList<F> query(String action, String type, String scheme, Uri data,
+            Set<String> categories) {
+        final ArrayList<Entry<F>> entries = new ArrayList<>();
+        collectCandidates(action, type, scheme, data, entries);
+        final int numEntries = entries.size();
+        final ArrayList<F> result = new ArrayList<>(Math.min(numEntries, 16));
+        for (int i = 0; i < numEntries; i++) {
+            final F filter = entries.get(i).filter;
+            if (filter.match(action, type, scheme, data, categories, TAG) >= 0) {
+                result.add(filter);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the filters that match {@code intent} with its resolved type. */
+    public ArrayList<F> query(Intent intent, String resolvedType) {
+        return query(intent.getAction(), resolvedType, intent.getScheme(), intent.getData(),
+                intent.getCategories());
+    }
+
+    private void collectCandidates(String action, String type, String scheme, Uri data,
+            ArrayList<Entry<F>> out) {
+        // A filter matches an action only if it lists it; without an action,
+        // any filter may match.
+        ArrayList<Entry<F>> actionEntries = null;
+        if (action != null) {
+            actionEntries = mActionIndex.get(action);
+            if (actionEntries == null) {
+                return;
+            }
+        }
+
+        boolean needsSort = false;
+        if (type != null) {
+            // Only filters with types accept an intent with a type.
+            if (type.equals("*/*")) {
+                out.addAll(mTypedEntries);
+            } else {
+                final ArrayList<Entry<F>> baseEntries = mBaseTypeIndex.get(getBaseType(type));
+                if (baseEntries != null) {
+                    out.addAll(baseEntries);
+                }
+                needsSort = !out.isEmpty() && !mWildTypeEntries.isEmpty();
+                out.addAll(mWildTypeEntries);
+            }
+        } else {
+            // Only filters without types accept an intent without one.
+            if (data == null) {
+                out.addAll(mEmptyDataEntries);
+            }
+            final SchemeBucket<F> bucket = mSchemeIndex.get(scheme != null ? scheme : "");
+            if (bucket != null) {
+                needsSort = !out.isEmpty();
+                out.addAll(bucket.unindexed);
+                if (data != null) {
+                    final int start = out.size();
+                    bucket.paths.collect(data.getPath(), out);
+                    needsSort |= start > 0 && out.size() > start;
+                    // A filter may have several paths matching this one.
+                    needsSort |= out.size() - start > 1;
+                }
+            }
+        }
+
+        if (actionEntries != null && actionEntries.size() <= out.size()) {
+            out.clear();
+            out.addAll(actionEntries);
+        } else if (needsSort) {
+            Collections.sort(out, ORDER);
+            removeAdjacentDuplicates(out);
+        }
+    }
+
+    private static <F> void removeAdjacentDuplicates(ArrayList<Entry<F>> entries) {
+        final int size = entries.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            final Entry<F> entry = entries.get(i);
+            if (kept == 0 || entries.get(kept - 1) != entry) {
+                entries.set(kept++, entry);
+            }
+        }
+        for (int i = size - 1; i >= kept; i--) {
+            entries.remove(i);
+        }
+    }
+
+    /**
+     * Character trie over literal and prefix paths.  Walking a path down the
+     * trie finds every prefix it starts with on the way, and the literal equal
+     * to it at the end.
+     */
+    private static final class PathTrie<F> {
+        private final Node<F> mRoot = new Node<>();
+
+        private static final class Node<F> {
+            char[] keys = EMPTY_KEYS;
+            Node<F>[] children;
+            int numChildren;
+            ArrayList<Entry<F>> literals;
+            ArrayList<Entry<F>> prefixes;
+
+            Node<F> getChild(char c) {
+                final int index = Arrays.binarySearch(keys, 0, numChildren, c);
+                return index >= 0 ? children[index] : null;
+            }
+
+            @SuppressWarnings("unchecked")
+            Node<F> getOrAddChild(char c) {
+                int index = Arrays.binarySearch(keys, 0, numChildren, c);
+                if (index >= 0) {
+                    return children[index];
+                }
+                index = -index - 1;
+                if (numChildren == keys.length) {
+                    final int capacity = Math.max(2, numChildren * 2);
+                    keys = Arrays.copyOf(keys, capacity);
+                    children = children == null
+                            ? (Node<F>[]) new Node[capacity]
+                            : Arrays.copyOf(children, capacity);
+                }
+                System.arraycopy(keys, index, keys, index + 1, numChildren - index);
+                System.arraycopy(children, index, children, index + 1, numChildren - index);
+                final Node<F> child = new Node<>();
+                keys[index] = c;
+                children[index] = child;
+                numChildren++;
+                return child;
+            }
+        }
+
+        private static final char[] EMPTY_KEYS = new char[0];
+
+        void add(PatternMatcher path, Entry<F> entry) {
+            final String pattern = path.getPath();
+            Node<F> node = mRoot;
+            final int length = pattern.length();
+            for (int i = 0; i < length; i++) {
+                node = node.getOrAddChild(pattern.charAt(i));
+            }
+            if (path.getType() == PatternMatcher.PATTERN_LITERAL) {
+                if (node.literals == null) {
+                    node.literals = new ArrayList<>();
+                }
+                node.literals.add(entry);
+            } else {
+                if (node.prefixes == null) {
+                    node.prefixes = new ArrayList<>();
+                }
+                node.prefixes.add(entry);
+            }
+        }
+
+        /** Adds the entries with a path matching {@code path}; none for null. */
+        void collect(String path, ArrayList<Entry<F>> out) {
+            if (path == null) {
+                return;
+            }
+            Node<F> node = mRoot;
+            final int length = path.length();
+            for (int i = 0; ; i++) {
+                if (node.prefixes != null) {
+                    out.addAll(node.prefixes);
+                }
+                if (i == length) {
+                    if (node.literals != null) {
+                        out.addAll(node.literals);
+                    }
+                    return;
+                }
+                node = node.getChild(path.charAt(i));
+                if (node == null) {
+                    return;
+                }
+            }
+        }
+    }
+}
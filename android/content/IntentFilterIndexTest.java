@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+import android.os.PatternMatcher;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Resolves random intents against random sets of filters through an index and
+ * by calling {@link IntentFilter#match} on every filter, and checks that both
+ * return the same filters in the same order.
+ */
+@SmallTest
+public class IntentFilterIndexTest extends TestCase {
+    private static final String TAG = "IntentFilterIndexTest";
+    private static final int EQUIVALENCE_CHECKS = 5000;
+
+    private static final String[] ACTIONS = {
+        "android.intent.action.VIEW", "android.intent.action.SEND",
+        "android.intent.action.EDIT", "android.intent.action.MAIN",
+        "android.intent.action.PICK", "com.example.action.SYNC",
+    };
+    private static final String[] CATEGORIES = {
+        "android.intent.category.DEFAULT", "android.intent.category.BROWSABLE",
+        "android.intent.category.LAUNCHER",
+    };
+    private static final String[] SCHEMES = {
+        "http", "https", "content", "file", "geo", "tel", "market",
+    };
+    private static final String[] HOSTS = {
+        "www.example.com", "example.com", "*.example.org", "maps.example.net",
+    };
+    private static final String[] PATHS = {
+        "/", "/a", "/a/b", "/watch", "/watch/", "/item/1", "/item/12", "/store/apps",
+    };
+    private static final String[] TYPES = {
+        "image/png", "image/jpeg", "image/*", "text/plain", "text/*", "video/mp4",
+        "application/pdf", "*/*",
+    };
+
+    private Random mRandom;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(0);
+    }
+
+    public void testSmallIndexMatchesLinearScan() throws Exception {
+        checkAgainstLinearScan(100);
+    }
+
+    public void testLargeIndexMatchesLinearScan() throws Exception {
+        checkAgainstLinearScan(1000);
+    }
+
+    public void testIntentQueryMatchesFieldQuery() throws Exception {
+        final ArrayList<IntentFilter> filters = newFilters(300);
+        final IntentFilterIndex<IntentFilter> index = new IntentFilterIndex<>(filters);
+        for (int i = 0; i < 500; i++) {
+            final Query query = newQuery();
+            final Intent intent = new Intent(query.action);
+            intent.setData(query.data);
+            if (query.categories != null) {
+                for (String category : query.categories) {
+                    intent.addCategory(category);
+                }
+            }
+            assertEquals(index.query(query.action, query.type, intent.getScheme(),
+                    query.data, intent.getCategories()), index.query(intent, query.type));
+        }
+    }
+
+    private void checkAgainstLinearScan(int filterCount) throws Exception {
+        final ArrayList<IntentFilter> filters = newFilters(filterCount);
+        final IntentFilterIndex<IntentFilter> index = new IntentFilterIndex<>(filters);
+        assertEquals(filterCount, index.size());
+        for (int i = 0; i < EQUIVALENCE_CHECKS; i++) {
+            final Query query = newQuery();
+            final String message = "action=" + query.action + " type=" + query.type
+                    + " data=" + query.data + " categories=" + query.categories;
+            final ArrayList<IntentFilter> expected = new ArrayList<>();
+            for (IntentFilter filter : filters) {
+                if (filter.match(query.action, query.type, query.scheme, query.data,
+                        query.categories, TAG) >= 0) {
+                    expected.add(filter);
+                }
+            }
+            assertEquals(message, expected, index.query(query.action, query.type,
+                    query.scheme, query.data, query.categories));
+
+            // Candidates hold every match, in order.
+            final ArrayList<IntentFilter> candidates = new ArrayList<>();
+            index.queryCandidates(query.action, query.type, query.scheme, query.data,
+                    candidates);
+            candidates.retainAll(expected);
+            assertEquals(message, expected, candidates);
+        }
+    }
+
+    private static final class Query {
+        final String action;
+        final String type;
+        final String scheme;
+        final Uri data;
+        final Set<String> categories;
+
+        Query(String action, String type, String scheme, Uri data, Set<String> categories) {
+            this.action = action;
+            this.type = type;
+            this.scheme = scheme;
+            this.data = data;
+            this.categories = categories;
+        }
+    }
+
+    private <T> T pick(T[] values) {
+        return values[mRandom.nextInt(values.length)];
+    }
+
+    private ArrayList<IntentFilter> newFilters(int count) throws Exception {
+        final ArrayList<IntentFilter> filters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            filters.add(newFilter(i));
+        }
+        return filters;
+    }
+
+    private IntentFilter newFilter(int i) throws Exception {
+        final IntentFilter filter = new IntentFilter();
+        // Most filters name a common action; some have an action of their own.
+        filter.addAction(mRandom.nextInt(4) == 0
+                ? "com.example.action.APP" + i : pick(ACTIONS));
+        if (mRandom.nextInt(3) == 0) {
+            filter.addAction(pick(ACTIONS));
+        }
+        filter.addCategory(CATEGORIES[0]);
+        if (mRandom.nextBoolean()) {
+            filter.addCategory(pick(CATEGORIES));
+        }
+        switch (mRandom.nextInt(4)) {
+            case 0:
+                // No data.
+                break;
+            case 1:
+                filter.addDataType(pick(TYPES));
+                if (mRandom.nextBoolean()) {
+                    filter.addDataType(pick(TYPES));
+                }
+                if (mRandom.nextInt(3) == 0) {
+                    filter.addDataScheme(pick(SCHEMES));
+                }
+                break;
+            default:
+                filter.addDataScheme(pick(SCHEMES));
+                if (mRandom.nextInt(4) == 0) {
+                    filter.addDataScheme(pick(SCHEMES));
+                }
+                if (mRandom.nextInt(8) == 0) {
+                    filter.addDataSchemeSpecificPart(pick(PATHS),
+                            PatternMatcher.PATTERN_PREFIX);
+                }
+                if (mRandom.nextInt(4) != 0) {
+                    filter.addDataAuthority(pick(HOSTS),
+                            mRandom.nextInt(5) == 0 ? "8080" : null);
+                    final int numPaths = mRandom.nextInt(3);
+                    for (int j = 0; j < numPaths; j++) {
+                        final String path = pick(PATHS) + (mRandom.nextInt(6) == 0 ? ".*" : "");
+                        filter.addDataPath(path, mRandom.nextInt(4));
+                    }
+                }
+                break;
+        }
+        return filter;
+    }
+
+    private Query newQuery() {
+        final String action = mRandom.nextInt(8) == 0 ? null : pick(ACTIONS);
+        String type = null;
+        String scheme = null;
+        Uri data = null;
+        switch (mRandom.nextInt(4)) {
+            case 0:
+                break;
+            case 1:
+                type = pick(TYPES);
+                if (mRandom.nextBoolean()) {
+                    data = Uri.parse("content://media/external/" + mRandom.nextInt(100));
+                    scheme = data.getScheme();
+                }
+                break;
+            default:
+                final String host = pick(HOSTS).replace("*", "m");
+                final String port = mRandom.nextInt(5) == 0 ? ":8080" : "";
+                data = Uri.parse(pick(SCHEMES) + "://" + host + port
+                        + pick(PATHS) + (mRandom.nextBoolean() ? "" : "x"));
+                scheme = data.getScheme();
+                break;
+        }
+        final Set<String> categories = mRandom.nextBoolean()
+                ? Collections.singleton(pick(CATEGORIES)) : null;
+        return new Query(action, type, scheme, data, categories);
+    }
+}
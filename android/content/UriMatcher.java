@@ -268,6 +268,22 @@ public class UriMatcher
         return node.mCode;
     }
 
+    /**
+     * Returns the code of this node, and adds the token and node of each of
+     * its children, in the order they were added, to the given lists.  Used
+     * by {@link CompiledUriMatcher} to read the tree without changing it.
+     */
+    int getCodeAndChildren(List<String> outTokens, List<UriMatcher> outChildren)
+    {
+        final int numChildren = mChildren.size();
+        for (int i = 0; i < numChildren; i++) {
+            final UriMatcher child = mChildren.get(i);
+            outTokens.add(child.mText);
+            outChildren.add(child);
+        }
+        return mCode;
+    }
+
     private static final int EXACT = 0;
     private static final int NUMBER = 1;
     private static final int TEXT = 2;
@@ -32,10 +32,14 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
+import android.os.BadParcelableException;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.FileUtils;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.os.PatternMatcher;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.text.TextUtils;
@@ -111,6 +115,12 @@ import static android.os.Trace.TRACE_TAG_PACKAGE_MANAGER;
  * <li>All APKs must have unique split names.
  * <li>All installations must contain a single base APK.
  * </ul>
+ * <p>
+ * A {@code PackageParser} keeps state about the package it is parsing, so each
+ * instance must be confined to one thread at a time. Static methods such as
+ * {@link #parsePackageLite(File, int)} and shared static state are safe to use
+ * from any thread; {@link ParallelPackageParser} parses many packages at once
+ * with one instance per thread.
  *
  * @hide
  */
@@ -254,13 +264,15 @@ public class PackageParser {
     private String[] mSeparateProcesses;
     private boolean mOnlyCoreApps;
     private DisplayMetrics mMetrics;
+    private PackageParserCache mCache;
+    private ParseTimings mTimings;
 
     private static final int SDK_VERSION = Build.VERSION.SDK_INT;
     private static final String[] SDK_CODENAMES = Build.VERSION.ACTIVE_CODENAMES;
 
     private int mParseError = PackageManager.INSTALL_SUCCEEDED;
 
-    private static boolean sCompatibilityModeEnabled = true;
+    private static volatile boolean sCompatibilityModeEnabled = true;
     private static final int PARSE_DEFAULT_INSTALL_LOCATION =
             PackageInfo.INSTALL_LOCATION_UNSPECIFIED;
 
@@ -448,6 +460,43 @@ public class PackageParser {
         mMetrics = metrics;
     }
 
+    /**
+     * Sets the cache that {@link #parsePackage(File, int)} reads packages from
+     * when their APKs have not changed, and stores newly parsed packages in.
+     */
+    public void setCache(PackageParserCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Time spent in each phase of parsing packages, in nanoseconds.
+     * {@link #parsePackage(File, int)} adds to {@link #resourcesNanos} and
+     * {@link #manifestNanos}; {@link #certificatesNanos} is left to whoever
+     * collects certificates.
+     */
+    public static class ParseTimings {
+        /** Loading APKs into an AssetManager and opening their manifests. */
+        public long resourcesNanos;
+        /** Parsing the binary XML of the manifests. */
+        public long manifestNanos;
+        /** Collecting and verifying signing certificates. */
+        public long certificatesNanos;
+
+        public void add(ParseTimings other) {
+            resourcesNanos += other.resourcesNanos;
+            manifestNanos += other.manifestNanos;
+            certificatesNanos += other.certificatesNanos;
+        }
+    }
+
+    /**
+     * Sets where parse phases are timed, or null to stop timing them. The
+     * timings are updated by this parser's thread without synchronization.
+     */
+    public void setParseTimings(ParseTimings timings) {
+        mTimings = timings;
+    }
+
     public static final boolean isApkFile(File file) {
         return isApkPath(file.getName());
     }
@@ -631,18 +680,13 @@ public class PackageParser {
 
     private static Certificate[][] loadCertificates(StrictJarFile jarFile, ZipEntry entry)
             throws PackageParserException {
-        InputStream is = null;
         try {
-            // We must read the stream for the JarEntry to retrieve
-            // its certificates.
-            is = jarFile.getInputStream(entry);
-            readFullyIgnoringContents(is);
-            return jarFile.getCertificateChains(entry);
+            // The whole entry must be read and digested to retrieve its
+            // certificates.
+            return jarFile.verifyEntry(entry);
         } catch (IOException | RuntimeException e) {
             throw new PackageParserException(INSTALL_PARSE_FAILED_UNEXPECTED_EXCEPTION,
                     "Failed reading " + entry.getName() + " in " + jarFile, e);
-        } finally {
-            IoUtils.closeQuietly(is);
         }
     }
 
@@ -792,14 +836,40 @@ public class PackageParser {
      * Note that this <em>does not</em> perform signature verification; that
      * must be done separately in {@link #collectCertificates(Package, int)}.
      *
+     * If a cache was set with {@link #setCache(PackageParserCache)}, a package
+     * whose APKs have not changed since it was last parsed is read back from
+     * the cache instead.
+     *
      * @see #parsePackageLite(File, int)
      */
     public Package parsePackage(File packageFile, int flags) throws PackageParserException {
+        // Separate processes change the process names the manifest resolves to,
+        // so those parses are never cached.
+        final PackageParserCache cache = (mSeparateProcesses == null) ? mCache : null;
+        final PackageParserCache.Key key =
+                (cache != null) ? PackageParserCache.getKey(packageFile, flags) : null;
+        if (key != null) {
+            final Package cached = cache.get(key);
+            if (cached != null) {
+                if (mOnlyCoreApps && !cached.coreApp) {
+                    throw new PackageParserException(INSTALL_PARSE_FAILED_MANIFEST_MALFORMED,
+                            "Not a coreApp: " + packageFile);
+                }
+                return cached;
+            }
+        }
+
+        final long parseStart = SystemClock.uptimeMillis();
+        final Package pkg;
         if (packageFile.isDirectory()) {
-            return parseClusterPackage(packageFile, flags);
+            pkg = parseClusterPackage(packageFile, flags);
         } else {
-            return parseMonolithicPackage(packageFile, flags);
+            pkg = parseMonolithicPackage(packageFile, flags);
         }
+        if (key != null) {
+            cache.put(key, pkg, SystemClock.uptimeMillis() - parseStart);
+        }
+        return pkg;
     }
 
     /**
@@ -823,6 +893,7 @@ public class PackageParser {
         try {
             // Load the base and all splits into the AssetManager
             // so that resources can be overriden when parsing the manifests.
+            final long loadStart = System.nanoTime();
             loadApkIntoAssetManager(assets, lite.baseCodePath, flags);
 
             if (!ArrayUtils.isEmpty(lite.splitCodePaths)) {
@@ -830,6 +901,9 @@ public class PackageParser {
                     loadApkIntoAssetManager(assets, path, flags);
                 }
             }
+            if (mTimings != null) {
+                mTimings.resourcesNanos += System.nanoTime() - loadStart;
+            }
 
             final File baseApk = new File(lite.baseCodePath);
             final Package pkg = parseBaseApk(baseApk, assets, flags);
@@ -881,6 +955,12 @@ public class PackageParser {
 
         final AssetManager assets = new AssetManager();
         try {
+            final long loadStart = System.nanoTime();
+            loadApkIntoAssetManager(assets, apkFile.getAbsolutePath(), flags);
+            if (mTimings != null) {
+                mTimings.resourcesNanos += System.nanoTime() - loadStart;
+            }
+
             final Package pkg = parseBaseApk(apkFile, assets, flags);
             pkg.setCodePath(apkFile.getAbsolutePath());
             pkg.setUse32bitAbi(lite.use32bitAbi);
@@ -923,7 +1003,10 @@ public class PackageParser {
 
         if (DEBUG_JAR) Slog.d(TAG, "Scanning base APK: " + apkPath);
 
+        // Callers have loaded the APK already and counted the time it took, so this only
+        // looks up its cookie.
         final int cookie = loadApkIntoAssetManager(assets, apkPath, flags);
+        final long resourcesStart = System.nanoTime();
 
         Resources res = null;
         XmlResourceParser parser = null;
@@ -933,8 +1016,13 @@ public class PackageParser {
                     Build.VERSION.RESOURCES_SDK_INT);
             parser = assets.openXmlResourceParser(cookie, ANDROID_MANIFEST_FILENAME);
 
+            final long manifestStart = System.nanoTime();
             final String[] outError = new String[1];
             final Package pkg = parseBaseApk(res, parser, flags, outError);
+            if (mTimings != null) {
+                mTimings.resourcesNanos += manifestStart - resourcesStart;
+                mTimings.manifestNanos += System.nanoTime() - manifestStart;
+            }
             if (pkg == null) {
                 throw new PackageParserException(mParseError,
                         apkPath + " (at " + parser.getPositionDescription() + "): " + outError[0]);
@@ -966,7 +1054,10 @@ public class PackageParser {
 
         if (DEBUG_JAR) Slog.d(TAG, "Scanning split APK: " + apkPath);
 
+        // Callers have loaded the APK already and counted the time it took, so this only
+        // looks up its cookie.
         final int cookie = loadApkIntoAssetManager(assets, apkPath, flags);
+        final long resourcesStart = System.nanoTime();
 
         Resources res = null;
         XmlResourceParser parser = null;
@@ -976,8 +1067,13 @@ public class PackageParser {
                     Build.VERSION.RESOURCES_SDK_INT);
             parser = assets.openXmlResourceParser(cookie, ANDROID_MANIFEST_FILENAME);
 
+            final long manifestStart = System.nanoTime();
             final String[] outError = new String[1];
             pkg = parseSplitApk(pkg, res, parser, flags, splitIndex, outError);
+            if (mTimings != null) {
+                mTimings.resourcesNanos += manifestStart - resourcesStart;
+                mTimings.manifestNanos += System.nanoTime() - manifestStart;
+            }
             if (pkg == null) {
                 throw new PackageParserException(mParseError,
                         apkPath + " (at " + parser.getPositionDescription() + "): " + outError[0]);
@@ -1010,6 +1106,7 @@ public class PackageParser {
 
         mParseInstrumentationArgs = null;
         mParseActivityArgs = null;
+        mParseActivityAliasArgs = null;
         mParseServiceArgs = null;
         mParseProviderArgs = null;
 
@@ -1208,10 +1305,13 @@ public class PackageParser {
             // about verifying integrity.
             boolean signatureSchemeRollbackProtectionsEnforced =
                     (parseFlags & PARSE_IS_SYSTEM_DIR) == 0;
+            // Map the APK so that later scans of it reuse its parsed central
+            // directory and verified signature files.
             jarFile = new StrictJarFile(
                     apkPath,
                     !verified, // whether to verify JAR signature
-                    signatureSchemeRollbackProtectionsEnforced);
+                    signatureSchemeRollbackProtectionsEnforced,
+                    true /* mapped */);
             Trace.traceEnd(TRACE_TAG_PACKAGE_MANAGER);
 
             // Always verify manifest, regardless of source
@@ -1666,6 +1766,7 @@ public class PackageParser {
             IOException {
         mParseInstrumentationArgs = null;
         mParseActivityArgs = null;
+        mParseActivityAliasArgs = null;
         mParseServiceArgs = null;
         mParseProviderArgs = null;
 
@@ -4725,7 +4826,7 @@ public class PackageParser {
      * Representation of a full package parsed from APK files on disk. A package
      * consists of a single base APK, and zero or more split APKs.
      */
-    public final static class Package {
+    public final static class Package implements Parcelable {
 
         public String packageName;
 
@@ -4766,7 +4867,7 @@ public class PackageParser {
         public boolean baseHardwareAccelerated;
 
         // For now we only support one application per package.
-        public final ApplicationInfo applicationInfo = new ApplicationInfo();
+        public final ApplicationInfo applicationInfo;
 
         public final ArrayList<Permission> permissions = new ArrayList<Permission>(0);
         public final ArrayList<PermissionGroup> permissionGroups = new ArrayList<PermissionGroup>(0);
@@ -4883,6 +4984,7 @@ public class PackageParser {
 
         public Package(String packageName) {
             this.packageName = packageName;
+            applicationInfo = new ApplicationInfo();
             applicationInfo.packageName = packageName;
             applicationInfo.uid = -1;
         }
@@ -5177,6 +5279,262 @@ public class PackageParser {
                 + Integer.toHexString(System.identityHashCode(this))
                 + " " + packageName + "}";
         }
+
+        /**
+         * Reads a package written by {@link #writeToParcel}.  Components point
+         * back at this package and share its {@link #applicationInfo}, just as
+         * they do after parsing.
+         */
+        public Package(Parcel in) {
+            packageName = in.readString();
+            splitNames = in.createStringArray();
+            volumeUuid = in.readString();
+            codePath = in.readString();
+            baseCodePath = in.readString();
+            splitCodePaths = in.createStringArray();
+            baseRevisionCode = in.readInt();
+            splitRevisionCodes = in.createIntArray();
+            splitFlags = in.createIntArray();
+            splitPrivateFlags = in.createIntArray();
+            baseHardwareAccelerated = (in.readInt() != 0);
+            applicationInfo = ApplicationInfo.CREATOR.createFromParcel(in);
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                permissions.add(new Permission(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                permissionGroups.add(new PermissionGroup(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                activities.add(new Activity(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                receivers.add(new Activity(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                providers.add(new Provider(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                services.add(new Service(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                instrumentation.add(new Instrumentation(this, in));
+            }
+
+            in.readStringList(requestedPermissions);
+            protectedBroadcasts = in.createStringArrayList();
+
+            count = in.readInt();
+            if (count >= 0) {
+                childPackages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    final Package childPkg = new Package(in);
+                    childPkg.parentPackage = this;
+                    childPackages.add(childPkg);
+                }
+            }
+
+            libraryNames = in.createStringArrayList();
+            usesLibraries = in.createStringArrayList();
+            usesOptionalLibraries = in.createStringArrayList();
+
+            count = in.readInt();
+            if (count >= 0) {
+                preferredActivityFilters = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    final Activity activity = activities.get(in.readInt());
+                    preferredActivityFilters.add(new ActivityIntentInfo(activity, in));
+                }
+            }
+
+            mOriginalPackages = in.createStringArrayList();
+            mRealPackage = in.readString();
+            mAdoptPermissions = in.createStringArrayList();
+            mAppMetaData = in.readBundle();
+            mVersionCode = in.readInt();
+            mVersionName = in.readString();
+            mSharedUserId = in.readString();
+            mSharedUserLabel = in.readInt();
+            configPreferences = in.createTypedArrayList(ConfigurationInfo.CREATOR);
+            reqFeatures = in.createTypedArrayList(FeatureInfo.CREATOR);
+            featureGroups = in.createTypedArrayList(FeatureGroupInfo.CREATOR);
+            installLocation = in.readInt();
+            coreApp = (in.readInt() != 0);
+            mRequiredForAllUsers = (in.readInt() != 0);
+            mRestrictedAccountType = in.readString();
+            mRequiredAccountType = in.readString();
+            mOverlayTarget = in.readString();
+            mOverlayPriority = in.readInt();
+            mTrustedOverlay = (in.readInt() != 0);
+
+            count = in.readInt();
+            if (count >= 0) {
+                mUpgradeKeySets = new ArraySet<>(count);
+                for (int i = 0; i < count; i++) {
+                    mUpgradeKeySets.add(in.readString());
+                }
+            }
+            count = in.readInt();
+            if (count >= 0) {
+                mKeySetMapping = new ArrayMap<>(count);
+                for (int i = 0; i < count; i++) {
+                    final String alias = in.readString();
+                    final int keyCount = in.readInt();
+                    final ArraySet<PublicKey> keys = new ArraySet<>(keyCount);
+                    for (int j = 0; j < keyCount; j++) {
+                        final PublicKey key = parsePublicKey(
+                                Base64.encodeToString(in.createByteArray(), Base64.NO_WRAP));
+                        if (key == null) {
+                            throw new BadParcelableException("Bad public key in key set "
+                                    + alias + " of " + packageName);
+                        }
+                        keys.add(key);
+                    }
+                    mKeySetMapping.put(alias, keys);
+                }
+            }
+
+            use32bitAbi = (in.readInt() != 0);
+            restrictUpdateHash = in.createByteArray();
+        }
+
+        /**
+         * Writes everything parsing fills in.  State the package manager attaches
+         * afterwards, such as signatures, library files, usage times and
+         * {@link #mExtras}, is left out.
+         */
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeString(packageName);
+            dest.writeStringArray(splitNames);
+            dest.writeString(volumeUuid);
+            dest.writeString(codePath);
+            dest.writeString(baseCodePath);
+            dest.writeStringArray(splitCodePaths);
+            dest.writeInt(baseRevisionCode);
+            dest.writeIntArray(splitRevisionCodes);
+            dest.writeIntArray(splitFlags);
+            dest.writeIntArray(splitPrivateFlags);
+            dest.writeInt(baseHardwareAccelerated ? 1 : 0);
+            applicationInfo.writeToParcel(dest, flags);
+
+            writeComponents(dest, permissions, flags);
+            writeComponents(dest, permissionGroups, flags);
+            writeComponents(dest, activities, flags);
+            writeComponents(dest, receivers, flags);
+            writeComponents(dest, providers, flags);
+            writeComponents(dest, services, flags);
+            writeComponents(dest, instrumentation, flags);
+
+            dest.writeStringList(requestedPermissions);
+            dest.writeStringList(protectedBroadcasts);
+
+            if (childPackages != null) {
+                final int packageCount = childPackages.size();
+                dest.writeInt(packageCount);
+                for (int i = 0; i < packageCount; i++) {
+                    childPackages.get(i).writeToParcel(dest, flags);
+                }
+            } else {
+                dest.writeInt(-1);
+            }
+
+            dest.writeStringList(libraryNames);
+            dest.writeStringList(usesLibraries);
+            dest.writeStringList(usesOptionalLibraries);
+
+            if (preferredActivityFilters != null) {
+                final int filterCount = preferredActivityFilters.size();
+                dest.writeInt(filterCount);
+                for (int i = 0; i < filterCount; i++) {
+                    final ActivityIntentInfo filter = preferredActivityFilters.get(i);
+                    dest.writeInt(activities.indexOf(filter.activity));
+                    filter.writeIntentInfoToParcel(dest, flags);
+                }
+            } else {
+                dest.writeInt(-1);
+            }
+
+            dest.writeStringList(mOriginalPackages);
+            dest.writeString(mRealPackage);
+            dest.writeStringList(mAdoptPermissions);
+            dest.writeBundle(mAppMetaData);
+            dest.writeInt(mVersionCode);
+            dest.writeString(mVersionName);
+            dest.writeString(mSharedUserId);
+            dest.writeInt(mSharedUserLabel);
+            dest.writeTypedList(configPreferences);
+            dest.writeTypedList(reqFeatures);
+            dest.writeTypedList(featureGroups);
+            dest.writeInt(installLocation);
+            dest.writeInt(coreApp ? 1 : 0);
+            dest.writeInt(mRequiredForAllUsers ? 1 : 0);
+            dest.writeString(mRestrictedAccountType);
+            dest.writeString(mRequiredAccountType);
+            dest.writeString(mOverlayTarget);
+            dest.writeInt(mOverlayPriority);
+            dest.writeInt(mTrustedOverlay ? 1 : 0);
+
+            if (mUpgradeKeySets != null) {
+                final int setCount = mUpgradeKeySets.size();
+                dest.writeInt(setCount);
+                for (int i = 0; i < setCount; i++) {
+                    dest.writeString(mUpgradeKeySets.valueAt(i));
+                }
+            } else {
+                dest.writeInt(-1);
+            }
+            if (mKeySetMapping != null) {
+                final int aliasCount = mKeySetMapping.size();
+                dest.writeInt(aliasCount);
+                for (int i = 0; i < aliasCount; i++) {
+                    dest.writeString(mKeySetMapping.keyAt(i));
+                    final ArraySet<PublicKey> keys = mKeySetMapping.valueAt(i);
+                    final int keyCount = keys.size();
+                    dest.writeInt(keyCount);
+                    for (int j = 0; j < keyCount; j++) {
+                        dest.writeByteArray(keys.valueAt(j).getEncoded());
+                    }
+                }
+            } else {
+                dest.writeInt(-1);
+            }
+
+            dest.writeInt(use32bitAbi ? 1 : 0);
+            dest.writeByteArray(restrictUpdateHash);
+        }
+
+        private static void writeComponents(Parcel dest,
+                ArrayList<? extends Component<?>> components, int flags) {
+            final int count = components.size();
+            dest.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                components.get(i).writeToParcel(dest, flags);
+            }
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        public static final Parcelable.Creator<Package> CREATOR =
+                new Parcelable.Creator<Package>() {
+            public Package createFromParcel(Parcel in) {
+                return new Package(in);
+            }
+
+            public Package[] newArray(int size) {
+                return new Package[size];
+            }
+        };
     }
 
     public static class Component<II extends IntentInfo> {
@@ -5243,6 +5601,31 @@ public class PackageParser {
             componentShortName = clone.componentShortName;
         }
 
+        /**
+         * Reads the state written by {@link #writeToParcel}; subclasses read
+         * their info and fill in {@link #intents} after it.
+         */
+        protected Component(Package _owner, Parcel in) {
+            owner = _owner;
+            className = in.readString();
+            metaData = in.readBundle();
+            intents = (in.readInt() != 0) ? new ArrayList<II>(0) : null;
+        }
+
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeString(className);
+            dest.writeBundle(metaData);
+            dest.writeInt((intents != null) ? 1 : 0);
+        }
+
+        void writeIntentsToParcel(Parcel dest, int flags) {
+            final int count = intents.size();
+            dest.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                intents.get(i).writeIntentInfoToParcel(dest, flags);
+            }
+        }
+
         public ComponentName getComponentName() {
             if (componentName != null) {
                 return componentName;
@@ -5283,6 +5666,19 @@ public class PackageParser {
             info = _info;
         }
 
+        Permission(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = PermissionInfo.CREATOR.createFromParcel(in);
+            tree = (in.readInt() != 0);
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+            dest.writeInt(tree ? 1 : 0);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5308,6 +5704,17 @@ public class PackageParser {
             info = _info;
         }
 
+        PermissionGroup(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = PermissionGroupInfo.CREATOR.createFromParcel(in);
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5479,6 +5886,24 @@ public class PackageParser {
             info.applicationInfo = args.owner.applicationInfo;
         }
 
+        Activity(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ActivityInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                intents.add(new ActivityIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            // The owner writes the application info once for all its components.
+            info.writeToParcel(dest, flags | Parcelable.PARCELABLE_ELIDE_DUPLICATES);
+            writeIntentsToParcel(dest, flags);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5533,6 +5958,23 @@ public class PackageParser {
             info.applicationInfo = args.owner.applicationInfo;
         }
 
+        Service(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ServiceInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                intents.add(new ServiceIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags | Parcelable.PARCELABLE_ELIDE_DUPLICATES);
+            writeIntentsToParcel(dest, flags);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5582,6 +6024,25 @@ public class PackageParser {
             this.syncable = existingProvider.syncable;
         }
 
+        Provider(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ProviderInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            syncable = (in.readInt() != 0);
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                intents.add(new ProviderIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags | Parcelable.PARCELABLE_ELIDE_DUPLICATES);
+            dest.writeInt(syncable ? 1 : 0);
+            writeIntentsToParcel(dest, flags);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5627,6 +6088,17 @@ public class PackageParser {
             info = _info;
         }
 
+        Instrumentation(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = InstrumentationInfo.CREATOR.createFromParcel(in);
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5662,6 +6134,31 @@ public class PackageParser {
         public int logo;
         public int banner;
         public int preferred;
+
+        public IntentInfo() {
+        }
+
+        protected IntentInfo(Parcel in) {
+            super(in);
+            hasDefault = (in.readInt() != 0);
+            labelRes = in.readInt();
+            nonLocalizedLabel = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
+            icon = in.readInt();
+            logo = in.readInt();
+            banner = in.readInt();
+            preferred = in.readInt();
+        }
+
+        void writeIntentInfoToParcel(Parcel dest, int flags) {
+            writeToParcel(dest, flags);
+            dest.writeInt(hasDefault ? 1 : 0);
+            dest.writeInt(labelRes);
+            TextUtils.writeToParcel(nonLocalizedLabel, dest, flags);
+            dest.writeInt(icon);
+            dest.writeInt(logo);
+            dest.writeInt(banner);
+            dest.writeInt(preferred);
+        }
     }
 
     public final static class ActivityIntentInfo extends IntentInfo {
@@ -5671,6 +6168,11 @@ public class PackageParser {
             activity = _activity;
         }
 
+        ActivityIntentInfo(Activity _activity, Parcel in) {
+            super(in);
+            activity = _activity;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ActivityIntentInfo{");
@@ -5689,6 +6191,11 @@ public class PackageParser {
             service = _service;
         }
 
+        ServiceIntentInfo(Service _service, Parcel in) {
+            super(in);
+            service = _service;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ServiceIntentInfo{");
@@ -5707,6 +6214,11 @@ public class PackageParser {
             this.provider = provider;
         }
 
+        ProviderIntentInfo(Provider provider, Parcel in) {
+            super(in);
+            this.provider = provider;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ProviderIntentInfo{");
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.pm;
+
+import android.os.Build;
+import android.os.FileUtils;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.Slog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import libcore.io.IoUtils;
+
+/**
+ * Directory of {@link PackageParser.Package} results, so that a scan only has
+ * to parse the packages whose APKs changed since the last one.
+ * <p>
+ * Each package file has one entry holding the package written to a
+ * {@link Parcel}.  An entry is used only if the path, total size and latest
+ * modification time of the APKs still match, as well as a CRC32 of the zip
+ * central directory and end of central directory record of each APK.  The
+ * central directory records the CRC of every entry, so it changes whenever any
+ * entry of the APK does.  An APK whose end of central directory cannot be
+ * found, such as a zip64 archive, is never cached.  The whole directory is
+ * cleared when the platform fingerprint changes, since a new framework may
+ * parse the same APK differently.
+ *
+ * @hide
+ */
+public class PackageParserCache {
+    private static final String TAG = "PackageParserCache";
+
+    private static final int MAGIC = 0x50504348; // "PPCH"
+    private static final int VERSION = 2;
+
+    private static final String FINGERPRINT_FILE = "fingerprint";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int EOCD_SIZE = 22;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_CENTRAL_DIR_SIZE_OFFSET = 12;
+    private static final int EOCD_CENTRAL_DIR_OFFSET_OFFSET = 16;
+    private static final int EOCD_COMMENT_LENGTH_OFFSET = 20;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    private final File mCacheDir;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicLong mHitTime = new AtomicLong();
+    private final AtomicInteger mParses = new AtomicInteger();
+    private final AtomicLong mParseTime = new AtomicLong();
+
+    /** Identifies a package file in one state on disk, parsed with some flags. */
+    static final class Key {
+        final String path;
+        final int flags;
+        final long length;
+        final long lastModified;
+        final long centralDirectoryCrc;
+
+        Key(String path, int flags, long length, long lastModified,
+                long centralDirectoryCrc) {
+            this.path = path;
+            this.flags = flags;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.centralDirectoryCrc = centralDirectoryCrc;
+        }
+
+        /** Name of the entry file; the full key is checked when it is read. */
+        String getEntryName() {
+            final String name = path.substring(path.lastIndexOf('/') + 1);
+            return name + '-' + Integer.toHexString(path.hashCode())
+                    + '-' + Integer.toHexString(flags);
+        }
+    }
+
+    public PackageParserCache(File cacheDir) {
+        mCacheDir = cacheDir;
+        mCacheDir.mkdirs();
+        clearIfFingerprintChanged();
+    }
+
+    private void clearIfFingerprintChanged() {
+        final File fingerprintFile = new File(mCacheDir, FINGERPRINT_FILE);
+        String fingerprint = null;
+        try {
+            fingerprint = FileUtils.readTextFile(fingerprintFile, 0, null).trim();
+        } catch (IOException e) {
+            // Missing: a new cache, or one we cannot trust.
+        }
+        if (Build.FINGERPRINT.equals(fingerprint)) {
+            return;
+        }
+        Slog.i(TAG, "Platform changed from " + fingerprint + "; clearing " + mCacheDir);
+        FileUtils.deleteContents(mCacheDir);
+        try {
+            FileUtils.stringToFile(fingerprintFile, Build.FINGERPRINT);
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to write " + fingerprintFile, e);
+        }
+    }
+
+    /**
+     * Describes the current state of the given package file, which is a single
+     * APK or a cluster directory, or returns null if it cannot be read.
+     */
+    static Key getKey(File packageFile, int flags) {
+        final File[] apks;
+        if (packageFile.isDirectory()) {
+            final ArrayList<File> found = new ArrayList<>();
+            for (File file : FileUtils.listFilesOrEmpty(packageFile)) {
+                if (PackageParser.isApkFile(file)) {
+                    found.add(file);
+                }
+            }
+            apks = found.toArray(new File[found.size()]);
+            Arrays.sort(apks);
+        } else {
+            apks = new File[] { packageFile };
+        }
+
+        long length = 0;
+        long lastModified = 0;
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[EOCD_SIZE + MAX_COMMENT_LENGTH];
+        for (File apk : apks) {
+            final long apkLength = apk.length();
+            length += apkLength;
+            lastModified = Math.max(lastModified, apk.lastModified());
+            crc.update(apk.getName().getBytes(StandardCharsets.UTF_8));
+
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(apk, "r");
+                final long centralDirectoryOffset =
+                        findCentralDirectory(raf, apkLength, buffer);
+                if (centralDirectoryOffset < 0) {
+                    return null;
+                }
+                // The central directory runs up to the end of central directory
+                // record, which runs to the end of the file.
+                raf.seek(centralDirectoryOffset);
+                for (long remaining = apkLength - centralDirectoryOffset; remaining > 0; ) {
+                    final int count = (int) Math.min(remaining, buffer.length);
+                    raf.readFully(buffer, 0, count);
+                    crc.update(buffer, 0, count);
+                    remaining -= count;
+                }
+            } catch (IOException e) {
+                return null;
+            } finally {
+                IoUtils.closeQuietly(raf);
+            }
+        }
+        return new Key(packageFile.getAbsolutePath(), flags, length, lastModified,
+                crc.getValue());
+    }
+
+    /**
+     * Returns the offset of the zip central directory of {@code apk}, which
+     * must be immediately followed by the end of central directory record, or
+     * -1 if there is no such record.  {@code buffer} must hold a record with
+     * the longest comment.
+     */
+    private static long findCentralDirectory(RandomAccessFile apk, long apkLength,
+            byte[] buffer) throws IOException {
+        final int tailLength = (int) Math.min(apkLength, buffer.length);
+        apk.seek(apkLength - tailLength);
+        apk.readFully(buffer, 0, tailLength);
+        final ByteBuffer tail = ByteBuffer.wrap(buffer, 0, tailLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int commentLength = 0; commentLength <= tailLength - EOCD_SIZE;
+                commentLength++) {
+            final int eocd = tailLength - EOCD_SIZE - commentLength;
+            if (tail.getInt(eocd) != EOCD_SIGNATURE
+                    || (tail.getShort(eocd + EOCD_COMMENT_LENGTH_OFFSET) & 0xffff)
+                            != commentLength) {
+                continue;
+            }
+            final long size = tail.getInt(eocd + EOCD_CENTRAL_DIR_SIZE_OFFSET) & 0xffffffffL;
+            final long offset =
+                    tail.getInt(eocd + EOCD_CENTRAL_DIR_OFFSET_OFFSET) & 0xffffffffL;
+            return offset + size == apkLength - tailLength + eocd ? offset : -1;
+        }
+        return -1;
+    }
+
+    /** Returns the cached package for {@code key}, or null on a miss. */
+    PackageParser.Package get(Key key) {
+        final long startTime = SystemClock.uptimeMillis();
+        final File entryFile = new File(mCacheDir, key.getEntryName());
+        final byte[] payload = readEntry(entryFile, key);
+        if (payload == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+
+        final Parcel parcel = Parcel.obtain();
+        final PackageParser.Package pkg;
+        try {
+            parcel.unmarshall(payload, 0, payload.length);
+            parcel.setDataPosition(0);
+            pkg = new PackageParser.Package(parcel);
+        } catch (RuntimeException e) {
+            Slog.w(TAG, "Dropping unreadable entry for " + key.path, e);
+            entryFile.delete();
+            mMisses.incrementAndGet();
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+
+        mHits.incrementAndGet();
+        mHitTime.addAndGet(SystemClock.uptimeMillis() - startTime);
+        return pkg;
+    }
+
+    private static byte[] readEntry(File entryFile, Key key) {
+        if (!entryFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !key.path.equals(in.readUTF())
+                    || in.readInt() != key.flags
+                    || in.readLong() != key.length
+                    || in.readLong() != key.lastModified
+                    || in.readLong() != key.centralDirectoryCrc) {
+                return null;
+            }
+            final byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return payload;
+        } catch (IOException e) {
+            // A torn or foreign file; it is rewritten after the parse.
+            return null;
+        } finally {
+            IoUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores a freshly parsed package, which took {@code parseTime}
+     * milliseconds to parse.
+     */
+    void put(Key key, PackageParser.Package pkg, long parseTime) {
+        mParses.incrementAndGet();
+        mParseTime.addAndGet(parseTime);
+
+        final Parcel parcel = Parcel.obtain();
+        final byte[] payload;
+        try {
+            pkg.writeToParcel(parcel, 0);
+            payload = parcel.marshall();
+        } catch (RuntimeException e) {
+            Slog.w(TAG, "Failed to write " + key.path + " to the cache", e);
+            return;
+        } finally {
+            parcel.recycle();
+        }
+
+        // Entries are rebuilt from the APK whenever they are missing or torn, so
+        // they are renamed into place without an fsync.
+        final File entryFile = new File(mCacheDir, key.getEntryName());
+        final File tempFile = new File(mCacheDir, key.getEntryName() + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key.path);
+            out.writeInt(key.flags);
+            out.writeLong(key.length);
+            out.writeLong(key.lastModified);
+            out.writeLong(key.centralDirectoryCrc);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(entryFile)) {
+                throw new IOException("Failed to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to write cache entry for " + key.path, e);
+            tempFile.delete();
+        } finally {
+            IoUtils.closeQuietly(out);
+        }
+    }
+
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Estimates the time hits saved: what parsing them would have cost at the
+     * average parse time seen so far, less the time taken to read them back.
+     */
+    public long getSavedTimeMillis() {
+        final int parses = mParses.get();
+        if (parses == 0) {
+            return 0;
+        }
+        return mHits.get() * mParseTime.get() / parses - mHitTime.get();
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        final int hits = mHits.get();
+        final int lookups = hits + mMisses.get();
+        pw.print(prefix); pw.print("Package parser cache "); pw.println(mCacheDir);
+        pw.print(prefix); pw.print("  hits="); pw.print(hits);
+                pw.print(" misses="); pw.print(lookups - hits);
+                pw.print(" hitRate=");
+                pw.print(lookups > 0 ? (100 * hits / lookups) : 0); pw.println("%");
+        pw.print(prefix); pw.print("  hitTime="); pw.print(mHitTime.get());
+                pw.print("ms parseTime="); pw.print(mParseTime.get());
+                pw.print("ms saved="); pw.print(getSavedTimeMillis()); pw.println("ms");
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.pm;
+
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Checks that a parsed package read back from a {@link Parcel} matches what
+ * was parsed, and that the cache key sees changes anywhere in the central
+ * directory.
+ */
+@SmallTest
+public class PackageParserCacheTest extends AndroidTestCase {
+    private static final File FRAMEWORK_RES = new File("/system/framework/framework-res.apk");
+
+    public void testFrameworkPackageRoundTrips() throws Exception {
+        assertRoundTrips(new PackageParser().parsePackage(FRAMEWORK_RES, 0));
+    }
+
+    public void testOwnPackageRoundTrips() throws Exception {
+        assertRoundTrips(new PackageParser().parsePackage(
+                new File(getContext().getPackageCodePath()), 0));
+    }
+
+    public void testKeyCoversWholeCentralDirectory() throws Exception {
+        final File apk = new File(getContext().getCacheDir(), "long_comment.apk");
+        try {
+            // A central directory and comment well past 64 KB.
+            final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(apk));
+            final char[] name = new char[200];
+            for (int i = 0; i < 500; i++) {
+                Arrays.fill(name, (char) ('a' + i % 26));
+                zip.putNextEntry(new ZipEntry("e" + i + "_" + new String(name)));
+                zip.write(i);
+                zip.closeEntry();
+            }
+            final char[] comment = new char[60000];
+            Arrays.fill(comment, 'c');
+            zip.setComment(new String(comment));
+            zip.close();
+
+            final PackageParserCache.Key before = PackageParserCache.getKey(apk, 0);
+            assertNotNull(before);
+            // Change the name of the first entry, which is at the very start
+            // of the central directory, keeping the size and modification time.
+            final long lastModified = apk.lastModified();
+            final byte[] bytes = readAll(apk);
+            final String firstName = "e0_" + new String(name, 0, 8);
+            final int localName = indexOf(bytes, firstName, 0);
+            final int centralName = indexOf(bytes, firstName, localName + 1);
+            assertTrue(localName > 0 && centralName > localName);
+            assertTrue(bytes.length - centralName > 64 * 1024);
+            bytes[centralName + 3] = 'z';
+            final RandomAccessFile raf = new RandomAccessFile(apk, "rw");
+            raf.write(bytes);
+            raf.close();
+            apk.setLastModified(lastModified);
+
+            final PackageParserCache.Key after = PackageParserCache.getKey(apk, 0);
+            assertNotNull(after);
+            assertEquals(before.length, after.length);
+            assertEquals(before.lastModified, after.lastModified);
+            assertFalse(before.centralDirectoryCrc == after.centralDirectoryCrc);
+        } finally {
+            apk.delete();
+        }
+    }
+
+    public void testKeyRejectsFileWithoutCentralDirectory() throws Exception {
+        final File apk = new File(getContext().getCacheDir(), "not_a_zip.apk");
+        try {
+            final FileOutputStream out = new FileOutputStream(apk);
+            out.write(new byte[1000]);
+            out.close();
+            assertNull(PackageParserCache.getKey(apk, 0));
+        } finally {
+            apk.delete();
+        }
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        return bytes;
+    }
+
+    /** Index of the first occurrence of {@code s} at or after {@code from}. */
+    private static int indexOf(byte[] bytes, String s, int from) {
+        final byte[] needle = s.getBytes(StandardCharsets.UTF_8);
+        outer:
+        for (int i = from; i <= bytes.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (bytes[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void assertRoundTrips(PackageParser.Package expected) {
+        final Parcel parcel = Parcel.obtain();
+        final byte[] written;
+        final PackageParser.Package actual;
+        try {
+            expected.writeToParcel(parcel, 0);
+            written = parcel.marshall();
+            parcel.setDataPosition(0);
+            actual = new PackageParser.Package(parcel);
+            assertEquals("unread data", parcel.dataSize(), parcel.dataPosition());
+        } finally {
+            parcel.recycle();
+        }
+        assertSamePackage(expected, actual);
+
+        // Whatever was read writes back identically.
+        final Parcel again = Parcel.obtain();
+        try {
+            actual.writeToParcel(again, 0);
+            assertTrue(Arrays.equals(written, again.marshall()));
+        } finally {
+            again.recycle();
+        }
+    }
+
+    private static void assertSamePackage(PackageParser.Package expected,
+            PackageParser.Package actual) {
+        assertEquals(expected.packageName, actual.packageName);
+        assertTrue(Arrays.equals(expected.splitNames, actual.splitNames));
+        assertEquals(expected.codePath, actual.codePath);
+        assertEquals(expected.baseCodePath, actual.baseCodePath);
+        assertTrue(Arrays.equals(expected.splitCodePaths, actual.splitCodePaths));
+        assertEquals(expected.baseRevisionCode, actual.baseRevisionCode);
+        assertEquals(expected.baseHardwareAccelerated, actual.baseHardwareAccelerated);
+        assertEquals(expected.mVersionCode, actual.mVersionCode);
+        assertEquals(expected.mVersionName, actual.mVersionName);
+        assertEquals(expected.mSharedUserId, actual.mSharedUserId);
+        assertEquals(expected.installLocation, actual.installLocation);
+        assertEquals(expected.coreApp, actual.coreApp);
+        assertEquals(expected.requestedPermissions, actual.requestedPermissions);
+        assertEquals(expected.protectedBroadcasts, actual.protectedBroadcasts);
+        assertEquals(expected.usesLibraries, actual.usesLibraries);
+        assertEquals(expected.usesOptionalLibraries, actual.usesOptionalLibraries);
+        assertEquals(expected.mKeySetMapping, actual.mKeySetMapping);
+        assertEquals(expected.mUpgradeKeySets, actual.mUpgradeKeySets);
+
+        final ApplicationInfo expectedApp = expected.applicationInfo;
+        final ApplicationInfo actualApp = actual.applicationInfo;
+        assertEquals(expectedApp.packageName, actualApp.packageName);
+        assertEquals(expectedApp.flags, actualApp.flags);
+        assertEquals(expectedApp.privateFlags, actualApp.privateFlags);
+        assertEquals(expectedApp.targetSdkVersion, actualApp.targetSdkVersion);
+        assertEquals(expectedApp.theme, actualApp.theme);
+        assertEquals(expectedApp.icon, actualApp.icon);
+        assertEquals(expectedApp.labelRes, actualApp.labelRes);
+
+        assertSameComponents(expected.permissions, actual.permissions, actual);
+        assertSameComponents(expected.permissionGroups, actual.permissionGroups, actual);
+        assertSameComponents(expected.activities, actual.activities, actual);
+        assertSameComponents(expected.receivers, actual.receivers, actual);
+        assertSameComponents(expected.providers, actual.providers, actual);
+        assertSameComponents(expected.services, actual.services, actual);
+        assertSameComponents(expected.instrumentation, actual.instrumentation, actual);
+        for (int i = 0; i < actual.activities.size(); i++) {
+            // Components share the package's ApplicationInfo, as after parsing.
+            assertSame(actualApp, actual.activities.get(i).info.applicationInfo);
+            assertEquals(expected.activities.get(i).info.theme,
+                    actual.activities.get(i).info.theme);
+            assertEquals(expected.activities.get(i).info.launchMode,
+                    actual.activities.get(i).info.launchMode);
+        }
+        for (int i = 0; i < actual.providers.size(); i++) {
+            assertEquals(expected.providers.get(i).info.authority,
+                    actual.providers.get(i).info.authority);
+        }
+        for (int i = 0; i < actual.permissions.size(); i++) {
+            assertEquals(expected.permissions.get(i).info.protectionLevel,
+                    actual.permissions.get(i).info.protectionLevel);
+        }
+    }
+
+    private static void assertSameComponents(
+            ArrayList<? extends PackageParser.Component<?>> expected,
+            ArrayList<? extends PackageParser.Component<?>> actual,
+            PackageParser.Package owner) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final PackageParser.Component<?> e = expected.get(i);
+            final PackageParser.Component<?> a = actual.get(i);
+            assertSame(owner, a.owner);
+            assertEquals(e.className, a.className);
+            assertEquals(e.getComponentName(), a.getComponentName());
+            assertEquals(e.intents.size(), a.intents.size());
+            for (int j = 0; j < e.intents.size(); j++) {
+                final PackageParser.IntentInfo ei = e.intents.get(j);
+                final PackageParser.IntentInfo ai = a.intents.get(j);
+                assertEquals(ei.countActions(), ai.countActions());
+                assertEquals(ei.countCategories(), ai.countCategories());
+                assertEquals(ei.countDataTypes(), ai.countDataTypes());
+                assertEquals(ei.getPriority(), ai.getPriority());
+                assertEquals(ei.labelRes, ai.labelRes);
+            }
+            assertEquals(e.metaData == null, a.metaData == null);
+        }
+    }
+}
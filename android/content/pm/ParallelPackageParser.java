@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.pm;
+
+import android.content.pm.PackageParser.PackageParserException;
+import android.os.FileUtils;
+import android.os.Process;
+import android.util.DisplayMetrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses a batch of packages on a fixed pool of threads.
+ * <p>
+ * Each pool thread has its own {@link PackageParser}, configured the same way,
+ * since a parser keeps state about the package it is working on. Results come
+ * back in the order the package files were given, which for a directory is
+ * sorted by name, so the outcome does not depend on which thread finished
+ * first.
+ *
+ * @hide
+ */
+public class ParallelPackageParser implements AutoCloseable {
+    public static final int DEFAULT_THREAD_COUNT =
+            Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /** Outcome of parsing one package file. */
+    public static class ParseResult {
+        public final File scanFile;
+        /** The parsed package, or null if parsing failed. */
+        public final PackageParser.Package pkg;
+        /** Why parsing failed, or null if it succeeded. */
+        public final PackageParserException error;
+        public final PackageParser.ParseTimings timings;
+
+        ParseResult(File scanFile, PackageParser.Package pkg, PackageParserException error,
+                PackageParser.ParseTimings timings) {
+            this.scanFile = scanFile;
+            this.pkg = pkg;
+            this.error = error;
+            this.timings = timings;
+        }
+    }
+
+    private final String[] mSeparateProcesses;
+    private final boolean mOnlyCoreApps;
+    private final DisplayMetrics mMetrics;
+    private final PackageParserCache mCache;
+    private final ExecutorService mExecutor;
+
+    private final ThreadLocal<PackageParser> mParsers = new ThreadLocal<PackageParser>() {
+        @Override
+        protected PackageParser initialValue() {
+            final PackageParser parser = new PackageParser();
+            parser.setSeparateProcesses(mSeparateProcesses);
+            parser.setOnlyCoreApps(mOnlyCoreApps);
+            parser.setDisplayMetrics(mMetrics);
+            parser.setCache(mCache);
+            return parser;
+        }
+    };
+
+    /**
+     * @param cache where to reuse and store parsed packages, or null to parse
+     *            every package
+     * @param threadCount how many packages to parse at once
+     */
+    public ParallelPackageParser(String[] separateProcesses, boolean onlyCoreApps,
+            DisplayMetrics metrics, PackageParserCache cache, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount " + threadCount);
+        }
+        mSeparateProcesses = separateProcesses;
+        mOnlyCoreApps = onlyCoreApps;
+        mMetrics = metrics;
+        mCache = cache;
+        mExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread("PackageParser-" + mCount.incrementAndGet()) {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                        r.run();
+                    }
+                };
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Parses every APK and cluster package directory directly inside
+     * {@code dir}, in order of file name.
+     *
+     * @see #parsePackages(List, int, boolean)
+     */
+    public List<ParseResult> parseDirectory(File dir, int parseFlags,
+            boolean collectCertificates) {
+        final File[] files = FileUtils.listFilesOrEmpty(dir);
+        Arrays.sort(files);
+        final ArrayList<File> packageFiles = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (PackageParser.isApkFile(file) || file.isDirectory()) {
+                packageFiles.add(file);
+            }
+        }
+        return parsePackages(packageFiles, parseFlags, collectCertificates);
+    }
+
+    /**
+     * Parses the given package files, each a single APK or a cluster directory,
+     * and returns one result per file in the same order. A package that fails
+     * to parse has its {@link PackageParserException} in its result; any other
+     * exception is thrown once all packages before it have been parsed.
+     *
+     * @param collectCertificates whether to also collect the signing
+     *            certificates of each package, as
+     *            {@link PackageParser#collectCertificates} does
+     */
+    public List<ParseResult> parsePackages(List<File> packageFiles, final int parseFlags,
+            final boolean collectCertificates) {
+        final int count = packageFiles.size();
+        final ArrayList<Future<ParseResult>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final File packageFile = packageFiles.get(i);
+            futures.add(mExecutor.submit(new Callable<ParseResult>() {
+                @Override
+                public ParseResult call() {
+                    return parsePackage(packageFile, parseFlags, collectCertificates);
+                }
+            }));
+        }
+
+        final ArrayList<ParseResult> results = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                results.add(futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing packages", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            for (int i = results.size(); i < count; i++) {
+                futures.get(i).cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private ParseResult parsePackage(File packageFile, int parseFlags,
+            boolean collectCertificates) {
+        final PackageParser parser = mParsers.get();
+        final PackageParser.ParseTimings timings = new PackageParser.ParseTimings();
+        parser.setParseTimings(timings);
+        try {
+            final PackageParser.Package pkg = parser.parsePackage(packageFile, parseFlags);
+            if (collectCertificates) {
+                final long certificatesStart = System.nanoTime();
+                PackageParser.collectCertificates(pkg, parseFlags);
+                timings.certificatesNanos = System.nanoTime() - certificatesStart;
+            }
+            return new ParseResult(packageFile, pkg, null, timings);
+        } catch (PackageParserException e) {
+            return new ParseResult(packageFile, null, e, timings);
+        } finally {
+            parser.setParseTimings(null);
+        }
+    }
+
+    /** Stops the pool threads; packages still queued are not parsed. */
+    @Override
+    public void close() {
+        mExecutor.shutdownNow();
+    }
+}
@@ -17,6 +17,7 @@
 package android.database;
 
 import android.content.ContentValues;
+import android.content.ContentValuesSchema;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.sqlite.SQLiteAbortException;
@@ -215,6 +216,43 @@ public class DatabaseUtils {
         }
     }
 
+    /**
+     * Binds the columns of {@code row} that have been put, in column order,
+     * to consecutive arguments of {@code prog} starting at {@code index}, as
+     * {@link #bindObjectToProgram} would bind each boxed value.
+     *
+     * @return the index of the next argument after those bound
+     * @hide
+     */
+    public static int bindRowToProgram(SQLiteProgram prog, int index,
+            ContentValuesSchema.Row row) {
+        final int numColumns = row.getSchema().getColumnCount();
+        for (int column = 0; column < numColumns; column++) {
+            if (!row.containsKey(column)) {
+                continue;
+            }
+            switch (row.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    prog.bindNull(index);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    prog.bindLong(index, row.getLong(column));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    prog.bindDouble(index, row.getDouble(column));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    prog.bindBlob(index, row.getBlob(column));
+                    break;
+                default:
+                    prog.bindString(index, row.getString(column));
+                    break;
+            }
+            index++;
+        }
+        return index;
+    }
+
     /**
      * Returns data type of the given object's value.
      *<p>
@@ -742,6 +780,42 @@ public class DatabaseUtils {
         }
     }
 
+    /**
+     * Reads the current row of {@code cursor} into {@code row}, by the type
+     * of each value, for every cursor column that is also a column of the
+     * row's schema.  Other columns of the row are left as they were.
+     *
+     * @hide
+     */
+    public static void cursorRowToRow(Cursor cursor, ContentValuesSchema.Row row) {
+        final ContentValuesSchema schema = row.getSchema();
+        final String[] columns = cursor.getColumnNames();
+        final int length = columns.length;
+        for (int i = 0; i < length; i++) {
+            final int column = schema.getColumnIndex(columns[i]);
+            if (column < 0) {
+                continue;
+            }
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    row.putNull(column);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row.put(column, cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row.put(column, cursor.getDouble(i));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row.put(column, cursor.getBlob(i));
+                    break;
+                default:
+                    row.put(column, cursor.getString(i));
+                    break;
+            }
+        }
+    }
+
     /**
      * Picks a start position for {@link Cursor#fillWindow} such that the
      * window will contain the requested row and a useful range of rows
@@ -19,6 +19,7 @@ package android.database.sqlite;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.content.ContentValues;
+import android.content.ContentValuesSchema;
 import android.database.Cursor;
 import android.database.DatabaseErrorHandler;
 import android.database.DatabaseUtils;
@@ -1480,6 +1481,64 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Inserts a row held in a {@link ContentValuesSchema.Row}, as
+     * {@link #insertWithOnConflict(String, String, ContentValues, int)} would
+     * insert the same values held in {@link ContentValues}, but without boxing
+     * them.  When every column of the schema has been put, the statement is
+     * built once per schema and table rather than once per row.
+     *
+     * @hide
+     */
+    public long insertWithOnConflict(String table, String nullColumnHack,
+            ContentValuesSchema.Row row, int conflictAlgorithm) {
+        acquireReference();
+        try {
+            final String sql;
+            if (row.isComplete() && row.size() > 0) {
+                sql = row.getSchema().getInsertSql(table, CONFLICT_VALUES[conflictAlgorithm]);
+            } else {
+                StringBuilder sb = new StringBuilder();
+                sb.append("INSERT");
+                sb.append(CONFLICT_VALUES[conflictAlgorithm]);
+                sb.append(" INTO ");
+                sb.append(table);
+                sb.append('(');
+                final int size = row.size();
+                if (size > 0) {
+                    final ContentValuesSchema schema = row.getSchema();
+                    final int numColumns = schema.getColumnCount();
+                    int i = 0;
+                    for (int column = 0; column < numColumns; column++) {
+                        if (row.containsKey(column)) {
+                            sb.append((i++ > 0) ? "," : "");
+                            sb.append(schema.getColumnName(column));
+                        }
+                    }
+                    sb.append(')');
+                    sb.append(" VALUES (");
+                    for (i = 0; i < size; i++) {
+                        sb.append((i > 0) ? ",?" : "?");
+                    }
+                } else {
+                    sb.append(nullColumnHack + ") VALUES (NULL");
+                }
+                sb.append(')');
+                sql = sb.toString();
+            }
+
+            SQLiteStatement statement = new SQLiteStatement(this, sql, null);
+            try {
+                DatabaseUtils.bindRowToProgram(statement, 1, row);
+                return statement.executeInsert();
+            } finally {
+                statement.close();
+            }
+        } finally {
+            releaseReference();
+        }
+    }
+
     /**
      * Convenience method for deleting rows in the database.
      *
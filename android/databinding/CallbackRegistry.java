@@ -22,8 +22,10 @@ import java.util.List;
  * A utility for storing and notifying callbacks. This class supports reentrant modification
  * of the callbacks during notification without adversely disrupting notifications.
  * A common pattern for callbacks is to receive a notification and then remove
- * themselves. This class handles this behavior with constant memory under
- * most circumstances.
+ * themselves. This class handles this behavior without locking or allocating during
+ * notification: the callbacks are kept in an array that is replaced, never modified, when a
+ * callback is added or removed, so each notification goes to the callbacks that were
+ * registered when it started.
  *
  * <p>A subclass of {@link CallbackRegistry.NotifierCallback} must be passed to
  * the constructor to define how notifications should be called. That implementation
@@ -44,26 +46,13 @@ import java.util.List;
 public class CallbackRegistry<C, T, A> implements Cloneable {
     private static final String TAG = "CallbackRegistry";
 
-    /** An ordered collection of listeners waiting to be notified. */
-    private List<C> mCallbacks = new ArrayList<C>();
+    private static final Object[] EMPTY_CALLBACKS = new Object[0];
 
     /**
-     * A bit flag for the first 64 listeners that are removed during notification.
-     * The lowest significant bit corresponds to the 0th index into mCallbacks.
-     * For a small number of callbacks, no additional array of objects needs to
-     * be allocated.
+     * An ordered collection of listeners waiting to be notified. The array is never modified
+     * once published; add, remove and clear replace it, so notification reads it without a lock.
      */
-    private long mFirst64Removed = 0x0;
-
-    /**
-     * Bit flags for the remaining callbacks that are removed during notification.
-     * When there are more than 64 callbacks and one is marked for removal, a dynamic
-     * array of bits are allocated for the callbacks.
-     */
-    private long[] mRemainderRemoved;
-
-    /** The recursion level of the notification */
-    private int mNotificationLevel;
+    private volatile Object[] mCallbacks = EMPTY_CALLBACKS;
 
     /** The notification mechanism for notifying an event. */
     private final NotifierCallback<C, T, A> mNotifier;
@@ -77,84 +66,8 @@ public class CallbackRegistry<C, T, A> implements Cloneable {
     }
 
     /**
-     * Notify all callbacks.
-     *
-     * @param sender The originator. This is an opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param arg An opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param arg2 An opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     */
-    public synchronized void notifyCallbacks(T sender, int arg, A arg2) {
-        mNotificationLevel++;
-        notifyRecurse(sender, arg, arg2);
-        mNotificationLevel--;
-        if (mNotificationLevel == 0) {
-            if (mRemainderRemoved != null) {
-                for (int i = mRemainderRemoved.length - 1; i >= 0; i--) {
-                    final long removedBits = mRemainderRemoved[i];
-                    if (removedBits != 0) {
-                        removeRemovedCallbacks((i + 1) * Long.SIZE, removedBits);
-                        mRemainderRemoved[i] = 0;
-                    }
-                }
-            }
-            if (mFirst64Removed != 0) {
-                removeRemovedCallbacks(0, mFirst64Removed);
-                mFirst64Removed = 0;
-            }
-        }
-    }
-
-    /**
-     * Notify up to the first Long.SIZE callbacks that don't have a bit set in <code>removed</code>.
-     *
-     * @param sender The originator. This is an opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param arg An opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param arg2 An opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     */
-    private void notifyFirst64(T sender, int arg, A arg2) {
-        final int maxNotified = Math.min(Long.SIZE, mCallbacks.size());
-        notifyCallbacks(sender, arg, arg2, 0, maxNotified, mFirst64Removed);
-    }
-
-    /**
-     * Notify all callbacks using a recursive algorithm to avoid allocating on the heap.
-     * This part captures the callbacks beyond Long.SIZE that have no bits allocated for
-     * removal before it recurses into {@link #notifyRemainder(Object, int, A, int)}.
-     *
-     * <p>Recursion is used to avoid allocating temporary state on the heap.</p>
-     *
-     * @param sender The originator. This is an opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param arg An opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param arg2 An opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     */
-    private void notifyRecurse(T sender, int arg, A arg2) {
-        final int callbackCount = mCallbacks.size();
-        final int remainderIndex = mRemainderRemoved == null ? -1 : mRemainderRemoved.length - 1;
-
-        // Now we've got all callbakcs that have no mRemainderRemoved value, so notify the
-        // others.
-        notifyRemainder(sender, arg, arg2, remainderIndex);
-
-        // notifyRemainder notifies all at maxIndex, so we'd normally start at maxIndex + 1
-        // However, we must also keep track of those in mFirst64Removed, so we add 2 instead:
-        final int startCallbackIndex = (remainderIndex + 2) * Long.SIZE;
-
-        // The remaining have no bit set
-        notifyCallbacks(sender, arg, arg2, startCallbackIndex, callbackCount, 0);
-    }
-
-    /**
-     * Notify callbacks that have mRemainderRemoved bits set for remainderIndex. If
-     * remainderIndex is -1, the first 64 will be notified instead.
+     * Notify all callbacks registered when this call starts. Callbacks added or removed during
+     * the notification, by a callback or by another thread, take effect from the next one.
      *
      * @param sender The originator. This is an opaque parameter passed to
      * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
@@ -162,45 +75,12 @@ public class CallbackRegistry<C, T, A> implements Cloneable {
      * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
      * @param arg2 An opaque parameter passed to
      * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param remainderIndex The index into mRemainderRemoved that should be notified.
      */
-    private void notifyRemainder(T sender, int arg, A arg2, int remainderIndex) {
-        if (remainderIndex < 0) {
-            notifyFirst64(sender, arg, arg2);
-        } else {
-            final long bits = mRemainderRemoved[remainderIndex];
-            final int startIndex = (remainderIndex + 1) * Long.SIZE;
-            final int endIndex = Math.min(mCallbacks.size(), startIndex + Long.SIZE);
-            notifyRemainder(sender, arg, arg2, remainderIndex - 1);
-            notifyCallbacks(sender, arg, arg2, startIndex, endIndex, bits);
-        }
-    }
-
-    /**
-     * Notify callbacks from startIndex to endIndex, using bits as the bit status
-     * for whether they have been removed or not. bits should be from mRemainderRemoved or
-     * mFirst64Removed. bits set to 0 indicates that all callbacks from startIndex to
-     * endIndex should be notified.
-     *
-     * @param sender The originator. This is an opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param arg An opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param arg2 An opaque parameter passed to
-     * {@link CallbackRegistry.NotifierCallback#onNotifyCallback(Object, Object, int, Object)}
-     * @param startIndex The index into the mCallbacks to start notifying.
-     * @param endIndex One past the last index into mCallbacks to notify.
-     * @param bits A bit field indicating which callbacks have been removed and shouldn't
-     *             be notified.
-     */
-    private void notifyCallbacks(T sender, int arg, A arg2, final int startIndex,
-            final int endIndex, final long bits) {
-        long bitMask = 1;
-        for (int i = startIndex; i < endIndex; i++) {
-            if ((bits & bitMask) == 0) {
-                mNotifier.onNotifyCallback(mCallbacks.get(i), sender, arg, arg2);
-            }
-            bitMask <<= 1;
+    @SuppressWarnings("unchecked")
+    public void notifyCallbacks(T sender, int arg, A arg2) {
+        final Object[] callbacks = mCallbacks;
+        for (int i = 0; i < callbacks.length; i++) {
+            mNotifier.onNotifyCallback((C) callbacks[i], sender, arg, arg2);
         }
     }
 
@@ -210,95 +90,44 @@ public class CallbackRegistry<C, T, A> implements Cloneable {
      * @param callback The callback to add.
      */
     public synchronized void add(C callback) {
-        int index = mCallbacks.lastIndexOf(callback);
-        if (index < 0 || isRemoved(index)) {
-            mCallbacks.add(callback);
-        }
-    }
-
-    /**
-     * Returns true if the callback at index has been marked for removal.
-     *
-     * @param index The index into mCallbacks to check.
-     * @return true if the callback at index has been marked for removal.
-     */
-    private boolean isRemoved(int index) {
-        if (index < Long.SIZE) {
-            // It is in the first 64 callbacks, just check the bit.
-            final long bitMask = 1L << index;
-            return (mFirst64Removed & bitMask) != 0;
-        } else if (mRemainderRemoved == null) {
-            // It is after the first 64 callbacks, but nothing else was marked for removal.
-            return false;
-        } else {
-            final int maskIndex = (index / Long.SIZE) - 1;
-            if (maskIndex >= mRemainderRemoved.length) {
-                // There are some items in mRemainderRemoved, but nothing at the given index.
-                return false;
-            } else {
-                // There is something marked for removal, so we have to check the bit.
-                final long bits = mRemainderRemoved[maskIndex];
-                final long bitMask = 1L << (index % Long.SIZE);
-                return (bits & bitMask) != 0;
-            }
-        }
-    }
-
-    /**
-     * Removes callbacks from startIndex to startIndex + Long.SIZE, based
-     * on the bits set in removed.
-     *
-     * @param startIndex The index into the mCallbacks to start removing callbacks.
-     * @param removed The bits indicating removal, where each bit is set for one callback
-     *                to be removed.
-     */
-    private void removeRemovedCallbacks(int startIndex, long removed) {
-        // The naive approach should be fine. There may be a better bit-twiddling approach.
-        final int endIndex = startIndex + Long.SIZE;
-
-        long bitMask = 1L << (Long.SIZE - 1);
-        for (int i = endIndex - 1; i >= startIndex; i--) {
-            if ((removed & bitMask) != 0) {
-                mCallbacks.remove(i);
-            }
-            bitMask >>>= 1;
+        final Object[] callbacks = mCallbacks;
+        if (indexOf(callbacks, callback) < 0) {
+            final Object[] newCallbacks = new Object[callbacks.length + 1];
+            System.arraycopy(callbacks, 0, newCallbacks, 0, callbacks.length);
+            newCallbacks[callbacks.length] = callback;
+            mCallbacks = newCallbacks;
         }
     }
 
     /**
-     * Remove a callback. This callback won't be notified after this call completes.
+     * Remove a callback. This callback won't be notified by notifications that start after
+     * this call completes.
      *
      * @param callback The callback to remove.
      */
     public synchronized void remove(C callback) {
-        if (mNotificationLevel == 0) {
-            mCallbacks.remove(callback);
-        } else {
-            int index = mCallbacks.lastIndexOf(callback);
-            if (index >= 0) {
-                setRemovalBit(index);
+        final Object[] callbacks = mCallbacks;
+        final int index = indexOf(callbacks, callback);
+        if (index >= 0) {
+            if (callbacks.length == 1) {
+                mCallbacks = EMPTY_CALLBACKS;
+            } else {
+                final Object[] newCallbacks = new Object[callbacks.length - 1];
+                System.arraycopy(callbacks, 0, newCallbacks, 0, index);
+                System.arraycopy(callbacks, index + 1, newCallbacks, index,
+                        callbacks.length - index - 1);
+                mCallbacks = newCallbacks;
             }
         }
     }
 
-    private void setRemovalBit(int index) {
-        if (index < Long.SIZE) {
-            // It is in the first 64 callbacks, just check the bit.
-            final long bitMask = 1L << index;
-            mFirst64Removed |= bitMask;
-        } else {
-            final int remainderIndex = (index / Long.SIZE) - 1;
-            if (mRemainderRemoved == null) {
-                mRemainderRemoved = new long[mCallbacks.size() / Long.SIZE];
-            } else if (mRemainderRemoved.length < remainderIndex) {
-                // need to make it bigger
-                long[] newRemainders = new long[mCallbacks.size() / Long.SIZE];
-                System.arraycopy(mRemainderRemoved, 0, newRemainders, 0, mRemainderRemoved.length);
-                mRemainderRemoved = newRemainders;
+    private static int indexOf(Object[] callbacks, Object callback) {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callback == null ? callbacks[i] == null : callback.equals(callbacks[i])) {
+                return i;
             }
-            final long bitMask = 1L << (index % Long.SIZE);
-            mRemainderRemoved[remainderIndex] |= bitMask;
         }
+        return -1;
     }
 
     /**
@@ -306,14 +135,9 @@ public class CallbackRegistry<C, T, A> implements Cloneable {
      *
      * @return a copy of the registered callbacks.
      */
-    public synchronized ArrayList<C> copyCallbacks() {
-        ArrayList<C> callbacks = new ArrayList<C>(mCallbacks.size());
-        int numListeners = mCallbacks.size();
-        for (int i = 0; i < numListeners; i++) {
-            if (!isRemoved(i)) {
-                callbacks.add(mCallbacks.get(i));
-            }
-        }
+    public ArrayList<C> copyCallbacks() {
+        ArrayList<C> callbacks = new ArrayList<C>(mCallbacks.length);
+        copyCallbacks(callbacks);
         return callbacks;
     }
 
@@ -322,13 +146,12 @@ public class CallbackRegistry<C, T, A> implements Cloneable {
      *
      * @param callbacks modified to contain all callbacks registered to receive events.
      */
-    public synchronized void copyCallbacks(List<C> callbacks) {
+    @SuppressWarnings("unchecked")
+    public void copyCallbacks(List<C> callbacks) {
         callbacks.clear();
-        int numListeners = mCallbacks.size();
-        for (int i = 0; i < numListeners; i++) {
-            if (!isRemoved(i)) {
-                callbacks.add(mCallbacks.get(i));
-            }
+        final Object[] registered = mCallbacks;
+        for (int i = 0; i < registered.length; i++) {
+            callbacks.add((C) registered[i]);
         }
     }
 
@@ -337,33 +160,15 @@ public class CallbackRegistry<C, T, A> implements Cloneable {
      *
      * @return true if there are no registered callbacks or false otherwise.
      */
-    public synchronized boolean isEmpty() {
-        if (mCallbacks.isEmpty()) {
-            return true;
-        } else if (mNotificationLevel == 0) {
-            return false;
-        } else {
-            int numListeners = mCallbacks.size();
-            for (int i = 0; i < numListeners; i++) {
-                if (!isRemoved(i)) {
-                    return false;
-                }
-            }
-            return true;
-        }
+    public boolean isEmpty() {
+        return mCallbacks.length == 0;
     }
 
     /**
      * Removes all callbacks from the list.
      */
     public synchronized void clear() {
-        if (mNotificationLevel == 0) {
-            mCallbacks.clear();
-        } else if (!mCallbacks.isEmpty()) {
-            for (int i = mCallbacks.size() - 1; i >= 0; i--) {
-                setRemovalBit(i);
-            }
-        }
+        mCallbacks = EMPTY_CALLBACKS;
     }
 
     /**
@@ -373,17 +178,8 @@ public class CallbackRegistry<C, T, A> implements Cloneable {
     public synchronized CallbackRegistry<C, T, A> clone() {
         CallbackRegistry<C, T, A> clone = null;
         try {
+            // The callback array is never modified, so the copies can share it.
             clone = (CallbackRegistry<C, T, A>) super.clone();
-            clone.mFirst64Removed = 0;
-            clone.mRemainderRemoved = null;
-            clone.mNotificationLevel = 0;
-            clone.mCallbacks = new ArrayList<C>();
-            final int numListeners = mCallbacks.size();
-            for (int i = 0; i < numListeners; i++) {
-                if (!isRemoved(i)) {
-                    clone.mCallbacks.add(mCallbacks.get(i));
-                }
-            }
         } catch (CloneNotSupportedException e) {
             e.printStackTrace();
         }
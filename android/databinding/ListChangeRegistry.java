@@ -19,6 +19,12 @@ import android.support.v4.util.Pools;
 
 /**
  * Utility class for managing ObservableList callbacks.
+ * <p>
+ * Between {@link #beginBatchedChanges()} and {@link #endBatchedChanges()}, changes are held
+ * back and merged with the one before them where they form a single range: items inserted
+ * within or next to items just inserted, removals that take in the position of the previous
+ * removal, and changes to overlapping or adjacent items. Callbacks then hear about a bulk edit
+ * once rather than once per item.
  */
 public class ListChangeRegistry
         extends
@@ -33,6 +39,8 @@ public class ListChangeRegistry
     private static final int MOVED = 3;
     private static final int REMOVED = 4;
 
+    private static final int NONE = -1;
+
     private static final CallbackRegistry.NotifierCallback<ObservableList.OnListChangedCallback,
             ObservableList, ListChanges> NOTIFIER_CALLBACK = new CallbackRegistry.NotifierCallback<
             ObservableList.OnListChangedCallback, ObservableList, ListChanges>() {
@@ -66,6 +74,9 @@ public class ListChangeRegistry
      * @param list The list that changed.
      */
     public void notifyChanged(ObservableList list) {
+        if (holdBack(list, ALL, 0, 0)) {
+            return;
+        }
         notifyCallbacks(list, ALL, null);
     }
 
@@ -77,6 +88,9 @@ public class ListChangeRegistry
      * @param count The number of changed elements.
      */
     public void notifyChanged(ObservableList list, int start, int count) {
+        if (holdBack(list, CHANGED, start, count)) {
+            return;
+        }
         ListChanges listChanges = acquire(start, 0, count);
         notifyCallbacks(list, CHANGED, listChanges);
     }
@@ -89,6 +103,9 @@ public class ListChangeRegistry
      * @param count The number of elements that were inserted.
      */
     public void notifyInserted(ObservableList list, int start, int count) {
+        if (holdBack(list, INSERTED, start, count)) {
+            return;
+        }
         ListChanges listChanges = acquire(start, 0, count);
         notifyCallbacks(list, INSERTED, listChanges);
     }
@@ -102,6 +119,11 @@ public class ListChangeRegistry
      * @param count The number of elements moved.
      */
     public void notifyMoved(ObservableList list, int from, int to, int count) {
+        // Moves are only merged into an unknown change; otherwise they are sent at once, after
+        // anything held back before them.
+        if (holdBack(list, MOVED, from, count)) {
+            return;
+        }
         ListChanges listChanges = acquire(from, to, count);
         notifyCallbacks(list, MOVED, listChanges);
     }
@@ -114,6 +136,9 @@ public class ListChangeRegistry
      * @param count The number of elements removed.
      */
     public void notifyRemoved(ObservableList list, int start, int count) {
+        if (holdBack(list, REMOVED, start, count)) {
+            return;
+        }
         ListChanges listChanges = acquire(start, 0, count);
         notifyCallbacks(list, REMOVED, listChanges);
     }
@@ -129,8 +154,106 @@ public class ListChangeRegistry
         return listChanges;
     }
 
+    /**
+     * Starts holding back notifications so that they can be merged. Batches may nest; the
+     * changes are sent when the outermost one ends. Must be called on the thread that changes
+     * the list.
+     */
+    public void beginBatchedChanges() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch started with {@link #beginBatchedChanges()}, sending the change still held
+     * back if this ends the outermost batch.
+     */
+    public void endBatchedChanges() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("endBatchedChanges() called without a batch");
+        }
+        if (--mBatchDepth == 0 && mPendingType != NONE) {
+            dispatchPending();
+        }
+    }
+
+    /**
+     * Returns true if the change was held back to be sent later, or false if it should be sent
+     * now. Any held back change that it cannot be merged with is sent first.
+     */
+    private boolean holdBack(ObservableList list, int type, int start, int count) {
+        if (mBatchDepth == 0) {
+            return false;
+        }
+        if (mPendingType != NONE) {
+            if (mPendingList == list && merge(type, start, count)) {
+                return true;
+            }
+            dispatchPending();
+        }
+        if (type == MOVED) {
+            return false;
+        }
+        mPendingList = list;
+        mPendingType = type;
+        mPendingStart = start;
+        mPendingCount = count;
+        return true;
+    }
+
+    private boolean merge(int type, int start, int count) {
+        if (mPendingType == ALL) {
+            // An unknown change covers whatever follows it.
+            return true;
+        } else if (type == ALL) {
+            mPendingType = ALL;
+            return true;
+        } else if (type != mPendingType) {
+            return false;
+        }
+        final int pendingEnd = mPendingStart + mPendingCount;
+        switch (type) {
+            case CHANGED:
+                if (start <= pendingEnd && start + count >= mPendingStart) {
+                    final int end = Math.max(pendingEnd, start + count);
+                    mPendingStart = Math.min(mPendingStart, start);
+                    mPendingCount = end - mPendingStart;
+                    return true;
+                }
+                return false;
+            case INSERTED:
+                // The new items land inside or at either end of those already inserted.
+                if (start >= mPendingStart && start <= pendingEnd) {
+                    mPendingCount += count;
+                    return true;
+                }
+                return false;
+            case REMOVED:
+                // The removed items surround the position the earlier ones were removed from.
+                if (mPendingStart >= start && mPendingStart <= start + count) {
+                    mPendingStart = start;
+                    mPendingCount += count;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void dispatchPending() {
+        final ObservableList list = mPendingList;
+        final int type = mPendingType;
+        mPendingList = null;
+        mPendingType = NONE;
+        if (type == ALL) {
+            notifyCallbacks(list, ALL, null);
+        } else {
+            notifyCallbacks(list, type, acquire(mPendingStart, 0, mPendingCount));
+        }
+    }
+
     @Override
-    public synchronized void notifyCallbacks(ObservableList sender, int notificationType,
+    public void notifyCallbacks(ObservableList sender, int notificationType,
             ListChanges listChanges) {
         super.notifyCallbacks(sender, notificationType, listChanges);
         if (listChanges != null) {
@@ -138,6 +261,13 @@ public class ListChangeRegistry
         }
     }
 
+    // The change held back while batching, and how deeply batches are nested.
+    private int mBatchDepth;
+    private ObservableList mPendingList;
+    private int mPendingType = NONE;
+    private int mPendingStart;
+    private int mPendingCount;
+
     public ListChangeRegistry() {
         super(NOTIFIER_CALLBACK);
     }
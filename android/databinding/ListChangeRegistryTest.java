@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.databinding;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class ListChangeRegistryTest {
+
+    ObservableArrayList<Integer> list;
+    ArrayList<String> changes;
+    ObservableList.OnListChangedCallback callback;
+
+    @Before
+    public void setUp() {
+        list = new ObservableArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            list.add(i);
+        }
+        changes = new ArrayList<String>();
+        callback = new ObservableList.OnListChangedCallback() {
+            @Override
+            public void onChanged(ObservableList sender) {
+                changes.add("changed");
+            }
+
+            @Override
+            public void onItemRangeChanged(ObservableList sender, int start, int count) {
+                changes.add("changed " + start + " " + count);
+            }
+
+            @Override
+            public void onItemRangeInserted(ObservableList sender, int start, int count) {
+                changes.add("inserted " + start + " " + count);
+            }
+
+            @Override
+            public void onItemRangeMoved(ObservableList sender, int from, int to, int count) {
+                changes.add("moved " + from + " " + to + " " + count);
+            }
+
+            @Override
+            public void onItemRangeRemoved(ObservableList sender, int start, int count) {
+                changes.add("removed " + start + " " + count);
+            }
+        };
+        list.addOnListChangedCallback(callback);
+    }
+
+    @Test
+    public void testUnbatchedChangesNotifyEach() {
+        list.add(10);
+        list.add(11);
+        assertEquals(2, changes.size());
+        assertEquals("inserted 10 1", changes.get(0));
+        assertEquals("inserted 11 1", changes.get(1));
+    }
+
+    @Test
+    public void testBatchedAppendsMerge() {
+        list.beginBatchedChanges();
+        for (int i = 0; i < 100; i++) {
+            list.add(i);
+        }
+        assertEquals(0, changes.size());
+        list.endBatchedChanges();
+        assertEquals(1, changes.size());
+        assertEquals("inserted 10 100", changes.get(0));
+    }
+
+    @Test
+    public void testBatchedInsertsInsideRangeMerge() {
+        list.beginBatchedChanges();
+        list.add(3, 100);
+        list.add(3, 101);
+        list.add(5, 102);
+        list.add(4, 103);
+        list.endBatchedChanges();
+        assertEquals(1, changes.size());
+        assertEquals("inserted 3 4", changes.get(0));
+    }
+
+    @Test
+    public void testBatchedRemovesMerge() {
+        list.beginBatchedChanges();
+        // From the front, then from the back of what remains.
+        list.remove(0);
+        list.remove(0);
+        list.remove(0);
+        list.endBatchedChanges();
+        list.beginBatchedChanges();
+        for (int i = list.size() - 1; i >= 2; i--) {
+            list.remove(i);
+        }
+        list.endBatchedChanges();
+        assertEquals(2, changes.size());
+        assertEquals("removed 0 3", changes.get(0));
+        assertEquals("removed 2 5", changes.get(1));
+        assertEquals(2, list.size());
+    }
+
+    @Test
+    public void testBatchedSetsMerge() {
+        list.beginBatchedChanges();
+        list.set(4, 0);
+        list.set(5, 0);
+        list.set(3, 0);
+        list.set(4, 0);
+        list.endBatchedChanges();
+        assertEquals(1, changes.size());
+        assertEquals("changed 3 3", changes.get(0));
+    }
+
+    @Test
+    public void testBatchedSeparateChangesKeepOrder() {
+        list.beginBatchedChanges();
+        list.add(10);
+        list.set(0, 0);
+        list.set(5, 0);
+        list.remove(9);
+        list.endBatchedChanges();
+        assertEquals(4, changes.size());
+        assertEquals("inserted 10 1", changes.get(0));
+        assertEquals("changed 0 1", changes.get(1));
+        assertEquals("changed 5 1", changes.get(2));
+        assertEquals("removed 9 1", changes.get(3));
+    }
+
+    @Test
+    public void testBatchedMoveFlushesPending() {
+        ListChangeRegistry registry = new ListChangeRegistry();
+        registry.add(callback);
+        registry.beginBatchedChanges();
+        registry.notifyInserted(list, 0, 1);
+        registry.notifyMoved(list, 0, 5, 1);
+        registry.notifyInserted(list, 1, 1);
+        registry.endBatchedChanges();
+        assertEquals(3, changes.size());
+        assertEquals("inserted 0 1", changes.get(0));
+        assertEquals("moved 0 5 1", changes.get(1));
+        assertEquals("inserted 1 1", changes.get(2));
+    }
+
+    @Test
+    public void testBatchedUnknownChangeAbsorbsOthers() {
+        ListChangeRegistry registry = new ListChangeRegistry();
+        registry.add(callback);
+        registry.beginBatchedChanges();
+        registry.notifyInserted(list, 0, 1);
+        registry.notifyChanged(list);
+        registry.notifyRemoved(list, 3, 1);
+        registry.notifyMoved(list, 0, 5, 1);
+        registry.endBatchedChanges();
+        assertEquals(1, changes.size());
+        assertEquals("changed", changes.get(0));
+    }
+
+    @Test
+    public void testNestedBatches() {
+        list.beginBatchedChanges();
+        list.add(10);
+        list.beginBatchedChanges();
+        list.add(11);
+        list.endBatchedChanges();
+        assertEquals(0, changes.size());
+        list.add(12);
+        list.endBatchedChanges();
+        assertEquals(1, changes.size());
+        assertEquals("inserted 10 3", changes.get(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEndWithoutBegin() {
+        list.endBatchedChanges();
+    }
+}
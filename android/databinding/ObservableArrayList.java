@@ -39,6 +39,29 @@ public class ObservableArrayList<T> extends ArrayList<T> implements ObservableLi
         }
     }
 
+    /**
+     * Holds back change notifications until the matching {@link #endBatchedChanges()}, so that
+     * a bulk edit of adjacent items reaches the callbacks as one range change rather than one
+     * per item. Batches may nest.
+     */
+    public void beginBatchedChanges() {
+        if (mListeners == null) {
+            mListeners = new ListChangeRegistry();
+        }
+        mListeners.beginBatchedChanges();
+    }
+
+    /**
+     * Ends a batch started with {@link #beginBatchedChanges()}, notifying the callbacks of the
+     * changes held back if this ends the outermost batch.
+     */
+    public void endBatchedChanges() {
+        if (mListeners == null) {
+            throw new IllegalStateException("endBatchedChanges() called without a batch");
+        }
+        mListeners.endBatchedChanges();
+    }
+
     @Override
     public boolean add(T object) {
         super.add(object);
@@ -23,6 +23,7 @@ import android.filterfw.core.FilterGraph;
 import android.filterfw.core.FilterContext;
 import android.filterfw.core.FrameManager;
 import android.filterfw.core.GraphRunner;
+import android.filterfw.core.ParallelRunner;
 import android.filterfw.core.RoundRobinScheduler;
 import android.filterfw.core.SyncRunner;
 import android.filterfw.io.GraphIOException;
@@ -47,6 +48,7 @@ public class GraphEnvironment extends MffEnvironment {
 
     public static final int MODE_ASYNCHRONOUS = 1;
     public static final int MODE_SYNCHRONOUS  = 2;
+    public static final int MODE_PARALLEL     = 3;
 
     private GraphReader mGraphReader;
     private ArrayList<GraphHandle> mGraphs = new ArrayList<GraphHandle>();
@@ -55,6 +57,7 @@ public class GraphEnvironment extends MffEnvironment {
         private FilterGraph mGraph;
         private AsyncRunner mAsyncRunner;
         private SyncRunner mSyncRunner;
+        private ParallelRunner mParallelRunner;
 
         public GraphHandle(FilterGraph graph) {
             mGraph = graph;
@@ -78,6 +81,13 @@ public class GraphEnvironment extends MffEnvironment {
             }
             return mSyncRunner;
         }
+
+        public GraphRunner getParallelRunner(FilterContext environment) {
+            if (mParallelRunner == null) {
+                mParallelRunner = new ParallelRunner(environment, mGraph);
+            }
+            return mParallelRunner;
+        }
     }
 
     /**
@@ -176,8 +186,8 @@ public class GraphEnvironment extends MffEnvironment {
      * specified ID could be found.
      *
      * @param graphId       The ID of the graph to get.
-     * @param executionMode The mode of graph execution. Currently this can be either
-                            MODE_SYNCHRONOUS or MODE_ASYNCHRONOUS.
+     * @param executionMode The mode of graph execution. Currently this can be
+                            MODE_SYNCHRONOUS, MODE_ASYNCHRONOUS or MODE_PARALLEL.
      * @return              A GraphRunner instance for this graph.
      */
     public GraphRunner getRunner(int graphId, int executionMode) {
@@ -188,6 +198,9 @@ public class GraphEnvironment extends MffEnvironment {
             case MODE_SYNCHRONOUS:
                 return mGraphs.get(graphId).getSyncRunner(getContext());
 
+            case MODE_PARALLEL:
+                return mGraphs.get(graphId).getParallelRunner(getContext());
+
             default:
                 throw new RuntimeException(
                     "Invalid execution mode " + executionMode + " specified in getRunner()!");
@@ -214,12 +214,13 @@ public abstract class Frame {
 
     protected abstract void releaseNativeAllocation();
 
-    final int incRefCount() {
+    // Frames are retained and released from several threads under ParallelRunner.
+    final synchronized int incRefCount() {
         ++mRefCount;
         return mRefCount;
     }
 
-    final int decRefCount() {
+    final synchronized int decRefCount() {
         --mRefCount;
         return mRefCount;
     }
@@ -22,6 +22,7 @@ import android.filterfw.core.MutableFrameFormat;
 
 import java.util.Arrays;
 import java.util.Map.Entry;
+import java.util.Objects;
 
 /**
  * @hide
@@ -182,7 +183,7 @@ public class FrameFormat {
                 format.mTarget == mTarget &&
                 format.mBytesPerSample == mBytesPerSample &&
                 Arrays.equals(format.mDimensions, mDimensions) &&
-                format.mMetaData.equals(mMetaData);
+                Objects.equals(format.mMetaData, mMetaData);
     }
 
     @Override
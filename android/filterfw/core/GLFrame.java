@@ -263,9 +263,13 @@ public class GLFrame extends Frame {
 
         // Invoke optimized implementations if possible
         if (frame instanceof NativeFrame) {
-            nativeCopyFromNative((NativeFrame)frame);
+            if (!nativeCopyFromNative((NativeFrame)frame)) {
+                throw new RuntimeException("Could not copy native frame data to GL frame!");
+            }
         } else if (frame instanceof GLFrame) {
-            nativeCopyFromGL((GLFrame)frame);
+            if (!nativeCopyFromGL((GLFrame)frame)) {
+                throw new RuntimeException("Could not copy GL frame data!");
+            }
         } else if (frame instanceof SimpleFrame) {
             setObjectValue(frame.getObjectValue());
         } else {
@@ -209,9 +209,13 @@ public class NativeFrame extends Frame {
 
         // Invoke optimized implementations if possible
         if (frame instanceof NativeFrame) {
-            nativeCopyFromNative((NativeFrame)frame);
+            if (!nativeCopyFromNative((NativeFrame)frame)) {
+                throw new RuntimeException("Could not copy native frame data!");
+            }
         } else if (frame instanceof GLFrame) {
-            nativeCopyFromGL((GLFrame)frame);
+            if (!nativeCopyFromGL((GLFrame)frame)) {
+                throw new RuntimeException("Could not copy GL frame data to native frame!");
+            }
         } else if (frame instanceof SimpleFrame) {
             setObjectValue(frame.getObjectValue());
         } else {
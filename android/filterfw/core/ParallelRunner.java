@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.filterfw.core;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a graph as a dataflow: every filter that can process is handed to a pool of worker
+ * threads, so independent filters run at the same time.
+ *
+ * Each stream connection holds one frame, and a filter only runs once its outputs are free, so
+ * a chain of filters works as a pipeline: while one filter processes a frame, the filter before
+ * it can already produce the next one, and a slow filter holds back the filters feeding it
+ * rather than letting frames pile up. No filter runs on more than one thread at a time.
+ *
+ * Like SyncRunner, run() blocks until the graph finishes, is stopped, or fails. Unlike it, run()
+ * waits for sleeping filters to wake rather than returning, and a run that is stopped or fails
+ * closes the graph and drops the frames still in it. Filters run on the worker threads,
+ * where no GL environment is active, so graphs that need one cannot use this runner.
+ *
+ * @hide
+ */
+public class ParallelRunner extends GraphRunner {
+
+    private final FilterGraph mGraph;
+
+    // Filters from sources to sinks; ready filters are started from the sinks up, so that frames
+    // already in the graph move on before new ones are produced.
+    private final Filter[] mFilters;
+
+    private final int mNumThreads;
+
+    // Created for each run and shut down when it returns, so an idle runner holds no threads.
+    private ThreadPoolExecutor mExecutor;
+    private ScheduledThreadPoolExecutor mWakeExecutor;
+
+    private final StopWatchMap mTimer = new StopWatchMap();
+
+    private OnRunnerDoneListener mDoneListener = null;
+
+    // Guarded by mLock.
+    private final Object mLock = new Object();
+    private final boolean[] mBusy;
+    private int mNumBusy = 0;
+    private int mNumSleeping = 0;
+    private boolean mIsRunning = false;
+    private boolean mStopRequested = false;
+    private Exception mError = null;
+
+    private final boolean mLogVerbose;
+    private final static String TAG = "ParallelRunner";
+
+    /** Create a runner that uses one worker thread per CPU. */
+    public ParallelRunner(FilterContext context, FilterGraph graph) {
+        this(context, graph, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Create a runner that processes up to numThreads filters at once. */
+    public ParallelRunner(FilterContext context, FilterGraph graph, int numThreads) {
+        super(context);
+
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("ParallelRunner needs at least one thread!");
+        }
+
+        mLogVerbose = Log.isLoggable(TAG, Log.VERBOSE);
+
+        if (mLogVerbose) Log.v(TAG, "Initializing ParallelRunner with " + numThreads + " threads");
+
+        mNumThreads = numThreads;
+
+        // Associate this runner and the graph with the context
+        mFilterContext.addGraph(graph);
+
+        if (mLogVerbose) Log.v(TAG, "Setting up filters");
+
+        // Setup graph filters
+        graph.setupFilters();
+
+        mGraph = graph;
+        mFilters = sortFilters(graph);
+        mBusy = new boolean[mFilters.length];
+    }
+
+    @Override
+    public FilterGraph getGraph() {
+        return mGraph;
+    }
+
+    /** Enables or disables logging the average time each filter takes to process. */
+    public void setLogFilterTimes(boolean logTimes) {
+        mTimer.LOG_MFF_RUNNING_TIMES = logTimes;
+    }
+
+    @Override
+    public void run() {
+        if (mLogVerbose) Log.v(TAG, "Beginning run.");
+
+        if (mFilterContext.getGLEnvironment() != null) {
+            throw new RuntimeException("ParallelRunner cannot run graphs that use GL!");
+        }
+        synchronized (mLock) {
+            if (mIsRunning) {
+                throw new RuntimeException("Graph is already running!");
+            }
+            mIsRunning = true;
+            mStopRequested = false;
+            mError = null;
+            startExecutors();
+        }
+
+        // Preparation
+        mGraph.beginProcessing();
+
+        // Run
+        int result;
+        boolean interrupted = false;
+        synchronized (mLock) {
+            // From here on, each filter that finishes starts the filters it made ready
+            startReadyFilters(false);
+            while (canStartFilters() && (mNumBusy > 0 || mNumSleeping > 0)) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    mStopRequested = true;
+                }
+            }
+            if (mError != null) {
+                result = RESULT_ERROR;
+            } else if (mStopRequested) {
+                result = RESULT_STOPPED;
+            } else {
+                result = determinePostRunState();
+            }
+
+            // Let the filters that are still processing finish
+            while (mNumBusy > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        shutDownExecutors();
+
+        // Cleanup
+        if (result == RESULT_STOPPED || result == RESULT_ERROR) {
+            if (mLogVerbose) Log.v(TAG, "Closing filters.");
+            try {
+                close();
+                // Drop the frames that were still between filters, so that the next run
+                // doesn't start with them.
+                mGraph.flushFrames();
+            } catch (Exception exception) {
+                result = RESULT_ERROR;
+                synchronized (mLock) {
+                    mError = exception;
+                }
+            }
+        }
+        synchronized (mLock) {
+            mIsRunning = false;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Call completion callback if set
+        if (mDoneListener != null) {
+            if (mLogVerbose) Log.v(TAG, "Calling completion listener.");
+            mDoneListener.onRunnerDone(result);
+        }
+        if (mLogVerbose) Log.v(TAG, "Run complete");
+    }
+
+    @Override
+    public boolean isRunning() {
+        synchronized (mLock) {
+            return mIsRunning;
+        }
+    }
+
+    @Override
+    public void setDoneCallback(OnRunnerDoneListener listener) {
+        mDoneListener = listener;
+    }
+
+    /**
+     * Stops graph execution. Filters that are processing are allowed to finish before run()
+     * closes the graph and returns.
+     */
+    @Override
+    public void stop() {
+        synchronized (mLock) {
+            if (mIsRunning) {
+                if (mLogVerbose) Log.v(TAG, "Stopping graph.");
+                mStopRequested = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            if (mNumBusy > 0) {
+                throw new RuntimeException("Cannot close graph while it is running!");
+            }
+        }
+        if (mLogVerbose) Log.v(TAG, "Closing graph.");
+        mGraph.closeFilters(mFilterContext);
+    }
+
+    @Override
+    public Exception getError() {
+        synchronized (mLock) {
+            return mError;
+        }
+    }
+
+    // Core internal methods ///////////////////////////////////////////////////////////////////////
+    private void startExecutors() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(mNumThreads, mNumThreads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+        mWakeExecutor = new ScheduledThreadPoolExecutor(1);
+    }
+
+    /**
+     * Shuts down the pools once no filter is processing. Filters still sleeping, which only
+     * happens if the run was stopped or failed, are woken right away, so that none is left
+     * asleep for the next run.
+     */
+    private void shutDownExecutors() {
+        mExecutor.shutdown();
+        for (Runnable wake : mWakeExecutor.shutdownNow()) {
+            wake.run();
+        }
+    }
+
+    private boolean canStartFilters() {
+        return mIsRunning && !mStopRequested && mError == null;
+    }
+
+    /**
+     * Marks every idle filter that can process as busy and starts it on the pool. If keepFirst
+     * is set, the first one is not started but returned, so that the calling worker can process
+     * it itself. Returns -1 if there is no such filter. Must be called with mLock held.
+     */
+    private int startReadyFilters(boolean keepFirst) {
+        int first = -1;
+        for (int i = mFilters.length - 1; i >= 0; --i) {
+            if (!mBusy[i] && mFilters[i].canProcess()) {
+                mBusy[i] = true;
+                ++mNumBusy;
+                if (keepFirst && first < 0) {
+                    first = i;
+                } else {
+                    mExecutor.execute(new FilterTask(i));
+                }
+            }
+        }
+        return first;
+    }
+
+    private class FilterTask implements Runnable {
+        private final int mIndex;
+
+        FilterTask(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public void run() {
+            int index = mIndex;
+            while (index >= 0) {
+                index = processFilter(index);
+            }
+        }
+    }
+
+    /** Processes one filter and returns the next one this worker should process, or -1. */
+    private int processFilter(int index) {
+        final Filter filter = mFilters[index];
+        Exception error = null;
+        boolean sleeping = false;
+        if (mLogVerbose) Log.v(TAG, "Processing " + filter);
+        try {
+            mTimer.start(filter.getName());
+            try {
+                filter.performProcess(mFilterContext);
+            } finally {
+                mTimer.stop(filter.getName());
+            }
+            if (filter.getStatus() == Filter.STATUS_ERROR) {
+                error = new RuntimeException("There was an error executing " + filter + "!");
+            } else if (filter.getStatus() == Filter.STATUS_SLEEPING) {
+                sleeping = true;
+            }
+        } catch (Exception exception) {
+            error = exception;
+        }
+
+        synchronized (mLock) {
+            mBusy[index] = false;
+            --mNumBusy;
+            if (error != null && mError == null) {
+                mError = error;
+            }
+            if (sleeping) {
+                ++mNumSleeping;
+                scheduleFilterWake(filter, filter.getSleepDelay());
+            }
+            final int next = canStartFilters() ? startReadyFilters(true) : -1;
+            if (mNumBusy == 0 || !canStartFilters()) {
+                mLock.notifyAll();
+            }
+            return next;
+        }
+    }
+
+    private void scheduleFilterWake(final Filter filter, int delay) {
+        if (mLogVerbose) Log.v(TAG, "Scheduling filter wakeup");
+        mWakeExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                filter.unsetStatus(Filter.STATUS_SLEEPING);
+                synchronized (mLock) {
+                    --mNumSleeping;
+                    if (canStartFilters()) {
+                        startReadyFilters(false);
+                    }
+                    mLock.notifyAll();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private int determinePostRunState() {
+        for (Filter filter : mFilters) {
+            if (filter.isOpen()) {
+                // If a node is still open, it is blocked (by input or output)
+                return RESULT_BLOCKED;
+            }
+        }
+        return RESULT_FINISHED;
+    }
+
+    private static Filter[] sortFilters(FilterGraph graph) {
+        ArrayList<Filter> sorted = new ArrayList<Filter>(graph.getFilters().size());
+        HashSet<Filter> visited = new HashSet<Filter>();
+        LinkedList<Filter> queue = new LinkedList<Filter>();
+        for (Filter filter : graph.getFilters()) {
+            if (filter.getNumberOfConnectedInputs() == 0) {
+                visited.add(filter);
+                queue.add(filter);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Filter filter = queue.removeFirst();
+            sorted.add(filter);
+            for (OutputPort port : filter.getOutputPorts()) {
+                Filter target = port.getTargetFilter();
+                if (target != null && visited.add(target)) {
+                    queue.add(target);
+                }
+            }
+        }
+        // Filters only reachable through cycles keep their graph order
+        for (Filter filter : graph.getFilters()) {
+            if (visited.add(filter)) {
+                sorted.add(filter);
+            }
+        }
+        return sorted.toArray(new Filter[sorted.size()]);
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.filterfw.core;
+
+import android.filterfw.format.ObjectFormat;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs graphs of independent chains of filters passing numbered SimpleFrames, and checks that
+ * every sink receives what it would on one thread, in order, and that errors and stop() end
+ * the run with every filter closed and the runner ready to run again.
+ */
+@SmallTest
+public class ParallelRunnerTest extends TestCase {
+    private static final FrameFormat FORMAT =
+            ObjectFormat.fromClass(Long.class, FrameFormat.TARGET_SIMPLE);
+
+    private static final int CHAINS = 3;
+    private static final int STAGES = 3;
+    private static final int FRAMES = 100;
+
+    private FilterContext mContext;
+    private FilterGraph mGraph;
+    private ArrayList<Filter> mFilters;
+    private CountSource[] mSources;
+    private ListSink[] mSinks;
+    private ParallelRunner mRunner;
+    private ArrayList<Integer> mResults;
+
+    // Set by the filters when something happens that never should.
+    private static volatile String sViolation;
+
+    /**
+     * Emits frames numbered 0 to count - 1, then closes its output. A count of -1 never ends.
+     * Sleeps once before the first frame if asked to.
+     */
+    public static class CountSource extends Filter {
+        int count;
+        boolean sleepFirst;
+        private boolean mSlept;
+        private long mNext;
+
+        public CountSource(String name, int count) {
+            super(name);
+            this.count = count;
+        }
+
+        @Override
+        public void setupPorts() {
+            addOutputPort("out", FORMAT);
+        }
+
+        @Override
+        public void open(FilterContext context) {
+            mNext = 0;
+            mSlept = false;
+        }
+
+        @Override
+        public void process(FilterContext context) {
+            if (sleepFirst && !mSlept) {
+                mSlept = true;
+                delayNextProcess(getSleepDelay());
+                return;
+            }
+            if (mNext == count) {
+                closeOutputPort("out");
+                return;
+            }
+            Frame output = context.getFrameManager().newFrame(FORMAT);
+            output.setObjectValue(Long.valueOf(mNext++));
+            pushOutput("out", output);
+            output.release();
+        }
+    }
+
+    /**
+     * Mixes each value, and throws on the value failAt. Notes any call that overlaps another
+     * one on the same filter.
+     */
+    public static class MixFilter extends Filter {
+        private final AtomicInteger mActive = new AtomicInteger();
+        long failAt = -1;
+
+        public MixFilter(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setupPorts() {
+            addMaskedInputPort("in", FORMAT);
+            addOutputPort("out", FORMAT);
+        }
+
+        @Override
+        public void process(FilterContext context) {
+            enter();
+            try {
+                long value = (Long) pullInput("in").getObjectValue();
+                if (value == failAt) {
+                    throw new IllegalStateException(getName() + " failed at " + value);
+                }
+                Frame output = context.getFrameManager().newFrame(FORMAT);
+                output.setObjectValue(Long.valueOf(mix(value)));
+                pushOutput("out", output);
+                output.release();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void close(FilterContext context) {
+            enter();
+            exit();
+        }
+
+        private void enter() {
+            if (mActive.incrementAndGet() != 1) {
+                sViolation = getName() + " ran on two threads at once";
+            }
+        }
+
+        private void exit() {
+            mActive.decrementAndGet();
+        }
+    }
+
+    /** Records the values it receives. */
+    public static class ListSink extends Filter {
+        final ArrayList<Long> values = new ArrayList<Long>();
+        int stopAfter = -1;
+        GraphRunner runner;
+
+        public ListSink(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setupPorts() {
+            addMaskedInputPort("in", FORMAT);
+        }
+
+        @Override
+        public void open(FilterContext context) {
+            values.clear();
+        }
+
+        @Override
+        public void process(FilterContext context) {
+            values.add((Long) pullInput("in").getObjectValue());
+            if (values.size() == stopAfter) {
+                runner.stop();
+            }
+        }
+    }
+
+    static long mix(long value) {
+        for (int i = 0; i < 100; i++) {
+            value = value * 6364136223846793005L + 1442695040888963407L;
+            value ^= value >>> 29;
+        }
+        return value;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        sViolation = null;
+        mContext = new FilterContext();
+        mContext.setFrameManager(new CachedFrameManager());
+        mResults = new ArrayList<Integer>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mGraph != null) {
+            mGraph.tearDown(mContext);
+        }
+        super.tearDown();
+    }
+
+    private void buildGraph(int frames, int threads) {
+        mResults.clear();
+        mGraph = new FilterGraph();
+        mFilters = new ArrayList<Filter>();
+        mSources = new CountSource[CHAINS];
+        mSinks = new ListSink[CHAINS];
+        for (int c = 0; c < CHAINS; c++) {
+            mSources[c] = new CountSource("source" + c, frames);
+            Filter previous = add(mSources[c]);
+            for (int s = 0; s < STAGES; s++) {
+                Filter stage = add(new MixFilter("mix" + c + "_" + s));
+                mGraph.connect(previous, "out", stage, "in");
+                previous = stage;
+            }
+            mSinks[c] = new ListSink("sink" + c);
+            mGraph.connect(previous, "out", add(mSinks[c]), "in");
+        }
+        mRunner = new ParallelRunner(mContext, mGraph, threads);
+        mRunner.setDoneCallback(new GraphRunner.OnRunnerDoneListener() {
+            @Override
+            public void onRunnerDone(int result) {
+                mResults.add(result);
+            }
+        });
+        for (ListSink sink : mSinks) {
+            sink.runner = mRunner;
+        }
+    }
+
+    private Filter add(Filter filter) {
+        filter.init();
+        mGraph.addFilter(filter);
+        mFilters.add(filter);
+        return filter;
+    }
+
+    private static ArrayList<Long> expectedValues(int frames) {
+        ArrayList<Long> expected = new ArrayList<Long>(frames);
+        for (long i = 0; i < frames; i++) {
+            long value = i;
+            for (int s = 0; s < STAGES; s++) {
+                value = mix(value);
+            }
+            expected.add(value);
+        }
+        return expected;
+    }
+
+    private void assertAllClosed() {
+        for (Filter filter : mFilters) {
+            assertFalse(filter + " is open", filter.isOpen());
+        }
+    }
+
+    private void assertCompleteRun(int run) {
+        mRunner.run();
+        assertNull(sViolation, sViolation);
+        assertEquals(run + 1, mResults.size());
+        // As with SyncRunner, the filters after each source are left open once their input
+        // closes, waiting for frames that never come.
+        assertEquals(GraphRunner.RESULT_BLOCKED, (int) mResults.get(run));
+        assertNull(mRunner.getError());
+        assertFalse(mRunner.isRunning());
+        final ArrayList<Long> expected = expectedValues(FRAMES);
+        for (ListSink sink : mSinks) {
+            assertEquals(sink.getName(), expected, sink.values);
+        }
+        mRunner.close();
+        assertAllClosed();
+    }
+
+    public void testResultsMatchSingleThread() throws Exception {
+        for (int threads = 1; threads <= 4; threads++) {
+            buildGraph(FRAMES, threads);
+            assertCompleteRun(0);
+            assertCompleteRun(1);
+            mGraph.tearDown(mContext);
+            mGraph = null;
+        }
+    }
+
+    public void testWaitsForSleepingFilter() throws Exception {
+        buildGraph(FRAMES, 4);
+        mSources[1].sleepFirst = true;
+        assertCompleteRun(0);
+    }
+
+    public void testErrorEndsRun() throws Exception {
+        buildGraph(FRAMES, 4);
+        final MixFilter failing = (MixFilter) mFilters.get(1);
+        failing.failAt = 30;
+        mRunner.run();
+        assertNull(sViolation, sViolation);
+        assertEquals(1, mResults.size());
+        assertEquals(GraphRunner.RESULT_ERROR, (int) mResults.get(0));
+        assertTrue(mRunner.getError() instanceof IllegalStateException);
+        assertEquals(failing.getName() + " failed at 30", mRunner.getError().getMessage());
+        assertFalse(mRunner.isRunning());
+        assertAllClosed();
+
+        // The next run starts afresh.
+        failing.failAt = -1;
+        assertCompleteRun(1);
+    }
+
+    public void testStopEndsRun() throws Exception {
+        buildGraph(-1, 4);
+        mSinks[0].stopAfter = 50;
+        mRunner.run();
+        assertNull(sViolation, sViolation);
+        assertEquals(1, mResults.size());
+        assertEquals(GraphRunner.RESULT_STOPPED, (int) mResults.get(0));
+        assertNull(mRunner.getError());
+        assertFalse(mRunner.isRunning());
+        assertTrue(mSinks[0].values.size() >= 50);
+        assertAllClosed();
+        final ArrayList<Long> expected = expectedValues(mSinks[0].values.size());
+        assertEquals(expected, mSinks[0].values);
+
+        // Stopping an idle runner does nothing, and the next run starts afresh.
+        mRunner.stop();
+        mSinks[0].stopAfter = -1;
+        for (CountSource source : mSources) {
+            source.count = FRAMES;
+        }
+        assertCompleteRun(1);
+    }
+}
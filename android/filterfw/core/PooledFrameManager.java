@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.filterfw.core;
+
+/**
+ * A frame manager that pools released frames by size class within a byte budget.
+ *
+ * Native frames are filed under size classes, four per power of two, so a request only looks at
+ * frames of about its size instead of every frame in the pool as CachedFrameManager does. A
+ * frame is only reused for a format of exactly its size, because native copies, GL uploads and
+ * native buffers all use the size of the allocation. Frames whose layout is tied to their
+ * format, which are GL textures and native frames of structured objects, are only reused for a
+ * matching format, as CachedFrameManager does.
+ *
+ * When storing a frame would exceed the budget, the frames released longest ago are freed. The
+ * pool keeps its bookkeeping nodes for reuse, so a pipeline whose frame sizes have settled
+ * allocates nothing per frame.
+ *
+ * @hide
+ */
+public class PooledFrameManager extends SimpleFrameManager {
+
+    private static final int MIN_CLASS_BYTES = 256;
+    private static final int MIN_CLASS_SHIFT = 6;
+    // Frames above this size are filed with the frames that need a matching format.
+    private static final int MAX_CLASS_BYTES = 1 << 30;
+    private static final int NUM_SIZE_CLASSES = sizeClassOf(MAX_CLASS_BYTES) + 1;
+
+    private static final int EXACT_CLASS = -1;
+
+    private static final class Entry {
+        Frame frame;
+        int bytes;
+        int sizeClass;
+
+        // Entries from the most to the least recently stored.
+        Entry lruPrev;
+        Entry lruNext;
+
+        // Entries of the same size class, or of the exact list; most recently stored first.
+        Entry listPrev;
+        Entry listNext;
+    }
+
+    private final Entry[] mClassHeads = new Entry[NUM_SIZE_CLASSES];
+    private Entry mExactHead;
+    private Entry mLruHead;
+    private Entry mLruTail;
+    private Entry mSpareEntries;
+
+    private int mStorageCapacity;
+    private int mStorageSize = 0;
+
+    private int mReuseCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+
+    /** Create a pool with the same 24MB budget as CachedFrameManager. */
+    public PooledFrameManager() {
+        this(24 * 1024 * 1024);
+    }
+
+    public PooledFrameManager(int storageCapacity) {
+        super();
+        setStorageCapacity(storageCapacity);
+    }
+
+    /** Sets the most bytes of released frames to keep, freeing frames if needed. */
+    public synchronized void setStorageCapacity(int storageCapacity) {
+        if (storageCapacity < 0) {
+            throw new IllegalArgumentException("Negative storage capacity " + storageCapacity + "!");
+        }
+        mStorageCapacity = storageCapacity;
+        while (mStorageSize > mStorageCapacity) {
+            dropOldestFrame();
+        }
+    }
+
+    public synchronized int getStorageCapacity() {
+        return mStorageCapacity;
+    }
+
+    /** Returns the bytes held by frames in the pool. */
+    public synchronized int getStorageSize() {
+        return mStorageSize;
+    }
+
+    /** Returns how many frames were served from the pool. */
+    public synchronized int getReuseCount() {
+        return mReuseCount;
+    }
+
+    /** Returns how many poolable frames had to be allocated. */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /** Returns how many pooled frames were freed to stay within the budget. */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /** Sets the reuse, miss and eviction counts back to zero. */
+    public synchronized void resetCounters() {
+        mReuseCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
+    }
+
+    @Override
+    public Frame newFrame(FrameFormat format) {
+        Frame result;
+        if (usesSizeClasses(format)) {
+            result = findClassFrame(format, sizeClassOf(format.getSize()));
+            if (result == null) {
+                result = super.newFrame(format);
+            }
+        } else {
+            result = findExactFrame(format, Frame.NO_BINDING, 0);
+            if (result == null) {
+                countMiss(format);
+                result = super.newFrame(format);
+            }
+        }
+        result.setTimestamp(Frame.TIMESTAMP_NOT_SET);
+        return result;
+    }
+
+    @Override
+    public Frame newBoundFrame(FrameFormat format, int bindingType, long bindingId) {
+        Frame result = findExactFrame(format, bindingType, bindingId);
+        if (result == null) {
+            countMiss(format);
+            result = super.newBoundFrame(format, bindingType, bindingId);
+        }
+        result.setTimestamp(Frame.TIMESTAMP_NOT_SET);
+        return result;
+    }
+
+    @Override
+    public Frame releaseFrame(Frame frame) {
+        if (frame.isReusable()) {
+            int refCount = frame.decRefCount();
+            if (refCount == 0 && frame.hasNativeAllocation()) {
+                if (!storeFrame(frame)) {
+                    frame.releaseNativeAllocation();
+                }
+                return null;
+            } else if (refCount < 0) {
+                throw new RuntimeException("Frame reference count dropped below 0!");
+            }
+        } else {
+            super.releaseFrame(frame);
+        }
+        return frame;
+    }
+
+    public synchronized void clearCache() {
+        while (mLruTail != null) {
+            Entry entry = mLruTail;
+            entry.frame.releaseNativeAllocation();
+            removeEntry(entry);
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        clearCache();
+    }
+
+    // Core internal methods ///////////////////////////////////////////////////////////////////////
+    private static boolean usesSizeClasses(FrameFormat format) {
+        return format.getTarget() == FrameFormat.TARGET_NATIVE
+            && format.getBaseType() != FrameFormat.TYPE_OBJECT
+            && format.getSize() > 0
+            && format.getSize() <= MAX_CLASS_BYTES;
+    }
+
+    /** Returns the smallest size class whose capacity is at least size bytes. */
+    static int sizeClassOf(int size) {
+        if (size <= MIN_CLASS_BYTES) {
+            return 0;
+        }
+        // Four classes per power of two: (4 + k) << shift for k = 1 to 4.
+        final int shift = 31 - Integer.numberOfLeadingZeros(size - 1) - 2;
+        final int steps = (size - 1) >> shift;
+        return (shift - MIN_CLASS_SHIFT) * 4 + (steps - 4) + 1;
+    }
+
+    private synchronized void countMiss(FrameFormat format) {
+        if (format.getTarget() == FrameFormat.TARGET_NATIVE
+                || format.getTarget() == FrameFormat.TARGET_GPU) {
+            ++mMissCount;
+        }
+    }
+
+    private synchronized Frame findClassFrame(FrameFormat format, int sizeClass) {
+        final int size = format.getSize();
+        for (Entry entry = mClassHeads[sizeClass]; entry != null; entry = entry.listNext) {
+            if (entry.bytes == size) {
+                return fetchFrame(entry, format);
+            }
+        }
+        ++mMissCount;
+        return null;
+    }
+
+    private synchronized Frame findExactFrame(FrameFormat format, int bindingType, long bindingId) {
+        for (Entry entry = mExactHead; entry != null; entry = entry.listNext) {
+            Frame frame = entry.frame;
+            // Check that format and binding are compatible (if frame is bound)
+            if (frame.getFormat().isReplaceableBy(format)
+                && bindingType == frame.getBindingType()
+                && (bindingType == Frame.NO_BINDING || bindingId == frame.getBindingId())) {
+                return fetchFrame(entry, format);
+            }
+        }
+        return null;
+    }
+
+    private Frame fetchFrame(Entry entry, FrameFormat format) {
+        Frame frame = entry.frame;
+        removeEntry(entry);
+        ++mReuseCount;
+        super.retainFrame(frame);
+        frame.onFrameFetch();
+        frame.reset(format);
+        return frame;
+    }
+
+    private synchronized boolean storeFrame(Frame frame) {
+        final FrameFormat format = frame.getFormat();
+        final int bytes = format.getSize();
+        final int sizeClass = frame instanceof NativeFrame && usesSizeClasses(format)
+                ? sizeClassOf(bytes) : EXACT_CLASS;
+
+        // Make sure this frame alone does not exceed capacity
+        if (bytes > mStorageCapacity) {
+            return false;
+        }
+
+        // Drop frames if adding this frame would exceed capacity
+        while (mStorageSize + bytes > mStorageCapacity) {
+            dropOldestFrame();
+        }
+
+        // Store new frame
+        frame.onFrameStore();
+        Entry entry = mSpareEntries;
+        if (entry != null) {
+            mSpareEntries = entry.lruNext;
+        } else {
+            entry = new Entry();
+        }
+        entry.frame = frame;
+        entry.bytes = bytes;
+        entry.sizeClass = sizeClass;
+
+        entry.lruPrev = null;
+        entry.lruNext = mLruHead;
+        if (mLruHead != null) {
+            mLruHead.lruPrev = entry;
+        } else {
+            mLruTail = entry;
+        }
+        mLruHead = entry;
+
+        final Entry listHead = sizeClass == EXACT_CLASS ? mExactHead : mClassHeads[sizeClass];
+        entry.listPrev = null;
+        entry.listNext = listHead;
+        if (listHead != null) {
+            listHead.listPrev = entry;
+        }
+        setListHead(sizeClass, entry);
+
+        mStorageSize += bytes;
+        return true;
+    }
+
+    private void dropOldestFrame() {
+        Entry entry = mLruTail;
+        entry.frame.releaseNativeAllocation();
+        removeEntry(entry);
+        ++mEvictionCount;
+    }
+
+    private void removeEntry(Entry entry) {
+        if (entry.lruPrev != null) {
+            entry.lruPrev.lruNext = entry.lruNext;
+        } else {
+            mLruHead = entry.lruNext;
+        }
+        if (entry.lruNext != null) {
+            entry.lruNext.lruPrev = entry.lruPrev;
+        } else {
+            mLruTail = entry.lruPrev;
+        }
+
+        if (entry.listPrev != null) {
+            entry.listPrev.listNext = entry.listNext;
+        } else {
+            setListHead(entry.sizeClass, entry.listNext);
+        }
+        if (entry.listNext != null) {
+            entry.listNext.listPrev = entry.listPrev;
+        }
+
+        mStorageSize -= entry.bytes;
+
+        // Keep the entry for the next frame stored
+        entry.frame = null;
+        entry.lruPrev = null;
+        entry.listPrev = null;
+        entry.listNext = null;
+        entry.lruNext = mSpareEntries;
+        mSpareEntries = entry;
+    }
+
+    private void setListHead(int sizeClass, Entry entry) {
+        if (sizeClass == EXACT_CLASS) {
+            mExactHead = entry;
+        } else {
+            mClassHeads[sizeClass] = entry;
+        }
+    }
+}
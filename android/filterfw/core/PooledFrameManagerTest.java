@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.filterfw.core;
+
+import android.filterfw.format.ImageFormat;
+import android.filterfw.format.ObjectFormat;
+import android.filterfw.format.PrimitiveFormat;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Checks that frames served from the pool hold exactly their format's bytes, so data copied into
+ * and out of them, from other frames and from arrays, round-trips, and that a reused frame takes
+ * on the requested format.
+ */
+@SmallTest
+public class PooledFrameManagerTest extends TestCase {
+    private PooledFrameManager mManager;
+
+    /** Two native buffer classes with the same element size. */
+    public static class BufferA extends NativeBuffer {
+    }
+
+    public static class BufferB extends NativeBuffer {
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mManager = new PooledFrameManager();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mManager.tearDown();
+        super.tearDown();
+    }
+
+    public void testCopyIntoAndOutOfPooledFrame() throws Exception {
+        final FrameFormat format = ImageFormat.create(30, 20,
+                ImageFormat.COLORSPACE_RGBA, FrameFormat.TARGET_NATIVE);
+        // The transposed format has the same size, so it is served the same buffer.
+        final FrameFormat transposed = ImageFormat.create(20, 30,
+                ImageFormat.COLORSPACE_RGBA, FrameFormat.TARGET_NATIVE);
+        mManager.newFrame(format).release();
+        mManager.resetCounters();
+
+        final Frame pooled = mManager.newFrame(transposed);
+        assertEquals(1, mManager.getReuseCount());
+        assertEquals(transposed.getSize(), pooled.getCapacity());
+
+        final byte[] bytes = new byte[format.getSize()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 7);
+        }
+        pooled.setData(ByteBuffer.wrap(bytes), 0, bytes.length);
+        assertTrue(Arrays.equals(bytes, pooled.getData().array()));
+
+        // Out of the pooled frame into a new one, and back into another pooled frame.
+        final Frame copy = mManager.newFrame(transposed);
+        assertEquals(1, mManager.getMissCount());
+        copy.setDataFromFrame(pooled);
+        assertTrue(Arrays.equals(bytes, copy.getData().array()));
+        pooled.release();
+
+        final Frame again = mManager.newFrame(transposed);
+        assertEquals(2, mManager.getReuseCount());
+        again.setDataFromFrame(copy);
+        assertTrue(Arrays.equals(bytes, again.getData().array()));
+        copy.release();
+        again.release();
+    }
+
+    public void testFrameOfOtherSizeIsNotReused() throws Exception {
+        final FrameFormat large = PrimitiveFormat.createFloatFormat(1000, FrameFormat.TARGET_NATIVE);
+        final FrameFormat small = PrimitiveFormat.createFloatFormat(990, FrameFormat.TARGET_NATIVE);
+        mManager.newFrame(large).release();
+        mManager.resetCounters();
+
+        final Frame frame = mManager.newFrame(small);
+        assertEquals(0, mManager.getReuseCount());
+        assertEquals(small.getSize(), frame.getCapacity());
+        final float[] floats = new float[990];
+        for (int i = 0; i < floats.length; i++) {
+            floats[i] = i / 3f;
+        }
+        frame.setFloats(floats);
+        assertTrue(Arrays.equals(floats, frame.getFloats()));
+        frame.release();
+    }
+
+    public void testReusedFrameTakesRequestedObjectClass() throws Exception {
+        final FrameFormat formatA = ObjectFormat.fromClass(BufferA.class, 16,
+                FrameFormat.TARGET_NATIVE);
+        final FrameFormat formatB = ObjectFormat.fromClass(BufferB.class, 16,
+                FrameFormat.TARGET_NATIVE);
+        mManager.newFrame(formatA).release();
+        mManager.resetCounters();
+
+        final Frame frame = mManager.newFrame(formatB);
+        assertEquals(1, mManager.getReuseCount());
+        assertSame(BufferB.class, frame.getFormat().getObjectClass());
+        frame.release();
+    }
+}
@@ -77,7 +77,7 @@ public class StopWatchMap {
         mStopWatches = new HashMap<String, StopWatch>();
     }
 
-    public void start(String stopWatchName) {
+    public synchronized void start(String stopWatchName) {
         if (!LOG_MFF_RUNNING_TIMES) {
             return;
         }
@@ -87,7 +87,7 @@ public class StopWatchMap {
         mStopWatches.get(stopWatchName).start();
     }
 
-    public void stop(String stopWatchName) {
+    public synchronized void stop(String stopWatchName) {
         if (!LOG_MFF_RUNNING_TIMES) {
             return;
         }
@@ -18,6 +18,7 @@ package android.test.mock;
 
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderOperationStream;
 import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
@@ -59,6 +60,18 @@ public class MockContentProvider extends ContentProvider {
             return MockContentProvider.this.applyBatch(operations);
         }
 
+        @Override
+        public int applyBatchStream(String callingPackage, ParcelFileDescriptor source)
+                throws RemoteException, OperationApplicationException {
+            final ContentProviderOperationStream.Reader reader =
+                    new ContentProviderOperationStream.Reader(source);
+            try {
+                return MockContentProvider.this.applyBatchStream(reader);
+            } finally {
+                reader.close();
+            }
+        }
+
         @Override
         public int bulkInsert(String callingPackage, Uri url, ContentValues[] initialValues)
                 throws RemoteException {
@@ -77,6 +77,10 @@ public class MockIContentProvider implements IContentProvider {
         throw new UnsupportedOperationException("unimplemented mock method");
     }
 
+    public int applyBatchStream(String callingPackage, ParcelFileDescriptor source) {
+        throw new UnsupportedOperationException("unimplemented mock method");
+    }
+
     public Cursor query(String callingPackage, Uri url, String[] projection, String selection,
             String[] selectionArgs,
             String sortOrder, ICancellationSignal cancellationSignal) {
@@ -58,6 +58,16 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import libcore.io.Libcore;
 import libcore.io.Os;
@@ -103,8 +113,25 @@ public class ApkSignatureSchemeV2Verifier {
      */
     public static X509Certificate[][] verify(String apkFile)
             throws SignatureNotFoundException, SecurityException, IOException {
+        return verify(apkFile, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Verifies APK Signature Scheme v2 signatures of the provided APK and returns the certificates
+     * associated with each signer, digesting the contents of the APK on up to
+     * {@code parallelism} threads. A parallelism of 1 digests on the calling thread only.
+     *
+     * @throws SignatureNotFoundException if the APK is not signed using APK Signature Scheme v2.
+     * @throws SecurityException if a APK Signature Scheme v2 signature of this APK does not verify.
+     * @throws IOException if an I/O error occurs while reading the APK file.
+     */
+    public static X509Certificate[][] verify(String apkFile, int parallelism)
+            throws SignatureNotFoundException, SecurityException, IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1: " + parallelism);
+        }
         try (RandomAccessFile apk = new RandomAccessFile(apkFile, "r")) {
-            return verify(apk);
+            return verify(apk, parallelism);
         }
     }
 
@@ -117,10 +144,10 @@ public class ApkSignatureSchemeV2Verifier {
      *         verify.
      * @throws IOException if an I/O error occurs while reading the APK file.
      */
-    private static X509Certificate[][] verify(RandomAccessFile apk)
+    private static X509Certificate[][] verify(RandomAccessFile apk, int parallelism)
             throws SignatureNotFoundException, SecurityException, IOException {
         SignatureInfo signatureInfo = findSignature(apk);
-        return verify(apk.getFD(), signatureInfo);
+        return verify(apk.getFD(), signatureInfo, parallelism);
     }
 
     /**
@@ -198,10 +225,12 @@ public class ApkSignatureSchemeV2Verifier {
      *
      * @param signatureInfo APK Signature Scheme v2 Block and information relevant for verifying it
      *        against the APK file.
+     * @param parallelism maximum number of threads digesting the contents of the APK.
      */
     private static X509Certificate[][] verify(
             FileDescriptor apkFileDescriptor,
-            SignatureInfo signatureInfo) throws SecurityException {
+            SignatureInfo signatureInfo,
+            int parallelism) throws SecurityException {
         int signerCount = 0;
         Map<Integer, byte[]> contentDigests = new ArrayMap<>();
         List<X509Certificate[]> signerCerts = new ArrayList<>();
@@ -244,7 +273,8 @@ public class ApkSignatureSchemeV2Verifier {
                 signatureInfo.apkSigningBlockOffset,
                 signatureInfo.centralDirOffset,
                 signatureInfo.eocdOffset,
-                signatureInfo.eocd);
+                signatureInfo.eocd,
+                parallelism);
 
         return signerCerts.toArray(new X509Certificate[signerCerts.size()][]);
     }
@@ -391,7 +421,8 @@ public class ApkSignatureSchemeV2Verifier {
             long apkSigningBlockOffset,
             long centralDirOffset,
             long eocdOffset,
-            ByteBuffer eocdBuf) throws SecurityException {
+            ByteBuffer eocdBuf,
+            int parallelism) throws SecurityException {
 
         if (expectedDigests.isEmpty()) {
             throw new SecurityException("No digests provided");
@@ -431,7 +462,8 @@ public class ApkSignatureSchemeV2Verifier {
             actualDigests =
                     computeContentDigests(
                             digestAlgorithms,
-                            new DataSource[] {beforeApkSigningBlock, centralDir, eocd});
+                            new DataSource[] {beforeApkSigningBlock, centralDir, eocd},
+                            parallelism);
         } catch (DigestException e) {
             throw new SecurityException("Failed to compute digest(s) of contents", e);
         }
@@ -449,7 +481,8 @@ public class ApkSignatureSchemeV2Verifier {
 
     private static byte[][] computeContentDigests(
             int[] digestAlgorithms,
-            DataSource[] contents) throws DigestException {
+            DataSource[] contents,
+            int parallelism) throws DigestException {
         // For each digest algorithm the result is computed as follows:
         // 1. Each segment of contents is split into consecutive chunks of 1 MB in size.
         //    The final chunk will be shorter iff the length of segment is not a multiple of 1 MB.
@@ -483,62 +516,31 @@ public class ApkSignatureSchemeV2Verifier {
             digestsOfChunks[i] = concatenationOfChunkCountAndChunkDigests;
         }
 
-        byte[] chunkContentPrefix = new byte[5];
-        chunkContentPrefix[0] = (byte) 0xa5;
-        int chunkIndex = 0;
-        MessageDigest[] mds = new MessageDigest[digestAlgorithms.length];
-        for (int i = 0; i < digestAlgorithms.length; i++) {
-            String jcaAlgorithmName =
-                    getContentDigestAlgorithmJcaDigestAlgorithm(digestAlgorithms[i]);
-            try {
-                mds[i] = MessageDigest.getInstance(jcaAlgorithmName);
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException(jcaAlgorithmName + " digest not supported", e);
-            }
-        }
-        // TODO: Compute digests of chunks in parallel when beneficial. This requires some research
-        // into how to parallelize (if at all) based on the capabilities of the hardware on which
-        // this code is running and based on the size of input.
-        int dataSourceIndex = 0;
-        for (DataSource input : contents) {
-            long inputOffset = 0;
-            long inputRemaining = input.size();
-            while (inputRemaining > 0) {
-                int chunkSize = (int) Math.min(inputRemaining, CHUNK_SIZE_BYTES);
-                setUnsignedInt32LittleEndian(chunkSize, chunkContentPrefix, 1);
-                for (int i = 0; i < mds.length; i++) {
-                    mds[i].update(chunkContentPrefix);
+        // Digests of chunks are independent of each other, and each one is written to its own
+        // slot of digestsOfChunks, so chunks can be digested on several threads in any order.
+        // Small APKs are not worth handing off to other threads.
+        int threadCount = Math.min(parallelism,
+                (totalChunkCount + MIN_CHUNKS_PER_THREAD - 1) / MIN_CHUNKS_PER_THREAD);
+        if (threadCount <= 1) {
+            ChunkDigester digester = new ChunkDigester(digestAlgorithms, digestsOfChunks);
+            int chunkIndex = 0;
+            int dataSourceIndex = 0;
+            for (DataSource input : contents) {
+                long inputOffset = 0;
+                long inputRemaining = input.size();
+                while (inputRemaining > 0) {
+                    int chunkSize = (int) Math.min(inputRemaining, CHUNK_SIZE_BYTES);
+                    digester.digestChunk(
+                            input, dataSourceIndex, inputOffset, chunkSize, chunkIndex);
+                    inputOffset += chunkSize;
+                    inputRemaining -= chunkSize;
+                    chunkIndex++;
                 }
-                try {
-                    input.feedIntoMessageDigests(mds, inputOffset, chunkSize);
-                } catch (IOException e) {
-                    throw new DigestException(
-                            "Failed to digest chunk #" + chunkIndex + " of section #"
-                                    + dataSourceIndex,
-                            e);
-                }
-                for (int i = 0; i < digestAlgorithms.length; i++) {
-                    int digestAlgorithm = digestAlgorithms[i];
-                    byte[] concatenationOfChunkCountAndChunkDigests = digestsOfChunks[i];
-                    int expectedDigestSizeBytes =
-                            getContentDigestAlgorithmOutputSizeBytes(digestAlgorithm);
-                    MessageDigest md = mds[i];
-                    int actualDigestSizeBytes =
-                            md.digest(
-                                    concatenationOfChunkCountAndChunkDigests,
-                                    5 + chunkIndex * expectedDigestSizeBytes,
-                                    expectedDigestSizeBytes);
-                    if (actualDigestSizeBytes != expectedDigestSizeBytes) {
-                        throw new RuntimeException(
-                                "Unexpected output size of " + md.getAlgorithm() + " digest: "
-                                        + actualDigestSizeBytes);
-                    }
-                }
-                inputOffset += chunkSize;
-                inputRemaining -= chunkSize;
-                chunkIndex++;
+                dataSourceIndex++;
             }
-            dataSourceIndex++;
+        } else {
+            computeChunkDigestsInParallel(
+                    digestAlgorithms, contents, totalChunkCount, digestsOfChunks, threadCount);
         }
 
         byte[][] result = new byte[digestAlgorithms.length][];
@@ -558,6 +560,225 @@ public class ApkSignatureSchemeV2Verifier {
         return result;
     }
 
+    /**
+     * Computes the chunked SHA-256 and SHA-512 digests of {@code contents} as verification does,
+     * on up to {@code parallelism} threads. For tests.
+     */
+    static byte[][] computeContentDigests(ByteBuffer[] contents, int parallelism)
+            throws DigestException {
+        DataSource[] dataSources = new DataSource[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            dataSources[i] = new ByteBufferDataSource(contents[i]);
+        }
+        return computeContentDigests(
+                new int[] {CONTENT_DIGEST_CHUNKED_SHA256, CONTENT_DIGEST_CHUNKED_SHA512},
+                dataSources,
+                parallelism);
+    }
+
+    /**
+     * Digests the chunks of {@code contents} on {@code threadCount} threads, the calling thread
+     * being one of them. Each thread takes the next chunk that hasn't been taken yet.
+     */
+    private static void computeChunkDigestsInParallel(
+            final int[] digestAlgorithms,
+            final DataSource[] contents,
+            final int totalChunkCount,
+            final byte[][] digestsOfChunks,
+            int threadCount) throws DigestException {
+        // Index the chunks so that any thread can find the data of any chunk.
+        final int[] chunkDataSources = new int[totalChunkCount];
+        final long[] chunkOffsets = new long[totalChunkCount];
+        int chunkIndex = 0;
+        for (int dataSourceIndex = 0; dataSourceIndex < contents.length; dataSourceIndex++) {
+            long chunkCount = getChunkCount(contents[dataSourceIndex].size());
+            for (long i = 0; i < chunkCount; i++) {
+                chunkDataSources[chunkIndex] = dataSourceIndex;
+                chunkOffsets[chunkIndex] = i * CHUNK_SIZE_BYTES;
+                chunkIndex++;
+            }
+        }
+
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                ChunkDigester digester = new ChunkDigester(digestAlgorithms, digestsOfChunks);
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < totalChunkCount) {
+                    DataSource input = contents[chunkDataSources[chunk]];
+                    int chunkSize = (int) Math.min(
+                            input.size() - chunkOffsets[chunk], CHUNK_SIZE_BYTES);
+                    try {
+                        digester.digestChunk(input, chunkDataSources[chunk],
+                                chunkOffsets[chunk], chunkSize, chunk);
+                    } catch (DigestException e) {
+                        // Stop the other threads too.
+                        nextChunk.set(totalChunkCount);
+                        throw new ChunkDigestFailedException(e);
+                    }
+                }
+            }
+        };
+
+        ExecutorService executor = getDigestExecutor();
+        Future<?>[] futures = new Future<?>[threadCount - 1];
+        // Each submitted worker and the calling thread race to claim it. Whoever wins either
+        // runs it or cancels it, so a worker is never cancelled after it has started.
+        final AtomicBoolean[] claimed = new AtomicBoolean[futures.length];
+        for (int i = 0; i < futures.length; i++) {
+            final AtomicBoolean workerClaimed = new AtomicBoolean();
+            claimed[i] = workerClaimed;
+            futures[i] = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (workerClaimed.compareAndSet(false, true)) {
+                        worker.run();
+                    }
+                }
+            });
+        }
+        RuntimeException failure = null;
+        try {
+            worker.run();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // Every chunk has been taken by now. Workers still queued behind other APKs'
+        // verifications would find nothing to do, so don't wait for a thread to pick them up.
+        for (int i = 0; i < futures.length; i++) {
+            if (claimed[i].compareAndSet(false, true)) {
+                futures[i].cancel(false);
+            }
+        }
+        // Wait for every worker that started, even after a failure, so that none of them is
+        // still writing into digestsOfChunks when we return.
+        for (Future<?> future : futures) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (CancellationException e) {
+                    // Never started.
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null && e.getCause() instanceof RuntimeException) {
+                        failure = (RuntimeException) e.getCause();
+                    } else if (failure == null) {
+                        failure = new RuntimeException(e.getCause());
+                    }
+                    break;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure instanceof ChunkDigestFailedException) {
+            throw (DigestException) failure.getCause();
+        } else if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static ExecutorService getDigestExecutor() {
+        synchronized (sDigestExecutorLock) {
+            if (sDigestExecutor == null) {
+                // At most DEFAULT_PARALLELISM threads however many APKs are verified at once.
+                // Every caller digests on its own thread too, and cancels the workers it
+                // submitted that are still queued once no chunks are left, so a burst of
+                // verifications doesn't leave idle workers in the queue. Threads go away after a
+                // minute of inactivity, so the pool only costs anything during bursts of
+                // verification such as installs and boot-time scans.
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        DEFAULT_PARALLELISM, DEFAULT_PARALLELISM, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ApkDigest-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                executor.allowCoreThreadTimeOut(true);
+                sDigestExecutor = executor;
+            }
+            return sDigestExecutor;
+        }
+    }
+
+    /**
+     * Computes digests of chunks into their slots of the concatenations of chunk digests. Each
+     * thread needs its own instance since {@link MessageDigest}s are not thread-safe.
+     */
+    private static final class ChunkDigester {
+        private final int[] mDigestAlgorithms;
+        private final byte[][] mDigestsOfChunks;
+        private final MessageDigest[] mMds;
+        private final byte[] mChunkContentPrefix = new byte[5];
+
+        ChunkDigester(int[] digestAlgorithms, byte[][] digestsOfChunks) {
+            mDigestAlgorithms = digestAlgorithms;
+            mDigestsOfChunks = digestsOfChunks;
+            mMds = new MessageDigest[digestAlgorithms.length];
+            for (int i = 0; i < digestAlgorithms.length; i++) {
+                String jcaAlgorithmName =
+                        getContentDigestAlgorithmJcaDigestAlgorithm(digestAlgorithms[i]);
+                try {
+                    mMds[i] = MessageDigest.getInstance(jcaAlgorithmName);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new RuntimeException(jcaAlgorithmName + " digest not supported", e);
+                }
+            }
+            mChunkContentPrefix[0] = (byte) 0xa5;
+        }
+
+        void digestChunk(DataSource input, int dataSourceIndex, long inputOffset, int chunkSize,
+                int chunkIndex) throws DigestException {
+            setUnsignedInt32LittleEndian(chunkSize, mChunkContentPrefix, 1);
+            for (int i = 0; i < mMds.length; i++) {
+                mMds[i].update(mChunkContentPrefix);
+            }
+            try {
+                input.feedIntoMessageDigests(mMds, inputOffset, chunkSize);
+            } catch (IOException e) {
+                throw new DigestException(
+                        "Failed to digest chunk #" + chunkIndex + " of section #"
+                                + dataSourceIndex,
+                        e);
+            }
+            for (int i = 0; i < mDigestAlgorithms.length; i++) {
+                int digestAlgorithm = mDigestAlgorithms[i];
+                byte[] concatenationOfChunkCountAndChunkDigests = mDigestsOfChunks[i];
+                int expectedDigestSizeBytes =
+                        getContentDigestAlgorithmOutputSizeBytes(digestAlgorithm);
+                MessageDigest md = mMds[i];
+                int actualDigestSizeBytes =
+                        md.digest(
+                                concatenationOfChunkCountAndChunkDigests,
+                                5 + chunkIndex * expectedDigestSizeBytes,
+                                expectedDigestSizeBytes);
+                if (actualDigestSizeBytes != expectedDigestSizeBytes) {
+                    throw new RuntimeException(
+                            "Unexpected output size of " + md.getAlgorithm() + " digest: "
+                                    + actualDigestSizeBytes);
+                }
+            }
+        }
+    }
+
+    /** Carries a {@link DigestException} out of a digesting thread. */
+    private static final class ChunkDigestFailedException extends RuntimeException {
+        ChunkDigestFailedException(DigestException cause) {
+            super(cause);
+        }
+    }
+
     /**
      * Returns the ZIP End of Central Directory (EoCD) and its offset in the file.
      *
@@ -599,6 +820,19 @@ public class ApkSignatureSchemeV2Verifier {
 
     private static final int CHUNK_SIZE_BYTES = 1024 * 1024;
 
+    /**
+     * Number of threads digesting the contents of an APK unless the caller asks otherwise.
+     * Digesting is CPU-bound, and the contents are usually in the page cache already.
+     */
+    private static final int DEFAULT_PARALLELISM =
+            Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /** APKs with fewer chunks than this per thread are not worth spreading over more threads. */
+    private static final int MIN_CHUNKS_PER_THREAD = 4;
+
+    private static final Object sDigestExecutorLock = new Object();
+    private static ExecutorService sDigestExecutor;
+
     private static final int SIGNATURE_RSA_PSS_WITH_SHA256 = 0x0101;
     private static final int SIGNATURE_RSA_PSS_WITH_SHA512 = 0x0102;
     private static final int SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256 = 0x0103;
@@ -1107,8 +1341,11 @@ public class ApkSignatureSchemeV2Verifier {
             // potentially concurrently, feeding these buffers into MessageDigest instances.
             ByteBuffer region;
             synchronized (mBuf) {
-                mBuf.position((int) offset);
+                // Regions may be requested in any order, so the new limit may be below the
+                // current position; move the position out of the way first.
+                mBuf.position(0);
                 mBuf.limit((int) offset + size);
+                mBuf.position((int) offset);
                 region = mBuf.slice();
             }
 
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util.apk;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that contents digested on several threads give the same digests as contents
+ * digested on the calling thread only, including while other digests share the pool.
+ */
+public class ApkSignatureSchemeV2VerifierTest extends TestCase {
+    private static final int MB = 1024 * 1024;
+
+    private ByteBuffer[] mContents;
+    private byte[][] mExpected;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Segments shaped like an APK's: entries, central directory and end of central
+        // directory, one of them empty and none a multiple of the chunk size.
+        final Random random = new Random(0);
+        final int[] sizes = { 29 * MB + 17, 0, 3 * MB - 1, 22 };
+        mContents = new ByteBuffer[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            final byte[] bytes = new byte[sizes[i]];
+            random.nextBytes(bytes);
+            mContents[i] = ByteBuffer.wrap(bytes);
+        }
+        mExpected = ApkSignatureSchemeV2Verifier.computeContentDigests(mContents, 1);
+    }
+
+    public void testParallelDigestsMatchSequential() throws Exception {
+        for (int parallelism = 2; parallelism <= 8; parallelism++) {
+            for (int run = 0; run < 5; run++) {
+                assertDigests("parallelism " + parallelism,
+                        ApkSignatureSchemeV2Verifier.computeContentDigests(mContents, parallelism));
+            }
+        }
+    }
+
+    public void testConcurrentParallelDigestsMatchSequential() throws Exception {
+        // More callers than pool threads, so some of each caller's workers are still queued
+        // when it runs out of chunks.
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int run = 0; run < 5; run++) {
+                            assertDigests(getName(),
+                                    ApkSignatureSchemeV2Verifier.computeContentDigests(
+                                            mContents, 4));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private void assertDigests(String message, byte[][] actual) {
+        assertEquals(message, mExpected.length, actual.length);
+        for (int i = 0; i < mExpected.length; i++) {
+            assertTrue(message, Arrays.equals(mExpected[i], actual[i]));
+        }
+    }
+}
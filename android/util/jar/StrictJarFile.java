@@ -17,18 +17,30 @@
 
 package android.util.jar;
 
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.LruCache;
 import dalvik.system.CloseGuard;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.NioUtils;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.jar.JarFile;
 import libcore.io.IoUtils;
 import libcore.io.Streams;
@@ -36,19 +48,35 @@ import libcore.io.Streams;
 /**
  * A subset of the JarFile API implemented as a thin wrapper over
  * system/core/libziparchive.
+ * <p>
+ * In mapped mode the archive is instead memory-mapped and its central
+ * directory is read from the mapping. The manifest and signatures, once
+ * verified, are kept for the file as long as a SHA-256 digest of everything
+ * verification reads, the central directory and the META-INF entries, stays
+ * the same, so opening it again only maps it and digests those. The central
+ * directory is always parsed, and entries are always read and their digests
+ * checked against the manifest, from the current mapping.
  *
  * @hide for internal use only. Not API compatible (or as forgiving) as
  *        {@link java.util.jar.JarFile}
  */
 public final class StrictJarFile {
 
+    /** Archives opened in mapped mode, by file name. */
+    private static final LruCache<String, MappedArchive> sMappedArchives = new LruCache<>(16);
+
     private final long nativeHandle;
 
     // NOTE: It's possible to share a file descriptor with the native
     // code, at the cost of some additional complexity.
     private final RandomAccessFile raf;
 
+    // Only set in mapped mode.
+    private final ByteBuffer mapping;
+    private final ZipCentralDirectory centralDirectory;
+
     private final StrictJarManifest manifest;
+    private final boolean manifestShared;
     private final StrictJarVerifier verifier;
 
     private final boolean isSigned;
@@ -56,6 +84,32 @@ public final class StrictJarFile {
     private final CloseGuard guard = CloseGuard.get();
     private boolean closed;
 
+    /**
+     * What is known about one version of an archive opened in mapped mode,
+     * identified by the digest from {@link #digestSignedContent}.
+     */
+    private static final class MappedArchive {
+        final byte[] digest;
+        /** Verified signatures, indexed by whether rollback protections were enforced. */
+        final VerifiedJar[] verified = new VerifiedJar[2];
+
+        MappedArchive(byte[] digest) {
+            this.digest = digest;
+        }
+    }
+
+    private static final class VerifiedJar {
+        final StrictJarManifest manifest;
+        final StrictJarVerifier verifier;
+        final boolean isSigned;
+
+        VerifiedJar(StrictJarManifest manifest, StrictJarVerifier verifier, boolean isSigned) {
+            this.manifest = manifest;
+            this.verifier = verifier;
+            this.isSigned = isSigned;
+        }
+    }
+
     public StrictJarFile(String fileName)
             throws IOException, SecurityException {
         this(fileName, true, true);
@@ -74,16 +128,74 @@ public final class StrictJarFile {
             boolean verify,
             boolean signatureSchemeRollbackProtectionsEnforced)
                     throws IOException, SecurityException {
-        this.nativeHandle = nativeOpenJarFile(fileName);
+        this(fileName, verify, signatureSchemeRollbackProtectionsEnforced, false);
+    }
+
+    /**
+     * @param mapped whether to memory-map the file and reuse what earlier mapped
+     *        opens of the same, unchanged file verified, instead of opening it
+     *        with libziparchive. Archives of 2 GB or more and zip64
+     *        archives cannot be mapped.
+     */
+    public StrictJarFile(String fileName,
+            boolean verify,
+            boolean signatureSchemeRollbackProtectionsEnforced,
+            boolean mapped)
+                    throws IOException, SecurityException {
+        this.nativeHandle = mapped ? 0 : nativeOpenJarFile(fileName);
         this.raf = new RandomAccessFile(fileName, "r");
 
+        ByteBuffer map = null;
         try {
+            MappedArchive archive = null;
+            if (mapped) {
+                final StructStat stat;
+                try {
+                    stat = Os.fstat(raf.getFD());
+                } catch (ErrnoException e) {
+                    throw e.rethrowAsIOException();
+                }
+                if (stat.st_size > Integer.MAX_VALUE) {
+                    throw new ZipException(fileName + ": too large to map");
+                }
+                map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, stat.st_size);
+                this.mapping = map;
+                this.centralDirectory = ZipCentralDirectory.parse(mapping, fileName);
+                if (verify) {
+                    final byte[] digest = digestSignedContent(mapping, centralDirectory);
+                    archive = sMappedArchives.get(fileName);
+                    if (archive == null || !MessageDigest.isEqual(archive.digest, digest)) {
+                        archive = new MappedArchive(digest);
+                        sMappedArchives.put(fileName, archive);
+                    }
+                }
+            } else {
+                this.mapping = null;
+                this.centralDirectory = null;
+            }
+
             // Read the MANIFEST and signature files up front and try to
             // parse them. We never want to accept a JAR File with broken signatures
             // or manifests, so it's best to throw as early as possible.
-            if (verify) {
+            final int verifiedIndex = signatureSchemeRollbackProtectionsEnforced ? 1 : 0;
+            final VerifiedJar verified;
+            if (verify && archive != null) {
+                synchronized (archive) {
+                    verified = archive.verified[verifiedIndex];
+                }
+            } else {
+                verified = null;
+            }
+            if (verified != null) {
+                this.manifest = verified.manifest;
+                this.manifestShared = true;
+                this.verifier = verified.verifier.forReopen();
+                this.isSigned = verified.isSigned;
+            } else if (verify) {
                 HashMap<String, byte[]> metaEntries = getMetaEntries();
                 this.manifest = new StrictJarManifest(metaEntries.get(JarFile.MANIFEST_NAME), true);
+                // Once cached below, later opens see this manifest too.
+                this.manifestShared = (archive != null);
                 this.verifier =
                         new StrictJarVerifier(
                                 fileName,
@@ -98,13 +210,25 @@ public final class StrictJarFile {
                 }
 
                 isSigned = verifier.readCertificates() && verifier.isSignedJar();
+                if (archive != null) {
+                    synchronized (archive) {
+                        archive.verified[verifiedIndex] =
+                                new VerifiedJar(manifest, verifier.forReopen(), isSigned);
+                    }
+                }
             } else {
                 isSigned = false;
                 this.manifest = null;
+                this.manifestShared = false;
                 this.verifier = null;
             }
         } catch (IOException | SecurityException e) {
-            nativeClose(this.nativeHandle);
+            if (!mapped) {
+                nativeClose(this.nativeHandle);
+            }
+            if (map != null) {
+                NioUtils.freeDirectBuffer(map);
+            }
             IoUtils.closeQuietly(this.raf);
             throw e;
         }
@@ -112,15 +236,27 @@ public final class StrictJarFile {
         guard.open("close");
     }
 
+    /**
+     * Returns the manifest, or null if the file was opened without verifying
+     * it. A manifest shared with other opens of the file is returned as a
+     * copy, so that callers cannot change what the others see.
+     */
     public StrictJarManifest getManifest() {
-        return manifest;
+        return manifestShared ? new StrictJarManifest(manifest) : manifest;
     }
 
     public Iterator<ZipEntry> iterator() throws IOException {
+        if (centralDirectory != null) {
+            return new MappedEntryIterator(centralDirectory, "");
+        }
         return new EntryIterator(nativeHandle, "");
     }
 
     public ZipEntry findEntry(String name) {
+        if (centralDirectory != null) {
+            final ZipCentralDirectory.Record record = centralDirectory.find(name);
+            return (record != null) ? record.newZipEntry() : null;
+        }
         return nativeFindEntry(nativeHandle, name);
     }
 
@@ -175,6 +311,76 @@ public final class StrictJarFile {
         return null;
     }
 
+    /**
+     * Reads the whole of the given entry, checking its digest against the
+     * manifest, and returns its certificate chains as
+     * {@link #getCertificateChains} does. In mapped mode the entry is digested
+     * straight from the mapping; stored entries are not copied at all.
+     *
+     * @throws SecurityException if the entry does not match its digest
+     */
+    public Certificate[][] verifyEntry(ZipEntry ze) throws IOException {
+        if (centralDirectory == null) {
+            final InputStream is = getInputStream(ze);
+            try {
+                Streams.skipAll(is);
+            } finally {
+                IoUtils.closeQuietly(is);
+            }
+            return getCertificateChains(ze);
+        }
+
+        if (!isSigned) {
+            return null;
+        }
+        final StrictJarVerifier.VerifierEntry entry = verifier.initEntry(ze.getName());
+        if (entry == null) {
+            return null;
+        }
+        final ByteBuffer data = getMappedData(ze);
+        if (ze.getMethod() == ZipEntry.STORED) {
+            entry.write(data);
+        } else {
+            inflateInto(data, ze, entry);
+        }
+        entry.verify();
+        return getCertificateChains(ze);
+    }
+
+    private static void inflateInto(ByteBuffer data, ZipEntry ze,
+            StrictJarVerifier.VerifierEntry entry) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            final byte[] input = new byte[(int) Math.min(data.remaining(), 8192)];
+            final byte[] output = new byte[(int) Math.max(1024, Math.min(ze.getSize(), 65536))];
+            long inflated = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (!data.hasRemaining()) {
+                        throw new ZipException("Truncated data for " + ze.getName());
+                    }
+                    final int count = Math.min(input.length, data.remaining());
+                    data.get(input, 0, count);
+                    inflater.setInput(input, 0, count);
+                }
+                final int count = inflater.inflate(output);
+                if (count == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("Bad data for " + ze.getName());
+                }
+                entry.write(output, 0, count);
+                inflated += count;
+            }
+            if (inflated != ze.getSize()) {
+                throw new IOException("Size mismatch on inflated file: " + inflated + " vs "
+                        + ze.getSize());
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Error inflating " + ze.getName() + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
     public InputStream getInputStream(ZipEntry ze) {
         final InputStream is = getZipInputStream(ze);
 
@@ -194,13 +400,48 @@ public final class StrictJarFile {
         if (!closed) {
             guard.close();
 
-            nativeClose(nativeHandle);
+            if (centralDirectory == null) {
+                nativeClose(nativeHandle);
+            } else {
+                // Unmap now rather than when the buffer is collected, so that the address
+                // space, and the file if it has been deleted, are released. Streams still
+                // open on the mapping fail from here on.
+                NioUtils.freeDirectBuffer(mapping);
+            }
             IoUtils.closeQuietly(raf);
             closed = true;
         }
     }
 
+    /** Returns a buffer over the stored or compressed data of an entry. */
+    private ByteBuffer getMappedData(ZipEntry ze) throws ZipException {
+        final ZipCentralDirectory.Record record = centralDirectory.find(ze.getName());
+        if (record == null) {
+            throw new ZipException("No entry " + ze.getName());
+        }
+        final int offset = centralDirectory.getDataOffset(mapping, record);
+        final ByteBuffer data = mapping.duplicate();
+        data.limit(offset + (int) record.compressedSize);
+        data.position(offset);
+        return data;
+    }
+
     private InputStream getZipInputStream(ZipEntry ze) {
+        if (centralDirectory != null) {
+            final ByteBuffer data;
+            try {
+                data = getMappedData(ze);
+            } catch (ZipException e) {
+                // Match the native path, which fails when the stream is read.
+                return new FailedInputStream(e);
+            }
+            if (ze.getMethod() == ZipEntry.STORED) {
+                return new ByteBufferStream(data);
+            }
+            int bufSize = Math.max(1024, (int) Math.min(ze.getSize(), 65535L));
+            return new ZipInflaterInputStream(new ByteBufferStream(data), new Inflater(true),
+                    bufSize, ze);
+        }
         if (ze.getMethod() == ZipEntry.STORED) {
             return new RAFStream(raf, ze.getDataOffset(),
                     ze.getDataOffset() + ze.getSize());
@@ -250,10 +491,78 @@ public final class StrictJarFile {
         }
     }
 
+    static final class MappedEntryIterator implements Iterator<ZipEntry> {
+        private final ZipCentralDirectory centralDirectory;
+        private final String prefix;
+        private int nextIndex;
+
+        MappedEntryIterator(ZipCentralDirectory centralDirectory, String prefix) {
+            this.centralDirectory = centralDirectory;
+            this.prefix = prefix;
+            advance(0);
+        }
+
+        private void advance(int from) {
+            nextIndex = from;
+            while (nextIndex < centralDirectory.size()
+                    && !centralDirectory.get(nextIndex).name.startsWith(prefix)) {
+                nextIndex++;
+            }
+        }
+
+        public ZipEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final ZipEntry ze = centralDirectory.get(nextIndex).newZipEntry();
+            advance(nextIndex + 1);
+            return ze;
+        }
+
+        public boolean hasNext() {
+            return nextIndex < centralDirectory.size();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Returns a SHA-256 digest of everything that verifying the archive reads:
+     * the central directory up to the end of the archive, which names every
+     * entry, and the stored bytes of the META-INF entries.
+     */
+    private static byte[] digestSignedContent(ByteBuffer mapping,
+            ZipCentralDirectory centralDirectory) throws ZipException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        final ByteBuffer buf = mapping.duplicate();
+        buf.position(centralDirectory.getCentralDirectoryOffset());
+        md.update(buf);
+        for (int i = 0; i < centralDirectory.size(); i++) {
+            final ZipCentralDirectory.Record record = centralDirectory.get(i);
+            if (record.name.startsWith("META-INF/")) {
+                final int offset = centralDirectory.getDataOffset(mapping, record);
+                buf.clear();
+                buf.position(offset);
+                buf.limit(offset + (int) record.compressedSize);
+                md.update(buf);
+            }
+        }
+        return md.digest();
+    }
+
     private HashMap<String, byte[]> getMetaEntries() throws IOException {
         HashMap<String, byte[]> metaEntries = new HashMap<String, byte[]>();
 
-        Iterator<ZipEntry> entryIterator = new EntryIterator(nativeHandle, "META-INF/");
+        Iterator<ZipEntry> entryIterator = (centralDirectory != null)
+                ? new MappedEntryIterator(centralDirectory, "META-INF/")
+                : new EntryIterator(nativeHandle, "META-INF/");
         while (entryIterator.hasNext()) {
             final ZipEntry entry = entryIterator.next();
             metaEntries.put(entry.getName(), Streams.readFully(getInputStream(entry)));
@@ -444,6 +753,62 @@ public final class StrictJarFile {
     }
 
 
+    /**
+     * Reads a region of the mapping; each stream has its own buffer position.
+     * Once the jar is closed and the mapping freed, reads fail with an IOException.
+     */
+    static final class ByteBufferStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override public int available() {
+            return buffer.remaining();
+        }
+
+        @Override public int read() throws IOException {
+            try {
+                return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+            } catch (IllegalStateException e) {
+                throw new IOException("Jar file closed", e);
+            }
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            try {
+                buffer.get(b, off, len);
+            } catch (IllegalStateException e) {
+                throw new IOException("Jar file closed", e);
+            }
+            return len;
+        }
+
+        @Override public long skip(long byteCount) {
+            final int count = (int) Math.min(Math.max(byteCount, 0), buffer.remaining());
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+    }
+
+    /** Stream over an entry whose data could not be located. */
+    static final class FailedInputStream extends InputStream {
+        private final IOException failure;
+
+        FailedInputStream(IOException failure) {
+            this.failure = failure;
+        }
+
+        @Override public int read() throws IOException {
+            throw failure;
+        }
+    }
+
     private static native long nativeOpenJarFile(String fileName) throws IOException;
     private static native long nativeStartIteration(long nativeHandle, String prefix);
     private static native ZipEntry nativeNextEntry(long iterationHandle);
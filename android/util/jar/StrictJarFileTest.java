@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util.jar;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Checks that mapped opens see an archive rewritten in place with the same
+ * size and modification time, rather than what an earlier open parsed.
+ */
+public class StrictJarFileTest extends TestCase {
+    private static final byte[] DATA = "hello, world".getBytes(StandardCharsets.UTF_8);
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("StrictJarFileTest", ".jar");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    /** Writes a jar with a manifest and one entry of the given name. */
+    private void writeJar(String entryName) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        final JarOutputStream jar = new JarOutputStream(new FileOutputStream(mFile), manifest);
+        jar.putNextEntry(new ZipEntry(entryName));
+        jar.write(DATA);
+        jar.closeEntry();
+        jar.close();
+    }
+
+    private StrictJarFile openMapped() throws IOException {
+        return new StrictJarFile(mFile.getAbsolutePath(), true, true, true);
+    }
+
+    public void testReopenSeesRewrittenArchive() throws Exception {
+        writeJar("a1");
+        final long length = mFile.length();
+        final long lastModified = mFile.lastModified();
+        StrictJarFile jar = openMapped();
+        try {
+            assertNotNull(jar.findEntry("a1"));
+        } finally {
+            jar.close();
+        }
+
+        // Same length and modification time, different entry.
+        writeJar("b2");
+        assertEquals(length, mFile.length());
+        mFile.setLastModified(lastModified);
+        jar = openMapped();
+        try {
+            assertNull(jar.findEntry("a1"));
+            assertNotNull(jar.findEntry("b2"));
+        } finally {
+            jar.close();
+        }
+    }
+
+    public void testReopenSeesRewrittenManifest() throws Exception {
+        writeJar("a1");
+        StrictJarFile jar = openMapped();
+        try {
+            assertNull(jar.getManifest().getMainAttributes().getValue("Created-By"));
+        } finally {
+            jar.close();
+        }
+
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Created-By", "test");
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(mFile), manifest);
+        out.putNextEntry(new ZipEntry("a1"));
+        out.write(DATA);
+        out.closeEntry();
+        out.close();
+        jar = openMapped();
+        try {
+            assertEquals("test", jar.getManifest().getMainAttributes().getValue("Created-By"));
+        } finally {
+            jar.close();
+        }
+    }
+}
@@ -20,6 +20,7 @@ package android.util.jar;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
@@ -76,11 +77,9 @@ class StrictJarVerifier {
     private final int mainAttributesEnd;
     private final boolean signatureSchemeRollbackProtectionsEnforced;
 
-    private final Hashtable<String, HashMap<String, Attributes>> signatures =
-            new Hashtable<String, HashMap<String, Attributes>>(5);
+    private final Hashtable<String, HashMap<String, Attributes>> signatures;
 
-    private final Hashtable<String, Certificate[]> certificates =
-            new Hashtable<String, Certificate[]>(5);
+    private final Hashtable<String, Certificate[]> certificates;
 
     private final Hashtable<String, Certificate[][]> verifiedEntries =
             new Hashtable<String, Certificate[][]>();
@@ -126,6 +125,14 @@ class StrictJarVerifier {
             digest.update(buf, off, nbytes);
         }
 
+        /**
+         * Updates a digest with the remaining bytes of a buffer, which may be
+         * a direct or mapped buffer that is digested without copying.
+         */
+        void write(ByteBuffer buf) {
+            digest.update(buf);
+        }
+
         /**
          * Verifies that the digests stored in the manifest match the decrypted
          * digests from the .SF file. This indicates the validity of the
@@ -180,6 +187,30 @@ class StrictJarVerifier {
         this.mainAttributesEnd = manifest.getMainAttributesEnd();
         this.signatureSchemeRollbackProtectionsEnforced =
                 signatureSchemeRollbackProtectionsEnforced;
+        this.signatures = new Hashtable<String, HashMap<String, Attributes>>(5);
+        this.certificates = new Hashtable<String, Certificate[]>(5);
+    }
+
+    private StrictJarVerifier(StrictJarVerifier verified) {
+        jarName = verified.jarName;
+        manifest = verified.manifest;
+        metaEntries = verified.metaEntries;
+        mainAttributesEnd = verified.mainAttributesEnd;
+        signatureSchemeRollbackProtectionsEnforced =
+                verified.signatureSchemeRollbackProtectionsEnforced;
+        signatures = verified.signatures;
+        certificates = verified.certificates;
+    }
+
+    /**
+     * Returns a verifier for another open of the same, unchanged JAR. It shares
+     * the signature files and signer certificates this verifier has already
+     * checked with {@link #readCertificates()}, which are not modified after
+     * that, but starts with no verified entries: every entry is still digested
+     * and checked against the manifest when it is read.
+     */
+    StrictJarVerifier forReopen() {
+        return new StrictJarVerifier(this);
     }
 
     /**
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util.jar;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Immutable index of the central directory of a zip archive, parsed from a
+ * buffer holding the whole archive. Like libziparchive it accepts no zip64,
+ * no multi-disk archives, no duplicate names, and no entry whose data does not
+ * lie before the central directory, and it checks each entry's local header
+ * against the central directory before the entry is read.
+ */
+final class ZipCentralDirectory {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CD_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    private static final int EOCD_SIZE = 22;
+    private static final int CD_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int GPB_ENCRYPTED = 1;
+    private static final int GPB_DATA_DESCRIPTOR = 1 << 3;
+
+    /** One central directory record. */
+    static final class Record {
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final int dosTime;
+        final int localHeaderOffset;
+
+        Record(String name, int method, long crc, long compressedSize, long size, int dosTime,
+                int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dosTime = dosTime;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        ZipEntry newZipEntry() {
+            final ZipEntry ze = new ZipEntry(name);
+            ze.setMethod(method);
+            ze.setCrc(crc);
+            ze.setSize(size);
+            ze.setCompressedSize(compressedSize);
+            ze.setTime(dosToJavaTime(dosTime));
+            return ze;
+        }
+    }
+
+    private final ArrayList<Record> mRecords;
+    private final HashMap<String, Record> mRecordsByName;
+    private final int mCentralDirectoryOffset;
+
+    private ZipCentralDirectory(ArrayList<Record> records, HashMap<String, Record> recordsByName,
+            int centralDirectoryOffset) {
+        mRecords = records;
+        mRecordsByName = recordsByName;
+        mCentralDirectoryOffset = centralDirectoryOffset;
+    }
+
+    static ZipCentralDirectory parse(ByteBuffer archive, String fileName) throws ZipException {
+        final ByteBuffer buf = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int length = buf.limit();
+        if (length < EOCD_SIZE) {
+            throw new ZipException(fileName + ": too short to be a zip archive");
+        }
+
+        // The end of central directory record is followed by a comment of up
+        // to 64 KB; search back for the last signature whose comment fits.
+        int eocd = -1;
+        final int searchEnd = Math.max(0, length - EOCD_SIZE - MAX_COMMENT_SIZE);
+        for (int i = length - EOCD_SIZE; i >= searchEnd; i--) {
+            if (buf.getInt(i) == EOCD_SIGNATURE
+                    && i + EOCD_SIZE + (buf.getShort(i + 20) & 0xffff) == length) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException(fileName + ": no end of central directory record");
+        }
+        if (buf.getShort(eocd + 4) != 0 || buf.getShort(eocd + 6) != 0) {
+            throw new ZipException(fileName + ": multi-disk archives are not supported");
+        }
+        final int entryCount = buf.getShort(eocd + 10) & 0xffff;
+        final long cdSize = buf.getInt(eocd + 12) & 0xffffffffL;
+        final long cdOffset = buf.getInt(eocd + 16) & 0xffffffffL;
+        if (cdOffset == 0xffffffffL || cdSize == 0xffffffffL) {
+            throw new ZipException(fileName + ": zip64 archives are not supported");
+        }
+        if (cdOffset + cdSize > eocd) {
+            throw new ZipException(fileName + ": central directory overlaps its end record");
+        }
+
+        final ArrayList<Record> records = new ArrayList<>(entryCount);
+        final HashMap<String, Record> recordsByName = new HashMap<>(entryCount * 2);
+        int pos = (int) cdOffset;
+        final int cdEnd = (int) (cdOffset + cdSize);
+        for (int i = 0; i < entryCount; i++) {
+            if (pos + CD_HEADER_SIZE > cdEnd || buf.getInt(pos) != CD_SIGNATURE) {
+                throw new ZipException(fileName + ": bad central directory record " + i);
+            }
+            final int flags = buf.getShort(pos + 8) & 0xffff;
+            final int method = buf.getShort(pos + 10) & 0xffff;
+            final int dosTime = buf.getInt(pos + 12);
+            final long crc = buf.getInt(pos + 16) & 0xffffffffL;
+            final long compressedSize = buf.getInt(pos + 20) & 0xffffffffL;
+            final long size = buf.getInt(pos + 24) & 0xffffffffL;
+            final int nameLength = buf.getShort(pos + 28) & 0xffff;
+            final int extraLength = buf.getShort(pos + 30) & 0xffff;
+            final int commentLength = buf.getShort(pos + 32) & 0xffff;
+            final long localHeaderOffset = buf.getInt(pos + 42) & 0xffffffffL;
+            final int next = pos + CD_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (next > cdEnd) {
+                throw new ZipException(fileName + ": central directory record " + i
+                        + " runs past the directory");
+            }
+            if ((flags & GPB_ENCRYPTED) != 0) {
+                throw new ZipException(fileName + ": encrypted entries are not supported");
+            }
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                throw new ZipException(fileName + ": unsupported compression method " + method);
+            }
+            if (method == ZipEntry.STORED && compressedSize != size) {
+                throw new ZipException(fileName + ": stored entry " + i + " has two sizes");
+            }
+            if (localHeaderOffset + LOCAL_HEADER_SIZE > cdOffset
+                    || localHeaderOffset + compressedSize > cdOffset) {
+                throw new ZipException(fileName + ": entry " + i
+                        + " lies outside the archive data");
+            }
+
+            final byte[] nameBytes = new byte[nameLength];
+            final ByteBuffer nameBuf = buf.duplicate();
+            nameBuf.position(pos + CD_HEADER_SIZE);
+            nameBuf.get(nameBytes);
+            final String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            final Record record = new Record(name, method, crc, compressedSize, size, dosTime,
+                    (int) localHeaderOffset);
+            if (recordsByName.put(name, record) != null) {
+                throw new ZipException(fileName + ": duplicate entry " + name);
+            }
+            records.add(record);
+            pos = next;
+        }
+        return new ZipCentralDirectory(records, recordsByName, (int) cdOffset);
+    }
+
+    int size() {
+        return mRecords.size();
+    }
+
+    /** Returns the offset of the central directory, which runs to the end of the archive. */
+    int getCentralDirectoryOffset() {
+        return mCentralDirectoryOffset;
+    }
+
+    Record get(int index) {
+        return mRecords.get(index);
+    }
+
+    Record find(String name) {
+        return mRecordsByName.get(name);
+    }
+
+    /**
+     * Returns the offset of the entry's data in {@code archive}, after checking
+     * that its local header agrees with the central directory.
+     */
+    int getDataOffset(ByteBuffer archive, Record record) throws ZipException {
+        final ByteBuffer buf = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int pos = record.localHeaderOffset;
+        if (buf.getInt(pos) != LOCAL_SIGNATURE) {
+            throw new ZipException("Bad local header for " + record.name);
+        }
+        final int flags = buf.getShort(pos + 6) & 0xffff;
+        final int method = buf.getShort(pos + 8) & 0xffff;
+        final long crc = buf.getInt(pos + 14) & 0xffffffffL;
+        final long compressedSize = buf.getInt(pos + 18) & 0xffffffffL;
+        final long size = buf.getInt(pos + 22) & 0xffffffffL;
+        final int nameLength = buf.getShort(pos + 26) & 0xffff;
+        final int extraLength = buf.getShort(pos + 28) & 0xffff;
+        if (method != record.method) {
+            throw new ZipException("Local header method mismatch for " + record.name);
+        }
+        // With a data descriptor these follow the data instead, as in libziparchive.
+        if ((flags & GPB_DATA_DESCRIPTOR) == 0 && (crc != record.crc
+                || compressedSize != record.compressedSize || size != record.size)) {
+            throw new ZipException("Local header crc or sizes mismatch for " + record.name);
+        }
+        final byte[] expected = record.name.getBytes(StandardCharsets.UTF_8);
+        if (nameLength != expected.length) {
+            throw new ZipException("Local header name mismatch for " + record.name);
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (buf.get(pos + LOCAL_HEADER_SIZE + i) != expected[i]) {
+                throw new ZipException("Local header name mismatch for " + record.name);
+            }
+        }
+        final long dataOffset = (long) pos + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        if (dataOffset + record.compressedSize > mCentralDirectoryOffset) {
+            throw new ZipException("Data of " + record.name + " overlaps the central directory");
+        }
+        return (int) dataOffset;
+    }
+
+    private static long dosToJavaTime(int dosTime) {
+        final Calendar cal = new GregorianCalendar();
+        cal.set(Calendar.YEAR, ((dosTime >> 25) & 0x7f) + 1980);
+        cal.set(Calendar.MONTH, ((dosTime >> 21) & 0x0f) - 1);
+        cal.set(Calendar.DATE, (dosTime >> 16) & 0x1f);
+        cal.set(Calendar.HOUR_OF_DAY, (dosTime >> 11) & 0x1f);
+        cal.set(Calendar.MINUTE, (dosTime >> 5) & 0x3f);
+        cal.set(Calendar.SECOND, (dosTime << 1) & 0x3e);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+}
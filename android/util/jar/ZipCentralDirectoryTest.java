@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util.jar;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Feeds ZipCentralDirectory well-formed archives and archives with one field
+ * corrupted, and checks that each corruption is rejected.
+ */
+public class ZipCentralDirectoryTest extends TestCase {
+    private static final byte[] DATA = "hello, world".getBytes(StandardCharsets.UTF_8);
+
+    // Offsets in the central directory record and the local header.
+    private static final int CD_FLAGS = 8;
+    private static final int CD_METHOD = 10;
+    private static final int CD_COMPRESSED_SIZE = 20;
+    private static final int CD_NAME = 46;
+    private static final int LOCAL_METHOD = 8;
+    private static final int LOCAL_CRC = 14;
+    private static final int LOCAL_SIZE = 22;
+    private static final int LOCAL_NAME = 30;
+
+    /** Two stored entries named a1 and a2, and a deflated one named d3. */
+    private static byte[] newArchive() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ZipOutputStream zip = new ZipOutputStream(bytes);
+        for (String name : new String[] { "a1", "a2" }) {
+            final ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(DATA.length);
+            final CRC32 crc = new CRC32();
+            crc.update(DATA);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(DATA);
+            zip.closeEntry();
+        }
+        zip.putNextEntry(new ZipEntry("d3"));
+        zip.write(DATA);
+        zip.closeEntry();
+        zip.close();
+        return bytes.toByteArray();
+    }
+
+    private static ByteBuffer le(byte[] archive) {
+        return ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int eocd(byte[] archive) {
+        return archive.length - 22;
+    }
+
+    /** Offset of the index'th central directory record. */
+    private static int cdRecord(byte[] archive, int index) {
+        final ByteBuffer buf = le(archive);
+        int pos = buf.getInt(eocd(archive) + 16);
+        for (int i = 0; i < index; i++) {
+            pos += 46 + (buf.getShort(pos + 28) & 0xffff) + (buf.getShort(pos + 30) & 0xffff)
+                    + (buf.getShort(pos + 32) & 0xffff);
+        }
+        return pos;
+    }
+
+    private static int localHeader(byte[] archive, int index) {
+        return le(archive).getInt(cdRecord(archive, index) + 42);
+    }
+
+    private static ZipCentralDirectory parse(byte[] archive) throws ZipException {
+        return ZipCentralDirectory.parse(ByteBuffer.wrap(archive), "test.zip");
+    }
+
+    private static void assertRejected(byte[] archive) {
+        try {
+            final ZipCentralDirectory cd = parse(archive);
+            for (int i = 0; i < cd.size(); i++) {
+                cd.getDataOffset(ByteBuffer.wrap(archive), cd.get(i));
+            }
+            fail("Accepted a malformed archive");
+        } catch (ZipException expected) {
+        }
+    }
+
+    public void testParsesWellFormedArchive() throws Exception {
+        final byte[] archive = newArchive();
+        final ZipCentralDirectory cd = parse(archive);
+        assertEquals(3, cd.size());
+        final ZipCentralDirectory.Record stored = cd.find("a2");
+        assertEquals(ZipEntry.STORED, stored.method);
+        assertEquals(DATA.length, stored.size);
+        final int offset = cd.getDataOffset(ByteBuffer.wrap(archive), stored);
+        assertEquals(new String(DATA, StandardCharsets.UTF_8),
+                new String(archive, offset, DATA.length, StandardCharsets.UTF_8));
+        // Deflated entries written by ZipOutputStream use a data descriptor.
+        final ZipCentralDirectory.Record deflated = cd.find("d3");
+        assertEquals(ZipEntry.DEFLATED, deflated.method);
+        cd.getDataOffset(ByteBuffer.wrap(archive), deflated);
+    }
+
+    public void testRejectsTruncatedArchive() throws Exception {
+        final byte[] archive = newArchive();
+        final byte[] truncated = new byte[archive.length - 1];
+        System.arraycopy(archive, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+        assertRejected(new byte[10]);
+    }
+
+    public void testRejectsMultiDiskArchive() throws Exception {
+        final byte[] archive = newArchive();
+        le(archive).putShort(eocd(archive) + 4, (short) 1);
+        assertRejected(archive);
+    }
+
+    public void testRejectsZip64Archive() throws Exception {
+        final byte[] archive = newArchive();
+        le(archive).putInt(eocd(archive) + 16, 0xffffffff);
+        assertRejected(archive);
+    }
+
+    public void testRejectsCentralDirectoryOverlappingEndRecord() throws Exception {
+        final byte[] archive = newArchive();
+        final ByteBuffer buf = le(archive);
+        buf.putInt(eocd(archive) + 12, buf.getInt(eocd(archive) + 12) + 1);
+        assertRejected(archive);
+    }
+
+    public void testRejectsDuplicateNames() throws Exception {
+        final byte[] archive = newArchive();
+        archive[cdRecord(archive, 1) + CD_NAME + 1] = '1';
+        archive[localHeader(archive, 1) + LOCAL_NAME + 1] = '1';
+        assertRejected(archive);
+    }
+
+    public void testRejectsEncryptedEntry() throws Exception {
+        final byte[] archive = newArchive();
+        archive[cdRecord(archive, 0) + CD_FLAGS] |= 1;
+        assertRejected(archive);
+    }
+
+    public void testRejectsUnsupportedMethod() throws Exception {
+        final byte[] archive = newArchive();
+        le(archive).putShort(cdRecord(archive, 0) + CD_METHOD, (short) 12);
+        assertRejected(archive);
+    }
+
+    public void testRejectsDataOverlappingCentralDirectory() throws Exception {
+        final byte[] archive = newArchive();
+        le(archive).putInt(cdRecord(archive, 2) + CD_COMPRESSED_SIZE, archive.length);
+        assertRejected(archive);
+    }
+
+    public void testRejectsBadLocalSignature() throws Exception {
+        final byte[] archive = newArchive();
+        archive[localHeader(archive, 1)] ^= 1;
+        assertRejected(archive);
+    }
+
+    public void testRejectsLocalNameMismatch() throws Exception {
+        final byte[] archive = newArchive();
+        archive[localHeader(archive, 1) + LOCAL_NAME] = 'b';
+        assertRejected(archive);
+    }
+
+    public void testRejectsLocalMethodMismatch() throws Exception {
+        final byte[] archive = newArchive();
+        le(archive).putShort(localHeader(archive, 0) + LOCAL_METHOD, (short) ZipEntry.DEFLATED);
+        assertRejected(archive);
+    }
+
+    public void testRejectsLocalCrcMismatch() throws Exception {
+        final byte[] archive = newArchive();
+        archive[localHeader(archive, 0) + LOCAL_CRC] ^= 1;
+        assertRejected(archive);
+    }
+
+    public void testRejectsLocalSizeMismatch() throws Exception {
+        final byte[] archive = newArchive();
+        archive[localHeader(archive, 1) + LOCAL_SIZE] ^= 1;
+        assertRejected(archive);
+    }
+}
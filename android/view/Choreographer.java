@@ -119,6 +119,10 @@ public final class Choreographer {
     private static final int SKIPPED_FRAME_WARNING_LIMIT = SystemProperties.getInt(
             "debug.choreographer.skipwarning", 30);
 
+    // Number of recent frames kept when frame phase stats are enabled.
+    private static final int FRAME_STATS_CAPACITY = SystemProperties.getInt(
+            "debug.choreographer.framestats", 120);
+
     private static final int MSG_DO_FRAME = 0;
     private static final int MSG_DO_SCHEDULE_VSYNC = 1;
     private static final int MSG_DO_SCHEDULE_CALLBACK = 2;
@@ -161,6 +165,9 @@ public final class Choreographer {
      */
     FrameInfo mFrameInfo = new FrameInfo();
 
+    // Per-phase timings of recent frames, null unless enabled.
+    private volatile FramePhaseStats mFrameStats;
+
     /**
      * Must be kept in sync with CALLBACK_* ints below, used to index into this array.
      * @hide
@@ -326,6 +333,36 @@ public final class Choreographer {
                 writer.println(mFrameScheduled);
         writer.print(innerPrefix); writer.print("mLastFrameTime=");
                 writer.println(TimeUtils.formatUptime(mLastFrameTimeNanos / 1000000));
+        final FramePhaseStats stats = mFrameStats;
+        if (stats != null) {
+            stats.dump(innerPrefix, writer);
+        }
+    }
+
+    /**
+     * Enables or disables recording of per-phase timings for each frame.
+     * Recording costs one clock read per callback while enabled.
+     *
+     * @hide
+     */
+    public void setFrameStatsEnabled(boolean enabled) {
+        synchronized (mLock) {
+            if (enabled && mFrameStats == null) {
+                mFrameStats = new FramePhaseStats(FRAME_STATS_CAPACITY);
+            } else if (!enabled) {
+                mFrameStats = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the per-phase timings of recent frames, or null if recording
+     * is disabled. The returned object can be read from any thread.
+     *
+     * @hide
+     */
+    public FramePhaseStats getFrameStats() {
+        return mFrameStats;
     }
 
     /**
@@ -562,6 +599,7 @@ public final class Choreographer {
 
     void doFrame(long frameTimeNanos, int frame) {
         final long startNanos;
+        final long intendedFrameTimeNanos;
         synchronized (mLock) {
             if (!mFrameScheduled) {
                 return; // no work to do
@@ -573,7 +611,7 @@ public final class Choreographer {
                         + ((frameTimeNanos - mLastFrameTimeNanos) * 0.000001f) + " ms");
             }
 
-            long intendedFrameTimeNanos = frameTimeNanos;
+            intendedFrameTimeNanos = frameTimeNanos;
             startNanos = System.nanoTime();
             final long jitterNanos = startNanos - frameTimeNanos;
             if (jitterNanos >= mFrameIntervalNanos) {
@@ -607,6 +645,11 @@ public final class Choreographer {
             mLastFrameTimeNanos = frameTimeNanos;
         }
 
+        final FramePhaseStats stats = mFrameStats;
+        if (stats != null) {
+            stats.beginFrame(frame, intendedFrameTimeNanos, startNanos);
+        }
+
         try {
             Trace.traceBegin(Trace.TRACE_TAG_VIEW, "Choreographer#doFrame");
             AnimationUtils.lockAnimationClock(frameTimeNanos / TimeUtils.NANOS_PER_MS);
@@ -626,6 +669,10 @@ public final class Choreographer {
             Trace.traceEnd(Trace.TRACE_TAG_VIEW);
         }
 
+        if (stats != null) {
+            stats.endFrame(System.nanoTime());
+        }
+
         if (DEBUG_FRAMES) {
             final long endNanos = System.nanoTime();
             Log.d(TAG, "Frame " + frame + ": Finished, took "
@@ -675,8 +722,10 @@ public final class Choreographer {
                 }
             }
         }
+        final FramePhaseStats stats = mFrameStats;
         try {
             Trace.traceBegin(Trace.TRACE_TAG_VIEW, CALLBACK_TRACE_TITLES[callbackType]);
+            long callbackStartNanos = stats != null ? System.nanoTime() : 0;
             for (CallbackRecord c = callbacks; c != null; c = c.next) {
                 if (DEBUG_FRAMES) {
                     Log.d(TAG, "RunCallback: type=" + callbackType
@@ -684,6 +733,12 @@ public final class Choreographer {
                             + ", latencyMillis=" + (SystemClock.uptimeMillis() - c.dueTime));
                 }
                 c.run(frameTimeNanos);
+                if (stats != null) {
+                    final long callbackEndNanos = System.nanoTime();
+                    stats.recordCallback(callbackType, c.action,
+                            callbackEndNanos - callbackStartNanos);
+                    callbackStartNanos = callbackEndNanos;
+                }
             }
         } finally {
             synchronized (mLock) {
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-frame phase timings recorded by {@link Choreographer}, kept in a ring
+ * buffer of the most recent frames.
+ *
+ * There is a single writer, the choreographer's looper thread. Readers on any
+ * thread copy frames out without locking: each slot carries the sequence
+ * number of the frame it holds, which is cleared while the slot is rewritten
+ * and checked before and after the copy. A reader can stream frames by
+ * remembering the last sequence it consumed and calling
+ * {@link #readFrame(long, Frame)} until {@link #getFrameCount()} is reached.
+ *
+ * All times in nanoseconds from System.nanoTime().
+ *
+ * @hide
+ */
+public final class FramePhaseStats {
+
+    /** Number of callback types, see {@link Choreographer#CALLBACK_INPUT} and friends. */
+    public static final int CALLBACK_TYPE_COUNT = Choreographer.CALLBACK_COMMIT + 1;
+
+    private static final String[] CALLBACK_TYPE_NAMES = {
+            "input", "animation", "traversal", "commit"
+    };
+
+    // Layout of a frame slot in mData.
+    private static final int FRAME_NUMBER = 0;
+    private static final int INTENDED_VSYNC = 1;
+    private static final int FRAME_START = 2;
+    private static final int FRAME_END = 3;
+    private static final int SLOWEST_CALLBACK_TYPE = 4;
+    private static final int SLOWEST_CALLBACK_DURATION = 5;
+    private static final int PHASES = 6;
+    // Per callback type: duration, callback count
+    private static final int PHASE_STRIDE = 2;
+    private static final int STRIDE = PHASES + CALLBACK_TYPE_COUNT * PHASE_STRIDE;
+
+    private final int mCapacity;
+    private final AtomicLongArray mData;
+    private final AtomicLongArray mSlotSequence;
+    private final AtomicReferenceArray<String> mSlowestCallback;
+    private volatile long mFrameCount;
+
+    // Frame being recorded, only touched by the writer.
+    private final long[] mPending = new long[STRIDE];
+    private String mPendingSlowest;
+    private boolean mRecording;
+
+    /**
+     * A copy of the timings of a single frame.
+     */
+    public static final class Frame {
+        /** Sequence number of this frame within the ring, starting at 0. */
+        public long sequence;
+        /** Frame number reported with the vsync pulse. */
+        public long frameNumber;
+        /** Intended vsync time, unadjusted by jitter. */
+        public long intendedVsyncNanos;
+        /** Time at which the choreographer started handling the frame. */
+        public long frameStartNanos;
+        /** Time at which the last callback of the frame returned. */
+        public long frameEndNanos;
+        /** Time spent running callbacks, indexed by callback type. */
+        public final long[] callbackDurationNanos = new long[CALLBACK_TYPE_COUNT];
+        /** Number of callbacks run, indexed by callback type. */
+        public final int[] callbackCount = new int[CALLBACK_TYPE_COUNT];
+        /** Type of the slowest callback of the frame, or -1 if no callback ran. */
+        public int slowestCallbackType;
+        /** Duration of the slowest callback of the frame. */
+        public long slowestCallbackNanos;
+        /** Class name of the slowest callback's action, or null if no callback ran. */
+        public String slowestCallback;
+
+        /** Delay between the intended vsync and the start of the frame. */
+        public long getVsyncLatencyNanos() {
+            return frameStartNanos - intendedVsyncNanos;
+        }
+
+        /** Total time taken by the frame's callbacks. */
+        public long getTotalDurationNanos() {
+            return frameEndNanos - frameStartNanos;
+        }
+    }
+
+    public FramePhaseStats(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mCapacity = capacity;
+        mData = new AtomicLongArray(capacity * STRIDE);
+        mSlotSequence = new AtomicLongArray(capacity);
+        mSlowestCallback = new AtomicReferenceArray<String>(capacity);
+    }
+
+    /** Returns the number of frames the ring holds. */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the number of frames recorded so far. The most recent frame has
+     * sequence number {@code getFrameCount() - 1}.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Copies the frame with the given sequence number into {@code out}.
+     *
+     * @return false if the frame has not been recorded yet or has already
+     *         been overwritten by a newer frame.
+     */
+    public boolean readFrame(long sequence, Frame out) {
+        if (sequence < 0) {
+            return false;
+        }
+        final int slot = (int) (sequence % mCapacity);
+        final long expected = sequence + 1;
+        if (mSlotSequence.get(slot) != expected) {
+            return false;
+        }
+
+        final int base = slot * STRIDE;
+        out.sequence = sequence;
+        out.frameNumber = mData.get(base + FRAME_NUMBER);
+        out.intendedVsyncNanos = mData.get(base + INTENDED_VSYNC);
+        out.frameStartNanos = mData.get(base + FRAME_START);
+        out.frameEndNanos = mData.get(base + FRAME_END);
+        out.slowestCallbackType = (int) mData.get(base + SLOWEST_CALLBACK_TYPE);
+        out.slowestCallbackNanos = mData.get(base + SLOWEST_CALLBACK_DURATION);
+        for (int type = 0; type < CALLBACK_TYPE_COUNT; type++) {
+            final int phase = base + PHASES + type * PHASE_STRIDE;
+            out.callbackDurationNanos[type] = mData.get(phase);
+            out.callbackCount[type] = (int) mData.get(phase + 1);
+        }
+        out.slowestCallback = mSlowestCallback.get(slot);
+
+        // The writer may have lapped us while copying.
+        return mSlotSequence.get(slot) == expected;
+    }
+
+    void beginFrame(long frameNumber, long intendedVsyncNanos, long frameStartNanos) {
+        final long[] pending = mPending;
+        for (int i = 0; i < STRIDE; i++) {
+            pending[i] = 0;
+        }
+        pending[FRAME_NUMBER] = frameNumber;
+        pending[INTENDED_VSYNC] = intendedVsyncNanos;
+        pending[FRAME_START] = frameStartNanos;
+        pending[SLOWEST_CALLBACK_TYPE] = -1;
+        mPendingSlowest = null;
+        mRecording = true;
+    }
+
+    void recordCallback(int callbackType, Object action, long durationNanos) {
+        final long[] pending = mPending;
+        final int phase = PHASES + callbackType * PHASE_STRIDE;
+        pending[phase] += durationNanos;
+        pending[phase + 1]++;
+        if (durationNanos > pending[SLOWEST_CALLBACK_DURATION]
+                || pending[SLOWEST_CALLBACK_TYPE] < 0) {
+            pending[SLOWEST_CALLBACK_TYPE] = callbackType;
+            pending[SLOWEST_CALLBACK_DURATION] = durationNanos;
+            mPendingSlowest = action.getClass().getName();
+        }
+    }
+
+    void endFrame(long frameEndNanos) {
+        if (!mRecording) {
+            return;
+        }
+        mRecording = false;
+        mPending[FRAME_END] = frameEndNanos;
+
+        final long sequence = mFrameCount;
+        final int slot = (int) (sequence % mCapacity);
+        final int base = slot * STRIDE;
+        mSlotSequence.set(slot, 0);
+        for (int i = 0; i < STRIDE; i++) {
+            mData.lazySet(base + i, mPending[i]);
+        }
+        mSlowestCallback.lazySet(slot, mPendingSlowest);
+        mSlotSequence.set(slot, sequence + 1);
+        mFrameCount = sequence + 1;
+        mPendingSlowest = null;
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        final long count = mFrameCount;
+        writer.print(prefix); writer.print("Frame phases (last ");
+                writer.print(Math.min(count, mCapacity)); writer.println(" frames):");
+        final Frame frame = new Frame();
+        for (long sequence = Math.max(0, count - mCapacity); sequence < count; sequence++) {
+            if (!readFrame(sequence, frame)) {
+                continue;
+            }
+            writer.print(prefix); writer.print("  #"); writer.print(frame.frameNumber);
+            writer.print(" latency="); printMillis(writer, frame.getVsyncLatencyNanos());
+            writer.print(" total="); printMillis(writer, frame.getTotalDurationNanos());
+            for (int type = 0; type < CALLBACK_TYPE_COUNT; type++) {
+                writer.print(' '); writer.print(CALLBACK_TYPE_NAMES[type]); writer.print('=');
+                printMillis(writer, frame.callbackDurationNanos[type]);
+                writer.print('/'); writer.print(frame.callbackCount[type]);
+            }
+            if (frame.slowestCallback != null) {
+                writer.print(" slowest="); writer.print(frame.slowestCallback);
+                writer.print('('); writer.print(CALLBACK_TYPE_NAMES[frame.slowestCallbackType]);
+                writer.print(", "); printMillis(writer, frame.slowestCallbackNanos);
+                writer.print(')');
+            }
+            writer.println();
+        }
+    }
+
+    private static void printMillis(PrintWriter writer, long nanos) {
+        writer.print(nanos * 0.000001f); writer.print("ms");
+    }
+}
@@ -31,14 +31,18 @@ import android.graphics.Canvas;
 import android.os.Handler;
 import android.os.Message;
 import android.os.Trace;
+import android.util.ArrayMap;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.util.Xml;
 import android.widget.FrameLayout;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -95,9 +99,31 @@ public abstract class LayoutInflater {
 
     private static final HashMap<String, Constructor<? extends View>> sConstructorMap =
             new HashMap<String, Constructor<? extends View>>();
-    
+
+    /** Direct constructors registered by fully qualified class name. */
+    private static final ArrayMap<String, ViewConstructor> sViewConstructors =
+            new ArrayMap<String, ViewConstructor>();
+
+    /**
+     * Recorded element sequences, keyed by inflater class and then by layout
+     * resource ID, since subclasses resolve tag names differently.
+     */
+    private static final ArrayMap<Class<?>, SparseArray<LayoutRecord>> sLayoutRecords =
+            new ArrayMap<Class<?>, SparseArray<LayoutRecord>>();
+
+    /** Per layout resource ID inflation timings. */
+    private static final SparseArray<InflateStats> sInflateStats =
+            new SparseArray<InflateStats>();
+
     private HashMap<String, Boolean> mFilterMap;
 
+    // State for the resource currently being inflated, see inflate(int, ViewGroup, boolean).
+    private LayoutRecord mReplay;
+    private int mReplayIndex;
+    private LayoutRecorder mRecorder;
+    private Constructor<? extends View> mLastConstructor;
+    private ViewConstructor mLastViewConstructor;
+
     private TypedValue mTempValue;
 
     private static final String TAG_MERGE = "merge";
@@ -128,7 +154,98 @@ public abstract class LayoutInflater {
         @SuppressWarnings("unchecked")
         boolean onLoadClass(Class clazz);
     }
-    
+
+    /**
+     * Direct, non-reflective constructor for a View class. Instances are
+     * registered with {@link #registerViewConstructor} and are used by
+     * {@link #createView} in place of {@link Constructor#newInstance}.
+     *
+     * @hide
+     */
+    public interface ViewConstructor {
+        /**
+         * @param context The context the view is being created in.
+         * @param attrs Inflation attributes as specified in XML file.
+         *
+         * @return The newly created view; must not be null.
+         */
+        View newInstance(Context context, AttributeSet attrs);
+    }
+
+    /**
+     * Inflation counters for a single layout resource.
+     *
+     * @hide
+     */
+    public static final class InflateStats {
+        int mCount;
+        int mReplayCount;
+        long mTotalNanos;
+        long mMaxNanos;
+
+        /** Number of times the layout was inflated. */
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Number of inflations that replayed a recorded element sequence. */
+        public int getReplayCount() {
+            return mReplayCount;
+        }
+
+        /** Total wall time spent inflating the layout, in nanoseconds. */
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        /** Slowest single inflation of the layout, in nanoseconds. */
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+    }
+
+    /**
+     * Constructors resolved for each element of a layout, in document order.
+     * Only inflaters without a {@link Factory} record layouts. Elements handled
+     * specially (merge, include, tag, ...) have no entry. Attributes are still read from the
+     * compiled XML parser, because styled attribute resolution works directly
+     * on the parser's XML block.
+     */
+    private static final class LayoutRecord {
+        final String[] names;
+        final Constructor<? extends View>[] constructors;
+        final ViewConstructor[] viewConstructors;
+
+        LayoutRecord(String[] names, Constructor<? extends View>[] constructors,
+                ViewConstructor[] viewConstructors) {
+            this.names = names;
+            this.constructors = constructors;
+            this.viewConstructors = viewConstructors;
+        }
+    }
+
+    private static final class LayoutRecorder {
+        final ArrayList<String> names = new ArrayList<String>();
+        final ArrayList<Constructor<? extends View>> constructors =
+                new ArrayList<Constructor<? extends View>>();
+        final ArrayList<ViewConstructor> viewConstructors = new ArrayList<ViewConstructor>();
+
+        void add(String name, Constructor<? extends View> constructor,
+                ViewConstructor viewConstructor) {
+            names.add(name);
+            constructors.add(constructor);
+            viewConstructors.add(viewConstructor);
+        }
+
+        @SuppressWarnings("unchecked")
+        LayoutRecord build() {
+            final int size = names.size();
+            return new LayoutRecord(names.toArray(new String[size]),
+                    constructors.toArray(new Constructor[size]),
+                    viewConstructors.toArray(new ViewConstructor[size]));
+        }
+    }
+
     public interface Factory {
         /**
          * Hook you can supply that is called when inflating from a LayoutInflater.
@@ -422,10 +539,139 @@ public abstract class LayoutInflater {
         }
 
         final XmlResourceParser parser = res.getLayout(resource);
-        try {
-            return inflate(parser, root, attachToRoot);
-        } finally {
-            parser.close();
+        synchronized (mConstructorArgs) {
+            // Inflation may re-enter for a nested layout, e.g. from a view constructor.
+            final LayoutRecord lastReplay = mReplay;
+            final int lastReplayIndex = mReplayIndex;
+            final LayoutRecorder lastRecorder = mRecorder;
+
+            // Factories may create any element, so their results can't be recorded or replayed.
+            final boolean replayable = mFilter == null && mFactory == null && mFactory2 == null
+                    && mPrivateFactory == null;
+            final LayoutRecord record = replayable ? getLayoutRecord(resource) : null;
+            mReplay = record;
+            mReplayIndex = 0;
+            mRecorder = replayable && record == null ? new LayoutRecorder() : null;
+
+            final long start = System.nanoTime();
+            try {
+                final View result = inflate(parser, root, attachToRoot);
+                if (mRecorder != null) {
+                    putLayoutRecord(resource, mRecorder.build());
+                }
+                return result;
+            } finally {
+                parser.close();
+                updateInflateStats(resource, System.nanoTime() - start, mReplay != null);
+
+                mReplay = lastReplay;
+                mReplayIndex = lastReplayIndex;
+                mRecorder = lastRecorder;
+            }
+        }
+    }
+
+    /**
+     * Registers a direct constructor for the View class with the given fully
+     * qualified name. {@link #createView} uses it instead of reflection unless
+     * a {@link Filter} is set on the inflater.
+     *
+     * @hide
+     */
+    public static void registerViewConstructor(String className, ViewConstructor constructor) {
+        if (className == null || constructor == null) {
+            throw new NullPointerException("className and constructor must not be null");
+        }
+        synchronized (sViewConstructors) {
+            sViewConstructors.put(className, constructor);
+        }
+    }
+
+    /**
+     * Drops all recorded layouts, forcing the next inflation of each layout
+     * to resolve its views by name again.
+     *
+     * @hide
+     */
+    public static void clearLayoutRecords() {
+        synchronized (sLayoutRecords) {
+            sLayoutRecords.clear();
+        }
+    }
+
+    /**
+     * Returns the inflation counters for the given layout resource, or null
+     * if it has not been inflated through {@link #inflate(int, ViewGroup, boolean)}.
+     * The returned object is a snapshot.
+     *
+     * @hide
+     */
+    public static InflateStats getInflateStats(@LayoutRes int resource) {
+        synchronized (sInflateStats) {
+            final InflateStats stats = sInflateStats.get(resource);
+            if (stats == null) {
+                return null;
+            }
+            final InflateStats copy = new InflateStats();
+            copy.mCount = stats.mCount;
+            copy.mReplayCount = stats.mReplayCount;
+            copy.mTotalNanos = stats.mTotalNanos;
+            copy.mMaxNanos = stats.mMaxNanos;
+            return copy;
+        }
+    }
+
+    /**
+     * @hide
+     */
+    public static void dumpInflateStats(String prefix, PrintWriter pw) {
+        synchronized (sInflateStats) {
+            pw.print(prefix); pw.println("Layout inflation:");
+            for (int i = 0; i < sInflateStats.size(); i++) {
+                final InflateStats stats = sInflateStats.valueAt(i);
+                pw.print(prefix); pw.print("  0x");
+                pw.print(Integer.toHexString(sInflateStats.keyAt(i)));
+                pw.print(": count="); pw.print(stats.mCount);
+                pw.print(" replayed="); pw.print(stats.mReplayCount);
+                pw.print(" avgUs="); pw.print(stats.mTotalNanos / stats.mCount / 1000);
+                pw.print(" maxUs="); pw.println(stats.mMaxNanos / 1000);
+            }
+        }
+    }
+
+    private LayoutRecord getLayoutRecord(int resource) {
+        synchronized (sLayoutRecords) {
+            final SparseArray<LayoutRecord> records = sLayoutRecords.get(getClass());
+            return records != null ? records.get(resource) : null;
+        }
+    }
+
+    private void putLayoutRecord(int resource, LayoutRecord record) {
+        synchronized (sLayoutRecords) {
+            SparseArray<LayoutRecord> records = sLayoutRecords.get(getClass());
+            if (records == null) {
+                records = new SparseArray<LayoutRecord>();
+                sLayoutRecords.put(getClass(), records);
+            }
+            records.put(resource, record);
+        }
+    }
+
+    private static void updateInflateStats(int resource, long nanos, boolean replayed) {
+        synchronized (sInflateStats) {
+            InflateStats stats = sInflateStats.get(resource);
+            if (stats == null) {
+                stats = new InflateStats();
+                sInflateStats.put(resource, stats);
+            }
+            stats.mCount++;
+            if (replayed) {
+                stats.mReplayCount++;
+            }
+            stats.mTotalNanos += nanos;
+            if (nanos > stats.mMaxNanos) {
+                stats.mMaxNanos = nanos;
+            }
         }
     }
 
@@ -597,6 +843,16 @@ public abstract class LayoutInflater {
      */
     public final View createView(String name, String prefix, AttributeSet attrs)
             throws ClassNotFoundException, InflateException {
+        if (mFilter == null) {
+            final ViewConstructor viewConstructor;
+            synchronized (sViewConstructors) {
+                viewConstructor = sViewConstructors.get(prefix != null ? (prefix + name) : name);
+            }
+            if (viewConstructor != null) {
+                return createView(viewConstructor, attrs);
+            }
+        }
+
         Constructor<? extends View> constructor = sConstructorMap.get(name);
         if (constructor != null && !verifyClassLoader(constructor)) {
             constructor = null;
@@ -651,6 +907,8 @@ public abstract class LayoutInflater {
                 final ViewStub viewStub = (ViewStub) view;
                 viewStub.setLayoutInflater(cloneInContext((Context) args[0]));
             }
+            mLastConstructor = constructor;
+            mLastViewConstructor = null;
             return view;
 
         } catch (NoSuchMethodException e) {
@@ -679,6 +937,73 @@ public abstract class LayoutInflater {
         }
     }
 
+    /**
+     * Instantiates a view through a registered {@link ViewConstructor},
+     * bypassing class loading and reflection.
+     */
+    private View createView(ViewConstructor viewConstructor, AttributeSet attrs) {
+        final Context context = (Context) mConstructorArgs[0];
+        final View view = viewConstructor.newInstance(context, attrs);
+        if (view instanceof ViewStub) {
+            // Use the same context when inflating ViewStub later.
+            ((ViewStub) view).setLayoutInflater(cloneInContext(context));
+        }
+        mLastConstructor = null;
+        mLastViewConstructor = viewConstructor;
+        return view;
+    }
+
+    /**
+     * Instantiates the next recorded element of the layout being inflated
+     * with the constructor resolved the first time the layout was inflated.
+     * Returns null, and drops the record if it no longer matches the XML,
+     * when the view has to be created by name.
+     */
+    private View replayView(String name, AttributeSet attrs) throws Exception {
+        final LayoutRecord record = mReplay;
+        final int index = mReplayIndex++;
+        if (index >= record.names.length || !name.equals(record.names[index])) {
+            // The layout differs from the recorded one, e.g. after a configuration change.
+            discardReplay();
+            return null;
+        }
+
+        final ViewConstructor viewConstructor = record.viewConstructors[index];
+        if (viewConstructor != null) {
+            return createView(viewConstructor, attrs);
+        }
+
+        final Constructor<? extends View> constructor = record.constructors[index];
+        if (constructor == null) {
+            // Not created through createView(), e.g. by an onCreateView() override.
+            return null;
+        }
+        if (!verifyClassLoader(constructor)) {
+            discardReplay();
+            return null;
+        }
+
+        final Object[] args = mConstructorArgs;
+        args[1] = attrs;
+        final View view = constructor.newInstance(args);
+        if (view instanceof ViewStub) {
+            // Use the same context when inflating ViewStub later.
+            ((ViewStub) view).setLayoutInflater(cloneInContext((Context) args[0]));
+        }
+        return view;
+    }
+
+    private void discardReplay() {
+        synchronized (sLayoutRecords) {
+            final SparseArray<LayoutRecord> records = sLayoutRecords.get(getClass());
+            final int index = records != null ? records.indexOfValue(mReplay) : -1;
+            if (index >= 0) {
+                records.removeAt(index);
+            }
+        }
+        mReplay = null;
+    }
+
     /**
      * Throw an exception because the specified class is not allowed to be inflated.
      */
@@ -785,10 +1110,20 @@ public abstract class LayoutInflater {
                 final Object lastContext = mConstructorArgs[0];
                 mConstructorArgs[0] = context;
                 try {
-                    if (-1 == name.indexOf('.')) {
-                        view = onCreateView(parent, name, attrs);
-                    } else {
-                        view = createView(name, null, attrs);
+                    if (mReplay != null) {
+                        view = replayView(name, attrs);
+                    }
+                    if (view == null) {
+                        mLastConstructor = null;
+                        mLastViewConstructor = null;
+                        if (-1 == name.indexOf('.')) {
+                            view = onCreateView(parent, name, attrs);
+                        } else {
+                            view = createView(name, null, attrs);
+                        }
+                        if (mRecorder != null) {
+                            mRecorder.add(name, mLastConstructor, mLastViewConstructor);
+                        }
                     }
                 } finally {
                     mConstructorArgs[0] = lastContext;
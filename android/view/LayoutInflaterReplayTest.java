@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.AttributeSet;
+import android.widget.TextView;
+
+/**
+ * Checks that a layout inflated by replaying its recorded constructors is the same
+ * tree as one inflated by name, and that records are not shared between inflaters
+ * that resolve names differently.
+ */
+@SmallTest
+public class LayoutInflaterReplayTest extends AndroidTestCase {
+    private static final int LAYOUT = android.R.layout.simple_list_item_2;
+
+    public static class ReplayTextView extends TextView {
+        public ReplayTextView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+    }
+
+    /** Resolves TextView tags to {@link ReplayTextView}. */
+    private static class ReplayTextViewInflater extends LayoutInflater {
+        ReplayTextViewInflater(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected View onCreateView(String name, AttributeSet attrs)
+                throws ClassNotFoundException {
+            if ("TextView".equals(name)) {
+                return createView(ReplayTextView.class.getName(), null, attrs);
+            }
+            return createView(name, "android.widget.", attrs);
+        }
+
+        @Override
+        public LayoutInflater cloneInContext(Context newContext) {
+            return new ReplayTextViewInflater(newContext);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        LayoutInflater.clearLayoutRecords();
+    }
+
+    private LayoutInflater newInflater() {
+        // A fresh clone, so that no factory is set.
+        return LayoutInflater.from(getContext()).cloneInContext(getContext());
+    }
+
+    private static int replayCount() {
+        final LayoutInflater.InflateStats stats = LayoutInflater.getInflateStats(LAYOUT);
+        return stats != null ? stats.getReplayCount() : 0;
+    }
+
+    public void testReplayBuildsSameTree() {
+        final LayoutInflater inflater = newInflater();
+        final int replays = replayCount();
+        final View byName = inflater.inflate(LAYOUT, null, false);
+        assertEquals(replays, replayCount());
+        final View replayed = inflater.inflate(LAYOUT, null, false);
+        assertEquals(replays + 1, replayCount());
+        assertSameTree(byName, replayed);
+    }
+
+    public void testFactoryIsNotBypassedByReplay() {
+        newInflater().inflate(LAYOUT, null, false);
+        final LayoutInflater inflater = newInflater();
+        inflater.setFactory2(new LayoutInflater.Factory2() {
+            @Override
+            public View onCreateView(View parent, String name, Context context,
+                    AttributeSet attrs) {
+                return onCreateView(name, context, attrs);
+            }
+
+            @Override
+            public View onCreateView(String name, Context context, AttributeSet attrs) {
+                return "TextView".equals(name) ? new ReplayTextView(context, attrs) : null;
+            }
+        });
+        final int replays = replayCount();
+        for (int i = 0; i < 2; i++) {
+            assertTextViewClass(inflater.inflate(LAYOUT, null, false), ReplayTextView.class);
+        }
+        assertEquals(replays, replayCount());
+    }
+
+    public void testRecordsAreKeptPerInflaterClass() {
+        final LayoutInflater inflater = newInflater();
+        inflater.inflate(LAYOUT, null, false);
+        assertTextViewClass(inflater.inflate(LAYOUT, null, false), TextView.class);
+
+        final LayoutInflater custom = new ReplayTextViewInflater(getContext());
+        for (int i = 0; i < 2; i++) {
+            assertTextViewClass(custom.inflate(LAYOUT, null, false), ReplayTextView.class);
+        }
+        assertTextViewClass(inflater.inflate(LAYOUT, null, false), TextView.class);
+    }
+
+    private static void assertTextViewClass(View view, Class<?> expected) {
+        if (view instanceof TextView) {
+            assertEquals(expected, view.getClass());
+        }
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                assertTextViewClass(group.getChildAt(i), expected);
+            }
+        }
+    }
+
+    private static void assertSameTree(View expected, View actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getVisibility(), actual.getVisibility());
+        if (expected instanceof ViewGroup) {
+            final ViewGroup expectedGroup = (ViewGroup) expected;
+            final ViewGroup actualGroup = (ViewGroup) actual;
+            assertEquals(expectedGroup.getChildCount(), actualGroup.getChildCount());
+            for (int i = 0; i < expectedGroup.getChildCount(); i++) {
+                assertSameTree(expectedGroup.getChildAt(i), actualGroup.getChildAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.animation.AnimationHandler;
+import android.animation.ValueAnimator;
+import android.os.Looper;
+import android.view.Choreographer;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+
+/**
+ * Measures AnimationHandler with many simultaneous animators. Frames are
+ * pumped by hand through a custom frame callback provider so that the
+ * benchmark does not depend on vsync.
+ */
+public class AnimationHandlerBenchmark {
+    @Param({"100", "1000"}) int animatorCount;
+    @Param({"0", "50"}) long startDelay;
+
+    private ValueAnimator[] animators;
+    private final ManualProvider provider = new ManualProvider();
+
+    private static class ManualProvider implements AnimationHandler.AnimationFrameCallbackProvider {
+        Choreographer.FrameCallback callback;
+        long frameTime;
+
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void postCommitCallback(Runnable runnable) {
+            runnable.run();
+        }
+
+        @Override
+        public long getFrameTime() {
+            return frameTime;
+        }
+
+        @Override
+        public long getFrameDelay() {
+            return 16;
+        }
+
+        @Override
+        public void setFrameDelay(long delay) {
+        }
+
+        void pump() {
+            final Choreographer.FrameCallback frameCallback = callback;
+            callback = null;
+            frameTime += 16;
+            if (frameCallback != null) {
+                frameCallback.doFrame(frameTime * 1000000);
+            }
+        }
+    }
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        AnimationHandler.getInstance().setProvider(provider);
+        animators = new ValueAnimator[animatorCount];
+        for (int i = 0; i < animatorCount; i++) {
+            animators[i] = ValueAnimator.ofFloat(0f, 1f);
+            animators[i].setDuration(Long.MAX_VALUE / 4);
+            animators[i].setStartDelay(startDelay);
+        }
+    }
+
+    @AfterExperiment
+    protected void tearDown() {
+        for (ValueAnimator animator : animators) {
+            animator.cancel();
+        }
+        AnimationHandler.getInstance().setProvider(null);
+    }
+
+    public void timeStartAndCancelAll(int reps) {
+        for (int i = 0; i < reps; i++) {
+            for (int j = 0; j < animatorCount; j++) {
+                animators[j].start();
+            }
+            for (int j = animatorCount - 1; j >= 0; j--) {
+                animators[j].cancel();
+            }
+            provider.pump();
+        }
+    }
+
+    public void timeFrame(int reps) {
+        for (int j = 0; j < animatorCount; j++) {
+            animators[j].start();
+        }
+        for (int i = 0; i < reps; i++) {
+            provider.pump();
+        }
+        for (int j = 0; j < animatorCount; j++) {
+            animators[j].cancel();
+        }
+    }
+
+    public void timeFrameWithChurn(int reps) {
+        for (int j = 0; j < animatorCount; j++) {
+            animators[j].start();
+        }
+        for (int i = 0; i < reps; i++) {
+            // Restart a tenth of the animators every frame.
+            for (int j = i % 10; j < animatorCount; j += 10) {
+                animators[j].cancel();
+                animators[j].start();
+            }
+            provider.pump();
+        }
+        for (int j = 0; j < animatorCount; j++) {
+            animators[j].cancel();
+        }
+    }
+}
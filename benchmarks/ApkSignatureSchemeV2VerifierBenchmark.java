@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.util.apk.ApkSignatureSchemeV2Verifier;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.io.File;
+
+/**
+ * Measures APK Signature Scheme v2 verification of a large APK with the contents
+ * digested on one thread and on several.
+ *
+ * Needs an APK signed with scheme v2, ideally over 100 MB, pushed to the device:
+ * <pre>
+ *   adb push large.apk /data/local/tmp/large.apk
+ * </pre>
+ * The APK is read once in setUp so that every run starts from the page cache,
+ * as package scanning mostly does.
+ */
+public class ApkSignatureSchemeV2VerifierBenchmark {
+    @Param({"/data/local/tmp/large.apk"}) String apkPath;
+    @Param({"1", "2", "4", "8"}) int parallelism;
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        if (!new File(apkPath).isFile()) {
+            throw new IllegalStateException("Push a v2-signed APK to " + apkPath);
+        }
+        if (!ApkSignatureSchemeV2Verifier.hasSignature(apkPath)) {
+            throw new IllegalStateException(apkPath + " is not signed with APK Signature Scheme v2");
+        }
+        // Warm the page cache.
+        ApkSignatureSchemeV2Verifier.verify(apkPath, 1);
+    }
+
+    public void timeVerify(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            ApkSignatureSchemeV2Verifier.verify(apkPath, parallelism);
+        }
+    }
+}
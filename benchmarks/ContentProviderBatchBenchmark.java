@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderNative;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.IContentProvider;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.test.mock.MockContext;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Measures inserting a million rows through a ContentResolver: with bulkInsert
+ * and applyBatch called once per chunk, as an app has to so that no call is
+ * too large for binder, against a single bulkInsertStream.
+ *
+ * The provider lives in this process, but every call is still marshalled: the
+ * resolver reaches it through a binder that hides the local interface, so
+ * calls go through the same proxy and Parcel code as from another process.
+ */
+public class ContentProviderBatchBenchmark {
+    private static final String AUTHORITY = "benchmarks.batch";
+    private static final Uri URI = Uri.parse("content://" + AUTHORITY + "/rows");
+
+    @Param({"1000000"}) int rowCount;
+    @Param({"500"}) int chunkSize;
+
+    private CountingProvider provider;
+    private ContentResolver resolver;
+
+    /** Counts inserted rows rather than storing them. */
+    public static class CountingProvider extends ContentProvider {
+        long rows;
+        long checksum;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            rows++;
+            checksum += values.getAsLong("_id");
+            return null;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    private static class BenchmarkContext extends MockContext {
+        @Override
+        public String getOpPackageName() {
+            return "benchmarks";
+        }
+
+        @Override
+        public Object getSystemService(String name) {
+            return null;
+        }
+    }
+
+    /** Resolves every authority to one provider, through a marshalling proxy. */
+    private static class ProxyContentResolver extends ContentResolver {
+        private final IContentProvider mProvider;
+
+        ProxyContentResolver(Context context, final IBinder transport) {
+            super(context);
+            mProvider = ContentProviderNative.asInterface(new Binder() {
+                @Override
+                protected boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+                        throws RemoteException {
+                    return transport.transact(code, data, reply, flags);
+                }
+            });
+        }
+
+        @Override
+        protected IContentProvider acquireProvider(Context c, String name) {
+            return mProvider;
+        }
+
+        @Override
+        public boolean releaseProvider(IContentProvider icp) {
+            return true;
+        }
+
+        @Override
+        protected IContentProvider acquireUnstableProvider(Context c, String name) {
+            return mProvider;
+        }
+
+        @Override
+        public boolean releaseUnstableProvider(IContentProvider icp) {
+            return true;
+        }
+
+        @Override
+        public void unstableProviderDied(IContentProvider icp) {
+        }
+    }
+
+    @BeforeExperiment
+    protected void setUp() {
+        final Context context = new BenchmarkContext();
+        final ProviderInfo info = new ProviderInfo();
+        info.authority = AUTHORITY;
+        provider = new CountingProvider();
+        provider.attachInfoForTesting(context, info);
+        resolver = new ProxyContentResolver(context, provider.getIContentProvider().asBinder());
+    }
+
+    private static ContentValues newRow(int i) {
+        final ContentValues values = new ContentValues(3);
+        values.put("_id", (long) i);
+        values.put("title", "Row " + i);
+        values.put("flags", i & 0xff);
+        return values;
+    }
+
+    private void checkInserted(long expectedRows) {
+        if (provider.rows != expectedRows) {
+            throw new IllegalStateException("Inserted " + provider.rows + " rows, not "
+                    + expectedRows);
+        }
+    }
+
+    public void timeBulkInsertChunks(int reps) {
+        for (int r = 0; r < reps; r++) {
+            provider.rows = 0;
+            for (int start = 0; start < rowCount; start += chunkSize) {
+                final ContentValues[] chunk = new ContentValues[Math.min(chunkSize,
+                        rowCount - start)];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = newRow(start + i);
+                }
+                resolver.bulkInsert(URI, chunk);
+            }
+            checkInserted(rowCount);
+        }
+    }
+
+    public void timeApplyBatchChunks(int reps) throws Exception {
+        for (int r = 0; r < reps; r++) {
+            provider.rows = 0;
+            for (int start = 0; start < rowCount; start += chunkSize) {
+                final int end = Math.min(start + chunkSize, rowCount);
+                final ArrayList<ContentProviderOperation> chunk =
+                        new ArrayList<ContentProviderOperation>(end - start);
+                for (int i = start; i < end; i++) {
+                    chunk.add(ContentProviderOperation.newInsert(URI)
+                            .withValues(newRow(i)).build());
+                }
+                resolver.applyBatch(AUTHORITY, chunk);
+            }
+            checkInserted(rowCount);
+        }
+    }
+
+    public void timeBulkInsertStream(int reps) throws Exception {
+        for (int r = 0; r < reps; r++) {
+            provider.rows = 0;
+            resolver.bulkInsertStream(URI, new Iterator<ContentValues>() {
+                private int mNext;
+
+                @Override
+                public boolean hasNext() {
+                    return mNext < rowCount;
+                }
+
+                @Override
+                public ContentValues next() {
+                    return newRow(mNext++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            checkInserted(rowCount);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.content.ContentValues;
+import android.content.ContentValuesSchema;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Parcel;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.util.ArrayList;
+
+/**
+ * Measures building, parcelling and inserting rows held in ContentValues
+ * against rows held in a reused ContentValuesSchema.Row.  Run with Caliper's
+ * allocation instrument to see the boxes and maps the former allocates per row.
+ */
+public class ContentValuesSchemaBenchmark {
+    private static final String TABLE = "items";
+    private static final String[] COLUMNS = {
+        "_id", "title", "size", "rating", "favorite", "data",
+    };
+    private static final byte[] DATA = new byte[16];
+
+    @Param({"100"}) int rowCount;
+
+    private ContentValuesSchema schema;
+    private ContentValuesSchema.Row row;
+    private ArrayList<ContentValues> valuesList;
+    private ArrayList<ContentValuesSchema.Row> rowList;
+    private SQLiteDatabase db;
+
+    @BeforeExperiment
+    protected void setUp() {
+        schema = new ContentValuesSchema(COLUMNS);
+        row = schema.newRow();
+        valuesList = new ArrayList<>(rowCount);
+        rowList = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            valuesList.add(newValues(i));
+            final ContentValuesSchema.Row r = schema.newRow();
+            fillRow(r, i);
+            rowList.add(r);
+            if (!r.toContentValues().equals(valuesList.get(i))) {
+                throw new IllegalStateException(r + " differs from " + valuesList.get(i));
+            }
+        }
+
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE " + TABLE + " (_id INTEGER PRIMARY KEY, title TEXT,"
+                + " size INTEGER, rating REAL, favorite INTEGER, data BLOB)");
+    }
+
+    @AfterExperiment
+    protected void tearDown() {
+        db.close();
+    }
+
+    private static ContentValues newValues(int i) {
+        final ContentValues values = new ContentValues();
+        values.put("_id", (long) i);
+        values.put("title", "Item");
+        values.put("size", i * 1024L);
+        values.put("rating", i / 10.0);
+        values.put("favorite", (i & 1) != 0);
+        values.put("data", DATA);
+        return values;
+    }
+
+    private static void fillRow(ContentValuesSchema.Row row, int i) {
+        row.put(0, (long) i);
+        row.put(1, "Item");
+        row.put(2, i * 1024L);
+        row.put(3, i / 10.0);
+        row.put(4, (i & 1) != 0);
+        row.put(5, DATA);
+    }
+
+    public void timeBuildContentValues(int reps) {
+        for (int r = 0; r < reps; r++) {
+            for (int i = 0; i < rowCount; i++) {
+                newValues(i);
+            }
+        }
+    }
+
+    public void timeBuildRow(int reps) {
+        for (int r = 0; r < reps; r++) {
+            for (int i = 0; i < rowCount; i++) {
+                row.clear();
+                fillRow(row, i);
+            }
+        }
+    }
+
+    public void timeParcelContentValues(int reps) {
+        for (int r = 0; r < reps; r++) {
+            final Parcel parcel = Parcel.obtain();
+            parcel.writeTypedList(valuesList);
+            parcel.setDataPosition(0);
+            parcel.createTypedArrayList(ContentValues.CREATOR);
+            parcel.recycle();
+        }
+    }
+
+    public void timeParcelRows(int reps) {
+        for (int r = 0; r < reps; r++) {
+            final Parcel parcel = Parcel.obtain();
+            schema.writeRowsToParcel(parcel, rowList);
+            parcel.setDataPosition(0);
+            ContentValuesSchema.readRowsFromParcel(parcel);
+            parcel.recycle();
+        }
+    }
+
+    public void timeInsertContentValues(int reps) {
+        for (int r = 0; r < reps; r++) {
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < rowCount; i++) {
+                    db.insertWithOnConflict(TABLE, null, newValues(i),
+                            SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    public void timeInsertRow(int reps) {
+        for (int r = 0; r < reps; r++) {
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < rowCount; i++) {
+                    row.clear();
+                    fillRow(row, i);
+                    db.insertWithOnConflict(TABLE, null, row, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+}
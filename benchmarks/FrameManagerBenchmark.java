@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.filterfw.core.CachedFrameManager;
+import android.filterfw.core.Frame;
+import android.filterfw.core.FrameFormat;
+import android.filterfw.core.FrameManager;
+import android.filterfw.core.PooledFrameManager;
+import android.filterfw.format.ImageFormat;
+import android.filterfw.format.PrimitiveFormat;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+
+/**
+ * Measures CachedFrameManager against PooledFrameManager on native image frames whose size
+ * varies a little from frame to frame, as crops and scaled previews do, with a few frames in
+ * flight at a time.
+ *
+ * Run with Caliper's allocation instrument to see that the pooled manager reaches a steady
+ * state without allocating, where the cached one allocates a map entry for every frame it
+ * stores and scans every stored frame to find one.
+ */
+public class FrameManagerBenchmark {
+    @Param({"640"}) int width;
+    @Param({"480"}) int height;
+    @Param({"8"}) int sizeSteps;
+    @Param({"4"}) int inFlight;
+
+    private FrameFormat[] formats;
+    private Frame[] frames;
+    private CachedFrameManager cached;
+    private PooledFrameManager pooled;
+
+    @BeforeExperiment
+    protected void setUp() {
+        formats = new FrameFormat[sizeSteps];
+        for (int i = 0; i < sizeSteps; i++) {
+            formats[i] = ImageFormat.create(width - 2 * i, height - 2 * i,
+                    ImageFormat.COLORSPACE_RGBA, FrameFormat.TARGET_NATIVE);
+        }
+        frames = new Frame[inFlight];
+        cached = new CachedFrameManager();
+        pooled = new PooledFrameManager();
+
+        // Warm up the pool, after which every frame should come from it.
+        cycle(pooled, formats.length * inFlight);
+        pooled.resetCounters();
+        cycle(pooled, formats.length * inFlight);
+        if (pooled.getMissCount() != 0) {
+            throw new IllegalStateException(pooled.getMissCount() + " misses at steady state");
+        }
+
+        // Formats without metadata must be reusable too.
+        FrameFormat plain = PrimitiveFormat.createFloatFormat(width, FrameFormat.TARGET_NATIVE);
+        pooled.newFrame(plain).release();
+        pooled.resetCounters();
+        Frame frame = pooled.newFrame(plain);
+        if (pooled.getReuseCount() != 1 || !frame.getFormat().equals(plain)) {
+            throw new IllegalStateException("frame without metadata was not reused");
+        }
+        frame.release();
+    }
+
+    private void cycle(FrameManager manager, int count) {
+        for (int i = 0; i < count; i++) {
+            final int slot = i % inFlight;
+            if (frames[slot] != null) {
+                frames[slot].release();
+            }
+            frames[slot] = manager.newFrame(formats[i % formats.length]);
+        }
+        for (int slot = 0; slot < inFlight; slot++) {
+            if (frames[slot] != null) {
+                frames[slot].release();
+                frames[slot] = null;
+            }
+        }
+    }
+
+    public void timeCachedFrameManager(int reps) {
+        cycle(cached, reps);
+    }
+
+    public void timePooledFrameManager(int reps) {
+        cycle(pooled, reps);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.filterfw.core.CachedFrameManager;
+import android.filterfw.core.Filter;
+import android.filterfw.core.FilterContext;
+import android.filterfw.core.FilterGraph;
+import android.filterfw.core.Frame;
+import android.filterfw.core.FrameFormat;
+import android.filterfw.core.GraphRunner;
+import android.filterfw.core.ParallelRunner;
+import android.filterfw.core.SimpleScheduler;
+import android.filterfw.core.SyncRunner;
+import android.filterfw.format.ObjectFormat;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+
+/**
+ * Measures SyncRunner against ParallelRunner on a graph of independent chains, each a source
+ * of numbered SimpleFrames followed by CPU-bound stages and a sink that sums what reaches it.
+ * ParallelRunnerTest checks what the runner delivers; this only times it.
+ */
+public class GraphRunnerBenchmark {
+    private static final FrameFormat FORMAT =
+            ObjectFormat.fromClass(Long.class, FrameFormat.TARGET_SIMPLE);
+
+    @Param({"2"}) int chains;
+    @Param({"3"}) int stages;
+    @Param({"200"}) int frames;
+    @Param({"2000"}) int work;
+    @Param({"4"}) int threads;
+
+    private GraphRunner syncRunner;
+    private GraphRunner parallelRunner;
+
+    /** Emits frames numbered 0 to count - 1, then closes its output. */
+    public static class CountSource extends Filter {
+        private final int mCount;
+        private int mNext;
+
+        public CountSource(String name, int count) {
+            super(name);
+            mCount = count;
+        }
+
+        @Override
+        public void setupPorts() {
+            addOutputPort("out", FORMAT);
+        }
+
+        @Override
+        public void open(FilterContext context) {
+            mNext = 0;
+        }
+
+        @Override
+        public void process(FilterContext context) {
+            if (mNext == mCount) {
+                closeOutputPort("out");
+                return;
+            }
+            Frame output = context.getFrameManager().newFrame(FORMAT);
+            output.setObjectValue(Long.valueOf(mNext++));
+            pushOutput("out", output);
+            output.release();
+        }
+    }
+
+    /** Mixes each value through a number of rounds of arithmetic. */
+    public static class WorkFilter extends Filter {
+        private final int mRounds;
+
+        public WorkFilter(String name, int rounds) {
+            super(name);
+            mRounds = rounds;
+        }
+
+        @Override
+        public void setupPorts() {
+            addMaskedInputPort("in", FORMAT);
+            addOutputPort("out", FORMAT);
+        }
+
+        @Override
+        public void process(FilterContext context) {
+            long value = (Long) pullInput("in").getObjectValue();
+            for (int i = 0; i < mRounds; i++) {
+                value = value * 6364136223846793005L + 1442695040888963407L;
+                value ^= value >>> 29;
+            }
+            Frame output = context.getFrameManager().newFrame(FORMAT);
+            output.setObjectValue(Long.valueOf(value));
+            pushOutput("out", output);
+            output.release();
+        }
+    }
+
+    /** Sums the values it receives. */
+    public static class SumSink extends Filter {
+        long sum;
+
+        public SumSink(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setupPorts() {
+            addMaskedInputPort("in", FORMAT);
+        }
+
+        @Override
+        public void open(FilterContext context) {
+            sum = 0;
+        }
+
+        @Override
+        public void process(FilterContext context) {
+            sum += (Long) pullInput("in").getObjectValue();
+        }
+    }
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        syncRunner = new SyncRunner(newContext(), newGraph(), SimpleScheduler.class);
+        parallelRunner = new ParallelRunner(newContext(), newGraph(), threads);
+    }
+
+    private static FilterContext newContext() {
+        FilterContext context = new FilterContext();
+        context.setFrameManager(new CachedFrameManager());
+        return context;
+    }
+
+    private FilterGraph newGraph() throws Exception {
+        FilterGraph graph = new FilterGraph();
+        for (int c = 0; c < chains; c++) {
+            Filter previous = new CountSource("source" + c, frames);
+            previous.init();
+            graph.addFilter(previous);
+            for (int s = 0; s < stages; s++) {
+                Filter stage = new WorkFilter("work" + c + "_" + s, work);
+                stage.init();
+                graph.addFilter(stage);
+                graph.connect(previous, "out", stage, "in");
+                previous = stage;
+            }
+            Filter sink = new SumSink("sink" + c);
+            sink.init();
+            graph.addFilter(sink);
+            graph.connect(previous, "out", sink, "in");
+        }
+        return graph;
+    }
+
+    private static void runGraph(GraphRunner runner) {
+        runner.run();
+        // The filters after each source are left open once their input closes; close them so
+        // the next run starts afresh.
+        runner.close();
+    }
+
+    public void timeSyncRunner(int reps) {
+        for (int i = 0; i < reps; i++) {
+            runGraph(syncRunner);
+        }
+    }
+
+    public void timeParallelRunner(int reps) {
+        for (int i = 0; i < reps; i++) {
+            runGraph(parallelRunner);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.content.IntentFilter;
+import android.content.IntentFilterIndex;
+import android.net.Uri;
+import android.os.PatternMatcher;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures resolving intents against a set of randomly generated filters by
+ * calling IntentFilter.match on each of them, against an IntentFilterIndex.
+ * IntentFilterIndexTest checks that both return the same filters.
+ */
+public class IntentFilterIndexBenchmark {
+    private static final String TAG = "IntentFilterIndexBenchmark";
+    private static final int QUERY_COUNT = 256;
+
+    private static final String[] ACTIONS = {
+        "android.intent.action.VIEW", "android.intent.action.SEND",
+        "android.intent.action.EDIT", "android.intent.action.MAIN",
+        "android.intent.action.PICK", "com.example.action.SYNC",
+    };
+    private static final String[] CATEGORIES = {
+        "android.intent.category.DEFAULT", "android.intent.category.BROWSABLE",
+        "android.intent.category.LAUNCHER",
+    };
+    private static final String[] SCHEMES = {
+        "http", "https", "content", "file", "geo", "tel", "market",
+    };
+    private static final String[] HOSTS = {
+        "www.example.com", "example.com", "*.example.org", "maps.example.net",
+    };
+    private static final String[] PATHS = {
+        "/", "/a", "/a/b", "/watch", "/watch/", "/item/1", "/item/12", "/store/apps",
+    };
+    private static final String[] TYPES = {
+        "image/png", "image/jpeg", "image/*", "text/plain", "text/*", "video/mp4",
+        "application/pdf", "*/*",
+    };
+
+    @Param({"100", "1000", "5000"}) int filterCount;
+
+    private ArrayList<IntentFilter> filters;
+    private IntentFilterIndex<IntentFilter> index;
+    private Query[] queries;
+
+    private static final class Query {
+        final String action;
+        final String type;
+        final String scheme;
+        final Uri data;
+        final Set<String> categories;
+
+        Query(String action, String type, String scheme, Uri data, Set<String> categories) {
+            this.action = action;
+            this.type = type;
+            this.scheme = scheme;
+            this.data = data;
+            this.categories = categories;
+        }
+    }
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        final Random random = new Random(filterCount);
+        filters = new ArrayList<>(filterCount);
+        for (int i = 0; i < filterCount; i++) {
+            filters.add(newFilter(random, i));
+        }
+        index = new IntentFilterIndex<>(filters);
+
+        queries = new Query[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queries[i] = newQuery(random);
+        }
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static IntentFilter newFilter(Random random, int i) throws Exception {
+        final IntentFilter filter = new IntentFilter();
+        // Most filters name a common action; some have an action of their own.
+        filter.addAction(random.nextInt(4) == 0
+                ? "com.example.action.APP" + i : pick(random, ACTIONS));
+        if (random.nextInt(3) == 0) {
+            filter.addAction(pick(random, ACTIONS));
+        }
+        filter.addCategory(CATEGORIES[0]);
+        if (random.nextBoolean()) {
+            filter.addCategory(pick(random, CATEGORIES));
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                // No data.
+                break;
+            case 1:
+                filter.addDataType(pick(random, TYPES));
+                if (random.nextBoolean()) {
+                    filter.addDataType(pick(random, TYPES));
+                }
+                if (random.nextInt(3) == 0) {
+                    filter.addDataScheme(pick(random, SCHEMES));
+                }
+                break;
+            default:
+                filter.addDataScheme(pick(random, SCHEMES));
+                if (random.nextInt(4) == 0) {
+                    filter.addDataScheme(pick(random, SCHEMES));
+                }
+                if (random.nextInt(8) == 0) {
+                    filter.addDataSchemeSpecificPart(pick(random, PATHS),
+                            PatternMatcher.PATTERN_PREFIX);
+                }
+                if (random.nextInt(4) != 0) {
+                    filter.addDataAuthority(pick(random, HOSTS),
+                            random.nextInt(5) == 0 ? "8080" : null);
+                    final int numPaths = random.nextInt(3);
+                    for (int j = 0; j < numPaths; j++) {
+                        final String path = pick(random, PATHS)
+                                + (random.nextInt(6) == 0 ? ".*" : "");
+                        filter.addDataPath(path, random.nextInt(4));
+                    }
+                }
+                break;
+        }
+        return filter;
+    }
+
+    private static Query newQuery(Random random) {
+        final String action = random.nextInt(8) == 0 ? null : pick(random, ACTIONS);
+        String type = null;
+        String scheme = null;
+        Uri data = null;
+        switch (random.nextInt(4)) {
+            case 0:
+                break;
+            case 1:
+                type = pick(random, TYPES);
+                if (random.nextBoolean()) {
+                    data = Uri.parse("content://media/external/" + random.nextInt(100));
+                    scheme = data.getScheme();
+                }
+                break;
+            default:
+                final String host = pick(random, HOSTS).replace("*", "m");
+                final String port = random.nextInt(5) == 0 ? ":8080" : "";
+                data = Uri.parse(pick(random, SCHEMES) + "://" + host + port
+                        + pick(random, PATHS) + (random.nextBoolean() ? "" : "x"));
+                scheme = data.getScheme();
+                break;
+        }
+        final Set<String> categories = random.nextBoolean()
+                ? Collections.singleton(pick(random, CATEGORIES)) : null;
+        return new Query(action, type, scheme, data, categories);
+    }
+
+    private ArrayList<IntentFilter> linearScan(Query query) {
+        final ArrayList<IntentFilter> result = new ArrayList<>();
+        final int numFilters = filters.size();
+        for (int i = 0; i < numFilters; i++) {
+            final IntentFilter filter = filters.get(i);
+            if (filter.match(query.action, query.type, query.scheme, query.data,
+                    query.categories, TAG) >= 0) {
+                result.add(filter);
+            }
+        }
+        return result;
+    }
+
+    private ArrayList<IntentFilter> indexedQuery(Query query) {
+        return index.query(query.action, query.type, query.scheme, query.data,
+                query.categories);
+    }
+
+    public void timeLinearScan(int reps) {
+        for (int i = 0; i < reps; i++) {
+            linearScan(queries[i % QUERY_COUNT]);
+        }
+    }
+
+    public void timeIndexedQuery(int reps) {
+        for (int i = 0; i < reps; i++) {
+            indexedQuery(queries[i % QUERY_COUNT]);
+        }
+    }
+
+    public void timeBuildIndex(int reps) {
+        for (int i = 0; i < reps; i++) {
+            new IntentFilterIndex<>(filters);
+        }
+    }
+}
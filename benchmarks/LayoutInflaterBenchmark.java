@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+
+/**
+ * Compares the ways LayoutInflater can instantiate the elements of a layout:
+ * resolving each tag name through a constructor map and reflection, replaying
+ * a recorded constructor sequence, and calling registered direct constructors.
+ * Each rep "inflates" a layout of {@code viewCount} elements. Elements are
+ * plain objects with the (Context, AttributeSet) constructor shape so that the
+ * benchmark does not need a Context.
+ */
+public class LayoutInflaterBenchmark {
+    @Param({"200"}) int viewCount;
+
+    private static final Class<?>[] SIGNATURE = new Class[] { Object.class, Object.class };
+    private static final String[] TAGS = { "LinearLayout", "TextView", "ImageView", "Button" };
+
+    private String[] layout;
+    private HashMap<String, Constructor<?>> constructorMap;
+    private Constructor<?>[] recorded;
+    private HashMap<String, ElementConstructor> registry;
+    private ElementConstructor[] recordedDirect;
+    private final Object[] args = new Object[2];
+
+    interface ElementConstructor {
+        Object newInstance(Object context, Object attrs);
+    }
+
+    public static class LinearLayout {
+        public LinearLayout(Object context, Object attrs) {}
+    }
+
+    public static class TextView {
+        public TextView(Object context, Object attrs) {}
+    }
+
+    public static class ImageView {
+        public ImageView(Object context, Object attrs) {}
+    }
+
+    public static class Button {
+        public Button(Object context, Object attrs) {}
+    }
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        layout = new String[viewCount];
+        constructorMap = new HashMap<String, Constructor<?>>();
+        recorded = new Constructor<?>[viewCount];
+        registry = new HashMap<String, ElementConstructor>();
+        recordedDirect = new ElementConstructor[viewCount];
+
+        registry.put("LinearLayout", new ElementConstructor() {
+            public Object newInstance(Object context, Object attrs) {
+                return new LinearLayout(context, attrs);
+            }
+        });
+        registry.put("TextView", new ElementConstructor() {
+            public Object newInstance(Object context, Object attrs) {
+                return new TextView(context, attrs);
+            }
+        });
+        registry.put("ImageView", new ElementConstructor() {
+            public Object newInstance(Object context, Object attrs) {
+                return new ImageView(context, attrs);
+            }
+        });
+        registry.put("Button", new ElementConstructor() {
+            public Object newInstance(Object context, Object attrs) {
+                return new Button(context, attrs);
+            }
+        });
+
+        for (int i = 0; i < viewCount; i++) {
+            String tag = TAGS[i % TAGS.length];
+            layout[i] = tag;
+            Constructor<?> constructor = constructorMap.get(tag);
+            if (constructor == null) {
+                constructor = Class.forName(LayoutInflaterBenchmark.class.getName() + "$" + tag)
+                        .getConstructor(SIGNATURE);
+                constructorMap.put(tag, constructor);
+            }
+            recorded[i] = constructor;
+            recordedDirect[i] = registry.get(tag);
+        }
+    }
+
+    public void timeReflectiveByName(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            for (int j = 0; j < viewCount; j++) {
+                constructorMap.get(layout[j]).newInstance(args);
+            }
+        }
+    }
+
+    public void timeReflectiveReplay(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            for (int j = 0; j < viewCount; j++) {
+                recorded[j].newInstance(args);
+            }
+        }
+    }
+
+    public void timeDirectByName(int reps) {
+        for (int i = 0; i < reps; i++) {
+            for (int j = 0; j < viewCount; j++) {
+                registry.get(layout[j]).newInstance(args[0], args[1]);
+            }
+        }
+    }
+
+    public void timeDirectReplay(int reps) {
+        for (int i = 0; i < reps; i++) {
+            for (int j = 0; j < viewCount; j++) {
+                recordedDirect[j].newInstance(args[0], args[1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.databinding.ObservableArrayList;
+import android.databinding.ObservableList;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+
+/**
+ * Measures bulk edits of a large ObservableArrayList with a few listeners, made one element at
+ * a time either as they come or between beginBatchedChanges() and endBatchedChanges(), which
+ * merges them into a single notification per listener.
+ */
+public class ObservableListBenchmark {
+    @Param({"10000"}) int size;
+    @Param({"1000"}) int edits;
+    @Param({"4"}) int listeners;
+
+    private ObservableArrayList<Integer> list;
+    private CountingCallback[] callbacks;
+
+    /** Counts notifications, and reads the changed range as a binding would. */
+    static class CountingCallback extends ObservableList.OnListChangedCallback {
+        int notifications;
+        long touched;
+
+        @Override
+        public void onChanged(ObservableList sender) {
+            notifications++;
+            touched += sender.size();
+        }
+
+        @Override
+        public void onItemRangeChanged(ObservableList sender, int start, int count) {
+            notifications++;
+            touched += count;
+        }
+
+        @Override
+        public void onItemRangeInserted(ObservableList sender, int start, int count) {
+            notifications++;
+            touched += count;
+        }
+
+        @Override
+        public void onItemRangeMoved(ObservableList sender, int from, int to, int count) {
+            notifications++;
+            touched += count;
+        }
+
+        @Override
+        public void onItemRangeRemoved(ObservableList sender, int start, int count) {
+            notifications++;
+            touched += count;
+        }
+    }
+
+    @BeforeExperiment
+    protected void setUp() {
+        list = new ObservableArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            list.add(i);
+        }
+        callbacks = new CountingCallback[listeners];
+        for (int i = 0; i < listeners; i++) {
+            callbacks[i] = new CountingCallback();
+            list.addOnListChangedCallback(callbacks[i]);
+        }
+
+        // Each batched bulk edit should reach each listener once.
+        list.beginBatchedChanges();
+        removeFromFront();
+        list.endBatchedChanges();
+        list.beginBatchedChanges();
+        append();
+        list.endBatchedChanges();
+        list.beginBatchedChanges();
+        setRange();
+        list.endBatchedChanges();
+        for (CountingCallback callback : callbacks) {
+            if (callback.notifications != 3 || callback.touched != 3 * edits) {
+                throw new IllegalStateException(callback.notifications
+                        + " notifications covering " + callback.touched + " items");
+            }
+        }
+        if (list.size() != size) {
+            throw new IllegalStateException("List has " + list.size() + " items");
+        }
+    }
+
+    private void removeFromFront() {
+        for (int i = 0; i < edits; i++) {
+            list.remove(0);
+        }
+    }
+
+    private void append() {
+        for (int i = 0; i < edits; i++) {
+            list.add(i);
+        }
+    }
+
+    private void setRange() {
+        final int start = list.size() / 2;
+        for (int i = 0; i < edits; i++) {
+            list.set(start + i, i);
+        }
+    }
+
+    public void timeUnbatchedEdits(int reps) {
+        for (int i = 0; i < reps; i++) {
+            removeFromFront();
+            append();
+            setRange();
+        }
+    }
+
+    public void timeBatchedEdits(int reps) {
+        for (int i = 0; i < reps; i++) {
+            list.beginBatchedChanges();
+            removeFromFront();
+            append();
+            setRange();
+            list.endBatchedChanges();
+        }
+    }
+
+    public void timeBatchPerEdit(int reps) {
+        for (int i = 0; i < reps; i++) {
+            list.beginBatchedChanges();
+            removeFromFront();
+            list.endBatchedChanges();
+            list.beginBatchedChanges();
+            append();
+            list.endBatchedChanges();
+            list.beginBatchedChanges();
+            setRange();
+            list.endBatchedChanges();
+        }
+    }
+}
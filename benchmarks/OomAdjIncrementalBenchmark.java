@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Compares a full oom adj pass over the LRU list with the incremental update used by
+ * ActivityManagerService.updateOomAdjIncrementalLocked(), which recomputes only the
+ * changed process and the processes it binds to or uses, directly or not.
+ *
+ * ActivityManagerService can't be built outside system_server, so this models the parts
+ * of computeOomAdjLocked() and updateOomAdjLocked() the incremental walk relies on: a
+ * process's importance comes from its own state and, through bindings and provider
+ * connections, from its clients, which are computed first; cached processes get their
+ * adj by LRU position. The model only serves for timing; OomAdjIncrementalTest checks
+ * the real walk against a full pass.
+ */
+public class OomAdjIncrementalBenchmark {
+    private static final int FOREGROUND_APP_ADJ = 0;
+    private static final int VISIBLE_APP_ADJ = 100;
+    private static final int PERCEPTIBLE_APP_ADJ = 200;
+    private static final int SERVICE_ADJ = 500;
+    private static final int CACHED_APP_MIN_ADJ = 900;
+    private static final int CACHED_APP_MAX_ADJ = 906;
+    private static final int UNKNOWN_ADJ = 1001;
+
+    private static final int[] BASE_ADJS = {
+        FOREGROUND_APP_ADJ, VISIBLE_APP_ADJ, PERCEPTIBLE_APP_ADJ, SERVICE_ADJ,
+        UNKNOWN_ADJ, UNKNOWN_ADJ, UNKNOWN_ADJ, UNKNOWN_ADJ,
+    };
+
+    @Param({"100", "300"}) int processCount;
+
+    static final class Proc {
+        int baseAdj;
+        /** Processes this one is bound to or holds a provider connection to. */
+        final ArrayList<Proc> dependencies = new ArrayList<>();
+        /** Processes bound to this one or holding a provider connection to it. */
+        final ArrayList<Proc> clients = new ArrayList<>();
+        int adjSeq;
+        int curRawAdj = UNKNOWN_ADJ;
+        boolean cached;
+    }
+
+    private final ArrayList<Proc> queue = new ArrayList<>();
+    private final ArrayList<Proc> visited = new ArrayList<>();
+    private ArrayList<Proc> lru;
+    private int adjSeq;
+    private Random random;
+
+    @BeforeExperiment
+    protected void setUp() {
+        random = new Random(0);
+        buildGraph(processCount);
+        updateFull();
+    }
+
+    /** Random bindings, always towards higher indexes so there are no cycles. */
+    private void buildGraph(int size) {
+        lru = new ArrayList<>(size);
+        final Proc[] procs = new Proc[size];
+        for (int i = 0; i < size; i++) {
+            procs[i] = new Proc();
+            procs[i].baseAdj = BASE_ADJS[random.nextInt(BASE_ADJS.length)];
+            lru.add(procs[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = random.nextInt(3); j > 0 && i + 1 < size; j--) {
+                connect(procs[i], procs[i + 1 + random.nextInt(size - i - 1)]);
+            }
+        }
+        Collections.shuffle(lru, random);
+    }
+
+    private static void connect(Proc client, Proc dependency) {
+        if (!client.dependencies.contains(dependency)) {
+            client.dependencies.add(dependency);
+            dependency.clients.add(client);
+        }
+    }
+
+    private int computeOomAdj(Proc proc, int cachedAdj) {
+        if (proc.adjSeq == adjSeq) {
+            return proc.curRawAdj;
+        }
+        proc.adjSeq = adjSeq;
+        int adj = proc.baseAdj;
+        for (int i = 0; i < proc.clients.size(); i++) {
+            final int clientAdj = computeOomAdj(proc.clients.get(i), cachedAdj);
+            if (clientAdj < CACHED_APP_MIN_ADJ) {
+                // Bindings don't raise a process above visible.
+                adj = Math.min(adj, Math.max(clientAdj, VISIBLE_APP_ADJ));
+            }
+        }
+        proc.cached = adj >= CACHED_APP_MIN_ADJ;
+        proc.curRawAdj = proc.cached ? cachedAdj : adj;
+        return proc.curRawAdj;
+    }
+
+    private void updateFull() {
+        adjSeq++;
+        int cachedAdj = CACHED_APP_MIN_ADJ;
+        for (int i = lru.size() - 1; i >= 0; i--) {
+            final Proc proc = lru.get(i);
+            computeOomAdj(proc, UNKNOWN_ADJ);
+            if (proc.cached) {
+                proc.curRawAdj = cachedAdj;
+                if (cachedAdj < CACHED_APP_MAX_ADJ) {
+                    cachedAdj++;
+                }
+            }
+        }
+    }
+
+    private void updateIncremental(Proc app) {
+        adjSeq++;
+        queue.add(app);
+        visited.add(app);
+        boolean needFullUpdate = false;
+        for (int i = 0; i < queue.size(); i++) {
+            final Proc proc = queue.get(i);
+            final boolean wasCached = proc.cached;
+            final int cachedAdj = proc.curRawAdj >= CACHED_APP_MIN_ADJ
+                    ? proc.curRawAdj : UNKNOWN_ADJ;
+            computeOomAdj(proc, cachedAdj);
+            // The real walk also falls back when a cached process changes process state,
+            // which the model does not have.
+            if (wasCached != proc.cached || proc.curRawAdj == UNKNOWN_ADJ) {
+                needFullUpdate = true;
+                break;
+            }
+            for (int j = proc.dependencies.size() - 1; j >= 0; j--) {
+                final Proc dependency = proc.dependencies.get(j);
+                if (!visited.contains(dependency)) {
+                    visited.add(dependency);
+                    queue.add(dependency);
+                }
+            }
+        }
+        queue.clear();
+        visited.clear();
+        if (needFullUpdate) {
+            updateFull();
+        }
+    }
+
+    public void timeFullUpdate(int reps) {
+        for (int i = 0; i < reps; i++) {
+            final Proc proc = lru.get(i % lru.size());
+            proc.baseAdj = proc.baseAdj == VISIBLE_APP_ADJ ? PERCEPTIBLE_APP_ADJ : VISIBLE_APP_ADJ;
+            updateFull();
+        }
+    }
+
+    public void timeIncrementalUpdate(int reps) {
+        for (int i = 0; i < reps; i++) {
+            final Proc proc = lru.get(i % lru.size());
+            proc.baseAdj = proc.baseAdj == VISIBLE_APP_ADJ ? PERCEPTIBLE_APP_ADJ : VISIBLE_APP_ADJ;
+            updateIncremental(proc);
+        }
+    }
+}
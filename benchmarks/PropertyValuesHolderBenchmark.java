@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.animation.ObjectAnimator;
+import android.util.FloatProperty;
+import android.util.IntProperty;
+import com.google.caliper.BeforeExperiment;
+
+/**
+ * Measures the per-frame cost of setting animated values through ObjectAnimator
+ * for the different kinds of setters PropertyValuesHolder can bind: a boxed
+ * setter called through reflection (the old fallback), a primitive setter
+ * called through a JNI method ID, and a FloatProperty/IntProperty called
+ * directly (what named View properties such as "alpha" now bind to).
+ */
+public class PropertyValuesHolderBenchmark {
+    private static final int FRAMES = 100;
+
+    public static class Target {
+        private float mFloat;
+        private int mInt;
+        private Float mBoxedFloat = 0f;
+        private Integer mBoxedInt = 0;
+
+        public void setFloat(float value) { mFloat = value; }
+        public float getFloat() { return mFloat; }
+        public void setInt(int value) { mInt = value; }
+        public int getInt() { return mInt; }
+        public void setBoxedFloat(Float value) { mBoxedFloat = value; }
+        public Float getBoxedFloat() { return mBoxedFloat; }
+        public void setBoxedInt(Integer value) { mBoxedInt = value; }
+        public Integer getBoxedInt() { return mBoxedInt; }
+    }
+
+    private static final FloatProperty<Target> FLOAT = new FloatProperty<Target>("float") {
+        @Override
+        public void setValue(Target target, float value) {
+            target.setFloat(value);
+        }
+
+        @Override
+        public Float get(Target target) {
+            return target.getFloat();
+        }
+    };
+
+    private static final IntProperty<Target> INT = new IntProperty<Target>("int") {
+        @Override
+        public void setValue(Target target, int value) {
+            target.setInt(value);
+        }
+
+        @Override
+        public Integer get(Target target) {
+            return target.getInt();
+        }
+    };
+
+    private final Target target = new Target();
+    private ObjectAnimator floatReflection;
+    private ObjectAnimator floatJni;
+    private ObjectAnimator floatProperty;
+    private ObjectAnimator intReflection;
+    private ObjectAnimator intJni;
+    private ObjectAnimator intProperty;
+
+    @BeforeExperiment
+    protected void setUp() {
+        floatReflection = ObjectAnimator.ofFloat(target, "boxedFloat", 0f, 1f);
+        floatJni = ObjectAnimator.ofFloat(target, "float", 0f, 1f);
+        floatProperty = ObjectAnimator.ofFloat(target, FLOAT, 0f, 1f);
+        intReflection = ObjectAnimator.ofInt(target, "boxedInt", 0, 1000);
+        intJni = ObjectAnimator.ofInt(target, "int", 0, 1000);
+        intProperty = ObjectAnimator.ofInt(target, INT, 0, 1000);
+    }
+
+    private static void runFrames(ObjectAnimator animator, int reps) {
+        for (int i = 0; i < reps; i++) {
+            for (int frame = 0; frame < FRAMES; frame++) {
+                animator.setCurrentFraction(frame / (float) FRAMES);
+            }
+        }
+    }
+
+    public void timeFloatReflection(int reps) {
+        runFrames(floatReflection, reps);
+    }
+
+    public void timeFloatJni(int reps) {
+        runFrames(floatJni, reps);
+    }
+
+    public void timeFloatProperty(int reps) {
+        runFrames(floatProperty, reps);
+    }
+
+    public void timeIntReflection(int reps) {
+        runFrames(intReflection, reps);
+    }
+
+    public void timeIntJni(int reps) {
+        runFrames(intJni, reps);
+    }
+
+    public void timeIntProperty(int reps) {
+        runFrames(intProperty, reps);
+    }
+}
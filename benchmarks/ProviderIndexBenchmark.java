@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import frameworks.base.core.java.android.server.am.ProviderIndex;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures authority lookups made from several threads at once, the way binder
+ * threads resolve content providers: under one shared lock, as ProviderMap was
+ * read under the activity manager lock, against a ProviderIndex published
+ * through a volatile field and read without a lock.  Also measures publishing
+ * every provider at boot one change at a time, which copies the user's map
+ * for each provider, against publishing them through one editor.
+ */
+public class ProviderIndexBenchmark {
+    private static final int USER_ID = 0;
+
+    @Param({"1", "4", "8"}) int threadCount;
+    @Param({"200"}) int providerCount;
+
+    private final Object lock = new Object();
+    private HashMap<String, Object> singletons;
+    private HashMap<String, Object> userProviders;
+    private volatile ProviderIndex<String, Object> index;
+    private String[] authorities;
+
+    @BeforeExperiment
+    protected void setUp() {
+        singletons = new HashMap<>();
+        userProviders = new HashMap<>();
+        final ProviderIndex.Editor<String, Object> editor =
+                ProviderIndex.<String, Object>empty().edit();
+        authorities = new String[providerCount];
+        for (int i = 0; i < providerCount; i++) {
+            authorities[i] = "com.example.provider" + i;
+            Object provider = new Object();
+            // A few system providers are published for every user.
+            boolean singleton = i % 10 == 0;
+            if (singleton) {
+                singletons.put(authorities[i], provider);
+            } else {
+                userProviders.put(authorities[i], provider);
+            }
+            editor.put(authorities[i], provider, singleton, USER_ID);
+        }
+        index = editor.build();
+    }
+
+    private interface Lookup {
+        Object get(String authority);
+    }
+
+    private void runConcurrently(final int reps, final Lookup lookup) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < reps; i++) {
+                        lookup.get(authorities[(i + offset) % authorities.length]);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    public void timeLockedLookup(int reps) throws Exception {
+        runConcurrently(reps, new Lookup() {
+            @Override
+            public Object get(String authority) {
+                synchronized (lock) {
+                    Object provider = singletons.get(authority);
+                    return provider != null ? provider : userProviders.get(authority);
+                }
+            }
+        });
+    }
+
+    public void timeSnapshotLookup(int reps) throws Exception {
+        runConcurrently(reps, new Lookup() {
+            @Override
+            public Object get(String authority) {
+                return index.get(authority, USER_ID);
+            }
+        });
+    }
+
+    public void timePublishEach(int reps) {
+        final Object provider = new Object();
+        for (int r = 0; r < reps; r++) {
+            ProviderIndex<String, Object> published = ProviderIndex.empty();
+            for (int i = 0; i < authorities.length; i++) {
+                published = published.put(authorities[i], provider, false, USER_ID);
+            }
+        }
+    }
+
+    public void timePublishBatch(int reps) {
+        final Object provider = new Object();
+        for (int r = 0; r < reps; r++) {
+            final ProviderIndex.Editor<String, Object> editor =
+                    ProviderIndex.<String, Object>empty().edit();
+            for (int i = 0; i < authorities.length; i++) {
+                editor.put(authorities[i], provider, false, USER_ID);
+            }
+            editor.build();
+        }
+    }
+
+    public void timeSnapshotLookupWithPublishes(int reps) throws Exception {
+        final String authority = "com.example.churn";
+        final Object provider = new Object();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                // Keep publishing and removing a provider while the readers run.
+                while (!isInterrupted()) {
+                    synchronized (lock) {
+                        index = index.put(authority, provider, false, USER_ID);
+                        index = index.remove(authority, USER_ID);
+                    }
+                }
+            }
+        };
+        writer.start();
+        try {
+            timeSnapshotLookup(reps);
+        } finally {
+            writer.interrupt();
+            writer.join();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import frameworks.base.core.java.android.server.am.SegmentedLruList;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares moving processes around an LRU list split into a non-activity and an
+ * activity area, the way ActivityManagerService does on every process state
+ * change: an ArrayList with a start marker (lastIndexOf, remove and add at an
+ * index) against SegmentedLruList (unlink and relink a node).
+ * SegmentedLruListTest checks that both keep the same order.
+ */
+public class SegmentedLruListBenchmark {
+    private static final int OTHER = 0;
+    private static final int ACTIVITY = 1;
+
+    @Param({"100", "1000"}) int processCount;
+
+    private Object[] processes;
+    private int[] moves;
+
+    private ArrayList<Object> arrayList;
+    private int activityStart;
+
+    private SegmentedLruList<Object> segmentedList;
+    private SegmentedLruList.Node<Object>[] nodes;
+
+    @BeforeExperiment
+    @SuppressWarnings("unchecked")
+    protected void setUp() {
+        processes = new Object[processCount];
+        nodes = new SegmentedLruList.Node[processCount];
+        arrayList = new ArrayList<>();
+        segmentedList = new SegmentedLruList<>(ACTIVITY + 1);
+        for (int i = 0; i < processCount; i++) {
+            processes[i] = new Object();
+            nodes[i] = new SegmentedLruList.Node<>(processes[i]);
+            // A tenth of the processes host activities.
+            if (i % 10 == 0) {
+                arrayList.add(processes[i]);
+                segmentedList.addTop(nodes[i], ACTIVITY);
+            } else {
+                arrayList.add(activityStart, processes[i]);
+                activityStart++;
+                segmentedList.addTop(nodes[i], OTHER);
+            }
+        }
+        Random random = new Random(0);
+        moves = new int[1024];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = random.nextInt(processCount);
+        }
+    }
+
+    public void timeArrayListMoveToTop(int reps) {
+        for (int i = 0; i < reps; i++) {
+            final int p = moves[i & (moves.length - 1)];
+            final Object process = processes[p];
+            final int index = arrayList.lastIndexOf(process);
+            arrayList.remove(index);
+            if (p % 10 == 0) {
+                arrayList.add(process);
+            } else {
+                if (index < activityStart) {
+                    activityStart--;
+                }
+                arrayList.add(activityStart, process);
+                activityStart++;
+            }
+        }
+    }
+
+    public void timeSegmentedListMoveToTop(int reps) {
+        for (int i = 0; i < reps; i++) {
+            final int p = moves[i & (moves.length - 1)];
+            final SegmentedLruList.Node<Object> node = nodes[p];
+            segmentedList.remove(node);
+            segmentedList.addTop(node, p % 10 == 0 ? ACTIVITY : OTHER);
+        }
+    }
+
+    public void timeSegmentedListMoveBelow(int reps) {
+        for (int i = 0; i < reps; i++) {
+            final int p = moves[i & (moves.length - 1)];
+            final int client = moves[(i + 1) & (moves.length - 1)];
+            if (p == client || p % 10 == 0 || client % 10 == 0) {
+                continue;
+            }
+            final SegmentedLruList.Node<Object> node = nodes[p];
+            segmentedList.remove(node);
+            segmentedList.addBefore(node, nodes[client]);
+        }
+    }
+}
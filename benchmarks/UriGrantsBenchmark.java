@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.net.Uri;
+import com.android.internal.util.FastXmlSerializer;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import frameworks.base.core.java.android.server.am.UriGrantsJournal;
+import frameworks.base.core.java.android.server.am.UriPrefixTrie;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * Measures Uri grant bookkeeping with many persisted grants: checking a Uri
+ * against prefix grants by testing each one (the old checkUriPermissionLocked
+ * loop) against walking a UriPrefixTrie, and persisting a single change by
+ * rewriting the whole grants file against appending it to a UriGrantsJournal.
+ */
+public class UriGrantsBenchmark {
+    @Param({"50000"}) int grantCount;
+
+    private ArrayList<Uri> prefixes;
+    private UriPrefixTrie<Uri> trie;
+    private Uri[] queries;
+    private UriGrantsJournal.Entry[] entries;
+
+    private File grantsFile;
+    private UriGrantsJournal journal;
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        System.setProperty("java.io.tmpdir", "/data/local/tmp");
+        Random random = new Random(0);
+        prefixes = new ArrayList<>(grantCount);
+        trie = new UriPrefixTrie<>();
+        entries = new UriGrantsJournal.Entry[grantCount];
+        for (int i = 0; i < grantCount; i++) {
+            // Documents of a few hundred providers, a few levels deep.
+            Uri prefix = Uri.parse("content://com.example.provider" + random.nextInt(200)
+                    + "/tree/" + random.nextInt(1000) + "/document/" + i);
+            prefixes.add(prefix);
+            trie.add(prefix, prefix);
+            entries[i] = new UriGrantsJournal.Entry(0, 0, "com.example.source",
+                    "com.example.target" + random.nextInt(100), prefix.toString(), true,
+                    3, System.currentTimeMillis());
+        }
+        queries = new Uri[1024];
+        for (int i = 0; i < queries.length; i++) {
+            Uri prefix = prefixes.get(random.nextInt(grantCount));
+            queries[i] = prefix.buildUpon().appendPath("children").appendPath("child").build();
+        }
+
+        grantsFile = File.createTempFile(getClass().getName(), ".xml");
+        grantsFile.deleteOnExit();
+        File journalFile = File.createTempFile(getClass().getName(), ".journal");
+        journalFile.deleteOnExit();
+        journal = new UriGrantsJournal(journalFile);
+        journal.reset(1);
+    }
+
+    public int timeLinearPrefixCheck(int reps) {
+        int matches = 0;
+        for (int i = 0; i < reps; i++) {
+            final Uri query = queries[i & (queries.length - 1)];
+            for (int j = 0; j < prefixes.size(); j++) {
+                if (query.isPathPrefixMatch(prefixes.get(j))) {
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    public int timeTriePrefixCheck(int reps) {
+        int matches = 0;
+        final ArrayList<Uri> out = new ArrayList<>();
+        for (int i = 0; i < reps; i++) {
+            trie.getMatches(queries[i & (queries.length - 1)], out);
+            if (!out.isEmpty()) {
+                matches++;
+                out.clear();
+            }
+        }
+        return matches;
+    }
+
+    public void timeRewriteGrantsFile(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            FileOutputStream fos = new FileOutputStream(grantsFile);
+            try {
+                XmlSerializer out = new FastXmlSerializer();
+                out.setOutput(fos, StandardCharsets.UTF_8.name());
+                out.startDocument(null, true);
+                out.startTag(null, "uri-grants");
+                for (UriGrantsJournal.Entry entry : entries) {
+                    out.startTag(null, "uri-grant");
+                    out.attribute(null, "sourceUserId", Integer.toString(entry.sourceUserId));
+                    out.attribute(null, "targetUserId", Integer.toString(entry.targetUserId));
+                    out.attribute(null, "sourcePkg", entry.sourcePkg);
+                    out.attribute(null, "targetPkg", entry.targetPkg);
+                    out.attribute(null, "uri", entry.uri);
+                    out.attribute(null, "prefix", Boolean.toString(entry.prefix));
+                    out.attribute(null, "modeFlags", Integer.toString(entry.modeFlags));
+                    out.attribute(null, "createdTime", Long.toString(entry.createdTime));
+                    out.endTag(null, "uri-grant");
+                }
+                out.endTag(null, "uri-grants");
+                out.endDocument();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+    public void timeJournalAppend(int reps) {
+        for (int i = 0; i < reps; i++) {
+            journal.append(Collections.singletonList(entries[i % grantCount]));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package benchmarks;
+
+import android.content.CompiledUriMatcher;
+import android.content.UriMatcher;
+import android.net.Uri;
+import com.google.caliper.BeforeExperiment;
+import java.util.ArrayList;
+
+/**
+ * Measures UriMatcher against CompiledUriMatcher on URI tables like those of
+ * the contacts, media and calendar providers.
+ *
+ * Each rep parses its URI afresh, as a provider gets a new Uri with every call,
+ * so the list of path segments UriMatcher asks for is never already cached.
+ * CompiledUriMatcherTest checks that both return the same codes.
+ */
+public class UriMatcherBenchmark {
+    private static final String[][] TABLE = {
+        // Contacts.
+        {"com.android.contacts", "contacts"},
+        {"com.android.contacts", "contacts/#"},
+        {"com.android.contacts", "contacts/#/data"},
+        {"com.android.contacts", "contacts/#/entities"},
+        {"com.android.contacts", "contacts/#/photo"},
+        {"com.android.contacts", "contacts/#/display_photo"},
+        {"com.android.contacts", "contacts/filter"},
+        {"com.android.contacts", "contacts/filter/*"},
+        {"com.android.contacts", "contacts/lookup/*"},
+        {"com.android.contacts", "contacts/lookup/*/data"},
+        {"com.android.contacts", "contacts/lookup/*/#"},
+        {"com.android.contacts", "contacts/lookup/*/#/data"},
+        {"com.android.contacts", "contacts/as_vcard/*"},
+        {"com.android.contacts", "contacts/strequent/"},
+        {"com.android.contacts", "contacts/strequent/filter/*"},
+        {"com.android.contacts", "contacts/frequent"},
+        {"com.android.contacts", "raw_contacts"},
+        {"com.android.contacts", "raw_contacts/#"},
+        {"com.android.contacts", "raw_contacts/#/data"},
+        {"com.android.contacts", "raw_contacts/#/entity"},
+        {"com.android.contacts", "data"},
+        {"com.android.contacts", "data/#"},
+        {"com.android.contacts", "data/phones"},
+        {"com.android.contacts", "data/phones/#"},
+        {"com.android.contacts", "data/phones/filter"},
+        {"com.android.contacts", "data/phones/filter/*"},
+        {"com.android.contacts", "data/emails"},
+        {"com.android.contacts", "data/emails/#"},
+        {"com.android.contacts", "data/emails/lookup/*"},
+        {"com.android.contacts", "data/emails/filter/*"},
+        {"com.android.contacts", "data/postals"},
+        {"com.android.contacts", "data/postals/#"},
+        {"com.android.contacts", "groups"},
+        {"com.android.contacts", "groups/#"},
+        {"com.android.contacts", "groups_summary"},
+        {"com.android.contacts", "settings"},
+        {"com.android.contacts", "phone_lookup/*"},
+        {"com.android.contacts", "profile"},
+        {"com.android.contacts", "profile/raw_contacts/#/data"},
+        {"com.android.contacts", "search_suggest_query/*"},
+        // Media.
+        {"media", "*/images/media"},
+        {"media", "*/images/media/#"},
+        {"media", "*/images/thumbnails"},
+        {"media", "*/images/thumbnails/#"},
+        {"media", "*/audio/media"},
+        {"media", "*/audio/media/#"},
+        {"media", "*/audio/media/#/genres"},
+        {"media", "*/audio/media/#/playlists/#"},
+        {"media", "*/audio/genres/#/members"},
+        {"media", "*/audio/playlists"},
+        {"media", "*/audio/playlists/#/members/#"},
+        {"media", "*/audio/artists/#/albums"},
+        {"media", "*/audio/albums/#"},
+        {"media", "*/video/media"},
+        {"media", "*/video/media/#"},
+        {"media", "*/file"},
+        {"media", "*/file/#"},
+        {"media", "*/object/#/references"},
+        // Calendar.
+        {"com.android.calendar", "instances/when/*/*"},
+        {"com.android.calendar", "instances/whenbyday/*/*"},
+        {"com.android.calendar", "instances/search/*/*/*"},
+        {"com.android.calendar", "events"},
+        {"com.android.calendar", "events/#"},
+        {"com.android.calendar", "event_entities"},
+        {"com.android.calendar", "calendars"},
+        {"com.android.calendar", "calendars/#"},
+        {"com.android.calendar", "attendees"},
+        {"com.android.calendar", "reminders/#"},
+        {"com.android.calendar", "extendedproperties"},
+        {"com.android.calendar", "time/#"},
+    };
+
+    private static final String[] URIS = {
+        "content://com.android.contacts/contacts",
+        "content://com.android.contacts/contacts/1234",
+        "content://com.android.contacts/contacts/lookup/0r12-2C3A/1234/data",
+        "content://com.android.contacts/contacts/filter/ann%20smith",
+        "content://com.android.contacts/raw_contacts/98/entity",
+        "content://com.android.contacts/data/phones/filter/555",
+        "content://com.android.contacts/data/emails/lookup/someone%40example.com",
+        "content://com.android.contacts/phone_lookup/%2B15555550100",
+        "content://com.android.contacts/profile/raw_contacts/5/data",
+        "content://media/external/images/media",
+        "content://media/external/images/media/4711",
+        "content://media/external/audio/media/12/playlists/3",
+        "content://media/internal/audio/playlists/7/members/2",
+        "content://media/external/file/100",
+        "content://media/external/video/thumbnails/1",
+        "content://com.android.calendar/instances/when/1500000000000/1510000000000",
+        "content://com.android.calendar/events/42",
+        "content://com.android.calendar/calendars?account_name=a%40b.com",
+        "content://com.android.calendar/unknown/path",
+        "content://com.example.other/anything",
+    };
+
+    private UriMatcher matcher;
+    private CompiledUriMatcher compiled;
+    private ArrayList<Uri> batch;
+    private int[] codes;
+
+    @BeforeExperiment
+    protected void setUp() {
+        matcher = new UriMatcher(UriMatcher.NO_MATCH);
+        for (int i = 0; i < TABLE.length; i++) {
+            matcher.addURI(TABLE[i][0], TABLE[i][1], i + 1);
+        }
+        compiled = new CompiledUriMatcher(matcher);
+
+        batch = new ArrayList<>(URIS.length);
+        for (String uri : URIS) {
+            batch.add(Uri.parse(uri));
+        }
+        codes = new int[URIS.length];
+    }
+
+    public void timeMatch(int reps) {
+        for (int i = 0; i < reps; i++) {
+            matcher.match(Uri.parse(URIS[i % URIS.length]));
+        }
+    }
+
+    public void timeCompiledMatch(int reps) {
+        for (int i = 0; i < reps; i++) {
+            compiled.match(Uri.parse(URIS[i % URIS.length]));
+        }
+    }
+
+    public void timeMatchBatch(int reps) {
+        for (int i = 0; i < reps; i++) {
+            for (int j = 0; j < batch.size(); j++) {
+                codes[j] = matcher.match(batch.get(j));
+            }
+        }
+    }
+
+    public void timeCompiledMatchBatch(int reps) {
+        for (int i = 0; i < reps; i++) {
+            compiled.match(batch, codes);
+        }
+    }
+}
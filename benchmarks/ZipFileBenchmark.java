@@ -16,12 +16,14 @@
 
 package benchmarks;
 
+import android.util.jar.StrictJarFile;
 import com.google.caliper.BeforeExperiment;
 import com.google.caliper.Param;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.Random;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -52,6 +54,42 @@ public class ZipFileBenchmark {
         }
     }
 
+    public void timeStrictJarFileOpen(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            StrictJarFile jf = new StrictJarFile(file.getPath(), false, false);
+            jf.close();
+        }
+    }
+
+    public void timeStrictJarFileOpenMapped(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            StrictJarFile jf = new StrictJarFile(file.getPath(), false, false, true);
+            jf.close();
+        }
+    }
+
+    public int timeStrictJarFileIterate(int reps) throws Exception {
+        return iterateStrictJarFile(reps, false);
+    }
+
+    public int timeStrictJarFileIterateMapped(int reps) throws Exception {
+        return iterateStrictJarFile(reps, true);
+    }
+
+    private int iterateStrictJarFile(int reps, boolean mapped) throws Exception {
+        int count = 0;
+        for (int i = 0; i < reps; ++i) {
+            StrictJarFile jf = new StrictJarFile(file.getPath(), false, false, mapped);
+            for (Iterator<ZipEntry> it = jf.iterator(); it.hasNext(); ) {
+                if (jf.findEntry(it.next().getName()) != null) {
+                    count++;
+                }
+            }
+            jf.close();
+        }
+        return count;
+    }
+
     /**
      * Compresses the given number of files, each of the given size, into a .zip archive.
      */
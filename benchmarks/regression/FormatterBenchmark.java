@@ -16,11 +16,13 @@
 
 package benchmarks.regression;
 
+import java.io.IOException;
 import java.util.Formatter;
 import java.util.Locale;
 
 /**
- * Compares Formatter against hand-written StringBuilder code.
+ * Compares Formatter against hand-written StringBuilder code, and against
+ * format strings compiled once into a Formatter.Template.
  */
 public class FormatterBenchmark {
     public void timeFormatter_NoFormatting(int reps) {
@@ -128,4 +130,72 @@ public class FormatterBenchmark {
             sb.append(" in it");
         }
     }
+
+    public void timeTemplate_OneInt(int reps) {
+        Integer value = Integer.valueOf(1024); // We're not trying to benchmark boxing here.
+        Formatter.Template t = Formatter.Template.compile(
+                "this is a reasonably short string that has an int %d in it");
+        for (int i = 0; i < reps; i++) {
+            t.format(value);
+        }
+    }
+
+    public void timeTemplate_OneHexInt(int reps) {
+        Integer value = Integer.valueOf(1024); // We're not trying to benchmark boxing here.
+        Formatter.Template t = Formatter.Template.compile(
+                "this is a reasonably short string that has an int %x in it");
+        for (int i = 0; i < reps; i++) {
+            t.format(value);
+        }
+    }
+
+    public void timeTemplate_OneString(int reps) {
+        Formatter.Template t = Formatter.Template.compile(
+                "this is a reasonably short string that has a string %s in it");
+        for (int i = 0; i < reps; i++) {
+            t.format("hello");
+        }
+    }
+
+    public void timeTemplate_OneFloat(int reps) {
+        Float value = Float.valueOf(10.24f); // We're not trying to benchmark boxing here.
+        Formatter.Template t = Formatter.Template.compile(
+                "this is a reasonably short string that has a float %f in it");
+        for (int i = 0; i < reps; i++) {
+            t.format(value);
+        }
+    }
+
+    public void timeTemplate_LogLine(int reps) {
+        Integer pid = Integer.valueOf(1234);
+        Long token = Long.valueOf(0x7f3a2bL);
+        Formatter.Template t = Formatter.Template.compile("pid=%d token=%x tag=%s: %s");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < reps; i++) {
+            sb.setLength(0);
+            try {
+                t.formatTo(sb, Locale.US, pid, token, "ActivityManager", "hello");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    public void timeStringFormat_LogLine(int reps) {
+        Integer pid = Integer.valueOf(1234);
+        Long token = Long.valueOf(0x7f3a2bL);
+        for (int i = 0; i < reps; i++) {
+            String.format(Locale.US, "pid=%d token=%x tag=%s: %s", pid, token, "ActivityManager", "hello");
+        }
+    }
+
+    public void timeStringBuilder_LogLine(int reps) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < reps; i++) {
+            sb.setLength(0);
+            sb.append("pid=").append(1234);
+            sb.append(" token=").append(Long.toHexString(0x7f3a2bL));
+            sb.append(" tag=").append("ActivityManager").append(": ").append("hello");
+        }
+    }
 }
@@ -16,10 +16,13 @@
 
 package benchmarks.regression;
 
+import android.util.jar.StrictJarFile;
 import com.google.caliper.Param;
 import java.io.File;
+import java.util.Iterator;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
 
 public class JarFileBenchmark {
     @Param({
@@ -36,4 +39,30 @@ public class JarFileBenchmark {
             jf.close();
         }
     }
+
+    public void timeStrictJarFileVerify(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            verifyAll(new StrictJarFile(filename, true, false, false));
+        }
+    }
+
+    public void timeStrictJarFileVerifyMapped(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            verifyAll(new StrictJarFile(filename, true, false, true));
+        }
+    }
+
+    /** Checks every entry against the manifest, as installing an APK does. */
+    private static void verifyAll(StrictJarFile jf) throws Exception {
+        try {
+            for (Iterator<ZipEntry> it = jf.iterator(); it.hasNext(); ) {
+                ZipEntry entry = it.next();
+                if (!entry.isDirectory() && !entry.getName().startsWith("META-INF/")) {
+                    jf.verifyEntry(entry);
+                }
+            }
+        } finally {
+            jf.close();
+        }
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import com.google.caliper.BeforeExperiment;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares patterns compiled with and without Pattern.DFA on input they
+ * mostly do not match, or match only after a prefix, including patterns
+ * that backtrack exponentially. PatternDfaTest checks that both give the
+ * same results.
+ */
+public class RegexDfaBenchmark {
+    private static final String[] LINES = {
+        "10-18 23:42:52.123  1234  1250 I ActivityManager: Start proc 4321:com.android.systemui/u0a42",
+        "10-18 23:42:52.180  1234  1266 W WindowManager: Attempted to remove non-existing token",
+        "10-18 23:42:52.201  4321  4321 D SystemUI: onConfigurationChanged: took 12 ms",
+        "10-18 23:42:52.317  1234  1250 E ActivityManager: ANR in com.example.app",
+        "java.lang.IllegalStateException: ERROR: bind failed",
+        "aaaaaaaaaaaaaaaaaaaaaaaa",
+        "abababbb aab ba",
+        "aaaaaaaaaaaax ac",
+        "",
+    };
+
+    private Pattern backtracking;
+    private Pattern dfa;
+    private String evil;
+    private Pattern prefixBacktracking;
+    private Pattern prefixDfa;
+    private String evilPrefix;
+    private Pattern logBacktracking;
+    private Pattern logDfa;
+
+    @BeforeExperiment
+    protected void setUp() {
+        backtracking = Pattern.compile("(a|aa)+b");
+        dfa = Pattern.compile("(a|aa)+b", Pattern.DFA);
+        evil = "aaaaaaaaaaaaaaaaaaaaaa";
+        prefixBacktracking = Pattern.compile("(a|aa)+c");
+        prefixDfa = Pattern.compile("(a|aa)+c", Pattern.DFA);
+        evilPrefix = evil + "x ac";
+        logBacktracking = Pattern.compile("(ERROR|FATAL): (\\w+) failed");
+        logDfa = Pattern.compile("(ERROR|FATAL): (\\w+) failed", Pattern.DFA);
+    }
+
+    public void timeExponentialBacktracking(int reps) {
+        Matcher m = backtracking.matcher(evil);
+        for (int i = 0; i < reps; ++i) {
+            m.reset();
+            m.find();
+        }
+    }
+
+    public void timeExponentialDfa(int reps) {
+        Matcher m = dfa.matcher(evil);
+        for (int i = 0; i < reps; ++i) {
+            m.reset();
+            m.find();
+        }
+    }
+
+    public void timeExponentialPrefixBacktracking(int reps) {
+        Matcher m = prefixBacktracking.matcher(evilPrefix);
+        for (int i = 0; i < reps; ++i) {
+            m.reset();
+            m.find();
+        }
+    }
+
+    public void timeExponentialPrefixDfa(int reps) {
+        Matcher m = prefixDfa.matcher(evilPrefix);
+        for (int i = 0; i < reps; ++i) {
+            m.reset();
+            m.find();
+        }
+    }
+
+    public void timeLogLinesBacktracking(int reps) {
+        scan(logBacktracking, reps);
+    }
+
+    public void timeLogLinesDfa(int reps) {
+        scan(logDfa, reps);
+    }
+
+    private static void scan(Pattern p, int reps) {
+        Matcher m = p.matcher("");
+        for (int i = 0; i < reps; ++i) {
+            for (String line : LINES) {
+                m.reset(line);
+                while (m.find()) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unanchored searches over logcat-style lines, where most start positions
+ * cannot begin a match.
+ */
+public class RegexLogScanBenchmark {
+    private static final String[] LINES = {
+        "10-18 23:42:52.123  1234  1250 I ActivityManager: Start proc 4321:com.android.systemui/u0a42 for service",
+        "10-18 23:42:52.180  1234  1266 W WindowManager: Attempted to remove non-existing token: android.os.Binder@1a2b3c",
+        "10-18 23:42:52.201  4321  4321 D SystemUI: onConfigurationChanged: density=420 took 12 ms",
+        "10-18 23:42:52.317  1234  1250 E ActivityManager: ERROR: ANR in com.example.app (com.example.app/.Main)",
+        "10-18 23:42:52.452   987   987 I art     : Background concurrent copying GC freed 10240(512KB) AllocSpace objects",
+    };
+
+    private static void find(Pattern p, int reps) {
+        Matcher m = p.matcher("");
+        for (int i = 0; i < reps; ++i) {
+            for (String line : LINES) {
+                m.reset(line);
+                while (m.find()) {
+                }
+            }
+        }
+    }
+
+    public void timeFindLiteral(int reps) {
+        find(Pattern.compile("ActivityManager"), reps);
+    }
+
+    public void timeFindGroupedLiteral(int reps) {
+        find(Pattern.compile("(ERROR: )(.*)"), reps);
+    }
+
+    public void timeFindAlternation(int reps) {
+        find(Pattern.compile("ANR|FATAL|ERROR"), reps);
+    }
+
+    public void timeFindCharClass(int reps) {
+        find(Pattern.compile("[EW] \\w+:"), reps);
+    }
+
+    public void timeFindDuration(int reps) {
+        find(Pattern.compile("\\d+ ms"), reps);
+    }
+
+    public void timeSplitTag(int reps) {
+        Pattern p = Pattern.compile(": ");
+        for (int i = 0; i < reps; ++i) {
+            for (String line : LINES) {
+                p.split(line);
+            }
+        }
+    }
+
+    public void timeSplitWhitespace(int reps) {
+        Pattern p = Pattern.compile("\\s+");
+        for (int i = 0; i < reps; ++i) {
+            for (String line : LINES) {
+                p.split(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimingWheelScheduledExecutor;
+
+/**
+ * Schedules and cancels timeouts, the common case for network and IPC
+ * deadlines, with a million other timeouts already pending.
+ */
+public class TimingWheelBenchmark {
+    private static final int PENDING = 1000000;
+
+    public enum Scheduler { TIMING_WHEEL, SCHEDULED_THREAD_POOL, TIMER }
+
+    @Param private Scheduler scheduler;
+
+    private ScheduledExecutorService executor;
+    private Timer timer;
+    private long[] delays;
+
+    private static final Runnable NO_OP = new Runnable() {
+        public void run() {}
+    };
+
+    @BeforeExperiment
+    protected void setUp() {
+        Random random = new Random(0);
+        delays = new long[4096];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = 60000 + random.nextInt(60000);
+        }
+        switch (scheduler) {
+            case TIMING_WHEEL:
+                executor = new TimingWheelScheduledExecutor(2);
+                break;
+            case SCHEDULED_THREAD_POOL:
+                ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(2);
+                // Otherwise cancelled timeouts stay queued until they expire.
+                stpe.setRemoveOnCancelPolicy(true);
+                executor = stpe;
+                break;
+            case TIMER:
+                timer = new Timer(true);
+                break;
+        }
+        for (int i = 0; i < PENDING; i++) {
+            long delay = delays[i % delays.length] + i % 1000;
+            if (timer != null) {
+                timer.schedule(new NoOpTimerTask(), delay);
+            } else {
+                executor.schedule(NO_OP, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @AfterExperiment
+    protected void tearDown() {
+        if (timer != null) {
+            timer.cancel();
+        } else {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Schedules a timeout and cancels it before it expires. Timer keeps
+     * the cancelled task queued, so its queue grows with reps.
+     */
+    public void timeScheduleAndCancel(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            long delay = delays[i & (delays.length - 1)];
+            if (timer != null) {
+                TimerTask task = new NoOpTimerTask();
+                timer.schedule(task, delay);
+                task.cancel();
+            } else {
+                ScheduledFuture<?> f = executor.schedule(NO_OP, delay, TimeUnit.MILLISECONDS);
+                f.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Schedules timeouts a millisecond out and waits for all of them to run.
+     */
+    public void timeScheduleAndExpire(int reps) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(reps);
+        for (int i = 0; i < reps; ++i) {
+            if (timer != null) {
+                timer.schedule(new TimerTask() {
+                    public void run() { done.countDown(); }
+                }, 1);
+            } else {
+                executor.schedule(new Runnable() {
+                    public void run() { done.countDown(); }
+                }, 1, TimeUnit.MILLISECONDS);
+            }
+        }
+        done.await();
+    }
+
+    private static class NoOpTimerTask extends TimerTask {
+        public void run() {}
+    }
+}
@@ -61,6 +61,8 @@ final class ActivityManagerConstants extends ContentObserver {
     static final String KEY_SERVICE_MIN_RESTART_TIME_BETWEEN = "service_min_restart_time_between";
     static final String KEY_MAX_SERVICE_INACTIVITY = "service_max_inactivity";
     static final String KEY_BG_START_TIMEOUT = "service_bg_start_timeout";
+    private static final String KEY_INCREMENTAL_OOM_ADJ = "incremental_oom_adj";
+    private static final String KEY_VERIFY_INCREMENTAL_OOM_ADJ = "verify_incremental_oom_adj";
 
     private static final int DEFAULT_MAX_CACHED_PROCESSES = 32;
     private static final long DEFAULT_BACKGROUND_SETTLE_TIME = 60*1000;
@@ -86,6 +88,8 @@ final class ActivityManagerConstants extends ContentObserver {
     private static final long DEFAULT_SERVICE_MIN_RESTART_TIME_BETWEEN = 10*1000;
     private static final long DEFAULT_MAX_SERVICE_INACTIVITY = 30*60*1000;
     private static final long DEFAULT_BG_START_TIMEOUT = 15*1000;
+    private static final int DEFAULT_INCREMENTAL_OOM_ADJ = 1;
+    private static final int DEFAULT_VERIFY_INCREMENTAL_OOM_ADJ = 0;
 
     // Maximum number of cached processes we will allow.
     public int MAX_CACHED_PROCESSES = DEFAULT_MAX_CACHED_PROCESSES;
@@ -178,6 +182,14 @@ final class ActivityManagerConstants extends ContentObserver {
     // allowing the next pending start to run.
     public long BG_START_TIMEOUT = DEFAULT_BG_START_TIMEOUT;
 
+    // Whether a state change in a single process only recomputes the oom adj of that
+    // process and the processes it is bound to, instead of every process.
+    boolean INCREMENTAL_OOM_ADJ = DEFAULT_INCREMENTAL_OOM_ADJ != 0;
+
+    // Whether every incremental oom adj update is checked against a full update, and
+    // differences logged.  Expensive; for debugging only.
+    boolean VERIFY_INCREMENTAL_OOM_ADJ = DEFAULT_VERIFY_INCREMENTAL_OOM_ADJ != 0;
+
     private final ActivityManagerService mService;
     private ContentResolver mResolver;
     private final KeyValueListParser mParser = new KeyValueListParser(',');
@@ -292,6 +304,10 @@ final class ActivityManagerConstants extends ContentObserver {
                     DEFAULT_MAX_SERVICE_INACTIVITY);
             BG_START_TIMEOUT = mParser.getLong(KEY_BG_START_TIMEOUT,
                     DEFAULT_BG_START_TIMEOUT);
+            INCREMENTAL_OOM_ADJ = mParser.getInt(KEY_INCREMENTAL_OOM_ADJ,
+                    DEFAULT_INCREMENTAL_OOM_ADJ) != 0;
+            VERIFY_INCREMENTAL_OOM_ADJ = mParser.getInt(KEY_VERIFY_INCREMENTAL_OOM_ADJ,
+                    DEFAULT_VERIFY_INCREMENTAL_OOM_ADJ) != 0;
             updateMaxCachedProcesses();
         }
     }
@@ -357,6 +373,10 @@ final class ActivityManagerConstants extends ContentObserver {
         pw.println(MAX_SERVICE_INACTIVITY);
         pw.print("  "); pw.print(KEY_BG_START_TIMEOUT); pw.print("=");
         pw.println(BG_START_TIMEOUT);
+        pw.print("  "); pw.print(KEY_INCREMENTAL_OOM_ADJ); pw.print("=");
+        pw.println(INCREMENTAL_OOM_ADJ);
+        pw.print("  "); pw.print(KEY_VERIFY_INCREMENTAL_OOM_ADJ); pw.print("=");
+        pw.println(VERIFY_INCREMENTAL_OOM_ADJ);
 
         pw.println();
         if (mOverrideMaxCachedProcesses >= 0) {
@@ -362,7 +362,6 @@ import android.view.WindowManager;
 
 import com.android.server.job.JobSchedulerInternal;
 import com.google.android.collect.Lists;
-import com.google.android.collect.Maps;
 
 import com.android.internal.R;
 import com.android.internal.annotations.GuardedBy;
@@ -870,21 +869,21 @@ public class ActivityManagerService extends IActivityManager.Stub
     final ArrayList<ProcessRecord> mRemovedProcesses = new ArrayList<ProcessRecord>();
 
     /**
-     * List of running applications, sorted by recent usage.
-     * The first entry in the list is the least recently used.
-     */
-    final ArrayList<ProcessRecord> mLruProcesses = new ArrayList<ProcessRecord>();
-
-    /**
-     * Where in mLruProcesses that the processes hosting activities start.
+     * Segments of mLruProcesses, from least to most important: processes not
+     * otherwise of interest, processes hosting services, and processes hosting
+     * activities.
      */
-    int mLruProcessActivityStart = 0;
+    static final int LRU_SEGMENT_OTHER = 0;
+    static final int LRU_SEGMENT_SERVICE = 1;
+    static final int LRU_SEGMENT_ACTIVITY = 2;
 
     /**
-     * Where in mLruProcesses that the processes hosting services start.
-     * This is after (lower index) than mLruProcessesActivityStart.
+     * List of running applications, sorted by recent usage.
+     * The first entry in the list is the least recently used.
+     * Only modified through {@link ProcessRecord#lruNode}.
      */
-    int mLruProcessServiceStart = 0;
+    final SegmentedLruList<ProcessRecord> mLruProcesses =
+            new SegmentedLruList<>(LRU_SEGMENT_ACTIVITY + 1);
 
     /**
      * List of processes that should gc as soon as things are idle.
@@ -1011,6 +1010,13 @@ public class ActivityManagerService extends IActivityManager.Stub
         }
     };
 
+    /**
+     * Cached results of mReceiverResolver for simple action/type broadcasts.
+     * Must be invalidated whenever a filter is added to or removed from the resolver.
+     */
+    final RegisteredReceiverCache mRegisteredReceiverCache =
+            new RegisteredReceiverCache(mReceiverResolver);
+
     /**
      * State of all active sticky broadcasts per user.  Keys are the action of the
      * sticky Intent, values are an ArrayList of all broadcasted intents with
@@ -1082,6 +1088,12 @@ public class ActivityManagerService extends IActivityManager.Stub
      */
     private final AtomicFile mGrantFile;
 
+    /**
+     * Changes to persisted grants made since {@link #mGrantFile} was last written
+     * in full.
+     */
+    private final UriGrantsJournal mGrantJournal;
+
     /** XML constants used in {@link #mGrantFile} */
     private static final String TAG_URI_GRANTS = "uri-grants";
     private static final String TAG_URI_GRANT = "uri-grant";
@@ -1094,6 +1106,7 @@ public class ActivityManagerService extends IActivityManager.Stub
     private static final String ATTR_MODE_FLAGS = "modeFlags";
     private static final String ATTR_CREATED_TIME = "createdTime";
     private static final String ATTR_PREFIX = "prefix";
+    private static final String ATTR_JOURNAL_GENERATION = "journalGeneration";
 
     /**
      * Global set of specific {@link Uri} permissions that have been granted.
@@ -1101,8 +1114,24 @@ public class ActivityManagerService extends IActivityManager.Stub
      * to {@link UriPermission#uri} to {@link UriPermission}.
      */
     @GuardedBy("this")
-    private final SparseArray<ArrayMap<GrantUri, UriPermission>>
-            mGrantedUriPermissions = new SparseArray<ArrayMap<GrantUri, UriPermission>>();
+    private final SparseArray<UriPermissionIndex>
+            mGrantedUriPermissions = new SparseArray<UriPermissionIndex>();
+
+    /**
+     * Persisted grants as last written to {@link #mGrantFile} and
+     * {@link #mGrantJournal}, used to find what changed since.
+     */
+    @GuardedBy("this")
+    private final HashMap<UriPermission, UriPermission.Snapshot> mPersistedUriGrants =
+            new HashMap<>();
+
+    /** Generation of {@link #mGrantFile} that {@link #mGrantJournal} applies to. */
+    @GuardedBy("this")
+    private long mGrantJournalGeneration;
+
+    /** Set when {@link #mGrantJournal} can't be trusted to hold the latest changes. */
+    @GuardedBy("this")
+    private boolean mGrantFileNeedsRewrite;
 
     public static class GrantUri {
         public final int sourceUserId;
@@ -1389,6 +1418,19 @@ public class ActivityManagerService extends IActivityManager.Stub
      */
     int mAdjSeq = 0;
 
+    /**
+     * Processes visited by the current updateOomAdjIncrementalLocked() pass, in the
+     * order they are recomputed.
+     */
+    private final ArrayList<ProcessRecord> mTmpOomAdjQueue = new ArrayList<>();
+    private final ArraySet<ProcessRecord> mTmpOomAdjVisited = new ArraySet<>();
+
+    /**
+     * Number of incremental oom adj updates, and of those that fell back to a full update.
+     */
+    int mNumIncrementalOomAdj;
+    int mNumIncrementalOomAdjFallbacks;
+
     /**
      * Current sequence id for process LRU updating.
      */
@@ -2697,6 +2739,7 @@ public class ActivityManagerService extends IActivityManager.Stub
         mCompatModePackages = null;
         mConstants = null;
         mGrantFile = null;
+        mGrantJournal = null;
         mHandler = null;
         mHandlerThread = null;
         mIntentFirewall = null;
@@ -2785,6 +2828,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                 });
 
         mGrantFile = new AtomicFile(new File(systemDir, "urigrants.xml"));
+        mGrantJournal = new UriGrantsJournal(new File(systemDir, "urigrants.journal"));
 
         mUserController = new UserController(this);
 
@@ -3293,41 +3337,47 @@ public class ActivityManagerService extends IActivityManager.Stub
         }
     }
 
-    private int updateLruProcessInternalLocked(ProcessRecord app, long now, int index,
+    /**
+     * Moves a process that {@code srcApp} depends on right below {@code anchor}, or to
+     * the top of the non-service area if {@code anchor} is null, unless it is already
+     * above that position.
+     * @return the node to place the next dependency below.
+     */
+    private SegmentedLruList.Node<ProcessRecord> updateLruProcessInternalLocked(
+            ProcessRecord app, long now, SegmentedLruList.Node<ProcessRecord> anchor,
             String what, Object obj, ProcessRecord srcApp) {
         app.lastActivityTime = now;
 
         if (app.activities.size() > 0) {
             // Don't want to touch dependent processes that are hosting activities.
-            return index;
+            return anchor;
         }
 
-        int lrui = mLruProcesses.lastIndexOf(app);
-        if (lrui < 0) {
+        final SegmentedLruList.Node<ProcessRecord> node = app.lruNode;
+        if (!mLruProcesses.contains(node)) {
             Slog.wtf(TAG, "Adding dependent process " + app + " not on LRU list: "
                     + what + " " + obj + " from " + srcApp);
-            return index;
+            return anchor;
         }
 
-        if (lrui >= index) {
+        if (anchor == null ? node.getSegment() != LRU_SEGMENT_OTHER
+                : !mLruProcesses.isBefore(node, anchor)) {
             // Don't want to cause this to move dependent processes *back* in the
-            // list as if they were less frequently used.
-            return index;
+            // list as if they were less frequently used.  This also leaves
+            // alone dependent processes that are hosting activities.
+            return anchor;
         }
 
-        if (lrui >= mLruProcessActivityStart) {
-            // Don't want to touch dependent processes that are hosting activities.
-            return index;
-        }
-
-        mLruProcesses.remove(lrui);
-        if (index > 0) {
-            index--;
-        }
-        if (DEBUG_LRU) Slog.d(TAG_LRU, "Moving dep from " + lrui + " to " + index
+        if (DEBUG_LRU) Slog.d(TAG_LRU, "Moving dep from " + mLruProcesses.indexOf(node)
+                + " to below " + (anchor != null ? anchor.getItem() : "non-service top")
                 + " in LRU list: " + app);
-        mLruProcesses.add(index, app);
-        return index;
+        mLruProcesses.remove(node);
+        if (anchor != null) {
+            mLruProcesses.addBefore(node, anchor);
+        } else {
+            mLruProcesses.addTop(node, LRU_SEGMENT_OTHER);
+        }
+        return node;
     }
 
     static void killProcessGroup(int uid, int pid) {
@@ -3341,20 +3391,13 @@ public class ActivityManagerService extends IActivityManager.Stub
     }
 
     final void removeLruProcessLocked(ProcessRecord app) {
-        int lrui = mLruProcesses.lastIndexOf(app);
-        if (lrui >= 0) {
+        if (mLruProcesses.contains(app.lruNode)) {
             if (!app.killed) {
                 Slog.wtfStack(TAG, "Removing process that hasn't been killed: " + app);
                 killProcessQuiet(app.pid);
                 killProcessGroup(app.uid, app.pid);
             }
-            if (lrui <= mLruProcessActivityStart) {
-                mLruProcessActivityStart--;
-            }
-            if (lrui <= mLruProcessServiceStart) {
-                mLruProcessServiceStart--;
-            }
-            mLruProcesses.remove(lrui);
+            mLruProcesses.remove(app.lruNode);
         }
     }
 
@@ -3377,119 +3420,68 @@ public class ActivityManagerService extends IActivityManager.Stub
 
         // First a quick reject: if the app is already at the position we will
         // put it, then there is nothing to do.
+        final SegmentedLruList.Node<ProcessRecord> node = app.lruNode;
         if (hasActivity) {
-            final int N = mLruProcesses.size();
-            if (N > 0 && mLruProcesses.get(N-1) == app) {
+            if (mLruProcesses.contains(node) && node.getNext() == null) {
                 if (DEBUG_LRU) Slog.d(TAG_LRU, "Not moving, already top activity: " + app);
                 return;
             }
         } else {
-            if (mLruProcessServiceStart > 0
-                    && mLruProcesses.get(mLruProcessServiceStart-1) == app) {
+            if (mLruProcesses.getTop(LRU_SEGMENT_OTHER) == node) {
                 if (DEBUG_LRU) Slog.d(TAG_LRU, "Not moving, already top other: " + app);
                 return;
             }
         }
 
-        int lrui = mLruProcesses.lastIndexOf(app);
+        final boolean wasInList = mLruProcesses.contains(node);
 
-        if (app.persistent && lrui >= 0) {
+        if (app.persistent && wasInList) {
             // We don't care about the position of persistent processes, as long as
             // they are in the list.
             if (DEBUG_LRU) Slog.d(TAG_LRU, "Not moving, persistent: " + app);
             return;
         }
 
-        /* In progress: compute new position first, so we can avoid doing work
-           if the process is not actually going to move.  Not yet working.
-        int addIndex;
-        int nextIndex;
-        boolean inActivity = false, inService = false;
-        if (hasActivity) {
-            // Process has activities, put it at the very tipsy-top.
-            addIndex = mLruProcesses.size();
-            nextIndex = mLruProcessServiceStart;
-            inActivity = true;
-        } else if (hasService) {
-            // Process has services, put it at the top of the service list.
-            addIndex = mLruProcessActivityStart;
-            nextIndex = mLruProcessServiceStart;
-            inActivity = true;
-            inService = true;
-        } else  {
-            // Process not otherwise of interest, it goes to the top of the non-service area.
-            addIndex = mLruProcessServiceStart;
-            if (client != null) {
-                int clientIndex = mLruProcesses.lastIndexOf(client);
-                if (clientIndex < 0) Slog.d(TAG, "Unknown client " + client + " when updating "
-                        + app);
-                if (clientIndex >= 0 && addIndex > clientIndex) {
-                    addIndex = clientIndex;
-                }
-            }
-            nextIndex = addIndex > 0 ? addIndex-1 : addIndex;
+        // The process that was right after this one, which takes its place once it
+        // is removed.  Null if it was not in the list or was the most recent one.
+        SegmentedLruList.Node<ProcessRecord> oldNext = null;
+        if (wasInList) {
+            oldNext = node.getNext();
+            mLruProcesses.remove(node);
         }
 
-        Slog.d(TAG, "Update LRU at " + lrui + " to " + addIndex + " (act="
-                + mLruProcessActivityStart + "): " + app);
-        */
-
-        if (lrui >= 0) {
-            if (lrui < mLruProcessActivityStart) {
-                mLruProcessActivityStart--;
-            }
-            if (lrui < mLruProcessServiceStart) {
-                mLruProcessServiceStart--;
-            }
-            /*
-            if (addIndex > lrui) {
-                addIndex--;
-            }
-            if (nextIndex > lrui) {
-                nextIndex--;
-            }
-            */
-            mLruProcesses.remove(lrui);
-        }
-
-        /*
-        mLruProcesses.add(addIndex, app);
-        if (inActivity) {
-            mLruProcessActivityStart++;
-        }
-        if (inService) {
-            mLruProcessActivityStart++;
-        }
-        */
-
-        int nextIndex;
+        // Dependencies of the process are moved below this one, or to the top of
+        // the non-service area if null.
+        SegmentedLruList.Node<ProcessRecord> nextAnchor;
         if (hasActivity) {
-            final int N = mLruProcesses.size();
-            if (app.activities.size() == 0 && mLruProcessActivityStart < (N - 1)) {
+            final SegmentedLruList.Node<ProcessRecord> top =
+                    mLruProcesses.getTop(LRU_SEGMENT_ACTIVITY);
+            if (app.activities.size() == 0
+                    && mLruProcesses.getSegmentSize(LRU_SEGMENT_ACTIVITY) > 1) {
                 // Process doesn't have activities, but has clients with
                 // activities...  move it up, but one below the top (the top
                 // should always have a real activity).
                 if (DEBUG_LRU) Slog.d(TAG_LRU,
                         "Adding to second-top of LRU activity list: " + app);
-                mLruProcesses.add(N - 1, app);
+                mLruProcesses.addBefore(node, top);
                 // To keep it from spamming the LRU list (by making a bunch of clients),
                 // we will push down any other entries owned by the app.
                 final int uid = app.info.uid;
-                for (int i = N - 2; i > mLruProcessActivityStart; i--) {
-                    ProcessRecord subProc = mLruProcesses.get(i);
-                    if (subProc.info.uid == uid) {
+                SegmentedLruList.Node<ProcessRecord> sub = node.getPrevious();
+                while (sub != null && sub.getSegment() == LRU_SEGMENT_ACTIVITY
+                        && sub != mLruProcesses.getBottom(LRU_SEGMENT_ACTIVITY)) {
+                    if (sub.getItem().info.uid == uid) {
                         // We want to push this one down the list.  If the process after
                         // it is for the same uid, however, don't do so, because we don't
                         // want them internally to be re-ordered.
-                        if (mLruProcesses.get(i - 1).info.uid != uid) {
+                        final SegmentedLruList.Node<ProcessRecord> below = sub.getPrevious();
+                        if (below.getItem().info.uid != uid) {
                             if (DEBUG_LRU) Slog.d(TAG_LRU,
-                                    "Pushing uid " + uid + " swapping at " + i + ": "
-                                    + mLruProcesses.get(i) + " : " + mLruProcesses.get(i - 1));
-                            ProcessRecord tmp = mLruProcesses.get(i);
-                            mLruProcesses.set(i, mLruProcesses.get(i - 1));
-                            mLruProcesses.set(i - 1, tmp);
-                            i--;
+                                    "Pushing uid " + uid + " swapping: "
+                                    + sub.getItem() + " : " + below.getItem());
+                            mLruProcesses.swapWithNext(below);
                         }
+                        sub = sub.getPrevious();
                     } else {
                         // A gap, we can stop here.
                         break;
@@ -3498,38 +3490,44 @@ public class ActivityManagerService extends IActivityManager.Stub
             } else {
                 // Process has activities, put it at the very tipsy-top.
                 if (DEBUG_LRU) Slog.d(TAG_LRU, "Adding to top of LRU activity list: " + app);
-                mLruProcesses.add(app);
+                mLruProcesses.addTop(node, LRU_SEGMENT_ACTIVITY);
             }
-            nextIndex = mLruProcessServiceStart;
+            nextAnchor = null;
         } else if (hasService) {
             // Process has services, put it at the top of the service list.
             if (DEBUG_LRU) Slog.d(TAG_LRU, "Adding to top of LRU service list: " + app);
-            mLruProcesses.add(mLruProcessActivityStart, app);
-            nextIndex = mLruProcessServiceStart;
-            mLruProcessActivityStart++;
+            mLruProcesses.addTop(node, LRU_SEGMENT_SERVICE);
+            nextAnchor = null;
         } else  {
             // Process not otherwise of interest, it goes to the top of the non-service area.
-            int index = mLruProcessServiceStart;
+            SegmentedLruList.Node<ProcessRecord> below = null;
             if (client != null) {
                 // If there is a client, don't allow the process to be moved up higher
                 // in the list than that client.
-                int clientIndex = mLruProcesses.lastIndexOf(client);
-                if (DEBUG_LRU && clientIndex < 0) Slog.d(TAG_LRU, "Unknown client " + client
+                final SegmentedLruList.Node<ProcessRecord> clientNode = client.lruNode;
+                final boolean knownClient = mLruProcesses.contains(clientNode);
+                if (DEBUG_LRU && !knownClient) Slog.d(TAG_LRU, "Unknown client " + client
                         + " when updating " + app);
-                if (clientIndex <= lrui) {
-                    // Don't allow the client index restriction to push it down farther in the
+                if (knownClient && (!wasInList
+                        || (oldNext != null && mLruProcesses.isBefore(oldNext, clientNode)))) {
+                    below = clientNode;
+                } else {
+                    // Don't allow the client restriction to push it down farther in the
                     // list than it already is.
-                    clientIndex = lrui;
-                }
-                if (clientIndex >= 0 && index > clientIndex) {
-                    index = clientIndex;
+                    below = oldNext;
                 }
             }
-            if (DEBUG_LRU) Slog.d(TAG_LRU, "Adding at " + index + " of LRU list: " + app);
-            mLruProcesses.add(index, app);
-            nextIndex = index-1;
-            mLruProcessActivityStart++;
-            mLruProcessServiceStart++;
+            if (below != null && below.getSegment() == LRU_SEGMENT_OTHER) {
+                if (DEBUG_LRU) Slog.d(TAG_LRU, "Adding below " + below.getItem()
+                        + " in LRU list: " + app);
+                mLruProcesses.addBefore(node, below);
+            } else {
+                if (DEBUG_LRU) Slog.d(TAG_LRU, "Adding to top of LRU other list: " + app);
+                mLruProcesses.addTop(node, LRU_SEGMENT_OTHER);
+            }
+            // Dependencies go below the process now right below this one.  If there is
+            // none, anchoring on this process itself keeps them all where they are.
+            nextAnchor = node.getPrevious() != null ? node.getPrevious() : node;
         }
 
         // If the app is currently using a content provider or service,
@@ -3540,14 +3538,14 @@ public class ActivityManagerService extends IActivityManager.Stub
                     && cr.binding.service.app != null
                     && cr.binding.service.app.lruSeq != mLruSeq
                     && !cr.binding.service.app.persistent) {
-                nextIndex = updateLruProcessInternalLocked(cr.binding.service.app, now, nextIndex,
-                        "service connection", cr, app);
+                nextAnchor = updateLruProcessInternalLocked(cr.binding.service.app, now,
+                        nextAnchor, "service connection", cr, app);
             }
         }
         for (int j=app.conProviders.size()-1; j>=0; j--) {
             ContentProviderRecord cpr = app.conProviders.get(j).provider;
             if (cpr.proc != null && cpr.proc.lruSeq != mLruSeq && !cpr.proc.persistent) {
-                nextIndex = updateLruProcessInternalLocked(cpr.proc, now, nextIndex,
+                nextAnchor = updateLruProcessInternalLocked(cpr.proc, now, nextAnchor,
                         "provider reference", cpr, app);
             }
         }
@@ -8516,7 +8514,7 @@ public class ActivityManagerService extends IActivityManager.Stub
     }
 
     private UriPermission findUriPermissionLocked(int targetUid, GrantUri grantUri) {
-        final ArrayMap<GrantUri, UriPermission> targetUris = mGrantedUriPermissions.get(targetUid);
+        final UriPermissionIndex targetUris = mGrantedUriPermissions.get(targetUid);
         if (targetUris != null) {
             return targetUris.get(grantUri);
         }
@@ -8525,16 +8523,16 @@ public class ActivityManagerService extends IActivityManager.Stub
 
     private UriPermission findOrCreateUriPermissionLocked(String sourcePkg,
             String targetPkg, int targetUid, GrantUri grantUri) {
-        ArrayMap<GrantUri, UriPermission> targetUris = mGrantedUriPermissions.get(targetUid);
+        UriPermissionIndex targetUris = mGrantedUriPermissions.get(targetUid);
         if (targetUris == null) {
-            targetUris = Maps.newArrayMap();
+            targetUris = new UriPermissionIndex();
             mGrantedUriPermissions.put(targetUid, targetUris);
         }
 
         UriPermission perm = targetUris.get(grantUri);
         if (perm == null) {
             perm = new UriPermission(sourcePkg, targetPkg, targetUid, grantUri);
-            targetUris.put(grantUri, perm);
+            targetUris.add(perm);
         }
 
         return perm;
@@ -8551,7 +8549,7 @@ public class ActivityManagerService extends IActivityManager.Stub
             return true;
         }
 
-        final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.get(uid);
+        final UriPermissionIndex perms = mGrantedUriPermissions.get(uid);
         if (perms == null) return false;
 
         // First look for exact match
@@ -8561,16 +8559,7 @@ public class ActivityManagerService extends IActivityManager.Stub
         }
 
         // No exact match, look for prefixes
-        final int N = perms.size();
-        for (int i = 0; i < N; i++) {
-            final UriPermission perm = perms.valueAt(i);
-            if (perm.uri.prefix && grantUri.uri.isPathPrefixMatch(perm.uri.uri)
-                    && perm.getStrength(modeFlags) >= minStrength) {
-                return true;
-            }
-        }
-
-        return false;
+        return perms.hasPrefixGrant(grantUri, modeFlags, minStrength);
     }
 
     /**
@@ -8976,7 +8965,7 @@ public class ActivityManagerService extends IActivityManager.Stub
 
     void removeUriPermissionIfNeededLocked(UriPermission perm) {
         if (perm.modeFlags == 0) {
-            final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.get(
+            final UriPermissionIndex perms = mGrantedUriPermissions.get(
                     perm.targetUid);
             if (perms != null) {
                 if (DEBUG_URI_PERMISSION) Slog.v(TAG_URI_PERMISSION,
@@ -9009,7 +8998,7 @@ public class ActivityManagerService extends IActivityManager.Stub
         if (!checkHoldingPermissionsLocked(pm, pi, grantUri, callingUid, modeFlags)) {
             // If they don't have direct access to the URI, then revoke any
             // ownerless URI permissions that have been granted to them.
-            final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.get(callingUid);
+            final UriPermissionIndex perms = mGrantedUriPermissions.get(callingUid);
             if (perms != null) {
                 boolean persistChanged = false;
                 for (int i = perms.size()-1; i >= 0; i--) {
@@ -9044,7 +9033,7 @@ public class ActivityManagerService extends IActivityManager.Stub
         // Go through all of the permissions and remove any that match.
         for (int i = mGrantedUriPermissions.size()-1; i >= 0; i--) {
             final int targetUid = mGrantedUriPermissions.keyAt(i);
-            final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.valueAt(i);
+            final UriPermissionIndex perms = mGrantedUriPermissions.valueAt(i);
 
             for (int j = perms.size()-1; j >= 0; j--) {
                 final UriPermission perm = perms.valueAt(j);
@@ -9133,13 +9122,13 @@ public class ActivityManagerService extends IActivityManager.Stub
         int N = mGrantedUriPermissions.size();
         for (int i = 0; i < N; i++) {
             final int targetUid = mGrantedUriPermissions.keyAt(i);
-            final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.valueAt(i);
+            final UriPermissionIndex perms = mGrantedUriPermissions.valueAt(i);
 
             // Only inspect grants matching user
             if (userHandle == UserHandle.USER_ALL
                     || userHandle == UserHandle.getUserId(targetUid)) {
-                for (Iterator<UriPermission> it = perms.values().iterator(); it.hasNext();) {
-                    final UriPermission perm = it.next();
+                for (int j = perms.size() - 1; j >= 0; j--) {
+                    final UriPermission perm = perms.valueAt(j);
 
                     // Only inspect grants matching package
                     if (packageName == null || perm.sourcePkg.equals(packageName)
@@ -9156,7 +9145,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                         // Only remove when no modes remain; any persisted grants
                         // will keep this alive.
                         if (perm.modeFlags == 0) {
-                            it.remove();
+                            perms.removeAt(j);
                         }
                     }
                 }
@@ -9261,17 +9250,31 @@ public class ActivityManagerService extends IActivityManager.Stub
     private void writeGrantedUriPermissions() {
         if (DEBUG_URI_PERMISSION) Slog.v(TAG_URI_PERMISSION, "writeGrantedUriPermissions()");
 
-        // Snapshot permissions so we can persist without lock
-        ArrayList<UriPermission.Snapshot> persist = Lists.newArrayList();
+        // Work out what changed under the lock so we can persist without it
+        final ArrayList<UriGrantsJournal.Entry> changes = Lists.newArrayList();
+        ArrayList<UriPermission.Snapshot> persist = null;
+        long generation = 0;
         synchronized (this) {
-            final int size = mGrantedUriPermissions.size();
-            for (int i = 0; i < size; i++) {
-                final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.valueAt(i);
-                for (UriPermission perm : perms.values()) {
-                    if (perm.persistedModeFlags != 0) {
-                        persist.add(perm.snapshot());
-                    }
-                }
+            collectPersistedUriGrantChangesLocked(changes);
+            if (changes.isEmpty() && !mGrantFileNeedsRewrite) {
+                return;
+            }
+            if (mGrantFileNeedsRewrite
+                    || mGrantJournal.needsRewrite(changes.size(), mPersistedUriGrants.size())) {
+                persist = new ArrayList<>(mPersistedUriGrants.values());
+                generation = ++mGrantJournalGeneration;
+                mGrantFileNeedsRewrite = false;
+            }
+        }
+
+        if (persist == null) {
+            if (mGrantJournal.append(changes)) {
+                return;
+            }
+            synchronized (this) {
+                persist = new ArrayList<>(mPersistedUriGrants.values());
+                generation = ++mGrantJournalGeneration;
+                mGrantFileNeedsRewrite = false;
             }
         }
 
@@ -9283,6 +9286,7 @@ public class ActivityManagerService extends IActivityManager.Stub
             out.setOutput(fos, StandardCharsets.UTF_8.name());
             out.startDocument(null, true);
             out.startTag(null, TAG_URI_GRANTS);
+            writeLongAttribute(out, ATTR_JOURNAL_GENERATION, generation);
             for (UriPermission.Snapshot perm : persist) {
                 out.startTag(null, TAG_URI_GRANT);
                 writeIntAttribute(out, ATTR_SOURCE_USER_ID, perm.uri.sourceUserId);
@@ -9303,9 +9307,61 @@ public class ActivityManagerService extends IActivityManager.Stub
             if (fos != null) {
                 mGrantFile.failWrite(fos);
             }
+            synchronized (this) {
+                mGrantFileNeedsRewrite = true;
+            }
+            return;
+        }
+        mGrantJournal.reset(generation);
+    }
+
+    /**
+     * Brings {@link #mPersistedUriGrants} up to date with the persisted state of
+     * every grant, adding a journal entry for each grant that changed.  Grants
+     * that are gone come first, so a grant that was dropped and granted again
+     * replays in the right order.  This still visits every grant under the lock;
+     * only what is written to disk is limited to the changes.
+     */
+    private void collectPersistedUriGrantChangesLocked(
+            ArrayList<UriGrantsJournal.Entry> outChanges) {
+        for (Iterator<Map.Entry<UriPermission, UriPermission.Snapshot>> it =
+                mPersistedUriGrants.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<UriPermission, UriPermission.Snapshot> entry = it.next();
+            final UriPermission perm = entry.getKey();
+            if (perm.persistedModeFlags == 0
+                    || findUriPermissionLocked(perm.targetUid, perm.uri) != perm) {
+                outChanges.add(newUriGrantsJournalEntry(entry.getValue(), 0));
+                it.remove();
+            }
+        }
+
+        final int size = mGrantedUriPermissions.size();
+        for (int i = 0; i < size; i++) {
+            final UriPermissionIndex perms = mGrantedUriPermissions.valueAt(i);
+            for (int j = 0; j < perms.size(); j++) {
+                final UriPermission perm = perms.valueAt(j);
+                if (perm.persistedModeFlags == 0) {
+                    continue;
+                }
+                final UriPermission.Snapshot old = mPersistedUriGrants.get(perm);
+                if (old == null || old.persistedModeFlags != perm.persistedModeFlags
+                        || old.persistedCreateTime != perm.persistedCreateTime) {
+                    final UriPermission.Snapshot snapshot = perm.snapshot();
+                    mPersistedUriGrants.put(perm, snapshot);
+                    outChanges.add(newUriGrantsJournalEntry(snapshot,
+                            snapshot.persistedModeFlags));
+                }
+            }
         }
     }
 
+    private static UriGrantsJournal.Entry newUriGrantsJournalEntry(
+            UriPermission.Snapshot perm, int modeFlags) {
+        return new UriGrantsJournal.Entry(perm.uri.sourceUserId, perm.targetUserId,
+                perm.sourcePkg, perm.targetPkg, String.valueOf(perm.uri.uri), perm.uri.prefix,
+                modeFlags, perm.persistedCreateTime);
+    }
+
     private void readGrantedUriPermissionsLocked() {
         if (DEBUG_URI_PERMISSION) Slog.v(TAG_URI_PERMISSION, "readGrantedUriPermissions()");
 
@@ -9321,7 +9377,10 @@ public class ActivityManagerService extends IActivityManager.Stub
             while ((type = in.next()) != END_DOCUMENT) {
                 final String tag = in.getName();
                 if (type == START_TAG) {
-                    if (TAG_URI_GRANT.equals(tag)) {
+                    if (TAG_URI_GRANTS.equals(tag)) {
+                        mGrantJournalGeneration = readLongAttribute(in,
+                                ATTR_JOURNAL_GENERATION, 0);
+                    } else if (TAG_URI_GRANT.equals(tag)) {
                         final int sourceUserId;
                         final int targetUserId;
                         final int userHandle = readIntAttribute(in,
@@ -9341,29 +9400,8 @@ public class ActivityManagerService extends IActivityManager.Stub
                         final int modeFlags = readIntAttribute(in, ATTR_MODE_FLAGS);
                         final long createdTime = readLongAttribute(in, ATTR_CREATED_TIME, now);
 
-                        // Sanity check that provider still belongs to source package
-                        // Both direct boot aware and unaware packages are fine as we
-                        // will do filtering at query time to avoid multiple parsing.
-                        final ProviderInfo pi = getProviderInfoLocked(
-                                uri.getAuthority(), sourceUserId, MATCH_DIRECT_BOOT_AWARE
-                                        | MATCH_DIRECT_BOOT_UNAWARE);
-                        if (pi != null && sourcePkg.equals(pi.packageName)) {
-                            int targetUid = -1;
-                            try {
-                                targetUid = AppGlobals.getPackageManager().getPackageUid(
-                                        targetPkg, MATCH_UNINSTALLED_PACKAGES, targetUserId);
-                            } catch (RemoteException e) {
-                            }
-                            if (targetUid != -1) {
-                                final UriPermission perm = findOrCreateUriPermissionLocked(
-                                        sourcePkg, targetPkg, targetUid,
-                                        new GrantUri(sourceUserId, uri, prefix));
-                                perm.initPersistedModes(modeFlags, createdTime);
-                            }
-                        } else {
-                            Slog.w(TAG, "Persisted grant for " + uri + " had source " + sourcePkg
-                                    + " but instead found " + pi);
-                        }
+                        restoreUriGrantLocked(sourceUserId, targetUserId, sourcePkg, targetPkg,
+                                uri, prefix, modeFlags, createdTime);
                     }
                 }
             }
@@ -9376,6 +9414,72 @@ public class ActivityManagerService extends IActivityManager.Stub
         } finally {
             IoUtils.closeQuietly(fis);
         }
+
+        // Replay what changed since the grants file was last written in full
+        for (UriGrantsJournal.Entry entry : mGrantJournal.read(mGrantJournalGeneration)) {
+            restoreUriGrantLocked(entry.sourceUserId, entry.targetUserId, entry.sourcePkg,
+                    entry.targetPkg, Uri.parse(entry.uri), entry.prefix, entry.modeFlags,
+                    entry.createdTime);
+        }
+
+        // What was just read is what's on disk
+        mPersistedUriGrants.clear();
+        for (int i = 0; i < mGrantedUriPermissions.size(); i++) {
+            final UriPermissionIndex perms = mGrantedUriPermissions.valueAt(i);
+            for (int j = 0; j < perms.size(); j++) {
+                final UriPermission perm = perms.valueAt(j);
+                if (perm.persistedModeFlags != 0) {
+                    mPersistedUriGrants.put(perm, perm.snapshot());
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores a grant read from {@link #mGrantFile} or {@link #mGrantJournal}.
+     * A {@code modeFlags} of 0 drops a grant restored earlier.
+     */
+    private void restoreUriGrantLocked(int sourceUserId, int targetUserId, String sourcePkg,
+            String targetPkg, Uri uri, boolean prefix, int modeFlags, long createdTime) {
+        if (modeFlags == 0) {
+            int targetUid = -1;
+            try {
+                targetUid = AppGlobals.getPackageManager().getPackageUid(
+                        targetPkg, MATCH_UNINSTALLED_PACKAGES, targetUserId);
+            } catch (RemoteException e) {
+            }
+            final UriPermission perm = targetUid != -1 ? findUriPermissionLocked(targetUid,
+                    new GrantUri(sourceUserId, uri, prefix)) : null;
+            if (perm != null) {
+                perm.releasePersistableModes(~0);
+                removeUriPermissionIfNeededLocked(perm);
+            }
+            return;
+        }
+
+        // Sanity check that provider still belongs to source package
+        // Both direct boot aware and unaware packages are fine as we
+        // will do filtering at query time to avoid multiple parsing.
+        final ProviderInfo pi = getProviderInfoLocked(
+                uri.getAuthority(), sourceUserId, MATCH_DIRECT_BOOT_AWARE
+                        | MATCH_DIRECT_BOOT_UNAWARE);
+        if (pi != null && sourcePkg.equals(pi.packageName)) {
+            int targetUid = -1;
+            try {
+                targetUid = AppGlobals.getPackageManager().getPackageUid(
+                        targetPkg, MATCH_UNINSTALLED_PACKAGES, targetUserId);
+            } catch (RemoteException e) {
+            }
+            if (targetUid != -1) {
+                final UriPermission perm = findOrCreateUriPermissionLocked(
+                        sourcePkg, targetPkg, targetUid,
+                        new GrantUri(sourceUserId, uri, prefix));
+                perm.initPersistedModes(modeFlags, createdTime);
+            }
+        } else {
+            Slog.w(TAG, "Persisted grant for " + uri + " had source " + sourcePkg
+                    + " but instead found " + pi);
+        }
     }
 
     /**
@@ -9470,12 +9574,13 @@ public class ActivityManagerService extends IActivityManager.Stub
      * @return if any mutations occured that require persisting.
      */
     private boolean maybePrunePersistedUriGrantsLocked(int uid) {
-        final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.get(uid);
+        final UriPermissionIndex perms = mGrantedUriPermissions.get(uid);
         if (perms == null) return false;
         if (perms.size() < MAX_PERSISTED_URI_GRANTS) return false;
 
         final ArrayList<UriPermission> persisted = Lists.newArrayList();
-        for (UriPermission perm : perms.values()) {
+        for (int i = 0; i < perms.size(); i++) {
+            final UriPermission perm = perms.valueAt(i);
             if (perm.persistedModeFlags != 0) {
                 persisted.add(perm);
             }
@@ -9521,12 +9626,13 @@ public class ActivityManagerService extends IActivityManager.Stub
         final ArrayList<android.content.UriPermission> result = Lists.newArrayList();
         synchronized (this) {
             if (incoming) {
-                final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.get(
+                final UriPermissionIndex perms = mGrantedUriPermissions.get(
                         callingUid);
                 if (perms == null) {
                     Slog.w(TAG, "No permission grants found for " + packageName);
                 } else {
-                    for (UriPermission perm : perms.values()) {
+                    for (int i = 0; i < perms.size(); i++) {
+                        final UriPermission perm = perms.valueAt(i);
                         if (packageName.equals(perm.targetPkg) && perm.persistedModeFlags != 0) {
                             result.add(perm.buildPersistedPublicApiObject());
                         }
@@ -9535,9 +9641,9 @@ public class ActivityManagerService extends IActivityManager.Stub
             } else {
                 final int size = mGrantedUriPermissions.size();
                 for (int i = 0; i < size; i++) {
-                    final ArrayMap<GrantUri, UriPermission> perms =
-                            mGrantedUriPermissions.valueAt(i);
-                    for (UriPermission perm : perms.values()) {
+                    final UriPermissionIndex perms = mGrantedUriPermissions.valueAt(i);
+                    for (int j = 0; j < perms.size(); j++) {
+                        final UriPermission perm = perms.valueAt(j);
                         if (packageName.equals(perm.sourcePkg) && perm.persistedModeFlags != 0) {
                             result.add(perm.buildPersistedPublicApiObject());
                         }
@@ -9558,8 +9664,9 @@ public class ActivityManagerService extends IActivityManager.Stub
         synchronized (this) {
             final int size = mGrantedUriPermissions.size();
             for (int i = 0; i < size; i++) {
-                final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.valueAt(i);
-                for (UriPermission perm : perms.values()) {
+                final UriPermissionIndex perms = mGrantedUriPermissions.valueAt(i);
+                for (int j = 0; j < perms.size(); j++) {
+                    final UriPermission perm = perms.valueAt(j);
                     if (packageName.equals(perm.targetPkg) && perm.targetUserId == userId
                             && perm.persistedModeFlags != 0) {
                         result.add(perm.buildPersistedPublicApiObject());
@@ -10974,6 +11081,8 @@ public class ActivityManagerService extends IActivityManager.Stub
         if (providers != null) {
             int N = providers.size();
             app.pubProviders.ensureCapacity(N + app.pubProviders.size());
+            // Add all of the app's providers to the map at once, copying it only once.
+            final ProviderMap.Batch batch = mProviderMap.beginBatchLocked();
             for (int i=0; i<N; i++) {
                 // TODO: keep logic in sync with installEncryptionUnawareProviders
                 ProviderInfo cpi =
@@ -10992,10 +11101,10 @@ public class ActivityManagerService extends IActivityManager.Stub
                 }
 
                 ComponentName comp = new ComponentName(cpi.packageName, cpi.name);
-                ContentProviderRecord cpr = mProviderMap.getProviderByClass(comp, userId);
+                ContentProviderRecord cpr = batch.getProviderByClass(comp, userId);
                 if (cpr == null) {
                     cpr = new ContentProviderRecord(this, cpi, app.info, comp, singleton);
-                    mProviderMap.putProviderByClass(comp, cpr);
+                    batch.putProviderByClass(comp, cpr);
                 }
                 if (DEBUG_MU) Slog.v(TAG_MU,
                         "generateApplicationProvidersLocked, cpi.uid = " + cpr.uid);
@@ -11011,6 +11120,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                 notifyPackageUse(cpi.applicationInfo.packageName,
                                  PackageManager.NOTIFY_PACKAGE_USE_CONTENT_PROVIDER);
             }
+            batch.commit();
         }
         return providers;
     }
@@ -11027,14 +11137,22 @@ public class ActivityManagerService extends IActivityManager.Stub
         }
 
         ProviderInfo cpi = null;
-        try {
-            cpi = AppGlobals.getPackageManager().resolveContentProvider(authority,
-                    STOCK_PM_FLAGS | PackageManager.GET_URI_PERMISSION_PATTERNS
-                            | PackageManager.MATCH_DISABLED_COMPONENTS
-                            | PackageManager.MATCH_DIRECT_BOOT_AWARE
-                            | PackageManager.MATCH_DIRECT_BOOT_UNAWARE,
-                    userId);
-        } catch (RemoteException ignored) {
+        // A provider already published for this user answers without a round trip to the
+        // package manager; the provider map can be read without our lock.
+        final ContentProviderRecord published = userId >= 0
+                ? mProviderMap.getProviderByName(authority, userId) : null;
+        if (published != null && UserHandle.getUserId(published.uid) == userId) {
+            cpi = published.info;
+        } else {
+            try {
+                cpi = AppGlobals.getPackageManager().resolveContentProvider(authority,
+                        STOCK_PM_FLAGS | PackageManager.GET_URI_PERMISSION_PATTERNS
+                                | PackageManager.MATCH_DISABLED_COMPONENTS
+                                | PackageManager.MATCH_DIRECT_BOOT_AWARE
+                                | PackageManager.MATCH_DIRECT_BOOT_UNAWARE,
+                        userId);
+            } catch (RemoteException ignored) {
+            }
         }
         if (cpi == null) {
             return "Failed to find provider " + authority + " for user " + userId
@@ -11137,7 +11255,7 @@ public class ActivityManagerService extends IActivityManager.Stub
      * Returns if the ContentProvider has granted a uri to callingUid
      */
     boolean checkAuthorityGrants(int callingUid, ProviderInfo cpi, int userId, boolean checkUser) {
-        final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.get(callingUid);
+        final UriPermissionIndex perms = mGrantedUriPermissions.get(callingUid);
         if (perms != null) {
             for (int i=perms.size()-1; i>=0; i--) {
                 GrantUri grantUri = perms.keyAt(i);
@@ -11730,7 +11848,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                     throw new NullPointerException("connection is null");
                 }
                 if (decProviderCountLocked(conn, null, null, stable)) {
-                    updateOomAdjLocked();
+                    updateOomAdjIncrementalLocked(conn.provider.proc);
                 }
             }
         } finally {
@@ -11764,7 +11882,7 @@ public class ActivityManagerService extends IActivityManager.Stub
             ContentProviderRecord localCpr = mProviderMap.getProviderByClass(comp, userId);
             if (localCpr.hasExternalProcessHandles()) {
                 if (localCpr.removeExternalProcessHandleLocked(token)) {
-                    updateOomAdjLocked();
+                    updateOomAdjIncrementalLocked(localCpr.proc);
                 } else {
                     Slog.e(TAG, "Attmpt to remove content provider " + localCpr
                             + " with no external reference for token: "
@@ -11797,21 +11915,34 @@ public class ActivityManagerService extends IActivityManager.Stub
             final long origId = Binder.clearCallingIdentity();
 
             final int N = providers.size();
+            // Add all of the providers to the map at once, copying it only once, before
+            // any of their clients are woken up.
+            final ProviderMap.Batch batch = mProviderMap.beginBatchLocked();
             for (int i = 0; i < N; i++) {
                 ContentProviderHolder src = providers.get(i);
                 if (src == null || src.info == null || src.provider == null) {
                     continue;
                 }
                 ContentProviderRecord dst = r.pubProviders.get(src.info.name);
-                if (DEBUG_MU) Slog.v(TAG_MU, "ContentProviderRecord uid = " + dst.uid);
                 if (dst != null) {
                     ComponentName comp = new ComponentName(dst.info.packageName, dst.info.name);
-                    mProviderMap.putProviderByClass(comp, dst);
+                    batch.putProviderByClass(comp, dst);
                     String names[] = dst.info.authority.split(";");
                     for (int j = 0; j < names.length; j++) {
-                        mProviderMap.putProviderByName(names[j], dst);
+                        batch.putProviderByName(names[j], dst);
                     }
+                }
+            }
+            batch.commit();
 
+            for (int i = 0; i < N; i++) {
+                ContentProviderHolder src = providers.get(i);
+                if (src == null || src.info == null || src.provider == null) {
+                    continue;
+                }
+                ContentProviderRecord dst = r.pubProviders.get(src.info.name);
+                if (DEBUG_MU) Slog.v(TAG_MU, "ContentProviderRecord uid = " + dst.uid);
+                if (dst != null) {
                     int launchingCount = mLaunchingProviders.size();
                     int j;
                     boolean wasInLaunchingProviders = false;
@@ -15587,9 +15718,10 @@ public class ActivityManagerService extends IActivityManager.Stub
             }
             pw.print("  Process LRU list (sorted by oom_adj, "); pw.print(mLruProcesses.size());
                     pw.print(" total, non-act at ");
-                    pw.print(mLruProcesses.size()-mLruProcessActivityStart);
+                    pw.print(mLruProcesses.getSegmentSize(LRU_SEGMENT_ACTIVITY));
                     pw.print(", non-svc at ");
-                    pw.print(mLruProcesses.size()-mLruProcessServiceStart);
+                    pw.print(mLruProcesses.size()
+                            - mLruProcesses.getSegmentStart(LRU_SEGMENT_SERVICE));
                     pw.println("):");
             dumpProcessOomList(pw, this, mLruProcesses, "    ", "Proc", "PERS", false, dumpPackage);
             needSep = true;
@@ -15898,6 +16030,8 @@ public class ActivityManagerService extends IActivityManager.Stub
                 pw.println("  mGoingToSleep=" + mStackSupervisor.mGoingToSleep);
                 pw.println("  mLaunchingActivity=" + mStackSupervisor.mLaunchingActivity);
                 pw.println("  mAdjSeq=" + mAdjSeq + " mLruSeq=" + mLruSeq);
+                pw.println("  mNumIncrementalOomAdj=" + mNumIncrementalOomAdj
+                        + " mNumIncrementalOomAdjFallbacks=" + mNumIncrementalOomAdjFallbacks);
                 pw.println("  mNumNonCachedProcs=" + mNumNonCachedProcs
                         + " (" + mLruProcesses.size() + " total)"
                         + " mNumCachedHiddenProcs=" + mNumCachedHiddenProcs
@@ -15991,9 +16125,10 @@ public class ActivityManagerService extends IActivityManager.Stub
             if (needSep) pw.println();
             pw.print("  Process OOM control ("); pw.print(mLruProcesses.size());
                     pw.print(" total, non-act at ");
-                    pw.print(mLruProcesses.size()-mLruProcessActivityStart);
+                    pw.print(mLruProcesses.getSegmentSize(LRU_SEGMENT_ACTIVITY));
                     pw.print(", non-svc at ");
-                    pw.print(mLruProcesses.size()-mLruProcessServiceStart);
+                    pw.print(mLruProcesses.size()
+                            - mLruProcesses.getSegmentStart(LRU_SEGMENT_SERVICE));
                     pw.println("):");
             dumpProcessOomList(pw, this, mLruProcesses, "    ", "Proc", "PERS", true, null);
             needSep = true;
@@ -16235,6 +16370,13 @@ public class ActivityManagerService extends IActivityManager.Stub
                 needSep = true;
                 printedAnything = true;
             }
+            if (dumpPackage == null) {
+                if (needSep) {
+                    pw.println();
+                }
+                mRegisteredReceiverCache.dumpLocked(pw, "  ");
+                needSep = true;
+            }
         }
 
         for (BroadcastQueue q : mBroadcastQueues) {
@@ -16408,7 +16550,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                 if (dumpUid >= -1 && UserHandle.getAppId(uid) != dumpUid) {
                     continue;
                 }
-                final ArrayMap<GrantUri, UriPermission> perms = mGrantedUriPermissions.valueAt(i);
+                final UriPermissionIndex perms = mGrantedUriPermissions.valueAt(i);
                 if (!printed) {
                     if (needSep) pw.println();
                     needSep = true;
@@ -16417,7 +16559,8 @@ public class ActivityManagerService extends IActivityManager.Stub
                     printedAnything = true;
                 }
                 pw.print("  * UID "); pw.print(uid); pw.println(" holds:");
-                for (UriPermission perm : perms.values()) {
+                for (int j = 0; j < perms.size(); j++) {
+                    final UriPermission perm = perms.valueAt(j);
                     pw.print("    "); pw.println(perm);
                     if (dumpAll) {
                         perm.dump(pw, "      ");
@@ -18717,6 +18860,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                 Slog.w(TAG, "==> For Dynamic broadcast");
             }
             mReceiverResolver.addFilter(bf);
+            mRegisteredReceiverCache.invalidateLocked();
 
             // Enqueue broadcasts for all existing stickies that match
             // this filter.
@@ -18789,6 +18933,7 @@ public class ActivityManagerService extends IActivityManager.Stub
         for (int i = rl.size() - 1; i >= 0; i--) {
             mReceiverResolver.removeFilter(rl.get(i));
         }
+        mRegisteredReceiverCache.invalidateLocked();
     }
 
     private final void sendPackageBroadcastLocked(int cmd, String[] packages, int userId) {
@@ -19440,8 +19585,8 @@ public class ActivityManagerService extends IActivityManager.Stub
                         continue;
                     }
                     List<BroadcastFilter> registeredReceiversForUser =
-                            mReceiverResolver.queryIntent(intent,
-                                    resolvedType, false /*defaultOnly*/, users[i]);
+                            mRegisteredReceiverCache.queryIntentLocked(intent,
+                                    resolvedType, users[i]);
                     if (registeredReceivers == null) {
                         registeredReceivers = registeredReceiversForUser;
                     } else if (registeredReceiversForUser != null) {
@@ -19449,8 +19594,8 @@ public class ActivityManagerService extends IActivityManager.Stub
                     }
                 }
             } else {
-                registeredReceivers = mReceiverResolver.queryIntent(intent,
-                        resolvedType, false /*defaultOnly*/, userId);
+                registeredReceivers = mRegisteredReceiverCache.queryIntentLocked(intent,
+                        resolvedType, userId);
             }
         }
 
@@ -21901,7 +22046,7 @@ public class ActivityManagerService extends IActivityManager.Stub
         int changes = 0;
 
         if (app.curAdj != app.setAdj) {
-            ProcessList.setOomAdj(app.pid, app.info.uid, app.curAdj);
+            mInjector.setOomAdj(app.pid, app.info.uid, app.curAdj);
             if (DEBUG_SWITCH || DEBUG_OOM_ADJ) Slog.v(TAG_OOM_ADJ,
                     "Set " + app.pid + " " + app.processName + " adj " + app.curAdj + ": "
                     + app.adjType);
@@ -22392,6 +22537,109 @@ public class ActivityManagerService extends IActivityManager.Stub
         return success;
     }
 
+    /**
+     * Update OomAdj for a process whose state changed, and for every process it can
+     * raise through its service bindings and content provider connections.  Falls back
+     * to a full {@link #updateOomAdjLocked()} if incremental updates are disabled or if
+     * any of those processes moves to or from the cached state, or between cached
+     * states, since that changes the cached adj assigned to the rest of the LRU list.
+     * Callers that change the LRU order must use the full update instead.
+     * @param app The process whose state changed, or null to update everything.
+     */
+    final void updateOomAdjIncrementalLocked(ProcessRecord app) {
+        if (app == null || app.thread == null || !mConstants.INCREMENTAL_OOM_ADJ) {
+            updateOomAdjLocked();
+            return;
+        }
+
+        final ActivityRecord TOP_ACT = resumedAppLocked();
+        final ProcessRecord TOP_APP = TOP_ACT != null ? TOP_ACT.app : null;
+        final long now = SystemClock.uptimeMillis();
+        final ArrayList<ProcessRecord> queue = mTmpOomAdjQueue;
+        final ArraySet<ProcessRecord> visited = mTmpOomAdjVisited;
+        boolean needFullUpdate = false;
+
+        mAdjSeq++;
+        mNumIncrementalOomAdj++;
+        queue.add(app);
+        visited.add(app);
+        // computeOomAdjLocked() recomputes a process's clients before the process itself,
+        // so each dependency sees its clients' new state whatever the queue order.
+        for (int i = 0; i < queue.size(); i++) {
+            final ProcessRecord proc = queue.get(i);
+            final boolean wasCached = proc.cached;
+            final int oldProcState = proc.curProcState;
+            final int cachedAdj = proc.curRawAdj >= ProcessList.CACHED_APP_MIN_ADJ
+                    ? proc.curRawAdj : ProcessList.UNKNOWN_ADJ;
+            updateOomAdjLocked(proc, cachedAdj, TOP_APP, false, now);
+            // The full pass splits cached processes between the cached and empty slots
+            // by process state, so a cached process changing state moves the others too.
+            if (wasCached != proc.cached || proc.curRawAdj == ProcessList.UNKNOWN_ADJ
+                    || (proc.cached && proc.curProcState != oldProcState)) {
+                needFullUpdate = true;
+                break;
+            }
+            for (int j = proc.connections.size() - 1; j >= 0; j--) {
+                final ProcessRecord service = proc.connections.valueAt(j).binding.service.app;
+                if (service != null && service.thread != null && visited.add(service)) {
+                    queue.add(service);
+                }
+            }
+            for (int j = proc.conProviders.size() - 1; j >= 0; j--) {
+                final ProcessRecord provider = proc.conProviders.get(j).provider.proc;
+                if (provider != null && provider.thread != null && visited.add(provider)) {
+                    queue.add(provider);
+                }
+            }
+        }
+        if (DEBUG_OOM_ADJ) Slog.d(TAG_OOM_ADJ, "Incremental oom adj from " + app + ": "
+                + queue.size() + " processes" + (needFullUpdate ? ", falling back" : ""));
+        queue.clear();
+        visited.clear();
+
+        if (needFullUpdate) {
+            mNumIncrementalOomAdjFallbacks++;
+            updateOomAdjLocked();
+        } else if (mConstants.VERIFY_INCREMENTAL_OOM_ADJ) {
+            verifyIncrementalOomAdjLocked(app);
+        }
+    }
+
+    /**
+     * Debug check for {@link #updateOomAdjIncrementalLocked}: runs a full update and
+     * reports every process whose importance differs from what the incremental pass
+     * left behind.  Cached processes are only compared by process state, since the
+     * full pass reassigns cached adjs by LRU position.
+     */
+    private void verifyIncrementalOomAdjLocked(ProcessRecord changed) {
+        final int N = mLruProcesses.size();
+        final ProcessRecord[] procs = new ProcessRecord[N];
+        final int[] adjs = new int[N];
+        final int[] procStates = new int[N];
+        for (int i = 0; i < N; i++) {
+            final ProcessRecord proc = mLruProcesses.get(i);
+            procs[i] = proc;
+            adjs[i] = proc.curRawAdj;
+            procStates[i] = proc.curProcState;
+        }
+        updateOomAdjLocked();
+        for (int i = 0; i < N; i++) {
+            final ProcessRecord proc = procs[i];
+            if (proc.killedByAm || proc.thread == null) {
+                continue;
+            }
+            final boolean adjMatches = proc.curRawAdj == adjs[i]
+                    || (proc.curRawAdj >= ProcessList.CACHED_APP_MIN_ADJ
+                            && adjs[i] >= ProcessList.CACHED_APP_MIN_ADJ);
+            if (!adjMatches || proc.curProcState != procStates[i]) {
+                Slog.w(TAG_OOM_ADJ, "Incremental oom adj for " + changed + " left " + proc
+                        + " at adj=" + adjs[i] + " procState=" + procStates[i]
+                        + ", full update gives adj=" + proc.curRawAdj
+                        + " procState=" + proc.curProcState);
+            }
+        }
+    }
+
     final void updateOomAdjLocked() {
         final ActivityRecord TOP_ACT = resumedAppLocked();
         final ProcessRecord TOP_APP = TOP_ACT != null ? TOP_ACT.app : null;
@@ -24457,6 +24705,10 @@ public class ActivityManagerService extends IActivityManager.Stub
             return service.new UiHandler();
         }
 
+        public void setOomAdj(int pid, int uid, int amt) {
+            ProcessList.setOomAdj(pid, uid, amt);
+        }
+
         public boolean isNetworkRestrictedForUid(int uid) {
             if (ensureHasNetworkManagementInternal()) {
                 return mNmi.isNetworkRestrictedForUid(uid);
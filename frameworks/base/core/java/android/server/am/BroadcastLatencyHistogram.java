@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import java.io.PrintWriter;
+
+/**
+ * Histogram of broadcast dispatch latencies with power-of-two millisecond
+ * buckets: bucket 0 counts latencies under 1ms, bucket i counts latencies in
+ * [2^(i-1), 2^i) ms, and the last bucket everything above.
+ */
+final class BroadcastLatencyHistogram {
+    static final int BUCKET_COUNT = 16;
+
+    final String mName;
+    final long[] mBuckets = new long[BUCKET_COUNT];
+    long mCount;
+    long mTotalMs;
+    long mMaxMs;
+
+    BroadcastLatencyHistogram(String name) {
+        mName = name;
+    }
+
+    void add(long latencyMs) {
+        if (latencyMs < 0) {
+            // Wall clock went backwards.
+            latencyMs = 0;
+        }
+        int bucket = latencyMs == 0 ? 0 : 64 - Long.numberOfLeadingZeros(latencyMs);
+        if (bucket >= BUCKET_COUNT) {
+            bucket = BUCKET_COUNT - 1;
+        }
+        mBuckets[bucket]++;
+        mCount++;
+        mTotalMs += latencyMs;
+        if (latencyMs > mMaxMs) {
+            mMaxMs = latencyMs;
+        }
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.print(mName); pw.print(": count="); pw.print(mCount);
+        if (mCount == 0) {
+            pw.println();
+            return;
+        }
+        pw.print(" avg="); pw.print(mTotalMs / mCount); pw.print("ms");
+        pw.print(" max="); pw.print(mMaxMs); pw.println("ms");
+        pw.print(prefix); pw.print("  ");
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (mBuckets[i] == 0) {
+                continue;
+            }
+            pw.print(i == 0 ? "<1" : (i == BUCKET_COUNT - 1 ? ">=" : "<")
+                    + (1L << (i == BUCKET_COUNT - 1 ? i - 1 : i)));
+            pw.print("ms="); pw.print(mBuckets[i]); pw.print(' ');
+        }
+        pw.println();
+    }
+}
@@ -48,6 +48,7 @@ import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.os.UserHandle;
+import android.util.ArrayMap;
 import android.util.EventLog;
 import android.util.Slog;
 import android.util.TimeUtils;
@@ -119,6 +120,21 @@ public final class BroadcastQueue {
     final Intent[] mBroadcastSummaryHistory = new Intent[MAX_BROADCAST_SUMMARY_HISTORY];
     int mSummaryHistoryNext = 0;
 
+    /**
+     * Enqueue-to-dispatch latencies of parallel and ordered broadcasts, for debugging.
+     */
+    final BroadcastLatencyHistogram mParallelLatency;
+    final BroadcastLatencyHistogram mOrderedLatency;
+
+    /**
+     * Registered receivers of the parallel broadcast being dispatched, grouped by
+     * hosting process so each process gets a single one-way call.  Only used
+     * while inside processNextBroadcast; see flushParallelReceiversLocked().
+     */
+    final ArrayMap<ProcessRecord, ArrayList<IIntentReceiver>> mPendingParallelReceivers =
+            new ArrayMap<>();
+    boolean mBatchingParallelReceivers;
+
     /**
      * Various milestone timestamps of entries in the mBroadcastSummaryHistory ring
      * buffer, also tracked via the mSummaryHistoryNext index.  These are all in wall
@@ -199,6 +215,8 @@ public final class BroadcastQueue {
         mService = service;
         mHandler = new BroadcastHandler(handler.getLooper());
         mQueueName = name;
+        mParallelLatency = new BroadcastLatencyHistogram("Parallel dispatch latency");
+        mOrderedLatency = new BroadcastLatencyHistogram("Ordered dispatch latency");
         mTimeoutPeriod = timeoutPeriod;
         mDelayBehindServices = allowDelayBehindServices;
     }
@@ -514,6 +532,45 @@ public final class BroadcastQueue {
         }
     }
 
+    /**
+     * Sends the registered receivers batched by deliverToRegisteredReceiverLocked() for
+     * the parallel broadcast {@code r}, one call per process.
+     */
+    private void flushParallelReceiversLocked(BroadcastRecord r) {
+        mBatchingParallelReceivers = false;
+        for (int i = 0, N = mPendingParallelReceivers.size(); i < N; i++) {
+            final ProcessRecord app = mPendingParallelReceivers.keyAt(i);
+            final ArrayList<IIntentReceiver> receivers = mPendingParallelReceivers.valueAt(i);
+            try {
+                if (app.thread == null) {
+                    // Application has died since the receivers were batched.
+                    throw new RemoteException("app.thread must not be null");
+                }
+                if (receivers.size() == 1) {
+                    performReceiveLocked(app, receivers.get(0), new Intent(r.intent),
+                            r.resultCode, r.resultData, r.resultExtras, r.ordered,
+                            r.initialSticky, r.userId);
+                    continue;
+                }
+                try {
+                    app.thread.scheduleRegisteredReceivers(
+                            receivers.toArray(new IIntentReceiver[receivers.size()]),
+                            new Intent(r.intent), r.resultCode, r.resultData, r.resultExtras,
+                            r.initialSticky, r.userId, app.repProcState);
+                } catch (RemoteException ex) {
+                    // Failed to call into the process. It's either dying or wedged. Kill it gently.
+                    Slog.w(TAG, "Can't deliver broadcast to " + app.processName
+                            + " (pid " + app.pid + "). Crashing it.");
+                    app.scheduleCrash("can't deliver broadcast");
+                    throw ex;
+                }
+            } catch (RemoteException e) {
+                Slog.w(TAG, "Failure sending broadcast " + r.intent, e);
+            }
+        }
+        mPendingParallelReceivers.clear();
+    }
+
     private void deliverToRegisteredReceiverLocked(BroadcastRecord r,
             BroadcastFilter filter, boolean ordered, int index) {
         boolean skip = false;
@@ -699,6 +756,18 @@ public final class BroadcastQueue {
                 if (ordered) {
                     skipReceiverLocked(r);
                 }
+            } else if (!ordered && mBatchingParallelReceivers
+                    && filter.receiverList.app != null
+                    && filter.receiverList.app.thread != null) {
+                // Sent together with the process's other receivers when the
+                // parallel broadcast has been fully walked.
+                ArrayList<IIntentReceiver> receivers =
+                        mPendingParallelReceivers.get(filter.receiverList.app);
+                if (receivers == null) {
+                    receivers = new ArrayList<>();
+                    mPendingParallelReceivers.put(filter.receiverList.app, receivers);
+                }
+                receivers.add(filter.receiverList.receiver);
             } else {
                 performReceiveLocked(filter.receiverList.app, filter.receiverList.receiver,
                         new Intent(r.intent), r.resultCode, r.resultData,
@@ -837,6 +906,7 @@ public final class BroadcastQueue {
                 r = mParallelBroadcasts.remove(0);
                 r.dispatchTime = SystemClock.uptimeMillis();
                 r.dispatchClockTime = System.currentTimeMillis();
+                mParallelLatency.add(r.dispatchClockTime - r.enqueueClockTime);
 
                 if (Trace.isTagEnabled(Trace.TRACE_TAG_ACTIVITY_MANAGER)) {
                     Trace.asyncTraceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER,
@@ -850,6 +920,7 @@ public final class BroadcastQueue {
                 final int N = r.receivers.size();
                 if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST, "Processing parallel broadcast ["
                         + mQueueName + "] " + r);
+                mBatchingParallelReceivers = !r.ordered;
                 for (int i=0; i<N; i++) {
                     Object target = r.receivers.get(i);
                     if (DEBUG_BROADCAST)  Slog.v(TAG_BROADCAST,
@@ -857,6 +928,7 @@ public final class BroadcastQueue {
                             + target + ": " + r);
                     deliverToRegisteredReceiverLocked(r, (BroadcastFilter)target, false, i);
                 }
+                flushParallelReceiversLocked(r);
                 addBroadcastToHistoryLocked(r);
                 if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST, "Done with parallel broadcast ["
                         + mQueueName + "] " + r);
@@ -997,6 +1069,7 @@ public final class BroadcastQueue {
             if (recIdx == 0) {
                 r.dispatchTime = r.receiverTime;
                 r.dispatchClockTime = System.currentTimeMillis();
+                mOrderedLatency.add(r.dispatchClockTime - r.enqueueClockTime);
                 if (Trace.isTagEnabled(Trace.TRACE_TAG_ACTIVITY_MANAGER)) {
                     Trace.asyncTraceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER,
                         createBroadcastTraceTitle(r, BroadcastRecord.DELIVERY_PENDING),
@@ -1747,6 +1820,14 @@ public final class BroadcastQueue {
                     pw.print("    extras: "); pw.println(bundle.toString());
                 }
             } while (ringIndex != lastIndex);
+
+            if (needSep) {
+                pw.println();
+            }
+            needSep = true;
+            pw.println("  Dispatch latency [" + mQueueName + "]:");
+            mParallelLatency.dump(pw, "    ");
+            mOrderedLatency.dump(pw, "    ");
         }
 
         return needSep;
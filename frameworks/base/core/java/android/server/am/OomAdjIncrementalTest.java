@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import static org.mockito.Mockito.mock;
+
+import android.app.IApplicationThread;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ProviderInfo;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.AppOpsService;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Builds random graphs of processes bound to each other's services and connected to each
+ * other's providers, then releases and acquires providers and changes what keeps single
+ * processes running. After each change, updateOomAdjIncrementalLocked() runs as the callers
+ * do, and a full updateOomAdjLocked() must not move any process to another adj, process
+ * state or in or out of the cached state.
+ */
+@SmallTest
+public class OomAdjIncrementalTest extends AndroidTestCase {
+    // Pids no process has, so nothing is done to a real process.
+    private static final int FIRST_PID = 0x7fff0000;
+    private static final int PROCESS_COUNT = 40;
+    private static final int GRAPH_COUNT = 10;
+    private static final int CHANGE_COUNT = 300;
+
+    private static final int[] BIND_FLAGS = {
+        0,
+        Context.BIND_IMPORTANT,
+        Context.BIND_ABOVE_CLIENT,
+        Context.BIND_NOT_FOREGROUND,
+        Context.BIND_NOT_VISIBLE,
+        Context.BIND_IMPORTANT_BACKGROUND,
+        Context.BIND_WAIVE_PRIORITY,
+    };
+
+    private HandlerThread mThread;
+    private ActivityManagerService mAms;
+    private IApplicationThread mAppThread;
+    private Random mRandom;
+    /** The processes of the current graph; each only depends on later ones. */
+    private final ArrayList<ProcessRecord> mProcs = new ArrayList<>();
+    private int mNextComponent;
+
+    private static class TestInjector extends ActivityManagerService.Injector {
+        private final Handler mHandler;
+
+        TestInjector(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public AppOpsService getAppOpsService(File file, Handler handler) {
+            return mock(AppOpsService.class);
+        }
+
+        @Override
+        public Handler getUiHandler(ActivityManagerService service) {
+            return mHandler;
+        }
+
+        @Override
+        public void setOomAdj(int pid, int uid, int amt) {
+            // The processes are not real, so lmkd has nothing to adjust.
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("OomAdjIncrementalTest");
+        mThread.start();
+        final Handler handler = new Handler(mThread.getLooper());
+        final File dir = new File(getContext().getCacheDir(), "oom_adj");
+
+        mAms = new ActivityManagerService(new TestInjector(handler));
+        setField("mConstants", new ActivityManagerConstants(mAms, handler));
+        setField("mHandler", mAms.new MainHandler(mThread.getLooper()));
+        // A supervisor without stacks, so there is no top app.
+        setField("mStackSupervisor", mock(ActivityStackSupervisor.class));
+        setField("mProcessStats", new ProcessStatsService(mAms, new File(dir, "procstats")));
+        setField("mBatteryStatsService",
+                new BatteryStatsService(new File(dir, "batterystats"), handler));
+        mAms.mBroadcastQueues[0] = new BroadcastQueue(mAms, handler, "foreground", 10000, false);
+        mAms.mBroadcastQueues[1] = new BroadcastQueue(mAms, handler, "background", 60000, false);
+
+        // Kill nothing however many processes are cached, and keep released providers'
+        // processes up for the whole test, so a full pass sees the same inputs.
+        mAms.mConstants.setOverrideMaxCachedProcesses(1000);
+        mAms.mConstants.CONTENT_PROVIDER_RETAIN_TIME = 60 * 60 * 1000;
+
+        mAppThread = mock(IApplicationThread.class);
+        mRandom = new Random(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        final Field field = ActivityManagerService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mAms, value);
+    }
+
+    public void testIncrementalUpdateMatchesFullUpdate() throws Exception {
+        synchronized (mAms) {
+            for (int graph = 0; graph < GRAPH_COUNT; graph++) {
+                buildGraph();
+                mAms.updateOomAdjLocked();
+                for (int change = 0; change < CHANGE_COUNT; change++) {
+                    applyRandomChange();
+                    checkAgainstFullUpdate("graph " + graph + " change " + change);
+                }
+            }
+            // Most updates must stay incremental, or this compares full passes with each other.
+            assertTrue(mAms.mNumIncrementalOomAdjFallbacks + " of " + mAms.mNumIncrementalOomAdj
+                    + " incremental updates fell back",
+                    mAms.mNumIncrementalOomAdjFallbacks * 2 < mAms.mNumIncrementalOomAdj);
+        }
+    }
+
+    private void buildGraph() {
+        mProcs.clear();
+        mAms.mLruProcesses.clear();
+        for (int i = 0; i < PROCESS_COUNT; i++) {
+            final ApplicationInfo info = new ApplicationInfo();
+            info.packageName = "com.android.test.oomadj" + i;
+            info.uid = Process.FIRST_APPLICATION_UID + i;
+            final ProcessRecord app = new ProcessRecord(null, info, info.packageName, info.uid);
+            app.setPid(FIRST_PID + i);
+            app.thread = mAppThread;
+            // Recently used, so empty processes are not trimmed.
+            app.lastActivityTime = SystemClock.uptimeMillis();
+            setRandomState(app);
+            mProcs.add(app);
+        }
+        for (int i = 0; i < PROCESS_COUNT - 1; i++) {
+            for (int j = mRandom.nextInt(3); j > 0; j--) {
+                bindService(mProcs.get(i), randomLaterProcess(i),
+                        BIND_FLAGS[mRandom.nextInt(BIND_FLAGS.length)]);
+            }
+            for (int j = mRandom.nextInt(2); j > 0; j--) {
+                connectProvider(mProcs.get(i), randomLaterProcess(i));
+            }
+        }
+        mAms.mLruProcesses.addAll(mProcs);
+        Collections.shuffle(mAms.mLruProcesses, mRandom);
+    }
+
+    private ProcessRecord randomLaterProcess(int index) {
+        return mProcs.get(index + 1 + mRandom.nextInt(PROCESS_COUNT - index - 1));
+    }
+
+    /** Sets what keeps the process running, apart from its clients. */
+    private void setRandomState(ProcessRecord app) {
+        app.maxAdj = ProcessList.UNKNOWN_ADJ;
+        app.foregroundServices = false;
+        app.hasOverlayUi = false;
+        app.forcingToImportant = null;
+        app.hasClientActivities = false;
+        switch (mRandom.nextInt(8)) {
+            case 0:
+                app.maxAdj = ProcessList.PERSISTENT_PROC_ADJ;
+                break;
+            case 1:
+                app.foregroundServices = true;
+                break;
+            case 2:
+                app.hasOverlayUi = true;
+                break;
+            case 3:
+                app.forcingToImportant = new Binder();
+                break;
+            case 4:
+                app.hasClientActivities = true;
+                break;
+            default:
+                // Cached, unless a client keeps it up.
+                break;
+        }
+    }
+
+    /** Records a binding as ActiveServices.bindServiceLocked() does. */
+    private void bindService(ProcessRecord client, ProcessRecord service, int flags) {
+        final ServiceInfo info = new ServiceInfo();
+        info.applicationInfo = service.info;
+        info.packageName = service.info.packageName;
+        info.processName = service.processName;
+        info.name = "Service" + mNextComponent++;
+        final ComponentName name = new ComponentName(info.packageName, info.name);
+        final Intent intent = new Intent().setComponent(name);
+        final ServiceRecord s = new ServiceRecord(mAms, null, name,
+                new Intent.FilterComparison(intent), info, false, null);
+        s.app = service;
+        service.services.add(s);
+
+        final AppBindRecord b = s.retrieveAppBindingLocked(intent, client);
+        final ConnectionRecord c = new ConnectionRecord(b, null, null,
+                Context.BIND_AUTO_CREATE | flags, 0, null);
+        final ArrayList<ConnectionRecord> clist = new ArrayList<>();
+        clist.add(c);
+        s.connections.put(new Binder(), clist);
+        b.connections.add(c);
+        client.connections.add(c);
+    }
+
+    /** Records a stable provider reference as incProviderCountLocked() does. */
+    private void connectProvider(ProcessRecord client, ProcessRecord provider) {
+        if (provider.pubProviders.isEmpty()) {
+            final ProviderInfo info = new ProviderInfo();
+            info.applicationInfo = provider.info;
+            info.packageName = provider.info.packageName;
+            info.processName = provider.processName;
+            info.name = "Provider" + mNextComponent++;
+            info.authority = info.packageName;
+            final ContentProviderRecord cpr = new ContentProviderRecord(mAms, info,
+                    provider.info, new ComponentName(info.packageName, info.name), false);
+            cpr.proc = provider;
+            provider.pubProviders.put(info.name, cpr);
+        }
+        final ContentProviderRecord cpr = provider.pubProviders.valueAt(0);
+        final ContentProviderConnection conn = new ContentProviderConnection(cpr, client);
+        conn.stableCount = 1;
+        cpr.connections.add(conn);
+        client.conProviders.add(conn);
+    }
+
+    private void applyRandomChange() {
+        final int index = mRandom.nextInt(PROCESS_COUNT);
+        final ProcessRecord app = mProcs.get(index);
+        switch (mRandom.nextInt(3)) {
+            case 0:
+                if (!app.conProviders.isEmpty()) {
+                    // As removeContentProvider().
+                    final ContentProviderConnection conn =
+                            app.conProviders.get(mRandom.nextInt(app.conProviders.size()));
+                    if (mAms.decProviderCountLocked(conn, null, null, true)) {
+                        mAms.updateOomAdjIncrementalLocked(conn.provider.proc);
+                    }
+                    return;
+                }
+                break;
+            case 1:
+                if (index < PROCESS_COUNT - 1) {
+                    final ProcessRecord provider = randomLaterProcess(index);
+                    connectProvider(app, provider);
+                    mAms.updateOomAdjIncrementalLocked(provider);
+                    return;
+                }
+                break;
+        }
+        setRandomState(app);
+        mAms.updateOomAdjIncrementalLocked(app);
+    }
+
+    private void checkAgainstFullUpdate(String message) {
+        final int count = mAms.mLruProcesses.size();
+        final ProcessRecord[] procs = new ProcessRecord[count];
+        final int[] adjs = new int[count];
+        final int[] procStates = new int[count];
+        final boolean[] cached = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            final ProcessRecord app = mAms.mLruProcesses.get(i);
+            procs[i] = app;
+            adjs[i] = app.curRawAdj;
+            procStates[i] = app.curProcState;
+            cached[i] = app.cached;
+        }
+        mAms.updateOomAdjLocked();
+        for (int i = 0; i < count; i++) {
+            final ProcessRecord app = procs[i];
+            final String where = message + ", " + app.processName;
+            assertEquals(where + " cached", cached[i], app.cached);
+            assertEquals(where + " proc state", procStates[i], app.curProcState);
+            // The full pass hands out cached adjs by LRU position.
+            if (!app.cached) {
+                assertEquals(where + " adj", adjs[i], app.curRawAdj);
+            }
+        }
+    }
+}
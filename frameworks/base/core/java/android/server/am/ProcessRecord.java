@@ -138,6 +138,8 @@ final class ProcessRecord {
     Object forcingToImportant;  // Token that is forcing this process to be important
     int adjSeq;                 // Sequence id for identifying oom_adj assignment cycles
     int lruSeq;                 // Sequence id for identifying LRU update cycles
+    // Link of this process in ActivityManagerService.mLruProcesses
+    final SegmentedLruList.Node<ProcessRecord> lruNode = new SegmentedLruList.Node<>(this);
     CompatibilityInfo compat;   // last used compatibility mode
     IBinder.DeathRecipient deathRecipient; // Who is watching for the death.
     ActiveInstrumentation instr;// Set to currently active instrumentation running in process
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable mapping from keys to content providers, split into providers that
+ * serve every user (singletons) and providers of each user.  Changes return a
+ * new index that copies only the map being changed and shares the rest, so an
+ * index can be published through a volatile field and read without any lock.
+ * An {@link Editor} makes many changes while copying each map at most once.
+ */
+public final class ProviderIndex<K, V> {
+    private static final ProviderIndex<?, ?> EMPTY =
+            new ProviderIndex<>(new HashMap<>(), new SparseArray<>());
+
+    private final HashMap<K, V> mSingletons;
+    private final SparseArray<HashMap<K, V>> mPerUser;
+
+    private ProviderIndex(HashMap<K, V> singletons, SparseArray<HashMap<K, V>> perUser) {
+        mSingletons = singletons;
+        mPerUser = perUser;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> ProviderIndex<K, V> empty() {
+        return (ProviderIndex<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns the singleton provider for {@code key}, or failing that the one of
+     * {@code userId}.
+     */
+    public V get(K key, int userId) {
+        final V value = mSingletons.get(key);
+        if (value != null) {
+            return value;
+        }
+        if (userId < 0) throw new IllegalArgumentException("Bad user " + userId);
+        final HashMap<K, V> map = mPerUser.get(userId);
+        return map != null ? map.get(key) : null;
+    }
+
+    /** Returns an index with {@code value} mapped for every user or for {@code userId}. */
+    public ProviderIndex<K, V> put(K key, V value, boolean singleton, int userId) {
+        final Editor<K, V> editor = edit();
+        editor.put(key, value, singleton, userId);
+        return editor.build();
+    }
+
+    /**
+     * Returns an index without the singleton mapping of {@code key}, or if there
+     * is none, without the mapping of {@code userId}.
+     */
+    public ProviderIndex<K, V> remove(K key, int userId) {
+        final Editor<K, V> editor = edit();
+        editor.remove(key, userId);
+        return editor.build();
+    }
+
+    /** Returns an editor whose changes start from this index. */
+    public Editor<K, V> edit() {
+        return new Editor<>(this);
+    }
+
+    /**
+     * Makes changes to a private copy of an index, copying each map the first
+     * time it is changed, and builds a new index from them.  Not thread-safe; the
+     * indexes it builds are.
+     */
+    public static final class Editor<K, V> {
+        private HashMap<K, V> mSingletons;
+        private SparseArray<HashMap<K, V>> mPerUser;
+        private ProviderIndex<K, V> mBuilt;
+        // Which maps are private copies already; mUsersCopied is null until
+        // mPerUser is.
+        private boolean mSingletonsCopied;
+        private SparseBooleanArray mUsersCopied;
+
+        private Editor(ProviderIndex<K, V> index) {
+            mSingletons = index.mSingletons;
+            mPerUser = index.mPerUser;
+            mBuilt = index;
+        }
+
+        /** As {@link ProviderIndex#get}, with the changes made so far. */
+        public V get(K key, int userId) {
+            final V value = mSingletons.get(key);
+            if (value != null) {
+                return value;
+            }
+            if (userId < 0) throw new IllegalArgumentException("Bad user " + userId);
+            final HashMap<K, V> map = mPerUser.get(userId);
+            return map != null ? map.get(key) : null;
+        }
+
+        /** Maps {@code value} for every user or for {@code userId}. */
+        public void put(K key, V value, boolean singleton, int userId) {
+            if (singleton) {
+                singletonsForWrite().put(key, value);
+                return;
+            }
+            if (userId < 0) throw new IllegalArgumentException("Bad user " + userId);
+            userForWrite(userId).put(key, value);
+        }
+
+        /**
+         * Removes the singleton mapping of {@code key}, or if there is none, the
+         * mapping of {@code userId}.
+         */
+        public void remove(K key, int userId) {
+            if (mSingletons.containsKey(key)) {
+                singletonsForWrite().remove(key);
+                return;
+            }
+            if (userId < 0) throw new IllegalArgumentException("Bad user " + userId);
+            final HashMap<K, V> old = mPerUser.get(userId);
+            if (old == null || !old.containsKey(key)) {
+                return;
+            }
+            if (old.size() == 1) {
+                perUserForWrite().remove(userId);
+                mUsersCopied.delete(userId);
+            } else {
+                userForWrite(userId).remove(key);
+            }
+        }
+
+        /**
+         * Returns an index with the changes made so far.  Later changes copy the
+         * maps again, so they don't show in the returned index.
+         */
+        public ProviderIndex<K, V> build() {
+            if (mBuilt == null) {
+                if (mUsersCopied != null) {
+                    // SparseArray compacts lazily on the next size() or keyAt(); do it
+                    // now, before readers on other threads can get to it.
+                    mPerUser.size();
+                }
+                mBuilt = new ProviderIndex<>(mSingletons, mPerUser);
+                mSingletonsCopied = false;
+                mUsersCopied = null;
+            }
+            return mBuilt;
+        }
+
+        private HashMap<K, V> singletonsForWrite() {
+            if (!mSingletonsCopied) {
+                mSingletons = new HashMap<>(mSingletons);
+                mSingletonsCopied = true;
+            }
+            mBuilt = null;
+            return mSingletons;
+        }
+
+        private SparseArray<HashMap<K, V>> perUserForWrite() {
+            if (mUsersCopied == null) {
+                mPerUser = mPerUser.clone();
+                mUsersCopied = new SparseBooleanArray();
+            }
+            mBuilt = null;
+            return mPerUser;
+        }
+
+        private HashMap<K, V> userForWrite(int userId) {
+            final SparseArray<HashMap<K, V>> perUser = perUserForWrite();
+            HashMap<K, V> map = perUser.get(userId);
+            if (!mUsersCopied.get(userId)) {
+                map = map != null ? new HashMap<>(map) : new HashMap<>();
+                perUser.put(userId, map);
+                mUsersCopied.put(userId, true);
+            }
+            return map;
+        }
+    }
+
+    public Map<K, V> getSingletons() {
+        return Collections.unmodifiableMap(mSingletons);
+    }
+
+    /** Returns the providers of {@code userId}, or null if it has none. */
+    public Map<K, V> getUserProviders(int userId) {
+        final HashMap<K, V> map = mPerUser.get(userId);
+        return map != null ? Collections.unmodifiableMap(map) : null;
+    }
+
+    public int getUserCount() {
+        return mPerUser.size();
+    }
+
+    public int getUserIdAt(int index) {
+        return mPerUser.keyAt(index);
+    }
+
+    public Map<K, V> getUserProvidersAt(int index) {
+        return Collections.unmodifiableMap(mPerUser.valueAt(index));
+    }
+}
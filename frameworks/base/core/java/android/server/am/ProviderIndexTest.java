@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Makes random changes through single-change calls and through editors, and
+ * checks every index built against plain maps, including indexes built before
+ * later changes.
+ */
+public class ProviderIndexTest extends TestCase {
+    private static final int[] USERS = { 0, 10, 11 };
+
+    private Random mRandom;
+    private HashMap<String, Object> mSingletons;
+    private HashMap<Integer, HashMap<String, Object>> mPerUser;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(0);
+        mSingletons = new HashMap<>();
+        mPerUser = new HashMap<>();
+    }
+
+    public void testSingleChanges() throws Exception {
+        ProviderIndex<String, Object> index = ProviderIndex.empty();
+        for (int step = 0; step < 5000; step++) {
+            if (mRandom.nextInt(3) == 0) {
+                final String key = randomKey();
+                final int userId = randomUser();
+                index = index.remove(key, userId);
+                modelRemove(key, userId);
+            } else {
+                final String key = randomKey();
+                final boolean singleton = mRandom.nextInt(4) == 0;
+                final int userId = randomUser();
+                final Object value = new Object();
+                index = index.put(key, value, singleton, userId);
+                modelPut(key, value, singleton, userId);
+            }
+            check("step " + step, index);
+        }
+    }
+
+    public void testEditor() throws Exception {
+        ProviderIndex<String, Object> index = ProviderIndex.empty();
+        final ArrayList<ProviderIndex<String, Object>> built = new ArrayList<>();
+        final ArrayList<Map<String, Object>> builtSingletons = new ArrayList<>();
+        final ArrayList<HashMap<Integer, HashMap<String, Object>>> builtPerUser =
+                new ArrayList<>();
+        for (int batch = 0; batch < 300; batch++) {
+            final ProviderIndex.Editor<String, Object> editor = index.edit();
+            for (int step = mRandom.nextInt(30); step >= 0; step--) {
+                final String key = randomKey();
+                final int userId = randomUser();
+                switch (mRandom.nextInt(4)) {
+                    case 0:
+                        editor.remove(key, userId);
+                        modelRemove(key, userId);
+                        break;
+                    case 1:
+                        // Build in the middle of a batch; later changes must not show.
+                        built.add(editor.build());
+                        builtSingletons.add(new HashMap<>(mSingletons));
+                        builtPerUser.add(copyPerUser());
+                        break;
+                    default:
+                        final boolean singleton = mRandom.nextInt(4) == 0;
+                        final Object value = new Object();
+                        editor.put(key, value, singleton, userId);
+                        modelPut(key, value, singleton, userId);
+                        break;
+                }
+                assertEquals(expectedGet(key, userId), editor.get(key, userId));
+            }
+            index = editor.build();
+            check("batch " + batch, index);
+        }
+        // Earlier indexes are unchanged by everything done after they were built.
+        for (int i = 0; i < built.size(); i++) {
+            mSingletons = new HashMap<>(builtSingletons.get(i));
+            mPerUser = builtPerUser.get(i);
+            check("built " + i, built.get(i));
+        }
+    }
+
+    public void testEditorRemovesAndAddsBackUser() throws Exception {
+        final ProviderIndex.Editor<String, Object> editor =
+                ProviderIndex.<String, Object>empty().edit();
+        final Object first = new Object();
+        final Object second = new Object();
+        editor.put("a", first, false, 10);
+        editor.remove("a", 10);
+        assertEquals(0, editor.build().getUserCount());
+        editor.put("a", first, false, 10);
+        editor.remove("a", 10);
+        editor.put("b", second, false, 10);
+        final ProviderIndex<String, Object> index = editor.build();
+        assertEquals(1, index.getUserCount());
+        assertNull(index.get("a", 10));
+        assertSame(second, index.get("b", 10));
+    }
+
+    public void testEditorWithoutChangesReturnsSameIndex() throws Exception {
+        final ProviderIndex<String, Object> index =
+                ProviderIndex.<String, Object>empty().put("a", new Object(), false, 0);
+        final ProviderIndex.Editor<String, Object> editor = index.edit();
+        editor.remove("b", 0);
+        editor.remove("a", 10);
+        assertSame(index, editor.build());
+    }
+
+    private String randomKey() {
+        return "provider" + mRandom.nextInt(20);
+    }
+
+    private int randomUser() {
+        return USERS[mRandom.nextInt(USERS.length)];
+    }
+
+    private void modelPut(String key, Object value, boolean singleton, int userId) {
+        if (singleton) {
+            mSingletons.put(key, value);
+            return;
+        }
+        HashMap<String, Object> map = mPerUser.get(userId);
+        if (map == null) {
+            map = new HashMap<>();
+            mPerUser.put(userId, map);
+        }
+        map.put(key, value);
+    }
+
+    private void modelRemove(String key, int userId) {
+        if (mSingletons.remove(key) != null) {
+            return;
+        }
+        final HashMap<String, Object> map = mPerUser.get(userId);
+        if (map != null) {
+            map.remove(key);
+            if (map.isEmpty()) {
+                mPerUser.remove(userId);
+            }
+        }
+    }
+
+    private Object expectedGet(String key, int userId) {
+        final Object value = mSingletons.get(key);
+        if (value != null) {
+            return value;
+        }
+        final HashMap<String, Object> map = mPerUser.get(userId);
+        return map != null ? map.get(key) : null;
+    }
+
+    private HashMap<Integer, HashMap<String, Object>> copyPerUser() {
+        final HashMap<Integer, HashMap<String, Object>> copy = new HashMap<>();
+        for (Map.Entry<Integer, HashMap<String, Object>> entry : mPerUser.entrySet()) {
+            copy.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private void check(String message, ProviderIndex<String, Object> index) {
+        assertEquals(message, mSingletons, index.getSingletons());
+        assertEquals(message, mPerUser.size(), index.getUserCount());
+        for (int i = 0; i < index.getUserCount(); i++) {
+            final int userId = index.getUserIdAt(i);
+            assertEquals(message, mPerUser.get(userId), index.getUserProvidersAt(i));
+            assertEquals(message, mPerUser.get(userId), index.getUserProviders(userId));
+        }
+        for (int k = 0; k < 20; k++) {
+            for (int userId : USERS) {
+                assertEquals(message, expectedGet("provider" + k, userId),
+                        index.get("provider" + k, userId));
+            }
+        }
+    }
+}
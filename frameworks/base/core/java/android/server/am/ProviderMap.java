@@ -21,14 +21,12 @@ import android.os.Binder;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.util.Slog;
-import android.util.SparseArray;
 import com.android.internal.os.TransferPipe;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -45,15 +43,12 @@ public final class ProviderMap {
 
     private final ActivityManagerService mAm;
 
-    private final HashMap<String, ContentProviderRecord> mSingletonByName
-            = new HashMap<String, ContentProviderRecord>();
-    private final HashMap<ComponentName, ContentProviderRecord> mSingletonByClass
-            = new HashMap<ComponentName, ContentProviderRecord>();
-
-    private final SparseArray<HashMap<String, ContentProviderRecord>> mProvidersByNamePerUser
-            = new SparseArray<HashMap<String, ContentProviderRecord>>();
-    private final SparseArray<HashMap<ComponentName, ContentProviderRecord>> mProvidersByClassPerUser
-            = new SparseArray<HashMap<ComponentName, ContentProviderRecord>>();
+    // Published copy-on-write so that lookups don't need the activity manager lock;
+    // only ever replaced with the lock held.
+    private volatile ProviderIndex<String, ContentProviderRecord> mProvidersByName =
+            ProviderIndex.empty();
+    private volatile ProviderIndex<ComponentName, ContentProviderRecord> mProvidersByClass =
+            ProviderIndex.empty();
 
     ProviderMap(ActivityManagerService am) {
         mAm = am;
@@ -63,36 +58,30 @@ public final class ProviderMap {
         return getProviderByName(name, -1);
     }
 
+    /**
+     * Returns the provider published for the authority, preferring one published for
+     * all users.  Safe to call without holding the activity manager lock.
+     */
     ContentProviderRecord getProviderByName(String name, int userId) {
         if (DBG) {
             Slog.i(TAG, "getProviderByName: " + name + " , callingUid = " + Binder.getCallingUid());
         }
-        // Try to find it in the global list
-        ContentProviderRecord record = mSingletonByName.get(name);
-        if (record != null) {
-            return record;
-        }
-
-        // Check the current user's list
-        return getProvidersByName(userId).get(name);
+        return mProvidersByName.get(name, userId);
     }
 
     ContentProviderRecord getProviderByClass(ComponentName name) {
         return getProviderByClass(name, -1);
     }
 
+    /**
+     * Returns the provider published for the class, preferring one published for
+     * all users.  Safe to call without holding the activity manager lock.
+     */
     ContentProviderRecord getProviderByClass(ComponentName name, int userId) {
         if (DBG) {
             Slog.i(TAG, "getProviderByClass: " + name + ", callingUid = " + Binder.getCallingUid());
         }
-        // Try to find it in the global list
-        ContentProviderRecord record = mSingletonByClass.get(name);
-        if (record != null) {
-            return record;
-        }
-
-        // Check the current user's list
-        return getProvidersByClass(userId).get(name);
+        return mProvidersByClass.get(name, userId);
     }
 
     void putProviderByName(String name, ContentProviderRecord record) {
@@ -100,12 +89,8 @@ public final class ProviderMap {
             Slog.i(TAG, "putProviderByName: " + name + " , callingUid = " + Binder.getCallingUid()
                 + ", record uid = " + record.appInfo.uid);
         }
-        if (record.singleton) {
-            mSingletonByName.put(name, record);
-        } else {
-            final int userId = UserHandle.getUserId(record.appInfo.uid);
-            getProvidersByName(userId).put(name, record);
-        }
+        mProvidersByName = mProvidersByName.put(name, record, record.singleton,
+                UserHandle.getUserId(record.appInfo.uid));
     }
 
     void putProviderByClass(ComponentName name, ContentProviderRecord record) {
@@ -113,81 +98,70 @@ public final class ProviderMap {
             Slog.i(TAG, "putProviderByClass: " + name + " , callingUid = " + Binder.getCallingUid()
                 + ", record uid = " + record.appInfo.uid);
         }
-        if (record.singleton) {
-            mSingletonByClass.put(name, record);
-        } else {
-            final int userId = UserHandle.getUserId(record.appInfo.uid);
-            getProvidersByClass(userId).put(name, record);
-        }
+        mProvidersByClass = mProvidersByClass.put(name, record, record.singleton,
+                UserHandle.getUserId(record.appInfo.uid));
     }
 
-    void removeProviderByName(String name, int userId) {
-        if (mSingletonByName.containsKey(name)) {
-            if (DBG)
-                Slog.i(TAG, "Removing from globalByName name=" + name);
-            mSingletonByName.remove(name);
-        } else {
-            if (userId < 0) throw new IllegalArgumentException("Bad user " + userId);
-            if (DBG)
-                Slog.i(TAG,
-                        "Removing from providersByName name=" + name + " user=" + userId);
-            HashMap<String, ContentProviderRecord> map = getProvidersByName(userId);
-            // map returned by getProvidersByName wouldn't be null
-            map.remove(name);
-            if (map.size() == 0) {
-                mProvidersByNamePerUser.remove(userId);
+    /**
+     * Changes to the map that are published together, so that the indexes are copied once
+     * for the batch rather than once per provider.  Lookups through the map don't see the
+     * changes until {@link #commit}.  Must be used and committed with the activity manager
+     * lock held, with no other changes to the map in between.
+     */
+    final class Batch {
+        private final ProviderIndex.Editor<String, ContentProviderRecord> mByName =
+                mProvidersByName.edit();
+        private final ProviderIndex.Editor<ComponentName, ContentProviderRecord> mByClass =
+                mProvidersByClass.edit();
+
+        ContentProviderRecord getProviderByClass(ComponentName name, int userId) {
+            return mByClass.get(name, userId);
+        }
+
+        void putProviderByName(String name, ContentProviderRecord record) {
+            if (DBG) {
+                Slog.i(TAG, "putProviderByName: " + name + " , callingUid = "
+                        + Binder.getCallingUid() + ", record uid = " + record.appInfo.uid);
             }
+            mByName.put(name, record, record.singleton,
+                    UserHandle.getUserId(record.appInfo.uid));
         }
-    }
 
-    void removeProviderByClass(ComponentName name, int userId) {
-        if (mSingletonByClass.containsKey(name)) {
-            if (DBG)
-                Slog.i(TAG, "Removing from globalByClass name=" + name);
-            mSingletonByClass.remove(name);
-        } else {
-            if (userId < 0) throw new IllegalArgumentException("Bad user " + userId);
-            if (DBG)
-                Slog.i(TAG,
-                        "Removing from providersByClass name=" + name + " user=" + userId);
-            HashMap<ComponentName, ContentProviderRecord> map = getProvidersByClass(userId);
-            // map returned by getProvidersByClass wouldn't be null
-            map.remove(name);
-            if (map.size() == 0) {
-                mProvidersByClassPerUser.remove(userId);
+        void putProviderByClass(ComponentName name, ContentProviderRecord record) {
+            if (DBG) {
+                Slog.i(TAG, "putProviderByClass: " + name + " , callingUid = "
+                        + Binder.getCallingUid() + ", record uid = " + record.appInfo.uid);
             }
+            mByClass.put(name, record, record.singleton,
+                    UserHandle.getUserId(record.appInfo.uid));
         }
-    }
 
-    private HashMap<String, ContentProviderRecord> getProvidersByName(int userId) {
-        if (userId < 0) throw new IllegalArgumentException("Bad user " + userId);
-        final HashMap<String, ContentProviderRecord> map = mProvidersByNamePerUser.get(userId);
-        if (map == null) {
-            HashMap<String, ContentProviderRecord> newMap = new HashMap<String, ContentProviderRecord>();
-            mProvidersByNamePerUser.put(userId, newMap);
-            return newMap;
-        } else {
-            return map;
+        /** Publishes the changes made so far. */
+        void commit() {
+            mProvidersByName = mByName.build();
+            mProvidersByClass = mByClass.build();
         }
     }
 
-    HashMap<ComponentName, ContentProviderRecord> getProvidersByClass(int userId) {
-        if (userId < 0) throw new IllegalArgumentException("Bad user " + userId);
-        final HashMap<ComponentName, ContentProviderRecord> map
-                = mProvidersByClassPerUser.get(userId);
-        if (map == null) {
-            HashMap<ComponentName, ContentProviderRecord> newMap
-                    = new HashMap<ComponentName, ContentProviderRecord>();
-            mProvidersByClassPerUser.put(userId, newMap);
-            return newMap;
-        } else {
-            return map;
-        }
+    Batch beginBatchLocked() {
+        return new Batch();
+    }
+
+    void removeProviderByName(String name, int userId) {
+        if (DBG)
+            Slog.i(TAG, "Removing from providersByName name=" + name + " user=" + userId);
+        mProvidersByName = mProvidersByName.remove(name, userId);
+    }
+
+    void removeProviderByClass(ComponentName name, int userId) {
+        if (DBG)
+            Slog.i(TAG, "Removing from providersByClass name=" + name + " user=" + userId);
+        mProvidersByClass = mProvidersByClass.remove(name, userId);
     }
 
     private boolean collectPackageProvidersLocked(String packageName,
             Set<String> filterByClasses, boolean doit, boolean evenPersistent,
-            HashMap<ComponentName, ContentProviderRecord> providers,
+            Map<ComponentName, ContentProviderRecord> providers,
             ArrayList<ContentProviderRecord> result) {
         boolean didSomething = false;
         for (ContentProviderRecord provider : providers.values()) {
@@ -210,18 +184,19 @@ public final class ProviderMap {
     boolean collectPackageProvidersLocked(String packageName, Set<String> filterByClasses,
             boolean doit, boolean evenPersistent, int userId,
             ArrayList<ContentProviderRecord> result) {
+        final ProviderIndex<ComponentName, ContentProviderRecord> providers = mProvidersByClass;
         boolean didSomething = false;
         if (userId == UserHandle.USER_ALL || userId == UserHandle.USER_SYSTEM) {
             didSomething = collectPackageProvidersLocked(packageName, filterByClasses,
-                    doit, evenPersistent, mSingletonByClass, result);
+                    doit, evenPersistent, providers.getSingletons(), result);
         }
         if (!doit && didSomething) {
             return true;
         }
         if (userId == UserHandle.USER_ALL) {
-            for (int i = 0; i < mProvidersByClassPerUser.size(); i++) {
+            for (int i = 0; i < providers.getUserCount(); i++) {
                 if (collectPackageProvidersLocked(packageName, filterByClasses,
-                        doit, evenPersistent, mProvidersByClassPerUser.valueAt(i), result)) {
+                        doit, evenPersistent, providers.getUserProvidersAt(i), result)) {
                     if (!doit) {
                         return true;
                     }
@@ -229,8 +204,8 @@ public final class ProviderMap {
                 }
             }
         } else {
-            HashMap<ComponentName, ContentProviderRecord> items
-                    = getProvidersByClass(userId);
+            Map<ComponentName, ContentProviderRecord> items
+                    = providers.getUserProviders(userId);
             if (items != null) {
                 didSomething |= collectPackageProvidersLocked(packageName, filterByClasses,
                         doit, evenPersistent, items, result);
@@ -240,7 +215,7 @@ public final class ProviderMap {
     }
 
     private boolean dumpProvidersByClassLocked(PrintWriter pw, boolean dumpAll, String dumpPackage,
-            String header, boolean needSep, HashMap<ComponentName, ContentProviderRecord> map) {
+            String header, boolean needSep, Map<ComponentName, ContentProviderRecord> map) {
         Iterator<Map.Entry<ComponentName, ContentProviderRecord>> it = map.entrySet().iterator();
         boolean written = false;
         while (it.hasNext()) {
@@ -266,7 +241,7 @@ public final class ProviderMap {
     }
 
     private boolean dumpProvidersByNameLocked(PrintWriter pw, String dumpPackage,
-            String header, boolean needSep, HashMap<String, ContentProviderRecord> map) {
+            String header, boolean needSep, Map<String, ContentProviderRecord> map) {
         Iterator<Map.Entry<String, ContentProviderRecord>> it = map.entrySet().iterator();
         boolean written = false;
         while (it.hasNext()) {
@@ -293,30 +268,33 @@ public final class ProviderMap {
     }
 
     boolean dumpProvidersLocked(PrintWriter pw, boolean dumpAll, String dumpPackage) {
+        final ProviderIndex<ComponentName, ContentProviderRecord> byClass = mProvidersByClass;
+        final ProviderIndex<String, ContentProviderRecord> byName = mProvidersByName;
         boolean needSep = false;
 
-        if (mSingletonByClass.size() > 0) {
+        if (byClass.getSingletons().size() > 0) {
             needSep |= dumpProvidersByClassLocked(pw, dumpAll, dumpPackage,
                     "  Published single-user content providers (by class):", needSep,
-                    mSingletonByClass);
+                    byClass.getSingletons());
         }
 
-        for (int i = 0; i < mProvidersByClassPerUser.size(); i++) {
-            HashMap<ComponentName, ContentProviderRecord> map = mProvidersByClassPerUser.valueAt(i);
+        for (int i = 0; i < byClass.getUserCount(); i++) {
+            Map<ComponentName, ContentProviderRecord> map = byClass.getUserProvidersAt(i);
             needSep |= dumpProvidersByClassLocked(pw, dumpAll, dumpPackage,
-                    "  Published user " + mProvidersByClassPerUser.keyAt(i)
+                    "  Published user " + byClass.getUserIdAt(i)
                             + " content providers (by class):", needSep, map);
         }
 
         if (dumpAll) {
             needSep |= dumpProvidersByNameLocked(pw, dumpPackage,
-                    "  Single-user authority to provider mappings:", needSep, mSingletonByName);
+                    "  Single-user authority to provider mappings:", needSep,
+                    byName.getSingletons());
 
-            for (int i = 0; i < mProvidersByNamePerUser.size(); i++) {
+            for (int i = 0; i < byName.getUserCount(); i++) {
                 needSep |= dumpProvidersByNameLocked(pw, dumpPackage,
-                        "  User " + mProvidersByNamePerUser.keyAt(i)
+                        "  User " + byName.getUserIdAt(i)
                                 + " authority to provider mappings:", needSep,
-                        mProvidersByNamePerUser.valueAt(i));
+                        byName.getUserProvidersAt(i));
             }
         }
         return needSep;
@@ -328,9 +306,11 @@ public final class ProviderMap {
         ArrayList<ContentProviderRecord> providers = new ArrayList<ContentProviderRecord>();
 
         synchronized (mAm) {
-            allProviders.addAll(mSingletonByClass.values());
-            for (int i=0; i<mProvidersByClassPerUser.size(); i++) {
-                allProviders.addAll(mProvidersByClassPerUser.valueAt(i).values());
+            final ProviderIndex<ComponentName, ContentProviderRecord> byClass =
+                    mProvidersByClass;
+            allProviders.addAll(byClass.getSingletons().values());
+            for (int i=0; i<byClass.getUserCount(); i++) {
+                allProviders.addAll(byClass.getUserProvidersAt(i).values());
             }
 
             if ("all".equals(name)) {
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import android.content.Intent;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+
+import com.android.server.IntentResolver;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches the registered receivers a broadcast resolves to, keyed by user,
+ * action and resolved type.  Only intents that are matched on those fields
+ * alone are cached: no data, categories, package, selector or resolution
+ * logging.  The whole cache is dropped whenever a receiver is registered or
+ * unregistered.  All access is with the activity manager lock held.
+ */
+final class RegisteredReceiverCache {
+    // Bound on the number of cached (action, type) entries per user.
+    static final int MAX_ENTRIES_PER_USER = 256;
+
+    private final IntentResolver<BroadcastFilter, BroadcastFilter> mResolver;
+    private final SparseArray<ArrayMap<String, List<BroadcastFilter>>> mEntries =
+            new SparseArray<>();
+    private long mHits;
+    private long mMisses;
+    private long mInvalidations;
+
+    RegisteredReceiverCache(IntentResolver<BroadcastFilter, BroadcastFilter> resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Same as {@link IntentResolver#queryIntent} with {@code defaultOnly} false.
+     * Returns a list the caller may modify.
+     */
+    List<BroadcastFilter> queryIntentLocked(Intent intent, String resolvedType, int userId) {
+        final String action = intent.getAction();
+        if (!isCacheable(intent)) {
+            return mResolver.queryIntent(intent, resolvedType, false /*defaultOnly*/, userId);
+        }
+        ArrayMap<String, List<BroadcastFilter>> entries = mEntries.get(userId);
+        if (entries == null) {
+            entries = new ArrayMap<>();
+            mEntries.put(userId, entries);
+        }
+        final String key = resolvedType == null ? action : action + '\n' + resolvedType;
+        List<BroadcastFilter> result = entries.get(key);
+        if (result == null) {
+            mMisses++;
+            result = mResolver.queryIntent(intent, resolvedType, false /*defaultOnly*/, userId);
+            if (entries.size() >= MAX_ENTRIES_PER_USER) {
+                entries.clear();
+            }
+            entries.put(key, result);
+        } else {
+            mHits++;
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static boolean isCacheable(Intent intent) {
+        return intent.getAction() != null
+                && intent.getData() == null
+                && intent.getCategories() == null
+                && intent.getPackage() == null
+                && intent.getComponent() == null
+                && intent.getSelector() == null
+                && (intent.getFlags() & Intent.FLAG_DEBUG_LOG_RESOLUTION) == 0;
+    }
+
+    /** Called whenever a filter is added to or removed from the resolver. */
+    void invalidateLocked() {
+        if (mEntries.size() > 0) {
+            mEntries.clear();
+            mInvalidations++;
+        }
+    }
+
+    void dumpLocked(PrintWriter pw, String prefix) {
+        int size = 0;
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            size += mEntries.valueAt(i).size();
+        }
+        pw.print(prefix); pw.print("Registered receiver cache: entries="); pw.print(size);
+        pw.print(" hits="); pw.print(mHits);
+        pw.print(" misses="); pw.print(mMisses);
+        pw.print(" invalidations="); pw.println(mInvalidations);
+    }
+}
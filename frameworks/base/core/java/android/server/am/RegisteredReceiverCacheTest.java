@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.IIntentReceiver;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.UserHandle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.widget.LockPatternUtils;
+import com.android.server.AppOpsService;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Registers and unregisters thousands of receivers through
+ * ActivityManagerService.registerReceiver() and unregisterReceiver() while
+ * resolving random broadcasts, and checks that every lookup through the
+ * service's RegisteredReceiverCache returns what its receiver resolver returns
+ * when asked directly.
+ */
+@SmallTest
+public class RegisteredReceiverCacheTest extends AndroidTestCase {
+    private static final int RECEIVER_COUNT = 3000;
+    private static final int ACTION_COUNT = 40;
+    private static final String[] TYPES = { null, "text/plain", "image/png" };
+    private static final int[] USERS = { 0, 10, UserHandle.USER_ALL };
+
+    private HandlerThread mThread;
+    private ActivityManagerService mAms;
+    private Random mRandom;
+    private final ArrayList<Registration> mRegistered = new ArrayList<>();
+
+    private static class Registration {
+        final IIntentReceiver receiver = new IIntentReceiver.Stub() {
+            @Override
+            public void performReceive(Intent intent, int resultCode, String data,
+                    Bundle extras, boolean ordered, boolean sticky, int sendingUser) {
+            }
+        };
+        final int userId;
+
+        Registration(int userId) {
+            this.userId = userId;
+        }
+    }
+
+    private static class TestInjector extends ActivityManagerService.Injector {
+        private final Handler mHandler;
+
+        TestInjector(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public AppOpsService getAppOpsService(File file, Handler handler) {
+            return mock(AppOpsService.class);
+        }
+
+        @Override
+        public Handler getUiHandler(ActivityManagerService service) {
+            return mHandler;
+        }
+    }
+
+    private static class TestUserInjector extends UserController.Injector {
+        private final Handler mHandler;
+
+        TestUserInjector(ActivityManagerService service, Handler handler) {
+            super(service);
+            mHandler = handler;
+        }
+
+        @Override
+        protected Handler getHandler() {
+            return mHandler;
+        }
+
+        @Override
+        protected LockPatternUtils getLockPatternUtils() {
+            return mock(LockPatternUtils.class);
+        }
+
+        @Override
+        int checkComponentPermission(String permission, int pid, int uid, int owningUid,
+                boolean exported) {
+            // Lets the test register receivers for other users.
+            return PackageManager.PERMISSION_GRANTED;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("RegisteredReceiverCacheTest");
+        mThread.start();
+        final Handler handler = new Handler(mThread.getLooper());
+        mAms = new ActivityManagerService(new TestInjector(handler));
+        final Field field = ActivityManagerService.class.getDeclaredField("mUserController");
+        field.setAccessible(true);
+        field.set(mAms, new UserController(new TestUserInjector(mAms, handler)));
+        mRandom = new Random(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testCachedLookupsMatchResolver() throws Exception {
+        for (int i = 0; i < RECEIVER_COUNT; i++) {
+            register();
+        }
+        int matched = 0;
+        for (int step = 0; step < 20000; step++) {
+            switch (mRandom.nextInt(20)) {
+                case 0:
+                    register();
+                    break;
+                case 1:
+                    unregister(mRandom.nextInt(mRegistered.size()));
+                    break;
+                default:
+                    if (!checkQuery(step).isEmpty()) {
+                        matched++;
+                    }
+                    break;
+            }
+        }
+        // Most broadcasts reach someone, or this only compares empty lists.
+        assertTrue(matched + " broadcasts had receivers", matched > 10000);
+    }
+
+    public void testRegisterAndUnregisterInvalidate() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            register();
+        }
+        final Intent intent = new Intent("action.new");
+        assertTrue(query(intent, 0).isEmpty());
+
+        final Registration registration = new Registration(0);
+        mAms.registerReceiver(null, getContext().getPackageName(), registration.receiver,
+                new IntentFilter("action.new"), null, 0, 0);
+        mRegistered.add(registration);
+        assertEquals(1, query(intent, 0).size());
+        assertTrue(query(intent, 10).isEmpty());
+
+        // A second filter of the same receiver is only reported once.
+        mAms.registerReceiver(null, getContext().getPackageName(), registration.receiver,
+                new IntentFilter("action.new"), null, 0, 0);
+        assertEquals(1, query(intent, 0).size());
+
+        unregister(mRegistered.indexOf(registration));
+        assertTrue(query(intent, 0).isEmpty());
+    }
+
+    public void testCallerMayModifyResult() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            register();
+        }
+        for (int step = 0; step < 1000; step++) {
+            final List<BroadcastFilter> result = checkQuery(step);
+            if (!result.isEmpty()) {
+                result.remove(0);
+            }
+            result.add(null);
+        }
+    }
+
+    public void testManyActions() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            register();
+        }
+        // More distinct keys than the cache keeps, so it has to start over.
+        for (int step = 0; step < 4 * RegisteredReceiverCache.MAX_ENTRIES_PER_USER; step++) {
+            final Intent intent = new Intent("action" + step % 300);
+            synchronized (mAms) {
+                assertEquals(mAms.mReceiverResolver.queryIntent(intent, null, false, 0),
+                        mAms.mRegisteredReceiverCache.queryIntentLocked(intent, null, 0));
+            }
+        }
+    }
+
+    private void register() throws Exception {
+        final IntentFilter filter = new IntentFilter(randomAction());
+        if (mRandom.nextInt(4) == 0) {
+            filter.addAction(randomAction());
+        }
+        final String type = TYPES[mRandom.nextInt(TYPES.length)];
+        if (type != null) {
+            filter.addDataType(type);
+        }
+        if (mRandom.nextInt(5) == 0) {
+            filter.addDataScheme("package");
+        }
+        if (mRandom.nextInt(5) == 0) {
+            filter.addCategory(Intent.CATEGORY_DEFAULT);
+        }
+        filter.setPriority(mRandom.nextInt(3) - 1);
+        // Some receivers register more than one filter.
+        final Registration registration;
+        if (!mRegistered.isEmpty() && mRandom.nextInt(4) == 0) {
+            registration = mRegistered.get(mRandom.nextInt(mRegistered.size()));
+        } else {
+            registration = new Registration(USERS[mRandom.nextInt(USERS.length)]);
+            mRegistered.add(registration);
+        }
+        mAms.registerReceiver(null, getContext().getPackageName(), registration.receiver,
+                filter, null, registration.userId, 0);
+    }
+
+    private void unregister(int index) {
+        mAms.unregisterReceiver(mRegistered.remove(index).receiver);
+    }
+
+    private List<BroadcastFilter> query(Intent intent, int userId) {
+        synchronized (mAms) {
+            return mAms.mRegisteredReceiverCache.queryIntentLocked(intent, intent.getType(),
+                    userId);
+        }
+    }
+
+    private List<BroadcastFilter> checkQuery(int step) {
+        final Intent intent = new Intent(randomAction());
+        final String type = TYPES[mRandom.nextInt(TYPES.length)];
+        switch (mRandom.nextInt(6)) {
+            case 0:
+                intent.setDataAndType(Uri.parse("package:com.example"), type);
+                break;
+            case 1:
+                intent.addCategory(Intent.CATEGORY_DEFAULT);
+                intent.setType(type);
+                break;
+            case 2:
+                intent.setPackage(getContext().getPackageName());
+                break;
+            default:
+                intent.setType(type);
+                break;
+        }
+        final int userId = USERS[mRandom.nextInt(USERS.length)];
+        synchronized (mAms) {
+            final List<BroadcastFilter> expected = mAms.mReceiverResolver.queryIntent(
+                    intent, intent.getType(), false, userId);
+            final List<BroadcastFilter> actual = mAms.mRegisteredReceiverCache.queryIntentLocked(
+                    intent, intent.getType(), userId);
+            assertEquals("step " + step + ": " + intent + " for user " + userId,
+                    expected, actual);
+            return actual;
+        }
+    }
+
+    private String randomAction() {
+        return "action" + mRandom.nextInt(ACTION_COUNT);
+    }
+}
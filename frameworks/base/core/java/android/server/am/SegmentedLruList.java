@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list ordered from least to most recently used, split into a fixed number of
+ * contiguous segments: every element of segment 0 comes before every element of
+ * segment 1, and so on.  Elements are linked through {@link Node}s that the
+ * owner keeps alongside each element, so moving an element to the top of a
+ * segment, or next to another element, takes constant time.
+ *
+ * Each node also carries an order label increasing along the list, so the
+ * relative position of two nodes can be compared without walking the list.
+ * Labels are spread out and only reassigned when two neighbours run out of
+ * room between them.
+ *
+ * Indexed access through the {@link java.util.List} interface is served from a
+ * snapshot array of the nodes.  A modification only invalidates the snapshot from
+ * the position it touched onwards, and the rest is rebuilt on the first read
+ * past that point, so walking the list from the most recent end while removing
+ * or moving the element just read does not rebuild it on every read.  The list
+ * can only be modified through the node methods.
+ *
+ * Not thread safe.
+ */
+public final class SegmentedLruList<E> extends AbstractList<E> implements RandomAccess {
+    // Distance between the labels of neighbouring nodes after a relabel.
+    private static final long ORDER_GAP = 1L << 32;
+
+    /**
+     * Link of a single element into a {@link SegmentedLruList}.  A node can be in
+     * at most one list at a time.
+     */
+    public static final class Node<E> {
+        final E mItem;
+        SegmentedLruList<E> mList;
+        Node<E> mPrev;
+        Node<E> mNext;
+        int mSegment;
+        long mOrder;
+        // Position in mSnapshot, valid if below mSnapshotValid and mSnapshot holds
+        // this node there.
+        int mIndex;
+
+        public Node(E item) {
+            mItem = item;
+        }
+
+        public E getItem() {
+            return mItem;
+        }
+
+        /** Returns the segment holding this node, or -1 if it is not in a list. */
+        public int getSegment() {
+            return mList != null ? mSegment : -1;
+        }
+
+        /** Returns the next less recently used node, in any segment. */
+        public Node<E> getPrevious() {
+            return mPrev;
+        }
+
+        /** Returns the next more recently used node, in any segment. */
+        public Node<E> getNext() {
+            return mNext;
+        }
+    }
+
+    private final int[] mSegmentSizes;
+    private final Node<E>[] mSegmentBottoms;
+    private final Node<E>[] mSegmentTops;
+    private Node<E> mHead;
+    private Node<E> mTail;
+    private int mSize;
+
+    // The first mSnapshotValid nodes of the list, in order.  Entries up to
+    // mSnapshotEnd may be stale but never hold a removed node.
+    private Node<E>[] mSnapshot;
+    private int mSnapshotValid;
+    private int mSnapshotEnd;
+
+    @SuppressWarnings("unchecked")
+    public SegmentedLruList(int segmentCount) {
+        mSegmentSizes = new int[segmentCount];
+        mSegmentBottoms = new Node[segmentCount];
+        mSegmentTops = new Node[segmentCount];
+        mSnapshot = new Node[16];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index=" + index + " size=" + mSize);
+        }
+        if (index >= mSnapshotValid) {
+            extendSnapshot();
+        }
+        return mSnapshot[index].mItem;
+    }
+
+    public int getSegmentSize(int segment) {
+        return mSegmentSizes[segment];
+    }
+
+    /** Returns the index of the first element of the segment. */
+    public int getSegmentStart(int segment) {
+        int start = 0;
+        for (int i = 0; i < segment; i++) {
+            start += mSegmentSizes[i];
+        }
+        return start;
+    }
+
+    /** Returns the least recently used node of the segment, or null if it is empty. */
+    public Node<E> getBottom(int segment) {
+        return mSegmentBottoms[segment];
+    }
+
+    /** Returns the most recently used node of the segment, or null if it is empty. */
+    public Node<E> getTop(int segment) {
+        return mSegmentTops[segment];
+    }
+
+    public boolean contains(Node<E> node) {
+        return node.mList == this;
+    }
+
+    /** Returns whether {@code a} comes before {@code b}; both must be in this list. */
+    public boolean isBefore(Node<E> a, Node<E> b) {
+        return a.mOrder < b.mOrder;
+    }
+
+    /**
+     * Returns the index of the node, or -1 if it is not in this list.  Linear time
+     * unless the node is in the valid part of the snapshot.
+     */
+    public int indexOf(Node<E> node) {
+        if (node.mList != this) {
+            return -1;
+        }
+        if (inSnapshot(node)) {
+            return node.mIndex;
+        }
+        int index = 0;
+        for (Node<E> cur = mHead; cur != node; cur = cur.mNext) {
+            index++;
+        }
+        return index;
+    }
+
+    /** Adds the node as the most recently used element of the segment. */
+    public void addTop(Node<E> node, int segment) {
+        Node<E> prev = null;
+        for (int i = segment; i >= 0 && prev == null; i--) {
+            prev = mSegmentTops[i];
+        }
+        link(node, segment, prev, prev != null ? prev.mNext : mHead);
+    }
+
+    /** Adds the node right before {@code anchor}, in the segment of {@code anchor}. */
+    public void addBefore(Node<E> node, Node<E> anchor) {
+        checkOwned(anchor);
+        link(node, anchor.mSegment, anchor.mPrev, anchor);
+    }
+
+    public void remove(Node<E> node) {
+        checkOwned(node);
+        changedFrom(node);
+        if (node.mIndex < mSnapshotEnd && mSnapshot[node.mIndex] == node) {
+            mSnapshot[node.mIndex] = null;
+        }
+        final int segment = node.mSegment;
+        final Node<E> prev = node.mPrev;
+        final Node<E> next = node.mNext;
+        if (mSegmentTops[segment] == node) {
+            mSegmentTops[segment] = prev != null && prev.mSegment == segment ? prev : null;
+        }
+        if (mSegmentBottoms[segment] == node) {
+            mSegmentBottoms[segment] = next != null && next.mSegment == segment ? next : null;
+        }
+        if (prev != null) {
+            prev.mNext = next;
+        } else {
+            mHead = next;
+        }
+        if (next != null) {
+            next.mPrev = prev;
+        } else {
+            mTail = prev;
+        }
+        node.mList = null;
+        node.mPrev = node.mNext = null;
+        mSegmentSizes[segment]--;
+        mSize--;
+    }
+
+    /**
+     * Exchanges a node with the node right after it.  Both must be in the same
+     * segment.
+     */
+    public void swapWithNext(Node<E> node) {
+        checkOwned(node);
+        final Node<E> next = node.mNext;
+        if (next == null || next.mSegment != node.mSegment) {
+            throw new IllegalArgumentException("No next node in the same segment");
+        }
+        changedFrom(node);
+        final int segment = node.mSegment;
+        final Node<E> before = node.mPrev;
+        final Node<E> after = next.mNext;
+        if (before != null) {
+            before.mNext = next;
+        } else {
+            mHead = next;
+        }
+        if (after != null) {
+            after.mPrev = node;
+        } else {
+            mTail = node;
+        }
+        next.mPrev = before;
+        next.mNext = node;
+        node.mPrev = next;
+        node.mNext = after;
+        final long order = node.mOrder;
+        node.mOrder = next.mOrder;
+        next.mOrder = order;
+        if (mSegmentBottoms[segment] == node) {
+            mSegmentBottoms[segment] = next;
+        }
+        if (mSegmentTops[segment] == next) {
+            mSegmentTops[segment] = node;
+        }
+    }
+
+    private void link(Node<E> node, int segment, Node<E> prev, Node<E> next) {
+        if (node.mList != null) {
+            throw new IllegalStateException("Node already in a list");
+        }
+        if (next != null) {
+            changedFrom(next);
+        } else {
+            modCount++;
+        }
+        node.mList = this;
+        node.mSegment = segment;
+        node.mPrev = prev;
+        node.mNext = next;
+        if (prev != null) {
+            prev.mNext = node;
+        } else {
+            mHead = node;
+        }
+        if (next != null) {
+            next.mPrev = node;
+        } else {
+            mTail = node;
+        }
+        if (mSegmentBottoms[segment] == null || mSegmentBottoms[segment] == next) {
+            mSegmentBottoms[segment] = node;
+        }
+        if (mSegmentTops[segment] == null || mSegmentTops[segment] == prev) {
+            mSegmentTops[segment] = node;
+        }
+        mSegmentSizes[segment]++;
+        mSize++;
+        if (!assignOrder(node)) {
+            relabel();
+        }
+    }
+
+    private boolean assignOrder(Node<E> node) {
+        final Node<E> prev = node.mPrev;
+        final Node<E> next = node.mNext;
+        if (prev == null && next == null) {
+            node.mOrder = 0;
+            return true;
+        }
+        if (prev == null) {
+            if (next.mOrder < Long.MIN_VALUE + ORDER_GAP) {
+                return false;
+            }
+            node.mOrder = next.mOrder - ORDER_GAP;
+            return true;
+        }
+        if (next == null) {
+            if (prev.mOrder > Long.MAX_VALUE - ORDER_GAP) {
+                return false;
+            }
+            node.mOrder = prev.mOrder + ORDER_GAP;
+            return true;
+        }
+        final long gap = next.mOrder - prev.mOrder;
+        if (gap < 2) {
+            return false;
+        }
+        node.mOrder = prev.mOrder + gap / 2;
+        return true;
+    }
+
+    private void relabel() {
+        long order = -(mSize / 2) * ORDER_GAP;
+        for (Node<E> node = mHead; node != null; node = node.mNext) {
+            node.mOrder = order;
+            order += ORDER_GAP;
+        }
+    }
+
+    private void checkOwned(Node<E> node) {
+        if (node.mList != this) {
+            throw new IllegalArgumentException("Node not in this list");
+        }
+    }
+
+    private boolean inSnapshot(Node<E> node) {
+        return node.mIndex < mSnapshotValid && mSnapshot[node.mIndex] == node;
+    }
+
+    /** Called before the position of {@code node}, and of every node after it, changes. */
+    private void changedFrom(Node<E> node) {
+        if (inSnapshot(node)) {
+            mSnapshotValid = node.mIndex;
+        }
+        modCount++;
+    }
+
+    /** Fills the snapshot from the end of its valid part to the end of the list. */
+    private void extendSnapshot() {
+        if (mSnapshot.length < mSize) {
+            mSnapshot = Arrays.copyOf(mSnapshot, Math.max(mSize, mSnapshot.length * 2));
+        }
+        int i = mSnapshotValid;
+        for (Node<E> node = i > 0 ? mSnapshot[i - 1].mNext : mHead; node != null;
+                node = node.mNext) {
+            node.mIndex = i;
+            mSnapshot[i++] = node;
+        }
+        if (i < mSnapshotEnd) {
+            Arrays.fill(mSnapshot, i, mSnapshotEnd, null);
+        }
+        mSnapshotValid = mSnapshotEnd = i;
+    }
+}
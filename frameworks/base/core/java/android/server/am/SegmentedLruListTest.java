@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks {@link SegmentedLruList} against an ArrayList with segment start markers, first
+ * for each list operation, then for the LRU updates of ActivityManagerService: the
+ * ArrayList version of updateLruProcessLocked() and removeLruProcessLocked(), from before
+ * mLruProcesses became a SegmentedLruList, runs side by side with the current one on
+ * random processes and dependencies, and the two lists must never differ.
+ */
+@SmallTest
+public class SegmentedLruListTest extends TestCase {
+    // Segments of ActivityManagerService.mLruProcesses.
+    private static final int LRU_SEGMENT_OTHER = 0;
+    private static final int LRU_SEGMENT_SERVICE = 1;
+    private static final int LRU_SEGMENT_ACTIVITY = 2;
+    private static final int SEGMENTS = LRU_SEGMENT_ACTIVITY + 1;
+
+    /** The parts of a ProcessRecord that the LRU updates look at. */
+    static final class Proc {
+        final SegmentedLruList.Node<Proc> lruNode = new SegmentedLruList.Node<>(this);
+        final int id;
+        int uid;
+        boolean hasActivities;
+        boolean hasClientActivities;
+        boolean persistent;
+        /** Service connections and provider references, in visiting order. */
+        final ArrayList<Proc> dependencies = new ArrayList<>();
+
+        Proc(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return "p" + id;
+        }
+    }
+
+    private Random mRandom;
+    private ArrayList<Proc> mOldLru;
+    private int mOldActivityStart;
+    private int mOldServiceStart;
+    private SegmentedLruList<Proc> mNewLru;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(0);
+    }
+
+    public void testOperationsMatchArrayList() throws Exception {
+        final ArrayList<SegmentedLruList.Node<Integer>> model = new ArrayList<>();
+        final SegmentedLruList<Integer> list = new SegmentedLruList<>(SEGMENTS);
+        final ArrayList<SegmentedLruList.Node<Integer>> nodes = new ArrayList<>();
+        // The segment each node should be in, by item.
+        final int[] segments = new int[60];
+        for (int i = 0; i < segments.length; i++) {
+            nodes.add(new SegmentedLruList.Node<>(i));
+        }
+        for (int step = 0; step < 20000; step++) {
+            final SegmentedLruList.Node<Integer> node = nodes.get(mRandom.nextInt(nodes.size()));
+            if (list.contains(node)) {
+                final int index = model.indexOf(node);
+                final SegmentedLruList.Node<Integer> next = node.getNext();
+                if (mRandom.nextBoolean() && next != null
+                        && next.getSegment() == node.getSegment()) {
+                    list.swapWithNext(node);
+                    model.set(index, next);
+                    model.set(index + 1, node);
+                } else {
+                    list.remove(node);
+                    model.remove(index);
+                }
+            } else if (!model.isEmpty() && mRandom.nextBoolean()) {
+                final SegmentedLruList.Node<Integer> anchor =
+                        model.get(mRandom.nextInt(model.size()));
+                model.add(model.indexOf(anchor), node);
+                segments[node.getItem()] = segments[anchor.getItem()];
+                list.addBefore(node, anchor);
+            } else {
+                final int segment = mRandom.nextInt(SEGMENTS);
+                model.add(segmentStart(model, segments, segment + 1), node);
+                segments[node.getItem()] = segment;
+                list.addTop(node, segment);
+            }
+            // Read only part of the list at times, so later changes find the snapshot
+            // valid up to different points.
+            assertSameOrder(model, segments, list, mRandom.nextInt(model.size() + 1));
+        }
+    }
+
+    public void testOrderAfterManyInsertsInOneGap() throws Exception {
+        final SegmentedLruList<Integer> list = new SegmentedLruList<>(1);
+        final SegmentedLruList.Node<Integer> bottom = new SegmentedLruList.Node<>(-1);
+        final SegmentedLruList.Node<Integer> top = new SegmentedLruList.Node<>(-2);
+        list.addTop(bottom, 0);
+        list.addTop(top, 0);
+        // Each node goes right above the previous one, halving the gap below the top
+        // until the labels have to be reassigned.
+        SegmentedLruList.Node<Integer> previous = bottom;
+        for (int i = 0; i < 200; i++) {
+            final SegmentedLruList.Node<Integer> node = new SegmentedLruList.Node<>(i);
+            list.addBefore(node, top);
+            assertTrue(list.isBefore(previous, node));
+            assertTrue(list.isBefore(node, top));
+            previous = node;
+        }
+        assertEquals(202, list.size());
+        assertEquals(Integer.valueOf(-1), list.get(0));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(Integer.valueOf(i), list.get(i + 1));
+        }
+        assertEquals(Integer.valueOf(-2), list.get(201));
+    }
+
+    public void testMisuseThrows() throws Exception {
+        final SegmentedLruList<Integer> list = new SegmentedLruList<>(2);
+        final SegmentedLruList.Node<Integer> a = new SegmentedLruList.Node<>(0);
+        final SegmentedLruList.Node<Integer> b = new SegmentedLruList.Node<>(1);
+        list.addTop(a, 0);
+        list.addTop(b, 1);
+        try {
+            list.addTop(a, 1);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            // The node after a is in another segment.
+            list.swapWithNext(a);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        list.remove(a);
+        try {
+            list.remove(a);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(-1, a.getSegment());
+        assertEquals(-1, list.indexOf(a));
+    }
+
+    private static int segmentStart(ArrayList<SegmentedLruList.Node<Integer>> model,
+            int[] segments, int segment) {
+        int start = 0;
+        while (start < model.size() && segments[model.get(start).getItem()] < segment) {
+            start++;
+        }
+        return start;
+    }
+
+    /** Checks the list against the model, reading elements by index up to {@code reads}. */
+    private static void assertSameOrder(ArrayList<SegmentedLruList.Node<Integer>> model,
+            int[] segments, SegmentedLruList<Integer> list, int reads) {
+        assertEquals(model.size(), list.size());
+        for (int i = 0; i < reads; i++) {
+            assertEquals(model.get(i).getItem(), list.get(i));
+        }
+        SegmentedLruList.Node<Integer> previous = null;
+        for (int i = 0; i < model.size(); i++) {
+            final SegmentedLruList.Node<Integer> node = model.get(i);
+            assertSame(previous, node.getPrevious());
+            assertEquals(segments[node.getItem()], node.getSegment());
+            if (previous != null) {
+                assertSame(node, previous.getNext());
+                assertTrue(list.isBefore(previous, node));
+            }
+            assertEquals(i, list.indexOf(node));
+            previous = node;
+        }
+        if (previous != null) {
+            assertNull(previous.getNext());
+        }
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            final int start = segmentStart(model, segments, segment);
+            final int end = segmentStart(model, segments, segment + 1);
+            assertEquals(start, list.getSegmentStart(segment));
+            assertEquals(end - start, list.getSegmentSize(segment));
+            assertSame(start < end ? model.get(start) : null, list.getBottom(segment));
+            assertSame(start < end ? model.get(end - 1) : null, list.getTop(segment));
+        }
+    }
+    public void testLruUpdatesMatchArrayList() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            final Proc[] procs = new Proc[5 + mRandom.nextInt(40)];
+            for (int i = 0; i < procs.length; i++) {
+                procs[i] = new Proc(i);
+                procs[i].uid = mRandom.nextInt(4);
+                procs[i].persistent = mRandom.nextInt(20) == 0;
+            }
+            for (Proc proc : procs) {
+                for (int j = mRandom.nextInt(4); j > 0; j--) {
+                    proc.dependencies.add(procs[mRandom.nextInt(procs.length)]);
+                }
+            }
+            mOldLru = new ArrayList<>();
+            mOldActivityStart = mOldServiceStart = 0;
+            mNewLru = new SegmentedLruList<>(LRU_SEGMENT_ACTIVITY + 1);
+            for (int step = 0; step < 1000; step++) {
+                final Proc app = procs[mRandom.nextInt(procs.length)];
+                switch (mRandom.nextInt(8)) {
+                    case 0:
+                        removeOld(app);
+                        removeNew(app);
+                        break;
+                    case 1:
+                        // Walk from the most recent end, as the trimming loops do,
+                        // removing some of the processes read.
+                        for (int i = mOldLru.size() - 1; i >= 0; i--) {
+                            final Proc proc = mOldLru.get(i);
+                            if (mNewLru.get(i) != proc) {
+                                failAt(round, step, "walk at " + i);
+                            }
+                            if (mRandom.nextInt(8) == 0) {
+                                removeOld(proc);
+                                removeNew(proc);
+                            }
+                        }
+                        break;
+                    case 2:
+                        app.hasActivities = mRandom.nextBoolean();
+                        app.hasClientActivities = mRandom.nextInt(3) == 0;
+                        updateOld(app, true, null);
+                        updateNew(app, true, null);
+                        break;
+                    default: {
+                        final boolean activityChange = mRandom.nextInt(4) == 0;
+                        final Proc client = mRandom.nextBoolean()
+                                ? procs[mRandom.nextInt(procs.length)] : null;
+                        updateOld(app, activityChange, client);
+                        updateNew(app, activityChange, client);
+                        break;
+                    }
+                }
+                compareLists(round, step);
+            }
+        }
+    }
+
+    private void compareLists(int round, int step) {
+        if (mOldLru.size() != mNewLru.size()
+                || mOldServiceStart != mNewLru.getSegmentSize(LRU_SEGMENT_OTHER)
+                || mOldActivityStart != mNewLru.getSegmentStart(LRU_SEGMENT_ACTIVITY)) {
+            failAt(round, step, "segments");
+        }
+        SegmentedLruList.Node<Proc> node = mNewLru.getBottom(LRU_SEGMENT_OTHER);
+        for (int i = 0; i < mOldLru.size(); i++) {
+            if (node == null) {
+                node = mNewLru.getBottom(LRU_SEGMENT_SERVICE);
+            }
+            if (node == null) {
+                node = mNewLru.getBottom(LRU_SEGMENT_ACTIVITY);
+            }
+            if (mOldLru.get(i) != mNewLru.get(i) || node.getItem() != mOldLru.get(i)) {
+                failAt(round, step, "position " + i);
+            }
+            node = node.getNext();
+        }
+    }
+
+    private void failAt(int round, int step, String what) {
+        fail("round " + round + " step " + step + ": " + what
+                + " differs, ArrayList " + mOldLru + " activity start " + mOldActivityStart
+                + " service start " + mOldServiceStart + ", SegmentedLruList " + mNewLru);
+    }
+
+    /**
+     * removeLruProcessLocked() before SegmentedLruList, except that the markers
+     * only move for processes below them: the old {@code <=} moved the process
+     * below a removed segment bottom into the next segment up.
+     */
+    private void removeOld(Proc app) {
+        final int lrui = mOldLru.lastIndexOf(app);
+        if (lrui >= 0) {
+            if (lrui < mOldActivityStart) {
+                mOldActivityStart--;
+            }
+            if (lrui < mOldServiceStart) {
+                mOldServiceStart--;
+            }
+            mOldLru.remove(lrui);
+        }
+    }
+
+    /** updateLruProcessLocked() before SegmentedLruList. */
+    private void updateOld(Proc app, boolean activityChange, Proc client) {
+        final boolean hasActivity = app.hasActivities || app.hasClientActivities;
+        if (!activityChange && hasActivity) {
+            return;
+        }
+        if (hasActivity) {
+            final int N = mOldLru.size();
+            if (N > 0 && mOldLru.get(N - 1) == app) {
+                return;
+            }
+        } else {
+            if (mOldServiceStart > 0 && mOldLru.get(mOldServiceStart - 1) == app) {
+                return;
+            }
+        }
+        final int lrui = mOldLru.lastIndexOf(app);
+        if (app.persistent && lrui >= 0) {
+            return;
+        }
+        if (lrui >= 0) {
+            if (lrui < mOldActivityStart) {
+                mOldActivityStart--;
+            }
+            if (lrui < mOldServiceStart) {
+                mOldServiceStart--;
+            }
+            mOldLru.remove(lrui);
+        }
+        int nextIndex;
+        if (hasActivity) {
+            final int N = mOldLru.size();
+            if (!app.hasActivities && mOldActivityStart < (N - 1)) {
+                mOldLru.add(N - 1, app);
+                final int uid = app.uid;
+                for (int i = N - 2; i > mOldActivityStart; i--) {
+                    Proc subProc = mOldLru.get(i);
+                    if (subProc.uid == uid) {
+                        if (mOldLru.get(i - 1).uid != uid) {
+                            Proc tmp = mOldLru.get(i);
+                            mOldLru.set(i, mOldLru.get(i - 1));
+                            mOldLru.set(i - 1, tmp);
+                            i--;
+                        }
+                    } else {
+                        break;
+                    }
+                }
+            } else {
+                mOldLru.add(app);
+            }
+            nextIndex = mOldServiceStart;
+        } else {
+            int index = mOldServiceStart;
+            if (client != null) {
+                int clientIndex = mOldLru.lastIndexOf(client);
+                if (clientIndex <= lrui) {
+                    clientIndex = lrui;
+                }
+                if (clientIndex >= 0 && index > clientIndex) {
+                    index = clientIndex;
+                }
+            }
+            mOldLru.add(index, app);
+            nextIndex = index - 1;
+            mOldActivityStart++;
+            mOldServiceStart++;
+        }
+        for (int j = app.dependencies.size() - 1; j >= 0; j--) {
+            final Proc dependency = app.dependencies.get(j);
+            if (!dependency.persistent) {
+                nextIndex = updateDependencyOld(dependency, nextIndex);
+            }
+        }
+    }
+
+    /** updateLruProcessInternalLocked() before SegmentedLruList. */
+    private int updateDependencyOld(Proc app, int index) {
+        if (app.hasActivities) {
+            return index;
+        }
+        final int lrui = mOldLru.lastIndexOf(app);
+        if (lrui < 0 || lrui >= index || lrui >= mOldActivityStart) {
+            return index;
+        }
+        mOldLru.remove(lrui);
+        if (index > 0) {
+            index--;
+        }
+        mOldLru.add(index, app);
+        return index;
+    }
+
+    /** removeLruProcessLocked(). */
+    private void removeNew(Proc app) {
+        if (mNewLru.contains(app.lruNode)) {
+            mNewLru.remove(app.lruNode);
+        }
+    }
+
+    /** updateLruProcessLocked(). */
+    private void updateNew(Proc app, boolean activityChange, Proc client) {
+        final boolean hasActivity = app.hasActivities || app.hasClientActivities;
+        if (!activityChange && hasActivity) {
+            return;
+        }
+        final SegmentedLruList.Node<Proc> node = app.lruNode;
+        if (hasActivity) {
+            if (mNewLru.contains(node) && node.getNext() == null) {
+                return;
+            }
+        } else {
+            if (mNewLru.getTop(LRU_SEGMENT_OTHER) == node) {
+                return;
+            }
+        }
+        final boolean wasInList = mNewLru.contains(node);
+        if (app.persistent && wasInList) {
+            return;
+        }
+        SegmentedLruList.Node<Proc> oldNext = null;
+        if (wasInList) {
+            oldNext = node.getNext();
+            mNewLru.remove(node);
+        }
+        SegmentedLruList.Node<Proc> nextAnchor;
+        if (hasActivity) {
+            final SegmentedLruList.Node<Proc> top = mNewLru.getTop(LRU_SEGMENT_ACTIVITY);
+            if (!app.hasActivities && mNewLru.getSegmentSize(LRU_SEGMENT_ACTIVITY) > 1) {
+                mNewLru.addBefore(node, top);
+                final int uid = app.uid;
+                SegmentedLruList.Node<Proc> sub = node.getPrevious();
+                while (sub != null && sub.getSegment() == LRU_SEGMENT_ACTIVITY
+                        && sub != mNewLru.getBottom(LRU_SEGMENT_ACTIVITY)) {
+                    if (sub.getItem().uid == uid) {
+                        final SegmentedLruList.Node<Proc> below = sub.getPrevious();
+                        if (below.getItem().uid != uid) {
+                            mNewLru.swapWithNext(below);
+                        }
+                        sub = sub.getPrevious();
+                    } else {
+                        break;
+                    }
+                }
+            } else {
+                mNewLru.addTop(node, LRU_SEGMENT_ACTIVITY);
+            }
+            nextAnchor = null;
+        } else {
+            SegmentedLruList.Node<Proc> below = null;
+            if (client != null) {
+                final SegmentedLruList.Node<Proc> clientNode = client.lruNode;
+                final boolean knownClient = mNewLru.contains(clientNode);
+                if (knownClient && (!wasInList
+                        || (oldNext != null && mNewLru.isBefore(oldNext, clientNode)))) {
+                    below = clientNode;
+                } else {
+                    below = oldNext;
+                }
+            }
+            if (below != null && below.getSegment() == LRU_SEGMENT_OTHER) {
+                mNewLru.addBefore(node, below);
+            } else {
+                mNewLru.addTop(node, LRU_SEGMENT_OTHER);
+            }
+            nextAnchor = node.getPrevious() != null ? node.getPrevious() : node;
+        }
+        for (int j = app.dependencies.size() - 1; j >= 0; j--) {
+            final Proc dependency = app.dependencies.get(j);
+            if (!dependency.persistent) {
+                nextAnchor = updateDependencyNew(dependency, nextAnchor);
+            }
+        }
+    }
+
+    /** updateLruProcessInternalLocked(). */
+    private SegmentedLruList.Node<Proc> updateDependencyNew(Proc app,
+            SegmentedLruList.Node<Proc> anchor) {
+        if (app.hasActivities) {
+            return anchor;
+        }
+        final SegmentedLruList.Node<Proc> node = app.lruNode;
+        if (!mNewLru.contains(node)) {
+            return anchor;
+        }
+        if (anchor == null ? node.getSegment() != LRU_SEGMENT_OTHER
+                : !mNewLru.isBefore(node, anchor)) {
+            return anchor;
+        }
+        mNewLru.remove(node);
+        if (anchor != null) {
+            mNewLru.addBefore(node, anchor);
+        } else {
+            mNewLru.addTop(node, LRU_SEGMENT_OTHER);
+        }
+        return node;
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import android.os.FileUtils;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.Slog;
+import android.util.SparseArray;
+
+import libcore.io.IoUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the persisted state of a user's recent tasks.
+ *
+ * The file starts with a header (magic, version) followed by records:
+ * <pre>
+ *   int    length of everything after this field, up to and including the crc
+ *   byte   RECORD_PUT or RECORD_REMOVE
+ *   int    taskId
+ *   byte[] payload, the task's xml for RECORD_PUT, empty for RECORD_REMOVE
+ *   int    CRC32 of type, taskId and payload
+ * </pre>
+ * The last record for a task wins.  A torn or corrupt record ends the journal;
+ * it and anything after it are dropped by the next compaction.  The journal is
+ * compacted, rewriting only the live records, once it grows to more than twice
+ * their size.
+ *
+ * Thread safe.
+ */
+final class TaskJournal {
+    private static final String TAG = "TaskJournal";
+
+    static final String JOURNAL_FILENAME = "tasks.journal";
+
+    private static final int MAGIC = 0x544a524e; // TJRN
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    // type, taskId, crc
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    /** Don't bother compacting journals smaller than this. */
+    private static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+    private final File mFile;
+    private final AtomicFile mAtomicFile;
+    private final File mBackupFile;
+
+    // Latest payload of every task in the journal, used for compaction.
+    private SparseArray<byte[]> mLive;
+    private long mLiveSize;
+    private long mFileSize;
+    private boolean mNeedsCompaction;
+
+    TaskJournal(File file) {
+        mFile = file;
+        mAtomicFile = new AtomicFile(file);
+        mBackupFile = new File(file.getPath() + ".bak");
+    }
+
+    /**
+     * Returns the latest xml payload of every task in the journal, keyed by task id.
+     * The file is mapped rather than streamed through a buffer.
+     */
+    synchronized SparseArray<byte[]> load() {
+        loadLocked();
+        return mLive.clone();
+    }
+
+    /**
+     * Records new xml payloads of tasks, keyed by task id.  Returns whether the records were
+     * synced to disk; if not, they are kept in memory and written by the next compaction.
+     */
+    synchronized boolean put(SparseArray<byte[]> payloads) {
+        loadLocked();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (int i = 0; i < payloads.size(); i++) {
+                writeRecord(out, RECORD_PUT, payloads.keyAt(i), payloads.valueAt(i));
+            }
+        } catch (IOException e) {
+            // Can't happen writing to memory.
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < payloads.size(); i++) {
+            setLiveLocked(payloads.keyAt(i), payloads.valueAt(i));
+        }
+        return appendLocked(bytes.toByteArray());
+    }
+
+    /** Forgets every task whose id is not in {@code taskIds}. */
+    synchronized void retain(ArraySet<Integer> taskIds) {
+        loadLocked();
+        ByteArrayOutputStream bytes = null;
+        for (int i = mLive.size() - 1; i >= 0; i--) {
+            final int taskId = mLive.keyAt(i);
+            if (taskIds.contains(taskId)) {
+                continue;
+            }
+            if (bytes == null) {
+                bytes = new ByteArrayOutputStream();
+            }
+            try {
+                writeRecord(new DataOutputStream(bytes), RECORD_REMOVE, taskId, null);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            setLiveLocked(taskId, null);
+        }
+        if (bytes != null) {
+            appendLocked(bytes.toByteArray());
+        }
+    }
+
+    /** Forgets a single task, for example one whose payload could not be restored. */
+    synchronized void remove(int taskId) {
+        loadLocked();
+        if (mLive.get(taskId) == null) {
+            return;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeRecord(new DataOutputStream(bytes), RECORD_REMOVE, taskId, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        setLiveLocked(taskId, null);
+        appendLocked(bytes.toByteArray());
+    }
+
+    private void setLiveLocked(int taskId, byte[] payload) {
+        final byte[] old = mLive.get(taskId);
+        if (old != null) {
+            mLiveSize -= 4 + RECORD_OVERHEAD + old.length;
+        }
+        if (payload != null) {
+            mLive.put(taskId, payload);
+            mLiveSize += 4 + RECORD_OVERHEAD + payload.length;
+        } else {
+            mLive.remove(taskId);
+        }
+    }
+
+    private void loadLocked() {
+        if (mLive != null) {
+            return;
+        }
+        mLive = new SparseArray<>();
+        mLiveSize = 0;
+        mFileSize = 0;
+        mNeedsCompaction = false;
+
+        FileInputStream in = null;
+        try {
+            // Restores the backup left by a compaction that did not finish.
+            in = mAtomicFile.openRead();
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Journal too large: " + size);
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Slog.w(TAG, "Discarding journal with bad header: " + mFile);
+                mNeedsCompaction = true;
+                return;
+            }
+            mFileSize = HEADER_SIZE;
+            final CRC32 crc = new CRC32();
+            while (buffer.remaining() > 0) {
+                final int start = buffer.position();
+                try {
+                    final int length = buffer.getInt();
+                    if (length < RECORD_OVERHEAD || length > buffer.remaining()) {
+                        throw new IOException("Bad record length " + length);
+                    }
+                    final byte type = buffer.get();
+                    final int taskId = buffer.getInt();
+                    final byte[] payload = new byte[length - RECORD_OVERHEAD];
+                    buffer.get(payload);
+                    crc.reset();
+                    crc.update(type);
+                    updateCrc(crc, taskId);
+                    crc.update(payload);
+                    if ((int) crc.getValue() != buffer.getInt()) {
+                        throw new IOException("Bad record checksum");
+                    }
+                    if (type == RECORD_PUT) {
+                        setLiveLocked(taskId, payload);
+                    } else if (type == RECORD_REMOVE) {
+                        setLiveLocked(taskId, null);
+                    } else {
+                        throw new IOException("Bad record type " + type);
+                    }
+                } catch (IOException | BufferUnderflowException e) {
+                    // Most likely a write torn by a reboot; keep what came before it.
+                    Slog.w(TAG, "Truncating " + mFile + " at " + start + ": " + e);
+                    mNeedsCompaction = true;
+                    break;
+                }
+                mFileSize = buffer.position();
+            }
+        } catch (FileNotFoundException e) {
+            // No journal yet.
+        } catch (IOException e) {
+            Slog.e(TAG, "Unable to read " + mFile, e);
+            mNeedsCompaction = true;
+        } finally {
+            IoUtils.closeQuietly(in);
+        }
+    }
+
+    private boolean appendLocked(byte[] records) {
+        // A backup means the base file may be partial; rewrite it from memory instead.
+        if (mNeedsCompaction || mFileSize == 0 || mBackupFile.exists()
+                || (mFileSize + records.length > MIN_COMPACT_SIZE
+                        && mFileSize + records.length > 2 * (HEADER_SIZE + mLiveSize))) {
+            return compactLocked();
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mFile, true);
+            out.write(records);
+            if (!FileUtils.sync(out)) {
+                throw new IOException("Unable to sync");
+            }
+            mFileSize += records.length;
+            return true;
+        } catch (IOException e) {
+            Slog.e(TAG, "Unable to append to " + mFile, e);
+            // We don't know how much made it; start over from memory next time.
+            mNeedsCompaction = true;
+            return false;
+        } finally {
+            IoUtils.closeQuietly(out);
+        }
+    }
+
+    private boolean compactLocked() {
+        FileOutputStream out = null;
+        try {
+            out = mAtomicFile.startWrite();
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            for (int i = 0; i < mLive.size(); i++) {
+                writeRecord(data, RECORD_PUT, mLive.keyAt(i), mLive.valueAt(i));
+            }
+            data.flush();
+            if (!FileUtils.sync(out)) {
+                throw new IOException("Unable to sync");
+            }
+            mAtomicFile.finishWrite(out);
+            mFileSize = HEADER_SIZE + mLiveSize;
+            mNeedsCompaction = false;
+            return true;
+        } catch (IOException e) {
+            if (out != null) {
+                mAtomicFile.failWrite(out);
+            }
+            Slog.e(TAG, "Unable to compact " + mFile, e);
+            mNeedsCompaction = true;
+            return false;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, int taskId, byte[] payload)
+            throws IOException {
+        final int payloadLength = payload != null ? payload.length : 0;
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        updateCrc(crc, taskId);
+        if (payload != null) {
+            crc.update(payload);
+        }
+        out.writeInt(RECORD_OVERHEAD + payloadLength);
+        out.writeByte(type);
+        out.writeInt(taskId);
+        if (payload != null) {
+            out.write(payload);
+        }
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void updateCrc(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+}
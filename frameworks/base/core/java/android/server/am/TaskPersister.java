@@ -25,7 +25,6 @@ import android.os.FileUtils;
 import android.os.Process;
 import android.os.SystemClock;
 import android.util.ArraySet;
-import android.util.AtomicFile;
 import android.util.Slog;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
@@ -42,13 +41,17 @@ import org.xmlpull.v1.XmlSerializer;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -90,6 +93,8 @@ public class TaskPersister {
     private final ActivityStackSupervisor mStackSupervisor;
     private final RecentTasks mRecentTasks;
     private final SparseArray<SparseBooleanArray> mTaskIdsInFile = new SparseArray<>();
+    // Recent task journal of each user, guarded by mIoLock.
+    private final SparseArray<TaskJournal> mJournals = new SparseArray<>();
     private final File mTaskIdsDir;
     // To lock file operations in TaskPersister
     private final Object mIoLock = new Object();
@@ -251,6 +256,21 @@ public class TaskPersister {
 
     void unloadUserDataFromMemory(int userId) {
         mTaskIdsInFile.delete(userId);
+        synchronized (mIoLock) {
+            mJournals.delete(userId);
+        }
+    }
+
+    private TaskJournal getJournal(int userId) {
+        synchronized (mIoLock) {
+            TaskJournal journal = mJournals.get(userId);
+            if (journal == null) {
+                journal = new TaskJournal(
+                        new File(getUserTasksDir(userId), TaskJournal.JOURNAL_FILENAME));
+                mJournals.put(userId, journal);
+            }
+            return journal;
+        }
     }
 
     void wakeup(TaskRecord task, boolean flush) {
@@ -411,18 +431,111 @@ public class TaskPersister {
         return null;
     }
 
+    /**
+     * Reads a task saved by {@link #saveToXml} and checks that it can be added to the
+     * recents of {@code userId}.
+     * @return the task, or null if it should be skipped.
+     */
+    private TaskRecord restoreTaskLocked(Reader reader, int userId, String source)
+            throws IOException, XmlPullParserException {
+        final XmlPullParser in = Xml.newPullParser();
+        in.setInput(reader);
+
+        TaskRecord restored = null;
+        int event;
+        while (((event = in.next()) != XmlPullParser.END_DOCUMENT) &&
+                event != XmlPullParser.END_TAG) {
+            final String name = in.getName();
+            if (event == XmlPullParser.START_TAG) {
+                if (DEBUG) Slog.d(TAG, "restoreTasksForUserLocked: START_TAG name=" + name);
+                if (TAG_TASK.equals(name)) {
+                    final TaskRecord task = TaskRecord.restoreFromXml(in, mStackSupervisor);
+                    if (DEBUG) Slog.d(TAG, "restoreTasksForUserLocked: restored task="
+                            + task);
+                    if (task != null) {
+                        // XXX Don't add to write queue... there is no reason to write
+                        // out the stuff we just read, if we don't write it we will
+                        // read the same thing again.
+                        // mWriteQueue.add(new TaskWriteQueueItem(task));
+
+                        final int taskId = task.taskId;
+                        if (mStackSupervisor.anyTaskForIdLocked(taskId,
+                                MATCH_TASK_IN_STACKS_OR_RECENT_TASKS,
+                                INVALID_STACK_ID) != null) {
+                            // Should not happen.
+                            Slog.wtf(TAG, "Existing task with taskId " + taskId + "found");
+                        } else if (userId != task.userId) {
+                            // Should not happen.
+                            Slog.wtf(TAG, "Task with userId " + task.userId + " found in "
+                                    + source);
+                        } else {
+                            // Looks fine.
+                            restored = task;
+                        }
+                    } else {
+                        Slog.e(TAG, "restoreTasksForUserLocked: Unable to restore task from "
+                                + source);
+                    }
+                } else {
+                    Slog.wtf(TAG, "restoreTasksForUserLocked: Unknown xml event=" + event
+                            + " name=" + name);
+                }
+            }
+            XmlUtils.skipCurrentTag(in);
+        }
+        return restored;
+    }
+
+    private void addRestoredTaskLocked(TaskRecord task, int userId, ArrayList<TaskRecord> tasks,
+            ArraySet<Integer> recoveredTaskIds) {
+        mStackSupervisor.setNextTaskIdForUserLocked(task.taskId, userId);
+        task.isPersistable = true;
+        tasks.add(task);
+        recoveredTaskIds.add(task.taskId);
+    }
+
     List<TaskRecord> restoreTasksForUserLocked(final int userId, SparseBooleanArray preaddedTasks) {
         final ArrayList<TaskRecord> tasks = new ArrayList<TaskRecord>();
         ArraySet<Integer> recoveredTaskIds = new ArraySet<Integer>();
 
         File userTasksDir = getUserTasksDir(userId);
 
+        // Tasks persisted in the journal.
+        final TaskJournal journal = getJournal(userId);
+        final SparseArray<byte[]> journaled = journal.load();
+        for (int i = 0; i < journaled.size(); i++) {
+            final int taskId = journaled.keyAt(i);
+            if (preaddedTasks.get(taskId, false)) {
+                Slog.w(TAG, "Task #" + taskId +
+                        " has already been created so we don't restore again");
+                continue;
+            }
+            final String source = "journal task #" + taskId;
+            try {
+                final TaskRecord task = restoreTaskLocked(new InputStreamReader(
+                        new ByteArrayInputStream(journaled.valueAt(i)), StandardCharsets.UTF_8),
+                        userId, source);
+                if (task != null) {
+                    addRestoredTaskLocked(task, userId, tasks, recoveredTaskIds);
+                }
+            } catch (Exception e) {
+                Slog.wtf(TAG, "Unable to parse " + source + ". Error ", e);
+                Slog.e(TAG, "Failing task: "
+                        + new String(journaled.valueAt(i), StandardCharsets.UTF_8));
+                journal.remove(taskId);
+            }
+        }
+
+        // Tasks still persisted as individual files by older versions.  They are moved
+        // into the journal.
         File[] recentFiles = userTasksDir.listFiles();
         if (recentFiles == null) {
             Slog.e(TAG, "restoreTasksForUserLocked: Unable to list files from " + userTasksDir);
-            return tasks;
+            recentFiles = new File[0];
         }
 
+        final SparseArray<byte[]> migrated = new SparseArray<>();
+        final ArrayList<File> migratedFiles = new ArrayList<>();
         for (int taskNdx = 0; taskNdx < recentFiles.length; ++taskNdx) {
             File taskFile = recentFiles[taskNdx];
             if (DEBUG) {
@@ -442,74 +555,49 @@ public class TaskPersister {
                             " has already been created so we don't restore again");
                     continue;
                 }
+                if (journaled.get(taskId) != null) {
+                    // Superseded by the journal.
+                    if (DEBUG) Slog.d(TAG, "Deleting file=" + taskFile.getName());
+                    taskFile.delete();
+                    continue;
+                }
             } catch (NumberFormatException e) {
                 Slog.w(TAG, "Unexpected task file name", e);
                 continue;
             }
 
-            BufferedReader reader = null;
             boolean deleteFile = false;
             try {
-                reader = new BufferedReader(new FileReader(taskFile));
-                final XmlPullParser in = Xml.newPullParser();
-                in.setInput(reader);
-
-                int event;
-                while (((event = in.next()) != XmlPullParser.END_DOCUMENT) &&
-                        event != XmlPullParser.END_TAG) {
-                    final String name = in.getName();
-                    if (event == XmlPullParser.START_TAG) {
-                        if (DEBUG) Slog.d(TAG, "restoreTasksForUserLocked: START_TAG name=" + name);
-                        if (TAG_TASK.equals(name)) {
-                            final TaskRecord task = TaskRecord.restoreFromXml(in, mStackSupervisor);
-                            if (DEBUG) Slog.d(TAG, "restoreTasksForUserLocked: restored task="
-                                    + task);
-                            if (task != null) {
-                                // XXX Don't add to write queue... there is no reason to write
-                                // out the stuff we just read, if we don't write it we will
-                                // read the same thing again.
-                                // mWriteQueue.add(new TaskWriteQueueItem(task));
-
-                                final int taskId = task.taskId;
-                                if (mStackSupervisor.anyTaskForIdLocked(taskId,
-                                        MATCH_TASK_IN_STACKS_OR_RECENT_TASKS,
-                                        INVALID_STACK_ID) != null) {
-                                    // Should not happen.
-                                    Slog.wtf(TAG, "Existing task with taskId " + taskId + "found");
-                                } else if (userId != task.userId) {
-                                    // Should not happen.
-                                    Slog.wtf(TAG, "Task with userId " + task.userId + " found in "
-                                            + userTasksDir.getAbsolutePath());
-                                } else {
-                                    // Looks fine.
-                                    mStackSupervisor.setNextTaskIdForUserLocked(taskId, userId);
-                                    task.isPersistable = true;
-                                    tasks.add(task);
-                                    recoveredTaskIds.add(taskId);
-                                }
-                            } else {
-                                Slog.e(TAG, "restoreTasksForUserLocked: Unable to restore taskFile="
-                                        + taskFile + ": " + fileToString(taskFile));
-                            }
-                        } else {
-                            Slog.wtf(TAG, "restoreTasksForUserLocked: Unknown xml event=" + event
-                                    + " name=" + name);
-                        }
-                    }
-                    XmlUtils.skipCurrentTag(in);
+                final byte[] contents = IoUtils.readFileAsByteArray(taskFile.getPath());
+                final TaskRecord task = restoreTaskLocked(new InputStreamReader(
+                        new ByteArrayInputStream(contents), StandardCharsets.UTF_8),
+                        userId, userTasksDir.getAbsolutePath());
+                if (task != null) {
+                    addRestoredTaskLocked(task, userId, tasks, recoveredTaskIds);
+                    migrated.put(task.taskId, contents);
+                    migratedFiles.add(taskFile);
                 }
             } catch (Exception e) {
                 Slog.wtf(TAG, "Unable to parse " + taskFile + ". Error ", e);
                 Slog.e(TAG, "Failing file: " + fileToString(taskFile));
                 deleteFile = true;
             } finally {
-                IoUtils.closeQuietly(reader);
                 if (deleteFile) {
                     if (DEBUG) Slog.d(TAG, "Deleting file=" + taskFile.getName());
                     taskFile.delete();
                 }
             }
         }
+        if (migrated.size() > 0) {
+            // Keep the old files until the journal is known to hold their tasks.
+            if (journal.put(migrated)) {
+                for (int i = migratedFiles.size() - 1; i >= 0; i--) {
+                    migratedFiles.get(i).delete();
+                }
+            } else {
+                Slog.w(TAG, "Unable to migrate " + migrated.size() + " tasks to the journal");
+            }
+        }
 
         if (!DEBUG) {
             removeObsoleteFiles(recoveredTaskIds, userTasksDir.listFiles());
@@ -598,6 +686,7 @@ public class TaskPersister {
         for (int userId : candidateUserIds) {
             removeObsoleteFiles(persistentTaskIds, getUserImagesDir(userId).listFiles());
             removeObsoleteFiles(persistentTaskIds, getUserTasksDir(userId).listFiles());
+            getJournal(userId).retain(persistentTaskIds);
         }
     }
 
@@ -635,6 +724,42 @@ public class TaskPersister {
         return parentDir.exists() || parentDir.mkdirs();
     }
 
+    /**
+     * Appends the current state of the given tasks to their users' journals.  Tasks that
+     * have left recents since being queued are skipped; the next removeObsoleteFiles()
+     * drops them from the journal.
+     */
+    private void writeTasks(ArrayList<TaskRecord> tasks) {
+        final SparseArray<SparseArray<byte[]>> payloadsByUser = new SparseArray<>();
+        synchronized (mService) {
+            for (int taskNdx = 0; taskNdx < tasks.size(); ++taskNdx) {
+                final TaskRecord task = tasks.get(taskNdx);
+                if (DEBUG) Slog.d(TAG, "Writing task=" + task);
+                if (!task.inRecents) {
+                    continue;
+                }
+                // Still there.
+                try {
+                    if (DEBUG) Slog.d(TAG, "Saving task=" + task);
+                    final byte[] payload = saveToXml(task).toString()
+                            .getBytes(StandardCharsets.UTF_8);
+                    SparseArray<byte[]> payloads = payloadsByUser.get(task.userId);
+                    if (payloads == null) {
+                        payloads = new SparseArray<>();
+                        payloadsByUser.put(task.userId, payloads);
+                    }
+                    payloads.put(task.taskId, payload);
+                } catch (IOException e) {
+                } catch (XmlPullParserException e) {
+                }
+            }
+        }
+        // Write out the journals while not holding mService lock.
+        for (int i = 0; i < payloadsByUser.size(); i++) {
+            getJournal(payloadsByUser.keyAt(i)).put(payloadsByUser.valueAt(i));
+        }
+    }
+
     private class LazyTaskWriterThread extends Thread {
 
         LazyTaskWriterThread(String name) {
@@ -681,6 +806,7 @@ public class TaskPersister {
 
                 // If mNextWriteTime, then don't delay between each call to saveToXml().
                 final WriteQueueItem item;
+                final ArrayList<TaskRecord> tasksToWrite = new ArrayList<>();
                 synchronized (TaskPersister.this) {
                     if (mNextWriteTime != FLUSH_QUEUE) {
                         // The next write we don't have to wait so long.
@@ -717,7 +843,18 @@ public class TaskPersister {
                         now = SystemClock.uptimeMillis();
                     }
 
-                    // Got something to do.
+                    // Got something to do.  Tasks all go to the journal, so write every task
+                    // waiting in the queue with a single append per user.
+                    if (item instanceof TaskWriteQueueItem) {
+                        tasksToWrite.add(((TaskWriteQueueItem) item).mTask);
+                        for (int queueNdx = mWriteQueue.size() - 1; queueNdx >= 0; --queueNdx) {
+                            final WriteQueueItem queued = mWriteQueue.get(queueNdx);
+                            if (queued instanceof TaskWriteQueueItem) {
+                                tasksToWrite.add(((TaskWriteQueueItem) queued).mTask);
+                                mWriteQueue.remove(queueNdx);
+                            }
+                        }
+                    }
                 }
 
                 if (item instanceof ImageWriteQueueItem) {
@@ -739,41 +876,7 @@ public class TaskPersister {
                         IoUtils.closeQuietly(imageFile);
                     }
                 } else if (item instanceof TaskWriteQueueItem) {
-                    // Write out one task.
-                    StringWriter stringWriter = null;
-                    TaskRecord task = ((TaskWriteQueueItem) item).mTask;
-                    if (DEBUG) Slog.d(TAG, "Writing task=" + task);
-                    synchronized (mService) {
-                        if (task.inRecents) {
-                            // Still there.
-                            try {
-                                if (DEBUG) Slog.d(TAG, "Saving task=" + task);
-                                stringWriter = saveToXml(task);
-                            } catch (IOException e) {
-                            } catch (XmlPullParserException e) {
-                            }
-                        }
-                    }
-                    if (stringWriter != null) {
-                        // Write out xml file while not holding mService lock.
-                        FileOutputStream file = null;
-                        AtomicFile atomicFile = null;
-                        try {
-                            atomicFile = new AtomicFile(new File(
-                                    getUserTasksDir(task.userId),
-                                    String.valueOf(task.taskId) + TASK_FILENAME_SUFFIX));
-                            file = atomicFile.startWrite();
-                            file.write(stringWriter.toString().getBytes());
-                            file.write('\n');
-                            atomicFile.finishWrite(file);
-                        } catch (IOException e) {
-                            if (file != null) {
-                                atomicFile.failWrite(file);
-                            }
-                            Slog.e(TAG,
-                                    "Unable to open " + atomicFile + " for persisting. " + e);
-                        }
-                    }
+                    writeTasks(tasksToWrite);
                 }
             }
         }
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import android.os.FileUtils;
+import android.util.Slog;
+
+import libcore.io.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of changes to persisted Uri grants made since the grants
+ * file was last written in full.
+ *
+ * The file starts with a header (magic, version, generation) followed by records:
+ * <pre>
+ *   int    length of the entry
+ *   byte[] entry: source and target user, source and target package, uri,
+ *          prefix, persisted mode flags (0 once the grant is gone), created time
+ *   int    CRC32 of the entry
+ * </pre>
+ * The generation is also written to the grants file, and the journal is only
+ * replayed on top of a grants file of the same generation, so a journal left
+ * over from before the last full write is ignored.  A torn or corrupt record
+ * ends the journal and makes it refuse further appends until it is reset after
+ * the next full write.  So does a write or sync that fails, since it is then
+ * unknown how much of it reached the disk.
+ *
+ * Thread safe.
+ */
+public final class UriGrantsJournal {
+    private static final String TAG = "UriGrantsJournal";
+
+    private static final int MAGIC = 0x55474a4e; // UGJN
+    private static final int VERSION = 1;
+
+    /**
+     * The grants file is rewritten once the journal would hold more records than
+     * this, or than half the live grants if there are more of them.
+     */
+    static final int MIN_REWRITE_RECORDS = 256;
+
+    /** A persisted grant as of one change. */
+    public static final class Entry {
+        public final int sourceUserId;
+        public final int targetUserId;
+        public final String sourcePkg;
+        public final String targetPkg;
+        public final String uri;
+        public final boolean prefix;
+        public final int modeFlags;
+        public final long createdTime;
+
+        public Entry(int sourceUserId, int targetUserId, String sourcePkg, String targetPkg,
+                String uri, boolean prefix, int modeFlags, long createdTime) {
+            this.sourceUserId = sourceUserId;
+            this.targetUserId = targetUserId;
+            this.sourcePkg = sourcePkg;
+            this.targetPkg = targetPkg;
+            this.uri = uri;
+            this.prefix = prefix;
+            this.modeFlags = modeFlags;
+            this.createdTime = createdTime;
+        }
+    }
+
+    private final File mFile;
+
+    // Generation of the journal on disk, or -1 if it can't be appended to.
+    private long mGeneration = -1;
+    private int mRecordCount;
+
+    public UriGrantsJournal(File file) {
+        mFile = file;
+    }
+
+    /** Returns the number of records appended since the last reset. */
+    public synchronized int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Returns whether the grants file should be written in full instead of
+     * appending {@code newRecords} records, given {@code liveGrants} persisted
+     * grants: either the journal can't be appended to, or replaying it would
+     * take longer than reading a fresh grants file.
+     */
+    public synchronized boolean needsRewrite(int newRecords, int liveGrants) {
+        return mGeneration < 0
+                || mRecordCount + newRecords > Math.max(MIN_REWRITE_RECORDS, liveGrants / 2);
+    }
+
+    /**
+     * Returns the entries recorded against the grants file of {@code generation},
+     * oldest first, or nothing if the journal belongs to another generation.
+     */
+    public synchronized ArrayList<Entry> read(long generation) {
+        final ArrayList<Entry> entries = new ArrayList<>();
+        mGeneration = -1;
+        mRecordCount = 0;
+
+        final byte[] bytes;
+        try {
+            bytes = IoUtils.readFileAsByteArray(mFile.getPath());
+        } catch (FileNotFoundException e) {
+            // No journal yet.
+            return entries;
+        } catch (IOException e) {
+            Slog.e(TAG, "Unable to read " + mFile, e);
+            return entries;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Slog.w(TAG, "Ignoring journal with bad header: " + mFile);
+                return entries;
+            }
+            if (buffer.getLong() != generation) {
+                Slog.w(TAG, "Ignoring stale journal: " + mFile);
+                return entries;
+            }
+        } catch (BufferUnderflowException e) {
+            Slog.w(TAG, "Ignoring journal with torn header: " + mFile);
+            return entries;
+        }
+
+        final CRC32 crc = new CRC32();
+        while (buffer.remaining() > 0) {
+            final int start = buffer.position();
+            try {
+                final int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Bad record length " + length);
+                }
+                crc.reset();
+                crc.update(bytes, buffer.position(), length);
+                final DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(bytes, buffer.position(), length));
+                buffer.position(buffer.position() + length);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    throw new IOException("Bad record checksum");
+                }
+                entries.add(new Entry(in.readInt(), in.readInt(), in.readUTF(), in.readUTF(),
+                        in.readUTF(), in.readBoolean(), in.readInt(), in.readLong()));
+            } catch (IOException | BufferUnderflowException e) {
+                // Most likely a write torn by a reboot; keep what came before it, but
+                // don't append after the damage.
+                Slog.w(TAG, "Truncating " + mFile + " at " + start + ": " + e);
+                return entries;
+            }
+        }
+        mGeneration = generation;
+        mRecordCount = entries.size();
+        return entries;
+    }
+
+    /**
+     * Appends {@code entries} to the journal.  Returns false if they could not
+     * be recorded, in which case the grants file needs to be written in full.
+     */
+    public synchronized boolean append(List<Entry> entries) {
+        if (mGeneration < 0) {
+            return false;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream out = new DataOutputStream(bytes);
+            final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+            final DataOutputStream entryOut = new DataOutputStream(entryBytes);
+            final CRC32 crc = new CRC32();
+            for (int i = 0; i < entries.size(); i++) {
+                final Entry entry = entries.get(i);
+                entryBytes.reset();
+                entryOut.writeInt(entry.sourceUserId);
+                entryOut.writeInt(entry.targetUserId);
+                entryOut.writeUTF(entry.sourcePkg);
+                entryOut.writeUTF(entry.targetPkg);
+                entryOut.writeUTF(entry.uri);
+                entryOut.writeBoolean(entry.prefix);
+                entryOut.writeInt(entry.modeFlags);
+                entryOut.writeLong(entry.createdTime);
+                final byte[] record = entryBytes.toByteArray();
+                crc.reset();
+                crc.update(record);
+                out.writeInt(record.length);
+                out.write(record);
+                out.writeInt((int) crc.getValue());
+            }
+        } catch (IOException e) {
+            // Only a uri too long for writeUTF() can get here.
+            Slog.w(TAG, "Unable to record grants", e);
+            return false;
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(mFile, true);
+            fos.write(bytes.toByteArray());
+            if (!FileUtils.sync(fos)) {
+                throw new IOException("Unable to sync");
+            }
+            mRecordCount += entries.size();
+            return true;
+        } catch (IOException e) {
+            Slog.e(TAG, "Unable to append to " + mFile, e);
+            // We don't know how much made it.
+            mGeneration = -1;
+            return false;
+        } finally {
+            IoUtils.closeQuietly(fos);
+        }
+    }
+
+    /**
+     * Empties the journal once the grants file of {@code generation} has been
+     * written in full.  If that fails, the journal refuses appends, so the
+     * next change rewrites the grants file again.
+     */
+    public synchronized void reset(long generation) {
+        mGeneration = -1;
+        mRecordCount = 0;
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(mFile);
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.flush();
+            if (!FileUtils.sync(fos)) {
+                throw new IOException("Unable to sync");
+            }
+            mGeneration = generation;
+        } catch (IOException e) {
+            Slog.e(TAG, "Unable to reset " + mFile, e);
+        } finally {
+            IoUtils.closeQuietly(fos);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends persisted grant changes to a {@link UriGrantsJournal}, and checks what a
+ * new journal on the same file replays: everything appended since the last reset
+ * for the generation it was reset to, nothing for any other generation, and
+ * everything before a torn or corrupt record.
+ */
+@SmallTest
+public class UriGrantsJournalTest extends TestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("urigrants", ".journal");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static UriGrantsJournal.Entry newEntry(int i, int modeFlags) {
+        return new UriGrantsJournal.Entry(i % 2, i % 3, "com.example.source" + i,
+                "com.example.target" + i, "content://com.example.provider/item/" + i,
+                i % 4 == 0, modeFlags, 1500000000000L + i);
+    }
+
+    private static List<UriGrantsJournal.Entry> newEntries(int first, int count) {
+        final ArrayList<UriGrantsJournal.Entry> entries = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            entries.add(newEntry(i, i % 3 == 0 ? 0 : 1 + i % 3));
+        }
+        return entries;
+    }
+
+    private static void assertEntries(List<UriGrantsJournal.Entry> expected,
+            List<UriGrantsJournal.Entry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final UriGrantsJournal.Entry e = expected.get(i);
+            final UriGrantsJournal.Entry a = actual.get(i);
+            assertEquals(e.sourceUserId, a.sourceUserId);
+            assertEquals(e.targetUserId, a.targetUserId);
+            assertEquals(e.sourcePkg, a.sourcePkg);
+            assertEquals(e.targetPkg, a.targetPkg);
+            assertEquals(e.uri, a.uri);
+            assertEquals(e.prefix, a.prefix);
+            assertEquals(e.modeFlags, a.modeFlags);
+            assertEquals(e.createdTime, a.createdTime);
+        }
+    }
+
+    private static List<UriGrantsJournal.Entry> concat(List<UriGrantsJournal.Entry> a,
+            List<UriGrantsJournal.Entry> b) {
+        final ArrayList<UriGrantsJournal.Entry> entries = new ArrayList<>(a);
+        entries.addAll(b);
+        return entries;
+    }
+
+    public void testReplaysAppendedEntries() throws Exception {
+        final UriGrantsJournal journal = new UriGrantsJournal(mFile);
+        journal.reset(1);
+        final List<UriGrantsJournal.Entry> first = newEntries(0, 5);
+        final List<UriGrantsJournal.Entry> second = newEntries(5, 7);
+        assertTrue(journal.append(first));
+        assertTrue(journal.append(second));
+        assertEquals(12, journal.getRecordCount());
+
+        final UriGrantsJournal replayed = new UriGrantsJournal(mFile);
+        assertEntries(concat(first, second), replayed.read(1));
+        assertEquals(12, replayed.getRecordCount());
+
+        // Appends go on after what was replayed.
+        final List<UriGrantsJournal.Entry> third = newEntries(12, 3);
+        assertTrue(replayed.append(third));
+        assertEntries(concat(concat(first, second), third), new UriGrantsJournal(mFile).read(1));
+    }
+
+    public void testReplaysOnlyEntriesSinceRewrite() throws Exception {
+        final UriGrantsJournal journal = new UriGrantsJournal(mFile);
+        journal.reset(1);
+        assertTrue(journal.append(newEntries(0, 10)));
+
+        // The grants file is rewritten as generation 2 and the journal emptied.
+        journal.reset(2);
+        assertEquals(0, journal.getRecordCount());
+        final List<UriGrantsJournal.Entry> after = newEntries(10, 4);
+        assertTrue(journal.append(after));
+
+        assertEntries(after, new UriGrantsJournal(mFile).read(2));
+        // A grants file of generation 1 would be older than the journal.
+        assertTrue(new UriGrantsJournal(mFile).read(1).isEmpty());
+    }
+
+    public void testIgnoresJournalOfOlderGeneration() throws Exception {
+        // As after a crash between writing the grants file of generation 2 in full
+        // and resetting the journal.
+        final UriGrantsJournal journal = new UriGrantsJournal(mFile);
+        journal.reset(1);
+        assertTrue(journal.append(newEntries(0, 10)));
+
+        final UriGrantsJournal replayed = new UriGrantsJournal(mFile);
+        assertTrue(replayed.read(2).isEmpty());
+        assertEquals(0, replayed.getRecordCount());
+        // The journal can't be appended to until it is reset, so changes go to a full write.
+        assertFalse(replayed.append(newEntries(10, 1)));
+        assertTrue(replayed.needsRewrite(1, 0));
+
+        replayed.reset(3);
+        assertFalse(replayed.needsRewrite(1, 0));
+        final List<UriGrantsJournal.Entry> after = newEntries(10, 1);
+        assertTrue(replayed.append(after));
+        assertEntries(after, new UriGrantsJournal(mFile).read(3));
+    }
+
+    public void testTornRecordEndsJournal() throws Exception {
+        final UriGrantsJournal journal = new UriGrantsJournal(mFile);
+        journal.reset(1);
+        final List<UriGrantsJournal.Entry> kept = newEntries(0, 6);
+        assertTrue(journal.append(kept));
+        assertTrue(journal.append(newEntries(6, 1)));
+        final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        final UriGrantsJournal replayed = new UriGrantsJournal(mFile);
+        assertEntries(kept, replayed.read(1));
+        assertFalse(replayed.append(newEntries(7, 1)));
+        assertTrue(replayed.needsRewrite(0, 0));
+    }
+
+    public void testCorruptRecordEndsJournal() throws Exception {
+        final UriGrantsJournal journal = new UriGrantsJournal(mFile);
+        journal.reset(1);
+        final List<UriGrantsJournal.Entry> kept = newEntries(0, 3);
+        assertTrue(journal.append(kept));
+        final long corruptAt = mFile.length() + 10;
+        assertTrue(journal.append(newEntries(3, 3)));
+        final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(corruptAt);
+            final int b = raf.read();
+            raf.seek(corruptAt);
+            raf.write(b ^ 0x40);
+        } finally {
+            raf.close();
+        }
+
+        final UriGrantsJournal replayed = new UriGrantsJournal(mFile);
+        assertEntries(kept, replayed.read(1));
+        assertFalse(replayed.append(newEntries(6, 1)));
+    }
+
+    public void testFailedWriteRefusesAppends() throws Exception {
+        final UriGrantsJournal journal = new UriGrantsJournal(mFile);
+        journal.reset(1);
+        assertTrue(journal.append(newEntries(0, 2)));
+        // The journal can no longer be opened for writing.
+        assertTrue(mFile.delete());
+        assertTrue(mFile.mkdir());
+        assertFalse(journal.append(newEntries(2, 1)));
+        assertTrue(journal.needsRewrite(0, 0));
+        // Nor reset, so the next change is written in full again.
+        journal.reset(2);
+        assertTrue(journal.needsRewrite(0, 0));
+        assertFalse(journal.append(newEntries(2, 1)));
+    }
+
+    public void testNeedsRewriteOnceReplayOutgrowsGrants() throws Exception {
+        final UriGrantsJournal journal = new UriGrantsJournal(mFile);
+        assertTrue(journal.needsRewrite(0, 0));
+        assertFalse(journal.append(newEntries(0, 1)));
+
+        journal.reset(1);
+        final int min = UriGrantsJournal.MIN_REWRITE_RECORDS;
+        assertFalse(journal.needsRewrite(min, 0));
+        assertTrue(journal.needsRewrite(min + 1, 0));
+        assertFalse(journal.needsRewrite(2 * min, 4 * min));
+        assertTrue(journal.needsRewrite(2 * min + 1, 4 * min));
+
+        assertTrue(journal.append(newEntries(0, 10)));
+        assertFalse(journal.needsRewrite(min - 10, 0));
+        assertTrue(journal.needsRewrite(min - 9, 0));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import android.util.ArrayMap;
+
+import com.android.server.am.ActivityManagerService.GrantUri;
+
+import java.util.ArrayList;
+
+/**
+ * The {@link UriPermission}s granted to a single UID, keyed by {@link GrantUri}.
+ * Prefix grants are also kept in a {@link UriPrefixTrie} so that checking a Uri
+ * against them doesn't have to test every grant the UID holds.
+ *
+ * Guarded by the ActivityManagerService lock.
+ */
+final class UriPermissionIndex {
+    private final ArrayMap<GrantUri, UriPermission> mPerms = new ArrayMap<>();
+    private final UriPrefixTrie<UriPermission> mPrefixPerms = new UriPrefixTrie<>();
+
+    // Reused by hasPrefixGrant().
+    private final ArrayList<UriPermission> mTmpMatches = new ArrayList<>();
+
+    int size() {
+        return mPerms.size();
+    }
+
+    boolean isEmpty() {
+        return mPerms.isEmpty();
+    }
+
+    GrantUri keyAt(int index) {
+        return mPerms.keyAt(index);
+    }
+
+    UriPermission valueAt(int index) {
+        return mPerms.valueAt(index);
+    }
+
+    UriPermission get(GrantUri grantUri) {
+        return mPerms.get(grantUri);
+    }
+
+    void add(UriPermission perm) {
+        final UriPermission old = mPerms.put(perm.uri, perm);
+        if (old != null && old.uri.prefix) {
+            mPrefixPerms.remove(old.uri.uri, old);
+        }
+        if (perm.uri.prefix) {
+            mPrefixPerms.add(perm.uri.uri, perm);
+        }
+    }
+
+    UriPermission remove(GrantUri grantUri) {
+        final int index = mPerms.indexOfKey(grantUri);
+        return index >= 0 ? removeAt(index) : null;
+    }
+
+    UriPermission removeAt(int index) {
+        final UriPermission perm = mPerms.removeAt(index);
+        if (perm.uri.prefix) {
+            mPrefixPerms.remove(perm.uri.uri, perm);
+        }
+        return perm;
+    }
+
+    /**
+     * Returns whether a prefix grant covering {@code grantUri} has at least
+     * {@code minStrength} for {@code modeFlags}.  The source user of the grant
+     * is not compared.
+     */
+    boolean hasPrefixGrant(GrantUri grantUri, int modeFlags, int minStrength) {
+        if (mPrefixPerms.size() == 0) {
+            return false;
+        }
+        final ArrayList<UriPermission> matches = mTmpMatches;
+        try {
+            mPrefixPerms.getMatches(grantUri.uri, matches);
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                if (matches.get(i).getStrength(modeFlags) >= minStrength) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            matches.clear();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package frameworks.base.core.java.android.server.am;
+
+import android.net.Uri;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Values attached to {@link Uri} prefixes, found by walking the scheme, the
+ * authority and then the path segments of a Uri.  Looking up every value whose
+ * prefix matches a Uri, in the sense of {@link Uri#isPathPrefixMatch(Uri)},
+ * costs time proportional to the number of path segments rather than to the
+ * number of prefixes.
+ *
+ * Not thread safe.
+ */
+public final class UriPrefixTrie<V> {
+    // Depth of the nodes holding authorities; values live at this depth or below.
+    private static final int AUTHORITY_DEPTH = 2;
+
+    private static final class Node<V> {
+        final Node<V> mParent;
+        final String mKey;
+        ArrayMap<String, Node<V>> mChildren;
+        ArrayList<V> mValues;
+
+        Node(Node<V> parent, String key) {
+            mParent = parent;
+            mKey = key;
+        }
+
+        Node<V> getChild(String key) {
+            return mChildren != null ? mChildren.get(key) : null;
+        }
+
+        boolean isEmpty() {
+            return (mChildren == null || mChildren.isEmpty())
+                    && (mValues == null || mValues.isEmpty());
+        }
+    }
+
+    private final Node<V> mRoot = new Node<>(null, null);
+    private int mSize;
+
+    public int size() {
+        return mSize;
+    }
+
+    /** Attaches {@code value} to the scheme, authority and path segments of {@code prefix}. */
+    public void add(Uri prefix, V value) {
+        Node<V> node = mRoot;
+        final List<String> segments = prefix.getPathSegments();
+        final int depth = AUTHORITY_DEPTH + segments.size();
+        for (int i = 0; i < depth; i++) {
+            final String key = getKey(prefix, segments, i);
+            Node<V> child = node.getChild(key);
+            if (child == null) {
+                child = new Node<>(node, key);
+                if (node.mChildren == null) {
+                    node.mChildren = new ArrayMap<>(1);
+                }
+                node.mChildren.put(key, child);
+            }
+            node = child;
+        }
+        if (node.mValues == null) {
+            node.mValues = new ArrayList<>(1);
+        }
+        node.mValues.add(value);
+        mSize++;
+    }
+
+    /** Detaches {@code value} from {@code prefix}, returning whether it was attached. */
+    public boolean remove(Uri prefix, V value) {
+        Node<V> node = mRoot;
+        final List<String> segments = prefix.getPathSegments();
+        final int depth = AUTHORITY_DEPTH + segments.size();
+        for (int i = 0; i < depth && node != null; i++) {
+            node = node.getChild(getKey(prefix, segments, i));
+        }
+        if (node == null || node.mValues == null || !node.mValues.remove(value)) {
+            return false;
+        }
+        mSize--;
+        // Prune the branch that no longer leads to any value.
+        while (node != mRoot && node.isEmpty()) {
+            node.mParent.mChildren.remove(node.mKey);
+            node = node.mParent;
+        }
+        return true;
+    }
+
+    /**
+     * Adds to {@code outValues} every value whose prefix matches {@code uri},
+     * shortest prefixes first.
+     */
+    public void getMatches(Uri uri, List<V> outValues) {
+        Node<V> node = mRoot.getChild(uri.getScheme());
+        if (node == null) {
+            return;
+        }
+        node = node.getChild(uri.getAuthority());
+        final List<String> segments = uri.getPathSegments();
+        final int count = segments.size();
+        for (int i = 0; node != null; i++) {
+            if (node.mValues != null) {
+                outValues.addAll(node.mValues);
+            }
+            if (i == count) {
+                break;
+            }
+            node = node.getChild(segments.get(i));
+        }
+    }
+
+    private static String getKey(Uri uri, List<String> segments, int depth) {
+        switch (depth) {
+            case 0: return uri.getScheme();
+            case 1: return uri.getAuthority();
+            default: return segments.get(depth - AUTHORITY_DEPTH);
+        }
+    }
+}
@@ -1854,7 +1854,8 @@ public final class Formatter implements Closeable, Flushable {
 
     private IOException lastException;
 
-    private final char zero;
+    // Looked up on first use; see zero().
+    private char zero;
     private static double scaleUp;
 
     // 1 (sign) + 19 (max # sig digits) + 1 ('.') + 1 ('e') + 1 (sign)
@@ -1889,7 +1890,6 @@ public final class Formatter implements Closeable, Flushable {
     private Formatter(Locale l, Appendable a) {
         this.a = a;
         this.l = l;
-        this.zero = getZero(l);
     }
 
     private Formatter(Charset charset, Locale l, File file)
@@ -2287,6 +2287,16 @@ public final class Formatter implements Closeable, Flushable {
         }
     }
 
+    /**
+     * Returns the zero digit of this formatter's locale.  It is looked up
+     * lazily since most format strings never print a localized number.
+     */
+    private char zero() {
+        if (zero == '\0')
+            zero = getZero(l);
+        return zero;
+    }
+
     /**
      * Returns the locale set by the construction of this formatter.
      *
@@ -2492,45 +2502,112 @@ public final class Formatter implements Closeable, Flushable {
      */
     public Formatter format(Locale l, String format, Object ... args) {
         ensureOpen();
+        format(l, Template.compile(format).parts, args);
+        return this;
+    }
 
+    /**
+     * Prints the parsed parts of a format string, which are either fixed
+     * text or specifiers.
+     */
+    private void format(Locale l, Object[] parts, Object[] args) {
         // index of last argument referenced
         int last = -1;
         // last ordinary index
         int lasto = -1;
 
-        FormatString[] fsa = parse(format);
-        for (int i = 0; i < fsa.length; i++) {
-            FormatString fs = fsa[i];
-            int index = fs.index();
+        for (int i = 0; i < parts.length; i++) {
+            Object part = parts[i];
             try {
+                if (part instanceof String) {
+                    a.append((String) part);
+                    continue;
+                }
+                Specifier fs = (Specifier) part;
+                int index = fs.index();
                 switch (index) {
-                case -2:  // fixed string, "%n", or "%%"
-                    fs.print(null, l);
+                case -2:  // "%n" or "%%"
+                    print(fs, null, l);
                     break;
                 case -1:  // relative index
                     if (last < 0 || (args != null && last > args.length - 1))
                         throw new MissingFormatArgumentException(fs.toString());
-                    fs.print((args == null ? null : args[last]), l);
+                    print(fs, (args == null ? null : args[last]), l);
                     break;
                 case 0:  // ordinary index
                     lasto++;
                     last = lasto;
                     if (args != null && lasto > args.length - 1)
                         throw new MissingFormatArgumentException(fs.toString());
-                    fs.print((args == null ? null : args[lasto]), l);
+                    print(fs, (args == null ? null : args[lasto]), l);
                     break;
                 default:  // explicit index
                     last = index - 1;
                     if (args != null && last > args.length - 1)
                         throw new MissingFormatArgumentException(fs.toString());
-                    fs.print((args == null ? null : args[last]), l);
+                    print(fs, (args == null ? null : args[last]), l);
                     break;
                 }
             } catch (IOException x) {
                 lastException = x;
             }
         }
-        return this;
+    }
+
+    private void print(Specifier fs, Object arg, Locale l) throws IOException {
+        if (!printFast(fs, arg, l))
+            new FormatSpecifier(fs).print(arg, l);
+    }
+
+    /**
+     * Prints {@code arg} straight to the destination if {@code fs} is a
+     * plain {@code %s}, {@code %d} or {@code %x} (or {@code %n}, {@code %%})
+     * with no flags, width or precision, and the argument needs no
+     * localization.  Returns {@code false}, having printed nothing, if the
+     * general path must be taken.
+     */
+    private boolean printFast(Specifier fs, Object arg, Locale l)
+        throws IOException
+    {
+        if (fs.dt || fs.width != -1 || fs.precision != -1
+            || fs.f.valueOf() != Flags.NONE.valueOf())
+            return false;
+        switch (fs.c) {
+        case Conversion.STRING:
+            if (arg instanceof Formattable)
+                return false;
+            a.append(arg == null ? "null" : arg.toString());
+            return true;
+        case Conversion.DECIMAL_INTEGER:
+            if (!(arg instanceof Integer || arg instanceof Long
+                  || arg instanceof Short || arg instanceof Byte))
+                return false;
+            // Same test as FormatSpecifier.getZero().
+            if ((l != null && !l.equals(this.l) ? getZero(l) : zero()) != '0')
+                return false;
+            long v = ((Number) arg).longValue();
+            if (a instanceof StringBuilder)
+                ((StringBuilder) a).append(v);
+            else
+                a.append(Long.toString(v));
+            return true;
+        case Conversion.HEXADECIMAL_INTEGER:
+            if (arg instanceof Integer)
+                a.append(Integer.toHexString((Integer) arg));
+            else if (arg instanceof Long)
+                a.append(Long.toHexString((Long) arg));
+            else
+                return false;
+            return true;
+        case Conversion.LINE_SEPARATOR:
+            a.append(System.lineSeparator());
+            return true;
+        case Conversion.PERCENT_SIGN:
+            a.append('%');
+            return true;
+        default:
+            return false;
+        }
     }
 
     // %[argument_index$][flags][width][.precision][t]conversion
@@ -2540,10 +2617,11 @@ public final class Formatter implements Closeable, Flushable {
     private static Pattern fsPattern = Pattern.compile(formatSpecifier);
 
     /**
-     * Finds format specifiers in the format string.
+     * Finds format specifiers in the format string.  The result holds
+     * fixed text as {@code String}s and specifiers as {@link Specifier}s.
      */
-    private FormatString[] parse(String s) {
-        ArrayList<FormatString> al = new ArrayList<>();
+    private static Object[] parse(String s) {
+        ArrayList<Object> al = new ArrayList<>();
         Matcher m = fsPattern.matcher(s);
         for (int i = 0, len = s.length(); i < len; ) {
             if (m.find(i)) {
@@ -2554,21 +2632,21 @@ public final class Formatter implements Closeable, Flushable {
                     // Make sure we didn't miss any invalid format specifiers
                     checkText(s, i, m.start());
                     // Assume previous characters were fixed text
-                    al.add(new FixedString(s.substring(i, m.start())));
+                    al.add(s.substring(i, m.start()));
                 }
 
-                al.add(new FormatSpecifier(m));
+                al.add(new Specifier(m));
                 i = m.end();
             } else {
                 // No more valid format specifiers.  Check for possible invalid
                 // format specifiers.
                 checkText(s, i, len);
                 // The rest of the string is fixed text
-                al.add(new FixedString(s.substring(i)));
+                al.add(s.substring(i));
                 break;
             }
         }
-        return al.toArray(new FormatString[al.size()]);
+        return al.toArray();
     }
 
     private static void checkText(String s, int start, int end) {
@@ -2581,19 +2659,95 @@ public final class Formatter implements Closeable, Flushable {
         }
     }
 
-    private interface FormatString {
-        int index();
-        void print(Object arg, Locale l) throws IOException;
-        String toString();
-    }
+    /**
+     * A format string parsed once so that it can be applied many times.
+     * {@link Formatter#format(Locale,String,Object...)} and
+     * {@link String#format(String,Object...)} look format strings up in the
+     * same bounded cache that {@link #compile(String)} fills, so constant
+     * format strings are only parsed on first use.  Templates are immutable
+     * and may be shared between threads.
+     *
+     * <p> Plain {@code %s}, {@code %d} and {@code %x} specifiers are printed
+     * straight to the destination without building intermediate strings.
+     *
+     * @hide
+     */
+    public static final class Template {
+        // Direct-mapped: a format string replaces any other that hashes to
+        // its slot.  Templates are immutable, so the slots need no locking.
+        private static final int CACHE_SIZE = 256;
+        private static final Template[] cache = new Template[CACHE_SIZE];
+
+        private final String format;
+        private final Object[] parts;
+
+        private Template(String format, Object[] parts) {
+            this.format = format;
+            this.parts = parts;
+        }
+
+        /**
+         * Returns the parsed form of {@code format}, reusing a cached one if
+         * the same format string was parsed recently.
+         *
+         * @throws  IllegalFormatException
+         *          If the format string contains an illegal syntax
+         */
+        public static Template compile(String format) {
+            int slot = format.hashCode() & (CACHE_SIZE - 1);
+            Template t = cache[slot];
+            if (t == null || !t.format.equals(format)) {
+                t = new Template(format, parse(format));
+                cache[slot] = t;
+            }
+            return t;
+        }
 
-    private class FixedString implements FormatString {
-        private String s;
-        FixedString(String s) { this.s = s; }
-        public int index() { return -2; }
-        public void print(Object arg, Locale l)
-            throws IOException { a.append(s); }
-        public String toString() { return s; }
+        /**
+         * Returns a string formatted with this template and the default
+         * {@linkplain Locale.Category#FORMAT format} locale.
+         *
+         * @see String#format(String,Object...)
+         */
+        public String format(Object... args) {
+            return format(Locale.getDefault(Locale.Category.FORMAT), args);
+        }
+
+        /**
+         * Returns a string formatted with this template and the given locale.
+         *
+         * @see String#format(Locale,String,Object...)
+         */
+        public String format(Locale l, Object... args) {
+            StringBuilder sb = new StringBuilder();
+            new Formatter(l, sb).format(l, parts, args);
+            return sb.toString();
+        }
+
+        /**
+         * Appends the result of formatting {@code args} with this template
+         * and the given locale to {@code a}.
+         *
+         * @throws  IOException
+         *          If {@code a} throws while appending.  As with {@link
+         *          Formatter#ioException()}, the remaining parts are still
+         *          printed and the last exception is the one thrown.
+         */
+        public void formatTo(Appendable a, Locale l, Object... args)
+            throws IOException
+        {
+            Formatter fmt = new Formatter(l, Objects.requireNonNull(a));
+            fmt.format(l, parts, args);
+            if (fmt.lastException != null)
+                throw fmt.lastException;
+        }
+
+        /**
+         * Returns the format string this template was compiled from.
+         */
+        public String toString() {
+            return format;
+        }
     }
 
     /**
@@ -2611,13 +2765,18 @@ public final class Formatter implements Closeable, Flushable {
         DECIMAL_FLOAT
     };
 
-    private class FormatSpecifier implements FormatString {
-        private int index = -1;
-        private Flags f = Flags.NONE;
-        private int width;
-        private int precision;
-        private boolean dt = false;
-        private char c;
+    /**
+     * A format specifier as parsed and checked, before it is bound to a
+     * formatter to print an argument.  Specifiers hold no formatter state,
+     * so parsed format strings can be cached and shared between threads.
+     */
+    private static class Specifier {
+        int index = -1;
+        Flags f = Flags.NONE;
+        int width;
+        int precision;
+        boolean dt = false;
+        char c;
 
         private int index(String s) {
             if (s != null) {
@@ -2702,7 +2861,7 @@ public final class Formatter implements Closeable, Flushable {
             return c;
         }
 
-        FormatSpecifier(Matcher m) {
+        Specifier(Matcher m) {
             int idx = 1;
 
             index(m.group(idx++));
@@ -2735,6 +2894,149 @@ public final class Formatter implements Closeable, Flushable {
                 throw new UnknownFormatConversionException(String.valueOf(c));
         }
 
+        Specifier(Specifier spec) {
+            index = spec.index;
+            f = spec.f;
+            width = spec.width;
+            precision = spec.precision;
+            dt = spec.dt;
+            c = spec.c;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder("%");
+            // Flags.UPPERCASE is set internally for legal conversions.
+            Flags dupf = f.dup().remove(Flags.UPPERCASE);
+            sb.append(dupf.toString());
+            if (index > 0)
+                sb.append(index).append('$');
+            if (width != -1)
+                sb.append(width);
+            if (precision != -1)
+                sb.append('.').append(precision);
+            if (dt)
+                sb.append(f.contains(Flags.UPPERCASE) ? 'T' : 't');
+            sb.append(f.contains(Flags.UPPERCASE)
+                      ? Character.toUpperCase(c) : c);
+            return sb.toString();
+        }
+
+        private void checkGeneral() {
+            if ((c == Conversion.BOOLEAN || c == Conversion.HASHCODE)
+                && f.contains(Flags.ALTERNATE))
+                failMismatch(Flags.ALTERNATE, c);
+            // '-' requires a width
+            if (width == -1 && f.contains(Flags.LEFT_JUSTIFY))
+                throw new MissingFormatWidthException(toString());
+            checkBadFlags(Flags.PLUS, Flags.LEADING_SPACE, Flags.ZERO_PAD,
+                          Flags.GROUP, Flags.PARENTHESES);
+        }
+
+        private void checkDateTime() {
+            if (precision != -1)
+                throw new IllegalFormatPrecisionException(precision);
+            if (!DateTime.isValid(c))
+                throw new UnknownFormatConversionException("t" + c);
+            checkBadFlags(Flags.ALTERNATE, Flags.PLUS, Flags.LEADING_SPACE,
+                          Flags.ZERO_PAD, Flags.GROUP, Flags.PARENTHESES);
+            // '-' requires a width
+            if (width == -1 && f.contains(Flags.LEFT_JUSTIFY))
+                throw new MissingFormatWidthException(toString());
+        }
+
+        private void checkCharacter() {
+            if (precision != -1)
+                throw new IllegalFormatPrecisionException(precision);
+            checkBadFlags(Flags.ALTERNATE, Flags.PLUS, Flags.LEADING_SPACE,
+                          Flags.ZERO_PAD, Flags.GROUP, Flags.PARENTHESES);
+            // '-' requires a width
+            if (width == -1 && f.contains(Flags.LEFT_JUSTIFY))
+                throw new MissingFormatWidthException(toString());
+        }
+
+        private void checkInteger() {
+            checkNumeric();
+            if (precision != -1)
+                throw new IllegalFormatPrecisionException(precision);
+
+            if (c == Conversion.DECIMAL_INTEGER)
+                checkBadFlags(Flags.ALTERNATE);
+            else if (c == Conversion.OCTAL_INTEGER)
+                checkBadFlags(Flags.GROUP);
+            else
+                checkBadFlags(Flags.GROUP);
+        }
+
+        void checkBadFlags(Flags ... badFlags) {
+            for (int i = 0; i < badFlags.length; i++)
+                if (f.contains(badFlags[i]))
+                    failMismatch(badFlags[i], c);
+        }
+
+        private void checkFloat() {
+            checkNumeric();
+            if (c == Conversion.DECIMAL_FLOAT) {
+            } else if (c == Conversion.HEXADECIMAL_FLOAT) {
+                checkBadFlags(Flags.PARENTHESES, Flags.GROUP);
+            } else if (c == Conversion.SCIENTIFIC) {
+                checkBadFlags(Flags.GROUP);
+            } else if (c == Conversion.GENERAL) {
+                checkBadFlags(Flags.ALTERNATE);
+            }
+        }
+
+        private void checkNumeric() {
+            if (width != -1 && width < 0)
+                throw new IllegalFormatWidthException(width);
+
+            if (precision != -1 && precision < 0)
+                throw new IllegalFormatPrecisionException(precision);
+
+            // '-' and '0' require a width
+            if (width == -1
+                && (f.contains(Flags.LEFT_JUSTIFY) || f.contains(Flags.ZERO_PAD)))
+                throw new MissingFormatWidthException(toString());
+
+            // bad combination
+            if ((f.contains(Flags.PLUS) && f.contains(Flags.LEADING_SPACE))
+                || (f.contains(Flags.LEFT_JUSTIFY) && f.contains(Flags.ZERO_PAD)))
+                throw new IllegalFormatFlagsException(f.toString());
+        }
+
+        private void checkText() {
+            if (precision != -1)
+                throw new IllegalFormatPrecisionException(precision);
+            switch (c) {
+            case Conversion.PERCENT_SIGN:
+                if (f.valueOf() != Flags.LEFT_JUSTIFY.valueOf()
+                    && f.valueOf() != Flags.NONE.valueOf())
+                    throw new IllegalFormatFlagsException(f.toString());
+                // '-' requires a width
+                if (width == -1 && f.contains(Flags.LEFT_JUSTIFY))
+                    throw new MissingFormatWidthException(toString());
+                break;
+            case Conversion.LINE_SEPARATOR:
+                if (width != -1)
+                    throw new IllegalFormatWidthException(width);
+                if (f.valueOf() != Flags.NONE.valueOf())
+                    throw new IllegalFormatFlagsException(f.toString());
+                break;
+            default:
+                assert false;
+            }
+        }
+
+        void failMismatch(Flags f, char c) {
+            String fs = f.toString();
+            throw new FormatFlagsConversionMismatchException(fs, c);
+        }
+    }
+
+    private class FormatSpecifier extends Specifier {
+        FormatSpecifier(Specifier spec) {
+            super(spec);
+        }
+
         public void print(Object arg, Locale l) throws IOException {
             if (dt) {
                 printDateTime(arg, l);
@@ -2927,129 +3229,6 @@ public final class Formatter implements Closeable, Flushable {
             return sb.toString();
         }
 
-        public String toString() {
-            StringBuilder sb = new StringBuilder("%");
-            // Flags.UPPERCASE is set internally for legal conversions.
-            Flags dupf = f.dup().remove(Flags.UPPERCASE);
-            sb.append(dupf.toString());
-            if (index > 0)
-                sb.append(index).append('$');
-            if (width != -1)
-                sb.append(width);
-            if (precision != -1)
-                sb.append('.').append(precision);
-            if (dt)
-                sb.append(f.contains(Flags.UPPERCASE) ? 'T' : 't');
-            sb.append(f.contains(Flags.UPPERCASE)
-                      ? Character.toUpperCase(c) : c);
-            return sb.toString();
-        }
-
-        private void checkGeneral() {
-            if ((c == Conversion.BOOLEAN || c == Conversion.HASHCODE)
-                && f.contains(Flags.ALTERNATE))
-                failMismatch(Flags.ALTERNATE, c);
-            // '-' requires a width
-            if (width == -1 && f.contains(Flags.LEFT_JUSTIFY))
-                throw new MissingFormatWidthException(toString());
-            checkBadFlags(Flags.PLUS, Flags.LEADING_SPACE, Flags.ZERO_PAD,
-                          Flags.GROUP, Flags.PARENTHESES);
-        }
-
-        private void checkDateTime() {
-            if (precision != -1)
-                throw new IllegalFormatPrecisionException(precision);
-            if (!DateTime.isValid(c))
-                throw new UnknownFormatConversionException("t" + c);
-            checkBadFlags(Flags.ALTERNATE, Flags.PLUS, Flags.LEADING_SPACE,
-                          Flags.ZERO_PAD, Flags.GROUP, Flags.PARENTHESES);
-            // '-' requires a width
-            if (width == -1 && f.contains(Flags.LEFT_JUSTIFY))
-                throw new MissingFormatWidthException(toString());
-        }
-
-        private void checkCharacter() {
-            if (precision != -1)
-                throw new IllegalFormatPrecisionException(precision);
-            checkBadFlags(Flags.ALTERNATE, Flags.PLUS, Flags.LEADING_SPACE,
-                          Flags.ZERO_PAD, Flags.GROUP, Flags.PARENTHESES);
-            // '-' requires a width
-            if (width == -1 && f.contains(Flags.LEFT_JUSTIFY))
-                throw new MissingFormatWidthException(toString());
-        }
-
-        private void checkInteger() {
-            checkNumeric();
-            if (precision != -1)
-                throw new IllegalFormatPrecisionException(precision);
-
-            if (c == Conversion.DECIMAL_INTEGER)
-                checkBadFlags(Flags.ALTERNATE);
-            else if (c == Conversion.OCTAL_INTEGER)
-                checkBadFlags(Flags.GROUP);
-            else
-                checkBadFlags(Flags.GROUP);
-        }
-
-        private void checkBadFlags(Flags ... badFlags) {
-            for (int i = 0; i < badFlags.length; i++)
-                if (f.contains(badFlags[i]))
-                    failMismatch(badFlags[i], c);
-        }
-
-        private void checkFloat() {
-            checkNumeric();
-            if (c == Conversion.DECIMAL_FLOAT) {
-            } else if (c == Conversion.HEXADECIMAL_FLOAT) {
-                checkBadFlags(Flags.PARENTHESES, Flags.GROUP);
-            } else if (c == Conversion.SCIENTIFIC) {
-                checkBadFlags(Flags.GROUP);
-            } else if (c == Conversion.GENERAL) {
-                checkBadFlags(Flags.ALTERNATE);
-            }
-        }
-
-        private void checkNumeric() {
-            if (width != -1 && width < 0)
-                throw new IllegalFormatWidthException(width);
-
-            if (precision != -1 && precision < 0)
-                throw new IllegalFormatPrecisionException(precision);
-
-            // '-' and '0' require a width
-            if (width == -1
-                && (f.contains(Flags.LEFT_JUSTIFY) || f.contains(Flags.ZERO_PAD)))
-                throw new MissingFormatWidthException(toString());
-
-            // bad combination
-            if ((f.contains(Flags.PLUS) && f.contains(Flags.LEADING_SPACE))
-                || (f.contains(Flags.LEFT_JUSTIFY) && f.contains(Flags.ZERO_PAD)))
-                throw new IllegalFormatFlagsException(f.toString());
-        }
-
-        private void checkText() {
-            if (precision != -1)
-                throw new IllegalFormatPrecisionException(precision);
-            switch (c) {
-            case Conversion.PERCENT_SIGN:
-                if (f.valueOf() != Flags.LEFT_JUSTIFY.valueOf()
-                    && f.valueOf() != Flags.NONE.valueOf())
-                    throw new IllegalFormatFlagsException(f.toString());
-                // '-' requires a width
-                if (width == -1 && f.contains(Flags.LEFT_JUSTIFY))
-                    throw new MissingFormatWidthException(toString());
-                break;
-            case Conversion.LINE_SEPARATOR:
-                if (width != -1)
-                    throw new IllegalFormatWidthException(width);
-                if (f.valueOf() != Flags.NONE.valueOf())
-                    throw new IllegalFormatFlagsException(f.toString());
-                break;
-            default:
-                assert false;
-            }
-        }
-
         private void print(byte value, Locale l) throws IOException {
             long v = value;
             if (value < 0
@@ -4293,11 +4472,6 @@ public final class Formatter implements Closeable, Flushable {
 
         // -- Methods to support throwing exceptions --
 
-        private void failMismatch(Flags f, char c) {
-            String fs = f.toString();
-            throw new FormatFlagsConversionMismatchException(fs, c);
-        }
-
         private void failConversion(char c, Object arg) {
             throw new IllegalFormatConversionException(c, arg.getClass());
         }
@@ -4307,7 +4481,7 @@ public final class Formatter implements Closeable, Flushable {
                 DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance(l);
                 return dfs.getZeroDigit();
             }
-            return zero;
+            return zero();
         }
 
         private StringBuilder
@@ -0,0 +1,623 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.concurrent;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ScheduledExecutorService} that keeps delayed tasks in a
+ * hierarchical timing wheel rather than a heap, for use with very many
+ * pending timeouts that are mostly cancelled before they expire.
+ *
+ * <p>Time is divided into ticks of a fixed duration.  Scheduling and
+ * cancelling a task take constant time, and a cancelled task is removed
+ * from the wheel at once.  A single ticker thread wakes up only for ticks
+ * that have tasks due, collects every task that has become due since it
+ * last ran under one lock acquisition, and hands them to a fixed pool of
+ * worker threads.
+ *
+ * <p>The price is precision: a task never runs before its delay has
+ * elapsed, but may run up to one tick later than it would on a
+ * {@link ScheduledThreadPoolExecutor}, and tasks due in the same tick run
+ * in no particular order.  Tasks submitted with no delay bypass the wheel.
+ *
+ * <p>As with {@link ScheduledThreadPoolExecutor} under its default
+ * policies, delayed tasks still run after {@link #shutdown}, while
+ * periodic tasks are cancelled.
+ *
+ * @hide
+ */
+public class TimingWheelScheduledExecutor extends AbstractExecutorService
+        implements ScheduledExecutorService {
+
+    /*
+     * The wheel has LEVELS levels of WHEEL_SIZE slots each, as in the
+     * Linux kernel's timer wheel.  A task due within WHEEL_SIZE ticks is
+     * kept in the level 0 slot of its tick.  A task due further out is
+     * kept at the level whose slots span its distance, in the slot of the
+     * corresponding bits of its tick, and is moved ("cascaded") to a
+     * lower level when the ticker reaches that slot.  Tasks further out
+     * than the wheel spans wait in the top level and are re-placed each
+     * time it turns.  Each slot is a doubly linked list of tasks.
+     *
+     * All wheel state is guarded by lock.  "base" is the next tick the
+     * ticker will process; placement is relative to it.
+     */
+
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final ThreadPoolExecutor workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final CountDownLatch tickerDone = new CountDownLatch(1);
+
+    private final WheelTask<?>[][] wheel = new WheelTask<?>[LEVELS][WHEEL_SIZE];
+    private long base;
+    /** The tick the ticker is sleeping until, or MAX_VALUE if awake or idle. */
+    private long wakeTick = Long.MAX_VALUE;
+    /** Number of tasks in the wheel. */
+    private int pending;
+    private volatile boolean shutdown;
+
+    private class WheelTask<V>
+            extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+        /** The time the task is enabled to execute in nanoTime units */
+        private long time;
+
+        /**
+         * Period in nanoseconds for repeating tasks.  A positive
+         * value indicates fixed-rate execution.  A negative value
+         * indicates fixed-delay execution.  A value of 0 indicates a
+         * non-repeating task.
+         */
+        private final long period;
+
+        /** The first tick at or after time. */
+        long tick;
+        /** The wheel level and slot holding this task, or -1 if none. */
+        int level = -1;
+        int slot;
+        WheelTask<?> prev;
+        WheelTask<?> next;
+
+        WheelTask(Runnable r, V result, long ns, long period) {
+            super(r, result);
+            this.time = ns;
+            this.period = period;
+        }
+
+        WheelTask(Callable<V> callable, long ns) {
+            super(callable);
+            this.time = ns;
+            this.period = 0;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.nanoTime(), NANOSECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            if (other == this)
+                return 0;
+            long diff = getDelay(NANOSECONDS) - other.getDelay(NANOSECONDS);
+            return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
+        }
+
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled)
+                remove(this);
+            return cancelled;
+        }
+
+        public void run() {
+            if (!isPeriodic())
+                super.run();
+            else if (super.runAndReset()) {
+                time = (period > 0) ? time + period : triggerTime(-period);
+                reExecutePeriodic(this);
+            }
+        }
+    }
+
+    /**
+     * Creates a new executor with the given number of worker threads and
+     * a tick of one millisecond.
+     *
+     * @param workerThreads the number of threads that run due tasks
+     * @throws IllegalArgumentException if {@code workerThreads <= 0}
+     */
+    public TimingWheelScheduledExecutor(int workerThreads) {
+        this(workerThreads, 1, MILLISECONDS, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Creates a new executor.
+     *
+     * @param workerThreads the number of threads that run due tasks
+     * @param tickDuration the resolution of the wheel
+     * @param unit the time unit of {@code tickDuration}
+     * @param threadFactory the factory for the ticker and worker threads
+     * @throws IllegalArgumentException if {@code workerThreads <= 0} or
+     *         {@code tickDuration <= 0}
+     * @throws NullPointerException if {@code unit} or
+     *         {@code threadFactory} is null
+     */
+    public TimingWheelScheduledExecutor(int workerThreads, long tickDuration,
+                                        TimeUnit unit,
+                                        ThreadFactory threadFactory) {
+        if (workerThreads <= 0 || tickDuration <= 0)
+            throw new IllegalArgumentException();
+        if (unit == null || threadFactory == null)
+            throw new NullPointerException();
+        tickNanos = Math.max(1L, unit.toNanos(tickDuration));
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads,
+                                         0L, NANOSECONDS,
+                                         new LinkedBlockingQueue<Runnable>(),
+                                         threadFactory);
+        Thread ticker = threadFactory.newThread(new Ticker());
+        if (ticker == null)
+            throw new NullPointerException("threadFactory returned null");
+        startNanos = System.nanoTime();
+        ticker.start();
+    }
+
+    private long triggerTime(long delay) {
+        return System.nanoTime() + Math.min(delay, Long.MAX_VALUE >> 1);
+    }
+
+    private long triggerTime(long delay, TimeUnit unit) {
+        return triggerTime(unit.toNanos((delay < 0) ? 0 : delay));
+    }
+
+    /** Returns the number of whole ticks elapsed by the given time. */
+    private long elapsedTicks(long now) {
+        return (now - startNanos) / tickNanos;
+    }
+
+    /**
+     * Adds a task to the wheel, or hands it straight to the workers if it
+     * is already due.
+     */
+    private void delayedExecute(WheelTask<?> task) {
+        lock.lock();
+        try {
+            if (shutdown)
+                throw new RejectedExecutionException(
+                    "Task " + task + " rejected from " + this);
+            // Dispatch under the lock, so that the ticker cannot see the
+            // shutdown and stop the workers before an accepted task
+            // reaches them.
+            if (!enqueue(task))
+                dispatch(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requeues a periodic task after a run, unless shut down.
+     */
+    private void reExecutePeriodic(WheelTask<?> task) {
+        boolean cancel;
+        lock.lock();
+        try {
+            cancel = shutdown;
+            if (!cancel && !enqueue(task))
+                dispatch(task);
+        } finally {
+            lock.unlock();
+        }
+        if (cancel)
+            task.cancel(false);
+    }
+
+    /**
+     * Places a task in the wheel and wakes the ticker if it is sleeping
+     * past the task's tick.  Returns false, without placing it, if the
+     * task is already due.  Must be called with lock held.
+     */
+    private boolean enqueue(WheelTask<?> task) {
+        long now = System.nanoTime();
+        if (task.time - now <= 0)
+            return false;
+        // Round up so that a task never runs early.
+        task.tick = (task.time - startNanos + tickNanos - 1) / tickNanos;
+        if (pending++ == 0)
+            base = elapsedTicks(now) + 1;
+        place(task);
+        if (Math.max(task.tick, base) < wakeTick)
+            available.signal();
+        return true;
+    }
+
+    private void place(WheelTask<?> task) {
+        long expires = task.tick;
+        long idx = expires - base;
+        int level;
+        int slot;
+        if (idx < WHEEL_SIZE) {
+            level = 0;
+            slot = (int) ((idx < 0) ? base : expires) & WHEEL_MASK;
+        } else {
+            if (idx > MAX_SPAN) {
+                expires = base + MAX_SPAN;
+                idx = MAX_SPAN;
+            }
+            level = 1;
+            while (idx >= 1L << (WHEEL_BITS * (level + 1)))
+                level++;
+            slot = (int) (expires >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        }
+        WheelTask<?> head = wheel[level][slot];
+        task.level = level;
+        task.slot = slot;
+        task.prev = null;
+        task.next = head;
+        if (head != null)
+            head.prev = task;
+        wheel[level][slot] = task;
+    }
+
+    private void unlink(WheelTask<?> task) {
+        if (task.prev == null)
+            wheel[task.level][task.slot] = task.next;
+        else
+            task.prev.next = task.next;
+        if (task.next != null)
+            task.next.prev = task.prev;
+        task.level = -1;
+        task.prev = null;
+        task.next = null;
+    }
+
+    /**
+     * Removes a cancelled task from the wheel, if it is still there.
+     */
+    private void remove(WheelTask<?> task) {
+        lock.lock();
+        try {
+            if (task.level >= 0) {
+                unlink(task);
+                pending--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch(WheelTask<?> task) {
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The workers are only shut down by the ticker once the wheel
+            // is empty, or by shutdownNow.  Only the ticker can get here,
+            // racing with shutdownNow, which drops waiting tasks anyway.
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Re-places the tasks of one slot relative to the current base.
+     */
+    private void cascade(int level, int slot) {
+        WheelTask<?> task = wheel[level][slot];
+        wheel[level][slot] = null;
+        while (task != null) {
+            WheelTask<?> next = task.next;
+            place(task);
+            task = next;
+        }
+    }
+
+    /**
+     * Returns the earliest tick at or after base at which the ticker has
+     * work to do: a level 0 slot to run or a higher level to cascade.
+     */
+    private long nextEventTick() {
+        if ((base & WHEEL_MASK) == 0)
+            return base;
+        long boundary = (base | WHEEL_MASK) + 1;
+        for (long t = base; t < boundary; t++) {
+            if (wheel[0][(int) t & WHEEL_MASK] != null)
+                return t;
+        }
+        return boundary;
+    }
+
+    /**
+     * Waits for ticks with due tasks and unlinks those tasks.  Returns
+     * them chained through their next fields, or null once the executor
+     * is shut down and the wheel is empty.
+     */
+    private WheelTask<?> awaitExpired() {
+        lock.lock();
+        try {
+            for (;;) {
+                if (pending == 0) {
+                    if (shutdown)
+                        return null;
+                    wakeTick = Long.MAX_VALUE;
+                    available.awaitUninterruptibly();
+                    continue;
+                }
+                long now = System.nanoTime();
+                long elapsed = elapsedTicks(now);
+                if (base > elapsed) {
+                    long tick = nextEventTick();
+                    wakeTick = tick;
+                    try {
+                        available.awaitNanos(startNanos + tick * tickNanos - now);
+                    } catch (InterruptedException ignore) {
+                    }
+                    wakeTick = Long.MAX_VALUE;
+                    continue;
+                }
+                WheelTask<?> expired = null;
+                while (base <= elapsed && pending > 0) {
+                    int slot = (int) base & WHEEL_MASK;
+                    for (int level = 1; slot == 0 && level < LEVELS; level++) {
+                        slot = (int) (base >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+                        cascade(level, slot);
+                    }
+                    slot = (int) base & WHEEL_MASK;
+                    WheelTask<?> task = wheel[0][slot];
+                    wheel[0][slot] = null;
+                    while (task != null) {
+                        WheelTask<?> next = task.next;
+                        task.level = -1;
+                        task.prev = null;
+                        task.next = expired;
+                        expired = task;
+                        pending--;
+                        task = next;
+                    }
+                    // Skip empty ticks, stopping at the next cascade.
+                    base++;
+                    base = Math.min(nextEventTick(), elapsed + 1);
+                }
+                if (pending == 0)
+                    base = elapsed + 1;
+                if (expired != null)
+                    return expired;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private final class Ticker implements Runnable {
+        public void run() {
+            try {
+                WheelTask<?> task;
+                while ((task = awaitExpired()) != null) {
+                    // Read next before the task can be requeued.
+                    do {
+                        WheelTask<?> next = task.next;
+                        task.next = null;
+                        dispatch(task);
+                        task = next;
+                    } while (task != null);
+                }
+            } finally {
+                workers.shutdown();
+                tickerDone.countDown();
+            }
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public ScheduledFuture<?> schedule(Runnable command,
+                                       long delay,
+                                       TimeUnit unit) {
+        if (command == null || unit == null)
+            throw new NullPointerException();
+        WheelTask<Void> t = new WheelTask<Void>(command, null,
+                                                triggerTime(delay, unit), 0);
+        delayedExecute(t);
+        return t;
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable,
+                                           long delay,
+                                           TimeUnit unit) {
+        if (callable == null || unit == null)
+            throw new NullPointerException();
+        WheelTask<V> t = new WheelTask<V>(callable, triggerTime(delay, unit));
+        delayedExecute(t);
+        return t;
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     * @throws IllegalArgumentException   {@inheritDoc}
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+                                                  long initialDelay,
+                                                  long period,
+                                                  TimeUnit unit) {
+        if (command == null || unit == null)
+            throw new NullPointerException();
+        if (period <= 0)
+            throw new IllegalArgumentException();
+        WheelTask<Void> t = new WheelTask<Void>(command, null,
+                                                triggerTime(initialDelay, unit),
+                                                unit.toNanos(period));
+        delayedExecute(t);
+        return t;
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     * @throws IllegalArgumentException   {@inheritDoc}
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+                                                     long initialDelay,
+                                                     long delay,
+                                                     TimeUnit unit) {
+        if (command == null || unit == null)
+            throw new NullPointerException();
+        if (delay <= 0)
+            throw new IllegalArgumentException();
+        WheelTask<Void> t = new WheelTask<Void>(command, null,
+                                                triggerTime(initialDelay, unit),
+                                                unit.toNanos(-delay));
+        delayedExecute(t);
+        return t;
+    }
+
+    /**
+     * Executes {@code command} with zero required delay.
+     *
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public void execute(Runnable command) {
+        schedule(command, 0, NANOSECONDS);
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public Future<?> submit(Runnable task) {
+        return schedule(task, 0, NANOSECONDS);
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public <T> Future<T> submit(Runnable task, T result) {
+        if (task == null)
+            throw new NullPointerException();
+        WheelTask<T> t = new WheelTask<T>(task, result, triggerTime(0), 0);
+        delayedExecute(t);
+        return t;
+    }
+
+    /**
+     * @throws RejectedExecutionException {@inheritDoc}
+     * @throws NullPointerException       {@inheritDoc}
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return schedule(task, 0, NANOSECONDS);
+    }
+
+    /**
+     * Initiates an orderly shutdown in which previously submitted delayed
+     * tasks still run when due, but periodic tasks are cancelled and no
+     * new tasks are accepted.
+     */
+    public void shutdown() {
+        List<WheelTask<?>> periodic = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            for (WheelTask<?>[] level : wheel) {
+                for (WheelTask<?> task : level) {
+                    for (; task != null; task = task.next) {
+                        if (task.isPeriodic())
+                            periodic.add(task);
+                    }
+                }
+            }
+            for (WheelTask<?> task : periodic) {
+                unlink(task);
+                pending--;
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        for (WheelTask<?> task : periodic)
+            task.cancel(false);
+    }
+
+    /**
+     * Attempts to stop all actively executing tasks and returns the tasks
+     * that were awaiting execution, including those not yet due.
+     */
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            for (WheelTask<?>[] level : wheel) {
+                for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                    WheelTask<?> task = level[slot];
+                    while (task != null) {
+                        WheelTask<?> next = task.next;
+                        unlink(task);
+                        tasks.add(task);
+                        task = next;
+                    }
+                }
+            }
+            pending = 0;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        tasks.addAll(workers.shutdownNow());
+        return tasks;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return tickerDone.getCount() == 0 && workers.isTerminated();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!tickerDone.await(unit.toNanos(timeout), NANOSECONDS))
+            return false;
+        return workers.awaitTermination(deadline - System.nanoTime(),
+                                        NANOSECONDS);
+    }
+}
@@ -1245,7 +1245,10 @@ public final class Matcher implements MatchResult {
         for (int i = 0; i < groups.length; i++)
             groups[i] = -1;
         acceptMode = NOANCHOR;
-        boolean result = parentPattern.root.match(this, from, text);
+        Pattern.Dfa dfa = parentPattern.dfa;
+        if (dfa != null)
+            from = dfa.matchStart(this, from);
+        boolean result = from >= 0 && parentPattern.root.match(this, from, text);
         if (!result)
             this.first = -1;
         this.oldLast = this.last;
@@ -1267,7 +1270,9 @@ public final class Matcher implements MatchResult {
         for (int i = 0; i < groups.length; i++)
             groups[i] = -1;
         acceptMode = anchor;
-        boolean result = parentPattern.matchRoot.match(this, from, text);
+        Pattern.Dfa dfa = parentPattern.dfa;
+        boolean result = (dfa == null || !dfa.rejects(this, from, true))
+            && parentPattern.matchRoot.match(this, from, text);
         if (!result)
             this.first = -1;
         this.oldLast = this.last;
@@ -917,6 +917,32 @@ public final class Pattern
      */
     public static final int UNICODE_CHARACTER_CLASS = 0x100;
 
+    /**
+     * Lets matchers rule out a match, and find where one starts, with a
+     * lazily built deterministic automaton before running the backtracking
+     * engine.
+     *
+     * <p> The automaton only filters and positions matches; it never
+     * produces one.  It is only built for patterns made of literals,
+     * character classes, groups, alternation and greedy or reluctant
+     * quantifiers.  A find, match or lookingAt that the automaton proves
+     * cannot succeed fails without backtracking, in linear time.  A find
+     * that can succeed starts the backtracking engine at the first index a
+     * match starts at, found in at most quadratic time, instead of trying
+     * every earlier index, so a pattern that would backtrack exponentially
+     * on the input before its match no longer does.  Where each match ends
+     * and what its groups capture always come from the backtracking engine,
+     * which may still take exponential time from that index.  When the
+     * pattern or input uses anything else, the backtracking engine runs as
+     * usual.  Results, groups and {@link Matcher#hitEnd} are the same as
+     * without this flag.
+     *
+     * <p> There is no embedded flag character for this flag.
+     *
+     * @hide
+     */
+    public static final int DFA = 0x200;
+
     /* Pattern has only two serialized components: The pattern string
      * and the flags, which are all that is needed to recompile the pattern
      * when it is deserialized.
@@ -963,6 +989,12 @@ public final class Pattern
      */
     transient Node matchRoot;
 
+    /**
+     * The automaton used to rule out and locate matches, or null if the {@link #DFA}
+     * flag is not set or the pattern cannot be expressed as one.
+     */
+    transient Dfa dfa;
+
     /**
      * Temporary storage used by parsing pattern slice.
      */
@@ -1708,14 +1740,17 @@ loop:   for(int x=0, offset=0; x<nCodePoints; x++, offset+=len) {
         if (matchRoot instanceof Slice) {
             root = BnM.optimize(matchRoot);
             if (root == matchRoot) {
-                root = hasSupplementary ? new StartS(matchRoot) : new Start(matchRoot);
+                root = hasSupplementary ? new StartS(matchRoot) : newStart(matchRoot);
             }
         } else if (matchRoot instanceof Begin || matchRoot instanceof First) {
             root = matchRoot;
         } else {
-            root = hasSupplementary ? new StartS(matchRoot) : new Start(matchRoot);
+            root = hasSupplementary ? new StartS(matchRoot) : newStart(matchRoot);
         }
 
+        if (has(DFA) && !has(CANON_EQ) && !hasSupplementary)
+            dfa = Dfa.build(matchRoot, root);
+
         // Release temporary storage
         temp = null;
         buffer = null;
@@ -3513,6 +3548,158 @@ loop:   for(int x=0, offset=0; x<nCodePoints; x++, offset+=len) {
         }
     }
 
+    /**
+     * Returns the Start node for an unanchored search of a pattern without
+     * supplementary characters. If every match must begin with a literal of
+     * four or more characters, the candidates are found with Boyer-Moore;
+     * otherwise, if the characters a match can begin with are known, the
+     * positions at other characters are skipped without entering the
+     * backtracking nodes.
+     */
+    private static Start newStart(Node node) {
+        Node lead = node;
+        while (lead instanceof GroupHead)
+            lead = lead.next;
+        // A leading Slice that is not inside a group has already been
+        // given to BnM by compile().
+        if (lead != node) {
+            Node bnm = BnM.optimize(lead);
+            if (bnm instanceof BnM)
+                return new StartBnM(node, (BnM) bnm);
+        }
+        boolean[] first = new boolean[257];
+        if (firstChars(node, first)) {
+            for (int c = 0; c < first.length; c++) {
+                if (!first[c])
+                    return new StartChars(node, first);
+            }
+        }
+        return new Start(node);
+    }
+
+    /**
+     * Marks in {@code first} every character that a match starting at
+     * {@code node} can begin with. The last element stands for all
+     * characters above Latin-1. Returns false if this cannot be told from
+     * the leading nodes, for instance because they can match the empty
+     * string.
+     */
+    private static boolean firstChars(Node node, boolean[] first) {
+        while (node instanceof GroupHead)
+            node = node.next;
+        if (node instanceof Slice) {
+            addFirst(first, ((Slice) node).buffer[0]);
+            return true;
+        } else if (node instanceof SliceI) {
+            int c = ((SliceI) node).buffer[0];
+            addFirst(first, c);
+            if (ASCII.isLower(c))
+                addFirst(first, ASCII.toUpper(c));
+            return true;
+        } else if (node instanceof Single) {
+            addFirst(first, ((Single) node).c);
+            return true;
+        } else if (node instanceof SingleI) {
+            addFirst(first, ((SingleI) node).lower);
+            addFirst(first, ((SingleI) node).upper);
+            return true;
+        } else if (node instanceof BitClass) {
+            boolean[] bits = ((BitClass) node).bits;
+            for (int c = 0; c < bits.length; c++)
+                first[c] |= bits[c];
+            return true;
+        } else if (node instanceof CharProperty) {
+            // Any other property: probe Latin-1 and assume the rest.
+            CharProperty cp = (CharProperty) node;
+            for (int c = 0; c < 256; c++)
+                first[c] |= cp.isSatisfiedBy(c);
+            first[256] = true;
+            return true;
+        } else if (node instanceof Curly) {
+            Curly curly = (Curly) node;
+            return curly.cmin > 0 && firstChars(curly.atom, first);
+        } else if (node instanceof GroupCurly) {
+            GroupCurly curly = (GroupCurly) node;
+            return curly.cmin > 0 && firstChars(curly.atom, first);
+        } else if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            for (int n = 0; n < branch.size; n++) {
+                if (branch.atoms[n] == null || !firstChars(branch.atoms[n], first))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void addFirst(boolean[] first, int c) {
+        first[c < 256 ? c : 256] = true;
+    }
+
+    /**
+     * Start node for patterns that can only begin with certain characters.
+     * Positions at any other character are skipped without trying a match.
+     */
+    static final class StartChars extends Start {
+        // Indexed by Latin-1 character; the last element covers the rest.
+        final boolean[] first;
+        StartChars(Node node, boolean[] first) {
+            super(node);
+            this.first = first;
+        }
+        boolean match(Matcher matcher, int i, CharSequence seq) {
+            if (i > matcher.to - minLength) {
+                matcher.hitEnd = true;
+                return false;
+            }
+            // A match consumes at least its first character.
+            int guard = Math.min(matcher.to - minLength, matcher.to - 1);
+            boolean[] first = this.first;
+            for (; i <= guard; i++) {
+                char ch = seq.charAt(i);
+                if (!first[ch < 256 ? ch : 256])
+                    continue;
+                if (next.match(matcher, i, seq)) {
+                    matcher.first = i;
+                    matcher.groups[0] = matcher.first;
+                    matcher.groups[1] = matcher.last;
+                    return true;
+                }
+            }
+            matcher.hitEnd = true;
+            return false;
+        }
+    }
+
+    /**
+     * Start node for patterns whose matches begin with a literal inside
+     * one or more groups, such as {@code "(ERROR: )(.*)"}. The literal is
+     * found with Boyer-Moore and the whole pattern is then tried there.
+     */
+    static final class StartBnM extends Start {
+        final BnM literal;
+        StartBnM(Node node, BnM literal) {
+            super(node);
+            this.literal = literal;
+        }
+        boolean match(Matcher matcher, int i, CharSequence seq) {
+            int guard = matcher.to - minLength;
+            for (; i <= guard; i++) {
+                i = literal.indexOf(seq, i, matcher.to);
+                if (i < 0 || i > guard)
+                    break;
+                if (next.match(matcher, i, seq)) {
+                    matcher.first = i;
+                    matcher.groups[0] = matcher.first;
+                    matcher.groups[1] = matcher.last;
+                    return true;
+                }
+            }
+            matcher.hitEnd = true;
+            return false;
+        }
+    }
+
     /**
      * Node to anchor at the beginning of input. This object implements the
      * match for a \A sequence, and the caret anchor will use this if not in
@@ -5447,10 +5634,14 @@ NEXT:       for (i = patternLength; i > 0; i--) {
             this.optoSft = optoSft;
             this.next = next;
         }
-        boolean match(Matcher matcher, int i, CharSequence seq) {
+        /**
+         * Returns the index of the first occurrence of the literal at or
+         * after {@code i} that ends at or before {@code to}, or -1.
+         */
+        int indexOf(CharSequence seq, int i, int to) {
             int[] src = buffer;
             int patternLength = src.length;
-            int last = matcher.to - patternLength;
+            int last = to - patternLength;
 
             // Loop over all possible match positions in text
 NEXT:       while (i <= last) {
@@ -5464,6 +5655,13 @@ NEXT:       while (i <= last) {
                         continue NEXT;
                     }
                 }
+                return i;
+            }
+            return -1;
+        }
+        boolean match(Matcher matcher, int i, CharSequence seq) {
+            int patternLength = buffer.length;
+            while ((i = indexOf(seq, i, matcher.to)) >= 0) {
                 // Entire pattern matched starting at i
                 matcher.first = i;
                 boolean ret = next.match(matcher, i + patternLength, seq);
@@ -5537,6 +5735,433 @@ NEXT:       while (i <= last) {
         }
     }
 
+    /**
+     * A lazily built deterministic automaton for patterns compiled with the
+     * {@link #DFA} flag. The node tree is first translated to an NFA whose
+     * states either test one character or split into two; only the
+     * character tests and whether the match state was reached are kept in
+     * a DFA state. DFA states are created on first use and shared by all
+     * matchers of the pattern. When more than MAX_STATES have been created
+     * the cache starts over, so memory stays bounded however the input
+     * drives the automaton.
+     *
+     * The automaton answers whether a match is possible and, for a find,
+     * the first index at which one starts; groups and the match end always
+     * come from the backtracking engine. Transitions are computed under the
+     * lock the first time they are taken and read without it afterwards.
+     */
+    static final class Dfa {
+        private static final int MAX_NFA_STATES = 4096;
+        private static final int MAX_STATES = 256;
+        // Largest counted repetition that is expanded into NFA states.
+        private static final int MAX_COUNT = 100;
+        // Size of the per-state cache of non-ASCII transitions.
+        private static final int WIDE_CACHE_SIZE = 32;
+
+        // Results of run().
+        private static final int NO_MATCH = 0;
+        private static final int NO_MATCH_HIT_END = 1;
+        private static final int MATCH = 2;
+        private static final int UNKNOWN = 3;
+
+        // NFA state i tests preds[i] and goes to out1[i], or, if preds[i] is
+        // null, splits to out1[i] and out2[i]. No state leaves matchState.
+        private CharProperty[] preds = new CharProperty[16];
+        private int[] out1 = new int[16];
+        private int[] out2 = new int[16];
+        private int size;
+        private final int matchState;
+        private int startState;
+
+        // Whether find may start the backtracking engine at the index
+        // found by matchStart(). Only true for Start nodes that try every
+        // index, whose hitEnd is then the same.
+        private boolean findsStart;
+
+        // Guarded by this.
+        private final HashMap<Key, State> states = new HashMap<>();
+        private final Key probe = new Key();
+        private int[] marks;
+        private int generation;
+        private int[] stack;
+        private int[] found;
+
+        private volatile State anchoredStart;
+        private volatile State unanchoredStart;
+
+        /**
+         * A set of character-testing NFA states. The transitions for
+         * ASCII characters are cached in next, and the last ones taken
+         * for other characters in wide.
+         */
+        static final class State {
+            final int[] nfa;
+            final boolean match;
+            final boolean unanchored;
+            final State[] next = new State[128];
+            final Transition[] wide = new Transition[WIDE_CACHE_SIZE];
+
+            State(int[] nfa, boolean match, boolean unanchored) {
+                this.nfa = nfa;
+                this.match = match;
+                this.unanchored = unanchored;
+            }
+        }
+
+        /**
+         * A cached transition on a non-ASCII character. Immutable, so it
+         * can be read from wide without the lock.
+         */
+        static final class Transition {
+            final char c;
+            final State to;
+
+            Transition(char c, State to) {
+                this.c = c;
+                this.to = to;
+            }
+        }
+
+        /**
+         * The key a State is interned by. The probe key points into found,
+         * so looking up a state that exists allocates nothing.
+         */
+        static final class Key {
+            int[] nfa;
+            int length;
+            boolean match;
+            boolean unanchored;
+
+            Key set(int[] nfa, int length, boolean match, boolean unanchored) {
+                this.nfa = nfa;
+                this.length = length;
+                this.match = match;
+                this.unanchored = unanchored;
+                return this;
+            }
+
+            public int hashCode() {
+                int h = 1;
+                for (int k = 0; k < length; k++)
+                    h = 31 * h + nfa[k];
+                return h * 4 + (match ? 2 : 0) + (unanchored ? 1 : 0);
+            }
+
+            public boolean equals(Object o) {
+                if (!(o instanceof Key))
+                    return false;
+                Key key = (Key) o;
+                if (length != key.length || match != key.match
+                    || unanchored != key.unanchored)
+                    return false;
+                for (int k = 0; k < length; k++) {
+                    if (nfa[k] != key.nfa[k])
+                        return false;
+                }
+                return true;
+            }
+        }
+
+        private Dfa() {
+            matchState = add(null, -1, -1);
+        }
+
+        /**
+         * Returns the automaton for the node tree at matchRoot, or null if
+         * the tree uses a construct the automaton cannot express. root is
+         * the node find starts at.
+         */
+        static Dfa build(Node matchRoot, Node root) {
+            Dfa dfa = new Dfa();
+            int start = dfa.build(matchRoot, null, -1);
+            if (start < 0)
+                return null;
+            dfa.startState = start;
+            dfa.findsStart = root.getClass() == Start.class
+                || root instanceof StartChars;
+            dfa.marks = new int[dfa.size];
+            dfa.stack = new int[dfa.size];
+            dfa.found = new int[dfa.size];
+            synchronized (dfa) {
+                dfa.reset();
+            }
+            return dfa;
+        }
+
+        private int add(CharProperty pred, int o1, int o2) {
+            if (size == MAX_NFA_STATES)
+                return -1;
+            if (size == preds.length) {
+                preds = Arrays.copyOf(preds, size * 2);
+                out1 = Arrays.copyOf(out1, size * 2);
+                out2 = Arrays.copyOf(out2, size * 2);
+            }
+            preds[size] = pred;
+            out1[size] = o1;
+            out2[size] = o2;
+            return size++;
+        }
+
+        /**
+         * Adds the NFA states for the node chain from node up to, but not
+         * including, stop and returns the first of them. Reaching stop or
+         * the accept node continues at out. Returns -1 if the chain cannot
+         * be expressed.
+         */
+        private int build(Node node, Node stop, int out) {
+            if (node == stop || node == accept)
+                return out;
+            if (node instanceof LastNode)
+                return matchState;
+            if (node instanceof GroupHead || node instanceof GroupTail
+                || node instanceof BranchConn)
+                return build(node.next, stop, out);
+            if (node instanceof CharProperty) {
+                int next = build(node.next, stop, out);
+                return next < 0 ? -1 : add((CharProperty) node, next, -1);
+            }
+            if (node instanceof Slice || node instanceof SliceI
+                || node instanceof SliceU) {
+                int next = build(node.next, stop, out);
+                int[] buf = ((SliceNode) node).buffer;
+                for (int j = buf.length - 1; j >= 0 && next >= 0; j--) {
+                    CharProperty pred;
+                    if (node instanceof Slice)
+                        pred = new Single(buf[j]);
+                    else if (node instanceof SliceI)
+                        pred = new SingleI(buf[j], ASCII.toUpper(buf[j]));
+                    else
+                        pred = new SingleU(buf[j]);
+                    next = add(pred, next, -1);
+                }
+                return next;
+            }
+            if (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                int next = build(branch.conn.next, stop, out);
+                if (next < 0)
+                    return -1;
+                int alt = -1;
+                for (int n = branch.size - 1; n >= 0; n--) {
+                    int atom = branch.atoms[n] == null
+                        ? next : build(branch.atoms[n], branch.conn, next);
+                    if (atom < 0)
+                        return -1;
+                    alt = (alt < 0) ? atom : add(null, atom, alt);
+                    if (alt < 0)
+                        return -1;
+                }
+                return alt;
+            }
+            if (node instanceof Ques) {
+                Ques ques = (Ques) node;
+                if (ques.type != GREEDY && ques.type != LAZY)
+                    return -1;
+                int next = build(node.next, stop, out);
+                int atom = next < 0 ? -1 : build(ques.atom, accept, next);
+                return atom < 0 ? -1 : add(null, atom, next);
+            }
+            if (node instanceof Curly) {
+                Curly curly = (Curly) node;
+                if (curly.type != GREEDY && curly.type != LAZY)
+                    return -1;
+                int next = build(node.next, stop, out);
+                return next < 0 ? -1
+                    : repeat(curly.atom, accept, curly.cmin, curly.cmax, next);
+            }
+            if (node instanceof GroupCurly) {
+                GroupCurly curly = (GroupCurly) node;
+                if (curly.type != GREEDY && curly.type != LAZY)
+                    return -1;
+                int next = build(node.next, stop, out);
+                return next < 0 ? -1
+                    : repeat(curly.atom, accept, curly.cmin, curly.cmax, next);
+            }
+            if (node instanceof Prolog) {
+                Loop loop = ((Prolog) node).loop;
+                int next = build(loop.next, stop, out);
+                return next < 0 ? -1
+                    : repeat(loop.body, loop, loop.cmin, loop.cmax, next);
+            }
+            // Anchors, boundaries, back references, lookaround and
+            // possessive or independent groups.
+            return -1;
+        }
+
+        private int repeat(Node atom, Node stop, int cmin, int cmax, int out) {
+            if (cmin > MAX_COUNT || (cmax != MAX_REPS && cmax > MAX_COUNT))
+                return -1;
+            int next;
+            if (cmax == MAX_REPS) {
+                next = add(null, -1, out);
+                if (next < 0)
+                    return -1;
+                int body = build(atom, stop, next);
+                if (body < 0)
+                    return -1;
+                out1[next] = body;
+            } else {
+                next = out;
+                for (int k = cmin; k < cmax && next >= 0; k++) {
+                    int body = build(atom, stop, next);
+                    next = body < 0 ? -1 : add(null, body, out);
+                }
+            }
+            for (int k = 0; k < cmin && next >= 0; k++)
+                next = build(atom, stop, next);
+            return next;
+        }
+
+        /**
+         * Returns true if no match can be found from index from in the
+         * current region of the matcher, setting its hitEnd as the
+         * backtracking engine would have. Returns false if a match is
+         * possible or the input has surrogates, in which case the
+         * backtracking engine must decide.
+         */
+        boolean rejects(Matcher matcher, int from, boolean anchored) {
+            int result = run(matcher, from,
+                anchored ? anchoredStart : unanchoredStart,
+                matcher.acceptMode == Matcher.ENDANCHOR);
+            if (result == MATCH || result == UNKNOWN)
+                return false;
+            matcher.hitEnd = result == NO_MATCH_HIT_END;
+            return true;
+        }
+
+        /**
+         * Returns the index at or after from at which find should start
+         * the backtracking engine, or -1 if no match can be found, in which
+         * case hitEnd is set as the backtracking engine would have.
+         * Otherwise the index is the first one a match can start at, and
+         * hitEnd is set if a failed attempt at an earlier index would have
+         * reached the end of input. Each index is tried with the anchored
+         * automaton, so this takes at most quadratic time in the distance
+         * to the match, however much backtracking the attempts would take.
+         */
+        int matchStart(Matcher matcher, int from) {
+            if (rejects(matcher, from, false))
+                return -1;
+            if (!findsStart)
+                return from;
+            boolean hitEnd = false;
+            for (int i = from; i <= matcher.to; i++) {
+                int result = run(matcher, i, anchoredStart, false);
+                if (result == MATCH || result == UNKNOWN) {
+                    matcher.hitEnd = hitEnd;
+                    return i;
+                }
+                hitEnd |= result == NO_MATCH_HIT_END;
+            }
+            // Not reached: the unanchored automaton found a match.
+            return from;
+        }
+
+        /**
+         * Runs the automaton from state s over the current region of the
+         * matcher, starting at index from. Returns MATCH as soon as a match
+         * ends at an acceptable index, UNKNOWN at a surrogate, and
+         * otherwise whether the input ran out with some path still alive.
+         */
+        private int run(Matcher matcher, int from, State s, boolean endAnchor) {
+            CharSequence seq = matcher.text;
+            int to = matcher.to;
+            for (int i = from; ; i++) {
+                if (s.match && (!endAnchor || i == to))
+                    return MATCH;
+                if (i >= to || (!s.unanchored && s.nfa.length == 0))
+                    break;
+                char c = seq.charAt(i);
+                if (Character.isSurrogate(c))
+                    return UNKNOWN;
+                State t;
+                if (c < 128) {
+                    t = s.next[c];
+                } else {
+                    Transition wide = s.wide[c & (WIDE_CACHE_SIZE - 1)];
+                    t = (wide != null && wide.c == c) ? wide.to : null;
+                }
+                s = (t != null) ? t : step(s, c);
+            }
+            // A failed search always ends at the end of input. A failed
+            // anchored match reached it if some path was still alive.
+            return (s.unanchored || s.nfa.length != 0)
+                ? NO_MATCH_HIT_END : NO_MATCH;
+        }
+
+        private synchronized State step(State s, char c) {
+            int n = 0;
+            generation++;
+            for (int q : s.nfa) {
+                if (preds[q].isSatisfiedBy(c))
+                    n = closure(out1[q], n);
+            }
+            if (s.unanchored)
+                n = closure(startState, n);
+            State t = intern(n, marks[matchState] == generation, s.unanchored);
+            if (c < 128)
+                s.next[c] = t;
+            else
+                s.wide[c & (WIDE_CACHE_SIZE - 1)] = new Transition(c, t);
+            return t;
+        }
+
+        /**
+         * Marks the states reachable from q without reading a character
+         * and appends the character tests among them to found.
+         */
+        private int closure(int q, int n) {
+            int sp = 0;
+            if (marks[q] != generation) {
+                marks[q] = generation;
+                stack[sp++] = q;
+            }
+            while (sp > 0) {
+                q = stack[--sp];
+                if (preds[q] != null) {
+                    found[n++] = q;
+                } else if (q != matchState) {
+                    if (marks[out1[q]] != generation) {
+                        marks[out1[q]] = generation;
+                        stack[sp++] = out1[q];
+                    }
+                    if (marks[out2[q]] != generation) {
+                        marks[out2[q]] = generation;
+                        stack[sp++] = out2[q];
+                    }
+                }
+            }
+            return n;
+        }
+
+        private State intern(int n, boolean match, boolean unanchored) {
+            Arrays.sort(found, 0, n);
+            State state = states.get(probe.set(found, n, match, unanchored));
+            if (state != null)
+                return state;
+            int[] nfa = Arrays.copyOf(found, n);
+            if (states.size() >= MAX_STATES)
+                reset();
+            state = new State(nfa, match, unanchored);
+            states.put(new Key().set(nfa, n, match, unanchored), state);
+            return state;
+        }
+
+        /**
+         * Forgets all DFA states. Matchers still holding old states keep
+         * working with them, since a transition only depends on the NFA
+         * states in its source.
+         */
+        private void reset() {
+            states.clear();
+            generation++;
+            int n = closure(startState, 0);
+            boolean match = marks[matchState] == generation;
+            anchoredStart = intern(n, match, false);
+            unanchoredStart = intern(n, match, true);
+        }
+    }
+
 ///////////////////////////////////////////////////////////////////////////////
 ///////////////////////////////////////////////////////////////////////////////
 
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsr166;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimingWheelScheduledExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimingWheelScheduledExecutorTest extends JSR166TestCase {
+
+    TimingWheelScheduledExecutor newExecutor(int workerThreads) {
+        return new TimingWheelScheduledExecutor(workerThreads, 1, MILLISECONDS,
+                                                Executors.defaultThreadFactory());
+    }
+
+    /**
+     * execute successfully executes a runnable
+     */
+    public void testExecute() throws InterruptedException {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        try (PoolCleaner cleaner = cleaner(p)) {
+            final CountDownLatch done = new CountDownLatch(1);
+            p.execute(new CheckedRunnable() {
+                public void realRun() { done.countDown(); }});
+            await(done);
+        }
+    }
+
+    /**
+     * delayed schedule of callable successfully executes after delay
+     */
+    public void testScheduleCallable() throws Exception {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        try (PoolCleaner cleaner = cleaner(p)) {
+            final long startTime = System.nanoTime();
+            Callable<Boolean> task = new CheckedCallable<Boolean>() {
+                public Boolean realCall() {
+                    assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+                    return Boolean.TRUE;
+                }};
+            Future<Boolean> f = p.schedule(task, timeoutMillis(), MILLISECONDS);
+            assertSame(Boolean.TRUE, f.get());
+            assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+        }
+    }
+
+    /**
+     * many tasks with distinct delays each run no earlier than their delay
+     */
+    public void testScheduleManyDelays() throws Exception {
+        final TimingWheelScheduledExecutor p = newExecutor(2);
+        try (PoolCleaner cleaner = cleaner(p)) {
+            final int n = 100;
+            final long startTime = System.nanoTime();
+            final CountDownLatch done = new CountDownLatch(n);
+            for (int i = 0; i < n; i++) {
+                final long delay = i % 37;
+                p.schedule(new CheckedRunnable() {
+                    public void realRun() {
+                        assertTrue(millisElapsedSince(startTime) >= delay);
+                        done.countDown();
+                    }}, delay, MILLISECONDS);
+            }
+            await(done);
+        }
+    }
+
+    /**
+     * tasks due beyond the first level of the wheel are cascaded down
+     * and run after their delay
+     */
+    public void testScheduleBeyondFirstLevel() throws Exception {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        try (PoolCleaner cleaner = cleaner(p)) {
+            final long startTime = System.nanoTime();
+            final CountDownLatch done = new CountDownLatch(2);
+            for (final long delay : new long[] { 300, 600 }) {
+                p.schedule(new CheckedRunnable() {
+                    public void realRun() {
+                        assertTrue(millisElapsedSince(startTime) >= delay);
+                        done.countDown();
+                    }}, delay, MILLISECONDS);
+            }
+            await(done);
+        }
+    }
+
+    /**
+     * scheduleAtFixedRate executes runnable repeatedly until cancelled
+     */
+    public void testFixedRate() throws Exception {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        try (PoolCleaner cleaner = cleaner(p)) {
+            final CountDownLatch done = new CountDownLatch(3);
+            ScheduledFuture<?> f = p.scheduleAtFixedRate(new CheckedRunnable() {
+                public void realRun() { done.countDown(); }},
+                0, timeoutMillis(), MILLISECONDS);
+            await(done);
+            assertTrue(f.cancel(true));
+            assertTrue(f.isCancelled());
+        }
+    }
+
+    /**
+     * scheduleWithFixedDelay executes runnable repeatedly until cancelled
+     */
+    public void testFixedDelay() throws Exception {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        try (PoolCleaner cleaner = cleaner(p)) {
+            final CountDownLatch done = new CountDownLatch(3);
+            ScheduledFuture<?> f = p.scheduleWithFixedDelay(new CheckedRunnable() {
+                public void realRun() { done.countDown(); }},
+                timeoutMillis(), timeoutMillis(), MILLISECONDS);
+            await(done);
+            assertTrue(f.cancel(true));
+            assertTrue(f.isCancelled());
+        }
+    }
+
+    /**
+     * a cancelled task does not run
+     */
+    public void testCancel() throws Exception {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        try (PoolCleaner cleaner = cleaner(p)) {
+            final AtomicInteger runs = new AtomicInteger();
+            ScheduledFuture<?> f = p.schedule(new Runnable() {
+                public void run() { runs.incrementAndGet(); }},
+                timeoutMillis(), MILLISECONDS);
+            assertTrue(f.cancel(false));
+            assertTrue(f.isCancelled());
+            Future<?> later = p.schedule(new NoOpRunnable(),
+                                         2 * timeoutMillis(), MILLISECONDS);
+            later.get();
+            assertEquals(0, runs.get());
+        }
+    }
+
+    /**
+     * schedule throws RejectedExecutionException if shutdown
+     */
+    public void testSchedule_RejectedExecutionException() {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        try (PoolCleaner cleaner = cleaner(p)) {
+            p.shutdown();
+            try {
+                p.schedule(new NoOpRunnable(), MEDIUM_DELAY_MS, MILLISECONDS);
+                shouldThrow();
+            } catch (RejectedExecutionException success) {}
+            try {
+                p.execute(new NoOpRunnable());
+                shouldThrow();
+            } catch (RejectedExecutionException success) {}
+        }
+    }
+
+    /**
+     * shutdown lets delayed tasks run but cancels periodic tasks
+     */
+    public void testShutdown_delayedAndPeriodicTasks() throws Exception {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        ScheduledFuture<?> delayed = p.schedule(new CheckedRunnable() {
+            public void realRun() { done.countDown(); }},
+            timeoutMillis(), MILLISECONDS);
+        ScheduledFuture<?> periodic = p.scheduleAtFixedRate(
+            new NoOpRunnable(), LONG_DELAY_MS, LONG_DELAY_MS, MILLISECONDS);
+        p.shutdown();
+        assertTrue(p.isShutdown());
+        assertTrue(periodic.isCancelled());
+        await(done);
+        assertTrue(p.awaitTermination(LONG_DELAY_MS, MILLISECONDS));
+        assertTrue(p.isTerminated());
+        assertTrue(delayed.isDone());
+        assertFalse(delayed.isCancelled());
+    }
+
+    /**
+     * every task accepted before shutdown runs, even while shutdown is racing
+     * with submissions that have no delay
+     */
+    public void testShutdown_acceptedTasksRun() throws Exception {
+        for (int round = 0; round < 100; round++) {
+            final TimingWheelScheduledExecutor p = newExecutor(2);
+            final AtomicInteger accepted = new AtomicInteger();
+            final AtomicInteger ran = new AtomicInteger();
+            final CountDownLatch started = new CountDownLatch(2);
+            final Runnable task = new Runnable() {
+                public void run() { ran.getAndIncrement(); }};
+            List<Thread> submitters = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                submitters.add(newStartedThread(new CheckedRunnable() {
+                    public void realRun() {
+                        started.countDown();
+                        try {
+                            for (;;) {
+                                p.execute(task);
+                                accepted.getAndIncrement();
+                            }
+                        } catch (RejectedExecutionException success) {}
+                    }}));
+            }
+            await(started);
+            p.shutdown();
+            for (Thread t : submitters)
+                awaitTermination(t);
+            assertTrue(p.awaitTermination(LONG_DELAY_MS, MILLISECONDS));
+            assertEquals(accepted.get(), ran.get());
+        }
+    }
+
+    /**
+     * shutdownNow returns a list containing tasks that were not run
+     */
+    public void testShutdownNow_delayedTasks() throws InterruptedException {
+        final TimingWheelScheduledExecutor p = newExecutor(1);
+        List<ScheduledFuture<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Runnable r = new NoOpRunnable();
+            tasks.add(p.schedule(r, 9, SECONDS));
+            tasks.add(p.scheduleAtFixedRate(r, 9, 9, SECONDS));
+            tasks.add(p.scheduleWithFixedDelay(r, 9, 9, SECONDS));
+        }
+        List<Runnable> queuedTasks = p.shutdownNow();
+        assertTrue(p.isShutdown());
+        assertEquals(new HashSet<Object>(tasks), new HashSet<Object>(queuedTasks));
+        for (ScheduledFuture<?> task : tasks) {
+            assertFalse(task.isDone());
+            assertFalse(task.isCancelled());
+        }
+        assertTrue(p.awaitTermination(LONG_DELAY_MS, MILLISECONDS));
+        assertTrue(p.isTerminated());
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.java.util.regex;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles random patterns with and without {@link Pattern#DFA} and checks that
+ * find, matches, lookingAt, finds in a region, split, groups, hitEnd and
+ * requireEnd all give the same results on random inputs.
+ */
+public class PatternDfaTest extends TestCase {
+    private static final String[] ATOMS = {
+        "a", "b", "c", "ab", "abc", "abcd", "ERROR", "[ab]", "[^a]", ".", "\\d", "\\w", "\\s",
+        "(a|b)", "(a|aa)", "(?:ab|cd)", "(ab)", "(?i:ab)", "A", "B", "\\.", "x", "\u00e9",
+        "[a-c\u00e9]", "(abcd|abce)",
+    };
+    private static final String[] QUANTIFIERS = {
+        "", "", "", "*", "+", "?", "*?", "+?", "??", "{2}", "{1,3}", "{0,2}", "{2,}", "++", "*+",
+    };
+    // Groups of generated subpatterns repeat a bounded number of times, so that no unbounded
+    // repetition nests in another and backtracking stays polynomial.
+    private static final String[] GROUP_QUANTIFIERS = { "", "", "?", "??", "{2}", "{0,2}" };
+    private static final String[] ANCHORS = { "^", "$", "\\b" };
+    private static final String INPUT_CHARS = "abcdABxE.R\u00e9 1\n";
+    private static final int[] FLAGS = {
+        0,
+        Pattern.CASE_INSENSITIVE,
+        Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE,
+        Pattern.MULTILINE,
+        Pattern.DOTALL,
+    };
+
+    // Patterns that backtrack exponentially or only match after a prefix, and log lines.
+    private static final String[] CORPUS_PATTERNS = {
+        "(a|aa)+b",
+        "(a|aa)+c",
+        "(a+)+b",
+        "(\\w+\\s?)+:",
+        "(ERROR|FATAL): (\\w+) failed",
+        "(?i)anr in (\\S+)",
+        "took (\\d+) ms",
+        "[A-Z]\\w*Exception(: .*)?",
+        "(?:ab)*?b{2,}",
+        "((a)|b)+c",
+        "a{0,3}b{1,4}a?",
+        "x*",
+        "\\bfoo",
+    };
+    private static final String[] CORPUS_LINES = {
+        "10-18 23:42:52.123  1234  1250 I ActivityManager: Start proc 4321:com.android.systemui/u0a42",
+        "10-18 23:42:52.180  1234  1266 W WindowManager: Attempted to remove non-existing token",
+        "10-18 23:42:52.201  4321  4321 D SystemUI: onConfigurationChanged: took 12 ms",
+        "10-18 23:42:52.317  1234  1250 E ActivityManager: ANR in com.example.app",
+        "java.lang.IllegalStateException: ERROR: bind failed",
+        "aaaaaaaaaaaaaaaaaaaaaaaa",
+        "abababbb aab ba",
+        "aaaaaaaaaaaax ac",
+        "",
+    };
+
+    private static final int PATTERNS = 10000;
+    private static final int INPUTS_PER_PATTERN = 25;
+
+    private Random mRandom;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(0);
+    }
+
+    public void testSameResultsAsBacktracking() throws Exception {
+        for (int p = 0; p < PATTERNS; p++) {
+            final String regex = newRegex(0);
+            final int flags = FLAGS[mRandom.nextInt(FLAGS.length)];
+            final Pattern plain;
+            try {
+                plain = Pattern.compile(regex, flags);
+            } catch (PatternSyntaxException e) {
+                continue;
+            }
+            final Pattern dfa = Pattern.compile(regex, flags | Pattern.DFA);
+            for (int i = 0; i < INPUTS_PER_PATTERN; i++) {
+                final String input = newInput();
+                assertEquals("/" + regex + "/ flags=" + flags + " on \"" + input + "\"",
+                        describe(plain, input), describe(dfa, input));
+            }
+        }
+    }
+
+    public void testCorpusSameResultsAsBacktracking() throws Exception {
+        for (String regex : CORPUS_PATTERNS) {
+            final Pattern plain = Pattern.compile(regex);
+            final Pattern dfa = Pattern.compile(regex, Pattern.DFA);
+            for (String line : CORPUS_LINES) {
+                assertEquals("/" + regex + "/ on \"" + line + "\"",
+                        describe(plain, line), describe(dfa, line));
+            }
+            for (int i = 0; i < 200; i++) {
+                final char[] chars = new char[mRandom.nextInt(12)];
+                for (int j = 0; j < chars.length; j++) {
+                    chars[j] = "ab: 1E\u00e9\n".charAt(mRandom.nextInt(8));
+                }
+                final String input = new String(chars);
+                assertEquals("/" + regex + "/ on \"" + input + "\"",
+                        describe(plain, input), describe(dfa, input));
+            }
+        }
+    }
+
+    public void testSameResultsOnLongInputs() throws Exception {
+        // Long enough for the automaton to revisit states and to leave its ASCII tables.
+        final Pattern plain = Pattern.compile("(a|b)*abb(c|\u00e9)+");
+        final Pattern dfa = Pattern.compile("(a|b)*abb(c|\u00e9)+", Pattern.DFA);
+        final StringBuilder input = new StringBuilder();
+        for (int i = 1; i <= 2000; i++) {
+            input.append("ab\u00e9c".charAt(mRandom.nextInt(4)));
+            if (i % 100 == 0) {
+                assertEquals(describe(plain, input.toString()), describe(dfa, input.toString()));
+            }
+        }
+    }
+
+    /**
+     * Describes every result the matcher gives for the input: each match found with its
+     * groups, then matches, lookingAt, a find in a region starting at index 1, and split,
+     * each with hitEnd and requireEnd.
+     */
+    private static String describe(Pattern pattern, String input) {
+        final StringBuilder sb = new StringBuilder();
+        final Matcher m = pattern.matcher(input);
+        while (m.find()) {
+            appendMatch(sb, m);
+        }
+        appendEnds(sb.append(" find"), m);
+
+        m.reset();
+        if (m.matches()) {
+            appendMatch(sb.append(" matches "), m);
+        }
+        appendEnds(sb.append(" matches"), m);
+
+        m.reset();
+        if (m.lookingAt()) {
+            appendMatch(sb.append(" lookingAt "), m);
+        }
+        appendEnds(sb.append(" lookingAt"), m);
+
+        m.reset();
+        m.region(Math.min(1, input.length()), input.length());
+        if (m.find()) {
+            appendMatch(sb.append(" region "), m);
+        }
+        appendEnds(sb.append(" region"), m);
+
+        sb.append(" split=").append(Arrays.toString(pattern.split(input)));
+        return sb.toString();
+    }
+
+    private static void appendMatch(StringBuilder sb, Matcher m) {
+        sb.append(m.start()).append('-').append(m.end());
+        for (int g = 1; g <= m.groupCount(); g++) {
+            sb.append(',').append(m.start(g)).append(':').append(m.end(g));
+        }
+        sb.append(';');
+    }
+
+    private static void appendEnds(StringBuilder sb, Matcher m) {
+        sb.append(" hitEnd=").append(m.hitEnd()).append(" requireEnd=").append(m.requireEnd());
+    }
+
+    private String newRegex(int depth) {
+        final StringBuilder sb = new StringBuilder();
+        for (int n = 1 + mRandom.nextInt(4); n > 0; n--) {
+            final int kind = mRandom.nextInt(10);
+            if (kind == 3) {
+                sb.append(ANCHORS[mRandom.nextInt(ANCHORS.length)]);
+                continue;
+            }
+            if (kind < 3 && depth < 2) {
+                if (kind == 0) {
+                    sb.append('(').append(newRegex(depth + 1)).append(')');
+                } else if (kind == 1) {
+                    sb.append("(?:").append(newRegex(depth + 1)).append('|')
+                            .append(newRegex(depth + 1)).append(')');
+                } else {
+                    sb.append('(').append(newRegex(depth + 1)).append("|)");
+                }
+                sb.append(GROUP_QUANTIFIERS[mRandom.nextInt(GROUP_QUANTIFIERS.length)]);
+            } else {
+                sb.append(ATOMS[mRandom.nextInt(ATOMS.length)]);
+                sb.append(QUANTIFIERS[mRandom.nextInt(QUANTIFIERS.length)]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private String newInput() {
+        final StringBuilder sb = new StringBuilder();
+        for (int n = mRandom.nextInt(14); n > 0; n--) {
+            sb.append(INPUT_CHARS.charAt(mRandom.nextInt(INPUT_CHARS.length())));
+        }
+        if (mRandom.nextInt(5) == 0) {
+            sb.insert(mRandom.nextInt(sb.length() + 1), "ERROR: abcd");
+        }
+        return sb.toString();
+    }
+}